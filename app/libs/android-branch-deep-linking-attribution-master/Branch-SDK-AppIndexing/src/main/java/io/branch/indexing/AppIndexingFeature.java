@@ -0,0 +1,24 @@
+package io.branch.indexing;
+
+import android.content.Context;
+
+import io.branch.referral.BranchFeatures;
+import io.branch.referral.util.LinkProperties;
+
+/**
+ * <p>
+ * Entry point of the app indexing feature module, found at runtime by {@link BranchFeatures}
+ * when the app includes {@code library-appindexing}.
+ * </p>
+ */
+public class AppIndexingFeature implements BranchFeatures.AppIndexing {
+    @Override
+    public void addToIndex(Context context, BranchUniversalObject buo, LinkProperties linkProperties) {
+        AppIndexingHelper.addToAppIndex(context, buo, linkProperties);
+    }
+
+    @Override
+    public void removeFromIndex(Context context, BranchUniversalObject buo, LinkProperties linkProperties) {
+        AppIndexingHelper.removeFromFirebaseLocalIndex(context, buo, linkProperties);
+    }
+}
@@ -14,6 +14,7 @@ import com.google.firebase.appindexing.builders.Indexables;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 
+import io.branch.referral.IntegrationRegistry;
 import io.branch.referral.PrefHelper;
 import io.branch.referral.util.LinkProperties;
 
@@ -113,15 +114,18 @@ class AppIndexingHelper {
      */
     private static void listOnGoogleSearch(String shortLink, Context context, BranchUniversalObject branchUniversalObject) throws Exception {
         // Create a Thing instance for the BUO with the link to the BUO
-        Class<?> ThingClass = Class.forName("com.google.android.gms.appindexing.Thing");
-        Class<?> ThingBuilderClass = Class.forName("com.google.android.gms.appindexing.Thing$Builder");
-        Constructor<?> constructor = ThingBuilderClass.getConstructor();
+        Class<?> ThingClass = IntegrationRegistry.findClass("com.google.android.gms.appindexing.Thing");
+        Class<?> ThingBuilderClass = IntegrationRegistry.findClass("com.google.android.gms.appindexing.Thing$Builder");
+        if (ThingClass == null || ThingBuilderClass == null) {
+            throw new ClassNotFoundException("com.google.android.gms.appindexing.Thing");
+        }
+        Constructor<?> constructor = IntegrationRegistry.findConstructor(ThingBuilderClass);
         Object thingBuilder = constructor.newInstance();
         
-        Method setNameMethod = ThingBuilderClass.getMethod("setName", String.class);
-        Method setDescMethod = ThingBuilderClass.getMethod("setDescription", String.class);
-        Method setUrlMethod = ThingBuilderClass.getMethod("setUrl", Uri.class);
-        Method thingBuildMethod = ThingBuilderClass.getMethod("build");
+        Method setNameMethod = IntegrationRegistry.findMethod(ThingBuilderClass, "setName", String.class);
+        Method setDescMethod = IntegrationRegistry.findMethod(ThingBuilderClass, "setDescription", String.class);
+        Method setUrlMethod = IntegrationRegistry.findMethod(ThingBuilderClass, "setUrl", Uri.class);
+        Method thingBuildMethod = IntegrationRegistry.findMethod(ThingBuilderClass, "build");
         
         setNameMethod.invoke(thingBuilder, branchUniversalObject.getTitle());
         setDescMethod.invoke(thingBuilder, branchUniversalObject.getDescription());
@@ -129,43 +133,43 @@ class AppIndexingHelper {
         Object thingObj = thingBuildMethod.invoke(thingBuilder);
         
         // Now Create an View Action for the Thing created
-        Class<?> ThingActionClass = Class.forName("com.google.android.gms.appindexing.Action");
-        Class<?> ThingActionBuilderClass = Class.forName("com.google.android.gms.appindexing.Action$Builder");
-        Constructor<?> thingActionBuilderConstructor = ThingActionBuilderClass.getConstructor(String.class);
-        Object actionBuilder = thingActionBuilderConstructor.newInstance((String) ThingActionClass.getDeclaredField("TYPE_VIEW").get(null));
+        Class<?> ThingActionClass = IntegrationRegistry.findClass("com.google.android.gms.appindexing.Action");
+        Class<?> ThingActionBuilderClass = IntegrationRegistry.findClass("com.google.android.gms.appindexing.Action$Builder");
+        Constructor<?> thingActionBuilderConstructor = IntegrationRegistry.findConstructor(ThingActionBuilderClass, String.class);
+        Object actionBuilder = thingActionBuilderConstructor.newInstance((String) IntegrationRegistry.findDeclaredField(ThingActionClass, "TYPE_VIEW").get(null));
         
-        Method setObjectMethod = ThingActionBuilderClass.getMethod("setObject", ThingClass);
-        Method setActionStatusMethod = ThingActionBuilderClass.getMethod("setActionStatus", String.class);
-        Method actionBuildMethod = ThingActionBuilderClass.getMethod("build");
+        Method setObjectMethod = IntegrationRegistry.findMethod(ThingActionBuilderClass, "setObject", ThingClass);
+        Method setActionStatusMethod = IntegrationRegistry.findMethod(ThingActionBuilderClass, "setActionStatus", String.class);
+        Method actionBuildMethod = IntegrationRegistry.findMethod(ThingActionBuilderClass, "build");
         
         setObjectMethod.invoke(actionBuilder, thingObj);
-        setActionStatusMethod.invoke(actionBuilder, (String) ThingActionClass.getDeclaredField("STATUS_TYPE_COMPLETED").get(null));
+        setActionStatusMethod.invoke(actionBuilder, (String) IntegrationRegistry.findDeclaredField(ThingActionClass, "STATUS_TYPE_COMPLETED").get(null));
         Object actionObj = actionBuildMethod.invoke(actionBuilder);
         
         // Create and connect with Api Client
-        Class<?> AppIndexClass = Class.forName("com.google.android.gms.appindexing.AppIndex");
-        Class<?> ApiClass = Class.forName("com.google.android.gms.common.api.Api");
-        Class<?> GoogleApiClientClass = Class.forName("com.google.android.gms.common.api.GoogleApiClient");
-        Class<?> GoogleApiClientBuilderClass = Class.forName("com.google.android.gms.common.api.GoogleApiClient$Builder");
-        Constructor<?> googleApiClientBuilderConstructor = GoogleApiClientBuilderClass.getConstructor(Context.class);
+        Class<?> AppIndexClass = IntegrationRegistry.findClass("com.google.android.gms.appindexing.AppIndex");
+        Class<?> ApiClass = IntegrationRegistry.findClass("com.google.android.gms.common.api.Api");
+        Class<?> GoogleApiClientClass = IntegrationRegistry.findClass("com.google.android.gms.common.api.GoogleApiClient");
+        Class<?> GoogleApiClientBuilderClass = IntegrationRegistry.findClass("com.google.android.gms.common.api.GoogleApiClient$Builder");
+        Constructor<?> googleApiClientBuilderConstructor = IntegrationRegistry.findConstructor(GoogleApiClientBuilderClass, Context.class);
         Object apiClientBuilder = googleApiClientBuilderConstructor.newInstance(context);
         
-        Method addApiMethod = GoogleApiClientBuilderClass.getMethod("addApi", ApiClass);
-        Method apiClientBuildMethod = GoogleApiClientBuilderClass.getMethod("build");
-        Method apiClientConnectMethod = GoogleApiClientClass.getMethod("connect");
-        Method apiClientDisConnectMethod = GoogleApiClientClass.getMethod("disconnect");
+        Method addApiMethod = IntegrationRegistry.findMethod(GoogleApiClientBuilderClass, "addApi", ApiClass);
+        Method apiClientBuildMethod = IntegrationRegistry.findMethod(GoogleApiClientBuilderClass, "build");
+        Method apiClientConnectMethod = IntegrationRegistry.findMethod(GoogleApiClientClass, "connect");
+        Method apiClientDisConnectMethod = IntegrationRegistry.findMethod(GoogleApiClientClass, "disconnect");
         
         
-        addApiMethod.invoke(apiClientBuilder, ApiClass.cast(AppIndexClass.getDeclaredField("API").get(null)));
+        addApiMethod.invoke(apiClientBuilder, ApiClass.cast(IntegrationRegistry.findDeclaredField(AppIndexClass, "API").get(null)));
         Object googleApiClientApiClientObj = apiClientBuildMethod.invoke(apiClientBuilder);
         
         // Connect API Client, add to app index and then disconnect
         apiClientConnectMethod.invoke(googleApiClientApiClientObj);
         
         
-        Class<?> AppIndexApiClass = Class.forName("com.google.android.gms.appindexing.AppIndexApi");
-        Object appIndexApiObj = AppIndexClass.getDeclaredField("AppIndexApi").get(null);
-        Method startMethod = AppIndexApiClass.getMethod("start", GoogleApiClientClass, ThingActionClass);
+        Class<?> AppIndexApiClass = IntegrationRegistry.findClass("com.google.android.gms.appindexing.AppIndexApi");
+        Object appIndexApiObj = IntegrationRegistry.findDeclaredField(AppIndexClass, "AppIndexApi").get(null);
+        Method startMethod = IntegrationRegistry.findMethod(AppIndexApiClass, "start", GoogleApiClientClass, ThingActionClass);
         startMethod.invoke(appIndexApiObj, googleApiClientApiClientObj, actionObj);
         
         apiClientDisConnectMethod.invoke(googleApiClientApiClientObj);
@@ -0,0 +1,224 @@
+package io.branch.referral.network;
+
+import android.net.TrafficStats;
+import androidx.annotation.NonNull;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import io.branch.referral.Branch;
+import io.branch.referral.BranchError;
+import io.branch.referral.Defines;
+import io.branch.referral.PrefHelper;
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * <p>
+ * {@link BranchRemoteInterface} on OkHttp, as an alternative to
+ * {@link BranchRemoteInterfaceUrlConnection}. Requests are multiplexed over a single HTTP/2
+ * connection where the server negotiates it, and otherwise reuse the keep-alive HTTP/1.1
+ * connections of the pool, so the TLS handshake is paid once instead of per burst of requests.
+ * Use it with {@link Branch#setBranchRemoteInterface(BranchRemoteInterface)}.
+ * </p>
+ * <p>
+ * Timeouts, retries, the retry number sent with each request and the response headers handled
+ * are the same as for {@link BranchRemoteInterfaceUrlConnection}, and the circuit breaker and
+ * round trip instrumentation of {@link BranchRemoteInterface} apply unchanged. All instances
+ * share one connection pool and dispatcher unless created with their own {@link OkHttpClient}.
+ * </p>
+ */
+public class BranchRemoteInterfaceOkHttp extends BranchRemoteInterface {
+    private static final int THREAD_TAG_POST = 102;
+    private static final MediaType JSON = MediaType.parse(CompactWireFormat.JSON_CONTENT_TYPE);
+    private static final MediaType COMPACT = MediaType.parse(CompactWireFormat.CONTENT_TYPE);
+    // Branch API requests come in short bursts, a few idle connections are enough
+    private static final int MAX_IDLE_CONNECTIONS = 2;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+
+    private static OkHttpClient sharedClient_;
+
+    private @NonNull final Branch branch;
+    private final OkHttpClient client_;
+
+    public BranchRemoteInterfaceOkHttp(@NonNull Branch branch) {
+        this(branch, getSharedClient());
+    }
+
+    /**
+     * @param branch The {@link Branch} instance.
+     * @param client The client to send the requests with, e.g. to share the connection pool of
+     *               the app. Timeouts are set per request from the Branch configuration.
+     */
+    public BranchRemoteInterfaceOkHttp(@NonNull Branch branch, @NonNull OkHttpClient client) {
+        this.branch = branch;
+        this.client_ = client;
+    }
+
+    private static synchronized OkHttpClient getSharedClient() {
+        if (sharedClient_ == null) {
+            sharedClient_ = new OkHttpClient.Builder()
+                    .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                    .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                    // Retries are counted and reported like those of the UrlConnection transport
+                    .retryOnConnectionFailure(false)
+                    .build();
+        }
+        return sharedClient_;
+    }
+
+    // Package Private, the settings the requests are sent with
+    PrefHelper getPrefHelper() {
+        return PrefHelper.getInstance(branch.getApplicationContext());
+    }
+
+    /**
+     * @return The number of connections open in the pool of this transport, e.g. to verify that
+     * requests share a connection.
+     */
+    public int getConnectionCount() {
+        return client_.connectionPool().connectionCount();
+    }
+
+    @Override
+    public BranchResponse doRestfulGet(String url) throws BranchRemoteException {
+        PrefHelper prefHelper = getPrefHelper();
+        String appendKey = url.contains("?") ? "&" : "?";
+        CompactWireFormat wireFormat = getCompactWireFormat();
+        for (int retryNumber = 0; ; retryNumber++) {
+            Request.Builder request = new Request.Builder()
+                    .url(url + appendKey + RETRY_NUMBER + "=" + retryNumber)
+                    .get();
+            BranchResponse result = execute(request, url, prefHelper, retryNumber, wireFormat, false);
+            if (result != null) {
+                return result;
+            }
+        }
+    }
+
+    @Override
+    public BranchResponse doRestfulPost(String url, JSONObject payload) throws BranchRemoteException {
+        PrefHelper prefHelper = getPrefHelper();
+        // set the setThreadStatsTag for POST if API 26+
+        if (android.os.Build.VERSION.SDK_INT >= 26) {
+            TrafficStats.setThreadStatsTag(THREAD_TAG_POST);
+        }
+        for (int retryNumber = 0; ; ) {
+            try {
+                payload.put(RETRY_NUMBER, retryNumber);
+            } catch (JSONException ignore) {
+            }
+            CompactWireFormat wireFormat = getCompactWireFormat();
+            boolean compact = wireFormat != null && wireFormat.shouldEncodeRequests();
+            Request.Builder request = new Request.Builder()
+                    .url(url)
+                    .post(compact ? RequestBody.create(COMPACT, CompactWireFormat.encode(payload)) : RequestBody.create(JSON, payload.toString()));
+            BranchResponse result = execute(request, url, prefHelper, retryNumber, wireFormat, compact);
+            if (result != null) {
+                return result;
+            }
+            // A request rejected in the compact format is sent again as JSON with the same retry number
+            if (!compact || wireFormat.shouldEncodeRequests()) {
+                retryNumber++;
+            }
+        }
+    }
+
+    /**
+     * @return The response, or null if the request is to be retried.
+     */
+    private BranchResponse execute(Request.Builder requestBuilder, String url, PrefHelper prefHelper, int retryNumber,
+                                   CompactWireFormat wireFormat, boolean compact) throws BranchRemoteException {
+        if (wireFormat != null) {
+            requestBuilder.header("Accept", wireFormat.getAcceptHeader())
+                    .header(CompactWireFormat.HEADER_KEY_DICTIONARY, CompactWireFormat.getDictionaryId());
+        } else {
+            requestBuilder.header("Accept", CompactWireFormat.JSON_CONTENT_TYPE);
+        }
+        Request request = requestBuilder.build();
+        boolean canRetry = retryNumber < prefHelper.getRetryCount();
+        int timeout = prefHelper.getTimeout(url);
+        // Derived clients share the connection pool and dispatcher of the client
+        OkHttpClient client = client_.newBuilder()
+                .connectTimeout(timeout, TimeUnit.MILLISECONDS)
+                .readTimeout(timeout, TimeUnit.MILLISECONDS)
+                .writeTimeout(timeout, TimeUnit.MILLISECONDS)
+                .build();
+        Response response = null;
+        try {
+            final Call call = client.newCall(request);
+            setOnCancelListener(new Runnable() {
+                @Override
+                public void run() {
+                    call.cancel();
+                }
+            });
+            long attemptStart = System.nanoTime();
+            response = call.execute();
+            onAttemptResponded(prefHelper, url, attemptStart);
+            updateCloseRequestFlag(branch, response.header(Defines.HeaderKey.SendCloseRequest.getKey()));
+
+            int responseCode = response.code();
+            if (compact && responseCode == CompactWireFormat.HTTP_UNSUPPORTED_MEDIA_TYPE) {
+                // The server did not process the request, send it again as JSON
+                wireFormat.onRejected();
+                return null;
+            }
+            String requestId = response.header(Defines.HeaderKey.RequestId.getKey());
+            if (responseCode >= 500 && canRetry) {
+                // Release the connection before waiting, the body of the failed response is not read
+                response.close();
+                response = null;
+                if (waitBeforeRetry(prefHelper.getRetryInterval())) {
+                    return null;
+                }
+                // Cancelled while waiting, the failure is reported without its body
+                return toBranchResponse(null, responseCode, requestId);
+            }
+            ResponseBody body = response.body();
+            String responseString;
+            if (body != null && wireFormat != null && CompactWireFormat.isCompact(response.header("Content-Type"))) {
+                responseString = wireFormat.readResponse(response.header(CompactWireFormat.HEADER_KEY_DICTIONARY), body.byteStream());
+            } else {
+                responseString = body == null ? null : body.string();
+            }
+            return toBranchResponse(responseString, responseCode, requestId);
+        } catch (SocketTimeoutException ex) {
+            // On socket time out retry the request for retryNumber of times
+            if (canRetry && waitBeforeRetry(prefHelper.getRetryInterval())) {
+                return null;
+            }
+            throw new BranchRemoteException(BranchError.ERR_BRANCH_REQ_TIMED_OUT);
+        } catch (InterruptedIOException ex) {
+            // The call timed out as a whole, or the request was cancelled
+            throw new BranchRemoteException(BranchError.ERR_BRANCH_REQ_TIMED_OUT);
+        } catch (IOException ex) {
+            PrefHelper.Debug("Http connect exception: " + ex.getMessage());
+            throw new BranchRemoteException(BranchError.ERR_BRANCH_NO_CONNECTIVITY);
+        } finally {
+            setOnCancelListener(null);
+            if (response != null) {
+                response.close();
+            }
+        }
+    }
+
+    private static BranchResponse toBranchResponse(String responseString, int responseCode, String requestId) {
+        BranchResponse result = new BranchResponse(responseString == null || responseString.length() == 0 ? null : responseString, responseCode);
+        result.requestId = requestId == null || requestId.length() == 0 ? null : requestId;
+        return result;
+    }
+}
@@ -0,0 +1,279 @@
+package io.branch.referral.network;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocketFactory;
+
+import io.branch.referral.BranchError;
+import io.branch.referral.Defines;
+import io.branch.referral.PrefHelper;
+import io.branch.referral.TestPrefHelper;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.tls.HandshakeCertificates;
+import okhttp3.tls.HeldCertificate;
+
+/**
+ * Runs {@link BranchRemoteInterfaceOkHttp} against a local TLS stand-in for the Branch API that
+ * speaks HTTP/2 and HTTP/1.1. The comparison with {@link BranchRemoteInterfaceUrlConnection} only
+ * runs with {@code ./gradlew :Branch-SDK-OkHttp:testDebugUnitTest -Pbenchmark}.
+ */
+@RunWith(JUnit4.class)
+public class BranchRemoteInterfaceOkHttpTest {
+    private static final int REQUEST_COUNT = 40;
+    private static final int PARALLELISM = 8;
+
+    private MockWebServer server;
+    private HandshakeCertificates clientCertificates;
+    private PrefHelper prefHelper;
+    private ConnectionPool connectionPool;
+    private BranchRemoteInterfaceOkHttp okHttp;
+
+    private SSLSocketFactory defaultSocketFactory;
+    private HostnameVerifier defaultHostnameVerifier;
+
+    @Before
+    public void setUp() throws Exception {
+        HeldCertificate localhost = new HeldCertificate.Builder()
+                .addSubjectAlternativeName("localhost")
+                .build();
+        HandshakeCertificates serverCertificates = new HandshakeCertificates.Builder()
+                .heldCertificate(localhost)
+                .build();
+        clientCertificates = new HandshakeCertificates.Builder()
+                .addTrustedCertificate(localhost.certificate())
+                .build();
+
+        server = new MockWebServer();
+        server.useHttps(serverCertificates.sslSocketFactory(), false);
+        server.setProtocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1));
+        // Bound to localhost, the name the certificate is issued for
+        server.start(InetAddress.getByName("localhost"), 0);
+
+        prefHelper = TestPrefHelper.create();
+        prefHelper.setRetryInterval(0);
+        connectionPool = new ConnectionPool();
+        // There is no Branch instance on the JVM, the settings come from the test preferences
+        okHttp = new BranchRemoteInterfaceOkHttp(null, new OkHttpClient.Builder()
+                .connectionPool(connectionPool)
+                .sslSocketFactory(clientCertificates.sslSocketFactory(), clientCertificates.trustManager())
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .retryOnConnectionFailure(false)
+                .build()) {
+            @Override
+            PrefHelper getPrefHelper() {
+                return prefHelper;
+            }
+        };
+
+        defaultSocketFactory = HttpsURLConnection.getDefaultSSLSocketFactory();
+        defaultHostnameVerifier = HttpsURLConnection.getDefaultHostnameVerifier();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        HttpsURLConnection.setDefaultSSLSocketFactory(defaultSocketFactory);
+        HttpsURLConnection.setDefaultHostnameVerifier(defaultHostnameVerifier);
+        server.shutdown();
+        TestPrefHelper.shutDown();
+    }
+
+    @Test
+    public void testRequestsShareConnection() throws Exception {
+        answerAllWith(new MockResponse().setBody("{\"session_id\":\"1\"}"));
+        for (int i = 0; i < 5; i++) {
+            BranchRemoteInterface.BranchResponse response = okHttp.doRestfulPost(url("v1/open"), new JSONObject());
+            Assert.assertEquals(200, response.getResponseCode());
+            Assert.assertEquals("1", new JSONObject(response.getResponseData()).getString("session_id"));
+        }
+        Assert.assertEquals(1, countConnections(5));
+        Assert.assertEquals(1, okHttp.getConnectionCount());
+    }
+
+    @Test
+    public void testRetriesServerErrorsWithRetryNumber() throws Exception {
+        prefHelper.setRetryCount(1);
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setBody("{}"));
+        Assert.assertEquals(200, okHttp.doRestfulPost(url("v1/open"), new JSONObject()).getResponseCode());
+        Assert.assertEquals(0, new JSONObject(server.takeRequest().getBody().readUtf8()).getInt(BranchRemoteInterface.RETRY_NUMBER));
+        Assert.assertEquals(1, new JSONObject(server.takeRequest().getBody().readUtf8()).getInt(BranchRemoteInterface.RETRY_NUMBER));
+
+        // Gives up once the retries are used up
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setResponseCode(502));
+        Assert.assertEquals(502, okHttp.doRestfulGet(url("v1/cpid?sdk=android")).getResponseCode());
+        Assert.assertEquals("0", server.takeRequest().getRequestUrl().queryParameter(BranchRemoteInterface.RETRY_NUMBER));
+        Assert.assertEquals("1", server.takeRequest().getRequestUrl().queryParameter(BranchRemoteInterface.RETRY_NUMBER));
+    }
+
+    @Test
+    public void testServerErrorReleasedBeforeRetryWait() throws Exception {
+        prefHelper.setRetryCount(1);
+        prefHelper.setRetryInterval(1000);
+        server.enqueue(new MockResponse().setResponseCode(503).setBody("{\"error\":\"unavailable\"}"));
+        server.enqueue(new MockResponse().setBody("{}"));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<BranchRemoteInterface.BranchResponse> result = executor.submit(new Callable<BranchRemoteInterface.BranchResponse>() {
+                @Override
+                public BranchRemoteInterface.BranchResponse call() throws Exception {
+                    return okHttp.doRestfulPost(url("v1/open"), new JSONObject());
+                }
+            });
+            Assert.assertNotNull(server.takeRequest(5, TimeUnit.SECONDS));
+            // The connection is back in the pool while the retry waits
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(500);
+            while (connectionPool.idleConnectionCount() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(1, connectionPool.idleConnectionCount());
+            Assert.assertEquals(200, result.get(5, TimeUnit.SECONDS).getResponseCode());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testReadsResponseHeaders() throws Exception {
+        server.enqueue(new MockResponse()
+                .setResponseCode(409)
+                .setHeader(Defines.HeaderKey.RequestId.getKey(), "request-1")
+                .setBody("{\"error\":\"conflict\"}"));
+        BranchRemoteInterface.BranchResponse response = okHttp.doRestfulGet(url("v1/url"));
+        Assert.assertEquals(409, response.getResponseCode());
+        Assert.assertEquals("request-1", response.requestId);
+        Assert.assertEquals("{\"error\":\"conflict\"}", response.getResponseData());
+    }
+
+    @Test
+    public void testUnreachableServerIsNoConnectivity() throws Exception {
+        String url = url("v1/open");
+        server.shutdown();
+        try {
+            okHttp.doRestfulPost(url, new JSONObject());
+            Assert.fail();
+        } catch (BranchRemoteInterface.BranchRemoteException e) {
+            Assert.assertEquals(BranchError.ERR_BRANCH_NO_CONNECTIVITY, e.getBranchErrorCode());
+        }
+    }
+
+    @Test
+    public void benchmarkCompareWithUrlConnection() throws Exception {
+        Assume.assumeTrue(Boolean.parseBoolean(System.getProperty("branch.benchmark", "false")));
+        answerAllWith(new MockResponse().setBody("{\"session_id\":\"1\"}"));
+        HttpsURLConnection.setDefaultSSLSocketFactory(clientCertificates.sslSocketFactory());
+        HttpsURLConnection.setDefaultHostnameVerifier(new HostnameVerifier() {
+            @Override
+            public boolean verify(String hostname, SSLSession session) {
+                return "localhost".equals(hostname);
+            }
+        });
+        BranchRemoteInterfaceUrlConnection urlConnection = new BranchRemoteInterfaceUrlConnection(null) {
+            @Override
+            PrefHelper getPrefHelper() {
+                return prefHelper;
+            }
+        };
+
+        // Warm up both, the first connections also pay for class loading
+        run(urlConnection, REQUEST_COUNT, 1);
+        run(okHttp, REQUEST_COUNT, 1);
+        countConnections(server.getRequestCount());
+
+        for (int parallelism : new int[]{1, PARALLELISM}) {
+            long urlConnectionNanos = run(urlConnection, REQUEST_COUNT, parallelism);
+            int urlConnectionConnections = countConnections(REQUEST_COUNT);
+            long okHttpNanos = run(okHttp, REQUEST_COUNT, parallelism);
+            int okHttpConnections = countConnections(REQUEST_COUNT);
+            report("UrlConnection", parallelism, urlConnectionNanos, urlConnectionConnections);
+            report("OkHttp", parallelism, okHttpNanos, okHttpConnections);
+            // Warm connections are reused, or multiplexed when HTTP/2 is negotiated
+            Assert.assertTrue(okHttpConnections <= parallelism);
+        }
+    }
+
+    private String url(String path) {
+        return server.url("/" + path).toString();
+    }
+
+    private void answerAllWith(final MockResponse response) {
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return response;
+            }
+        });
+    }
+
+    /**
+     * @return How many of the next requests recorded were the first on a new connection.
+     */
+    private int countConnections(int requestCount) throws InterruptedException {
+        int connections = 0;
+        for (int i = 0; i < requestCount; i++) {
+            RecordedRequest request = server.takeRequest(5, TimeUnit.SECONDS);
+            Assert.assertNotNull(request);
+            if (request.getSequenceNumber() == 0) {
+                connections++;
+            }
+        }
+        return connections;
+    }
+
+    /**
+     * @return Nanoseconds taken to send the requests with the given parallelism.
+     */
+    private long run(final BranchRemoteInterface remoteInterface, int requestCount, int parallelism) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < requestCount; i++) {
+                results.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        return remoteInterface.doRestfulPost(url("v1/open"), new JSONObject()).getResponseCode();
+                    }
+                }));
+            }
+            for (Future<Integer> result : results) {
+                Assert.assertEquals(200, (int) result.get());
+            }
+            return System.nanoTime() - start;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void report(String transport, int parallelism, long nanos, int connections) {
+        System.out.println(String.format(Locale.US, "[benchmark] BranchRemoteInterface.%s parallelism=%d requests=%d total=%.1fms connections=%d",
+                transport, parallelism, REQUEST_COUNT, nanos / 1e6, connections));
+    }
+}
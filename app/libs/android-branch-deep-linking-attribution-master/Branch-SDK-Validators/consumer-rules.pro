@@ -0,0 +1,4 @@
+# The core SDK finds the entry point of this module by its class name, see BranchFeatures
+-keep class io.branch.referral.validators.LinkValidatorFeature {
+    <init>();
+}
@@ -0,0 +1,20 @@
+package io.branch.referral.validators;
+
+import android.app.Activity;
+
+import java.lang.ref.WeakReference;
+
+import io.branch.referral.BranchFeatures;
+
+/**
+ * <p>
+ * Entry point of the validators feature module, found at runtime by {@link BranchFeatures} when
+ * the app includes {@code library-validators}, e.g. only in its debug builds.
+ * </p>
+ */
+public class LinkValidatorFeature implements BranchFeatures.LinkValidator {
+    @Override
+    public void onSessionInitialized(WeakReference<Activity> currentActivity) {
+        DeepLinkRoutingValidator.validate(currentActivity);
+    }
+}
@@ -46,6 +46,16 @@ class ServerRequestGetAppConfig extends ServerRequest {
         return prefHelper_.getAPIBaseUrl() + getRequestPath() + "/" + prefHelper_.getBranchKey();
     }
 
+    @Override
+    protected String getResponseCacheKey() {
+        return getRequestUrl();
+    }
+
+    @Override
+    protected boolean isIdempotent() {
+        return true;
+    }
+
     @Override
     public void clearCallbacks() {
 
@@ -0,0 +1,95 @@
+package io.branch.referral;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+
+import dalvik.system.DexFile;
+
+/**
+ * Measures the SDK classes loaded by {@link Branch#getAutoInstance(Context)}, and checks that the
+ * optional features are not among them. Classes stay loaded for the life of the process, so run
+ * this test on its own:
+ * ./gradlew :Branch-SDK:connectedAndroidTest -Pandroid.testInstrumentationRunnerArguments.class=io.branch.referral.ClassLoadingTest
+ */
+@RunWith(AndroidJUnit4.class)
+public class ClassLoadingTest {
+    private static final String TAG = "ClassLoadingTest";
+    private static final String[] FEATURE_CLASSES = {
+            "io.branch.referral.BranchViewHandler",
+            "io.branch.referral.ShareLinkManager",
+            "io.branch.referral.BranchShareSheetBuilder",
+            "io.branch.referral.AnimatedDialog",
+            "io.branch.referral.SharingHelper",
+            "io.branch.referral.validators.DeepLinkRoutingValidator",
+            "io.branch.referral.validators.IntegrationValidator",
+            "io.branch.indexing.AppIndexingHelper"
+    };
+
+    @After
+    public void tearDown() {
+        Branch.shutDown();
+    }
+
+    @Test
+    public void testAutoInstanceLoadsNoFeatures() throws Exception {
+        ClassLoader classLoader = ClassLoadingTest.class.getClassLoader();
+        Method findLoadedClass = ClassLoader.class.getDeclaredMethod("findLoadedClass", String.class);
+        findLoadedClass.setAccessible(true);
+        Assume.assumeTrue("Run in a process of its own", findLoadedClass.invoke(classLoader, "io.branch.referral.Branch") == null);
+
+        List<String> sdkClasses = getSdkClasses();
+        List<String> loadedBefore = getLoadedClasses(classLoader, findLoadedClass, sdkClasses);
+        long start = System.nanoTime();
+        Branch.getAutoInstance(ApplicationProvider.getApplicationContext(), "key_live_testing_only");
+        long elapsed = System.nanoTime() - start;
+        List<String> loaded = getLoadedClasses(classLoader, findLoadedClass, sdkClasses);
+        loaded.removeAll(loadedBefore);
+
+        Log.i(TAG, "getAutoInstance took " + elapsed / 1000 + "us and loaded " + loaded.size() + " of " + sdkClasses.size() + " SDK classes: " + loaded);
+        for (String featureClass : FEATURE_CLASSES) {
+            Assert.assertFalse(featureClass, loaded.contains(featureClass));
+        }
+    }
+
+    private static List<String> getSdkClasses() throws Exception {
+        // The test APK of a library contains the library
+        DexFile dexFile = new DexFile(InstrumentationRegistry.getInstrumentation().getContext().getPackageCodePath());
+        List<String> sdkClasses = new ArrayList<>();
+        try {
+            for (Enumeration<String> entries = dexFile.entries(); entries.hasMoreElements(); ) {
+                String className = entries.nextElement();
+                if (className.startsWith("io.branch.") && !className.startsWith(ClassLoadingTest.class.getName())) {
+                    sdkClasses.add(className);
+                }
+            }
+        } finally {
+            dexFile.close();
+        }
+        return sdkClasses;
+    }
+
+    private static List<String> getLoadedClasses(ClassLoader classLoader, Method findLoadedClass, List<String> classNames) throws Exception {
+        List<String> loaded = new ArrayList<>();
+        for (String className : classNames) {
+            if (findLoadedClass.invoke(classLoader, className) != null) {
+                loaded.add(className);
+            }
+        }
+        return loaded;
+    }
+}
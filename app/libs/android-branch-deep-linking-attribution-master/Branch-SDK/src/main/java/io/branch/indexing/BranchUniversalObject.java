@@ -20,6 +20,7 @@ import java.util.Iterator;
 
 import io.branch.referral.Branch;
 import io.branch.referral.BranchError;
+import io.branch.referral.BranchFeatures;
 import io.branch.referral.BranchShareSheetBuilder;
 import io.branch.referral.BranchShortLinkBuilder;
 import io.branch.referral.BranchUtil;
@@ -282,25 +283,32 @@ public class BranchUniversalObject implements Parcelable {
     /**
      * <p>
      * Publish this BUO with Google app indexing so that the contents will be available with google search
-     * with branch link pointing to the app.
+     * with branch link pointing to the app. Requires the {@code library-appindexing} artifact.
      * </p>
      *
      * @param context Application context
      */
     public void listOnGoogleSearch(Context context) {
-        AppIndexingHelper.addToAppIndex(context, this, null);
+        BranchFeatures.AppIndexing appIndexing = getAppIndexing();
+        if (appIndexing != null) {
+            appIndexing.addToIndex(context, this, null);
+        }
     }
     
     /**
      * <p>
      * Publish this BUO with Google app indexing so that the contents will be available with google search
-     * with branch link pointing to the app. This method takes additional {@link LinkProperties} parameter to configure the link settings for your link that is indexed
+     * with branch link pointing to the app. This method takes additional {@link LinkProperties} parameter to configure the link settings for your link that is indexed.
+     * Requires the {@code library-appindexing} artifact.
      * </p>
      *
      * @param context Application context
      */
     public void listOnGoogleSearch(Context context, LinkProperties linkProperties) {
-        AppIndexingHelper.addToAppIndex(context, this, linkProperties);
+        BranchFeatures.AppIndexing appIndexing = getAppIndexing();
+        if (appIndexing != null) {
+            appIndexing.addToIndex(context, this, linkProperties);
+        }
     }
     
     /**
@@ -310,7 +318,10 @@ public class BranchUniversalObject implements Parcelable {
      * @param context Application context
      */
     public void removeFromLocalIndexing(Context context) {
-        AppIndexingHelper.removeFromFirebaseLocalIndex(context, this, null);
+        BranchFeatures.AppIndexing appIndexing = getAppIndexing();
+        if (appIndexing != null) {
+            appIndexing.removeFromIndex(context, this, null);
+        }
     }
     
     /**
@@ -322,7 +333,18 @@ public class BranchUniversalObject implements Parcelable {
      * @param context Application context
      */
     public void removeFromLocalIndexing(Context context, LinkProperties linkProperties) {
-        AppIndexingHelper.removeFromFirebaseLocalIndex(context, this, linkProperties);
+        BranchFeatures.AppIndexing appIndexing = getAppIndexing();
+        if (appIndexing != null) {
+            appIndexing.removeFromIndex(context, this, linkProperties);
+        }
+    }
+
+    private static BranchFeatures.AppIndexing getAppIndexing() {
+        BranchFeatures.AppIndexing appIndexing = BranchFeatures.getAppIndexing();
+        if (appIndexing == null) {
+            PrefHelper.LogWarning("App indexing is not available. Please add io.branch.sdk.android:library-appindexing to your app dependencies.");
+        }
+        return appIndexing;
     }
     
     /**
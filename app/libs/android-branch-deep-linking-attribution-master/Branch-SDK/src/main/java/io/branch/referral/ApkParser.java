@@ -4,8 +4,6 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import io.branch.referral.validators.IntegrationValidator;
-
 /**
  * ApkParser
  * <p>
@@ -40,7 +38,7 @@ class ApkParser {
      * <p>Gets the result of decompression of AndroidManifest.xml from within an APK, as a
      * {@link String}, based on an input {@link byte} array parameter.</p>
      * <p>
-     * <p>The {@link IntegrationValidator} uses this method by taking in the required {@link Byte} array,
+     * <p>The IntegrationValidator of the validators module uses this method by taking in the required {@link Byte} array,
      * The output of this method is used to compare against the server side Integration</p>
      *
      * @param xml A {@link Byte[]} containing the XML to be decompr
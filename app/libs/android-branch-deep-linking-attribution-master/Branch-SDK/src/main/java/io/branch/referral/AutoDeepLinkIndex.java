@@ -0,0 +1,254 @@
+package io.branch.referral;
+
+import android.content.Context;
+import android.content.pm.ActivityInfo;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Routing index for auto deep linking, built from the auto deep link metadata of the activities
+ * in the app manifest. Link keys are looked up in a hash map and link paths are matched against
+ * a trie of the path templates, so resolving the activity for a link does not depend on the
+ * number of activities. Like the previous linear scan of the manifest, the first matching
+ * activity in manifest order wins.
+ * </p>
+ * <p>
+ * The index only changes with the manifest, so it is persisted along with the version code and
+ * update time of the app, and rebuilt from the {@link PackageManager} only after an app update.
+ * </p>
+ */
+class AutoDeepLinkIndex {
+    static final String KEY_AUTO_DEEP_LINK_INDEX = "bnc_auto_deep_link_index";
+
+    private static final int NO_ROUTE = Integer.MAX_VALUE;
+
+    private static final String KEY_APP_VERSION = "app_version";
+    private static final String KEY_DISABLED = "disabled";
+    private static final String KEY_ROUTES = "routes";
+    private static final String KEY_ACTIVITY = "activity";
+    private static final String KEY_LINK_KEYS = "keys";
+    private static final String KEY_LINK_PATHS = "paths";
+    private static final String KEY_REQUEST_CODE = "request_code";
+
+    private final boolean disabled_;
+    private final List<Route> routes_;
+    // Link key to the first route declaring it
+    private final Map<String, Integer> keyRoutes_ = new HashMap<>();
+    // Path template tries by number of segments, templates only match paths of the same length
+    private final Map<Integer, PathNode> pathRoutes_ = new HashMap<>();
+
+    /**
+     * An activity declaring auto deep link keys or paths, with the metadata as declared.
+     */
+    static class Route {
+        final String activityName;
+        final String linkKeys;
+        final String linkPaths;
+        final int requestCode;
+
+        Route(String activityName, String linkKeys, String linkPaths, int requestCode) {
+            this.activityName = activityName;
+            this.linkKeys = linkKeys;
+            this.linkPaths = linkPaths;
+            this.requestCode = requestCode;
+        }
+    }
+
+    private static class PathNode {
+        final Map<String, PathNode> literals = new HashMap<>();
+        PathNode wildcard;
+        int route = NO_ROUTE;
+    }
+
+    /**
+     * @param disabled True if auto deep linking is disabled for the app.
+     * @param routes   The activities declaring auto deep link metadata, in manifest order.
+     */
+    AutoDeepLinkIndex(boolean disabled, List<Route> routes) {
+        disabled_ = disabled;
+        routes_ = Collections.unmodifiableList(new ArrayList<>(routes));
+        for (int i = routes_.size() - 1; i >= 0; i--) {
+            Route route = routes_.get(i);
+            if (route.linkKeys != null) {
+                for (String linkKey : route.linkKeys.split(",")) {
+                    keyRoutes_.put(linkKey, i);
+                }
+            }
+            if (route.linkPaths != null) {
+                for (String linkPath : route.linkPaths.split(",")) {
+                    addPath(splitPath(linkPath.trim()), i);
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>Returns the index for the installed version of the app, restoring it from preferences
+     * when it was built for the same version, or building and persisting it otherwise.</p>
+     *
+     * @throws PackageManager.NameNotFoundException If the package info of the app can not be read.
+     */
+    static AutoDeepLinkIndex load(Context context, PrefHelper prefHelper) throws PackageManager.NameNotFoundException {
+        PackageManager packageManager = context.getPackageManager();
+        PackageInfo packageInfo = packageManager.getPackageInfo(context.getPackageName(), 0);
+        @SuppressWarnings("deprecation")
+        String appVersion = packageInfo.versionCode + ":" + packageInfo.lastUpdateTime;
+
+        String stored = prefHelper.getString(KEY_AUTO_DEEP_LINK_INDEX);
+        if (!PrefHelper.NO_STRING_VALUE.equals(stored)) {
+            try {
+                JSONObject json = new JSONObject(stored);
+                if (appVersion.equals(json.optString(KEY_APP_VERSION))) {
+                    return fromJSON(json);
+                }
+            } catch (JSONException ignored) {
+                // Rebuilt below
+            }
+        }
+
+        AutoDeepLinkIndex index = build(context, packageManager);
+        try {
+            prefHelper.setString(KEY_AUTO_DEEP_LINK_INDEX, index.toJSON().put(KEY_APP_VERSION, appVersion).toString());
+        } catch (JSONException ignored) {
+        }
+        return index;
+    }
+
+    private static AutoDeepLinkIndex build(Context context, PackageManager packageManager) throws PackageManager.NameNotFoundException {
+        ApplicationInfo appInfo = packageManager.getApplicationInfo(context.getPackageName(), PackageManager.GET_META_DATA);
+        boolean disabled = appInfo.metaData != null && appInfo.metaData.getBoolean(Branch.AUTO_DEEP_LINK_DISABLE, false);
+        List<Route> routes = new ArrayList<>();
+        if (!disabled) {
+            PackageInfo info = packageManager.getPackageInfo(context.getPackageName(), PackageManager.GET_ACTIVITIES | PackageManager.GET_META_DATA);
+            if (info.activities != null) {
+                for (ActivityInfo activityInfo : info.activities) {
+                    if (activityInfo == null || activityInfo.metaData == null) {
+                        continue;
+                    }
+                    String linkKeys = activityInfo.metaData.getString(Branch.AUTO_DEEP_LINK_KEY);
+                    String linkPaths = activityInfo.metaData.getString(Branch.AUTO_DEEP_LINK_PATH);
+                    if (linkKeys != null || linkPaths != null) {
+                        routes.add(new Route(activityInfo.name, linkKeys, linkPaths,
+                                activityInfo.metaData.getInt(Branch.AUTO_DEEP_LINK_REQ_CODE, Branch.DEF_AUTO_DEEP_LINK_REQ_CODE)));
+                    }
+                }
+            }
+        }
+        return new AutoDeepLinkIndex(disabled, routes);
+    }
+
+    /**
+     * @return True if auto deep linking is disabled in the app manifest.
+     */
+    boolean isDisabled() {
+        return disabled_;
+    }
+
+    /**
+     * @param params The referring params of the session.
+     * @return The first activity in manifest order declaring one of the params as link key, or a
+     * path template matching the deep link path. Null if there is none.
+     */
+    Route resolve(JSONObject params) {
+        int match = NO_ROUTE;
+        if (!keyRoutes_.isEmpty()) {
+            Iterator<String> keys = params.keys();
+            while (keys.hasNext()) {
+                Integer route = keyRoutes_.get(keys.next());
+                if (route != null && route < match) {
+                    match = route;
+                }
+            }
+        }
+        String deepLinkPath = params.optString(Defines.Jsonkey.AndroidDeepLinkPath.getKey(), null);
+        if (deepLinkPath == null) {
+            deepLinkPath = params.optString(Defines.Jsonkey.DeepLinkPath.getKey(), null);
+        }
+        if (deepLinkPath != null && !pathRoutes_.isEmpty()) {
+            String[] segments = splitPath(deepLinkPath);
+            match = Math.min(match, matchPath(pathRoutes_.get(segments.length), segments, 0));
+        }
+        return match == NO_ROUTE ? null : routes_.get(match);
+    }
+
+    private static String[] splitPath(String path) {
+        return path.split("\\?")[0].split("/");
+    }
+
+    private void addPath(String[] segments, int route) {
+        PathNode node = pathRoutes_.get(segments.length);
+        if (node == null) {
+            node = new PathNode();
+            pathRoutes_.put(segments.length, node);
+        }
+        for (String segment : segments) {
+            PathNode next;
+            if (segment.contains("*")) {
+                if (node.wildcard == null) {
+                    node.wildcard = new PathNode();
+                }
+                next = node.wildcard;
+            } else {
+                next = node.literals.get(segment);
+                if (next == null) {
+                    next = new PathNode();
+                    node.literals.put(segment, next);
+                }
+            }
+            node = next;
+        }
+        // Routes are added last to first, so the first route declaring a template is kept
+        node.route = route;
+    }
+
+    /**
+     * @return The lowest route of the templates below the node matching the remaining segments.
+     */
+    private static int matchPath(PathNode node, String[] segments, int index) {
+        if (node == null) {
+            return NO_ROUTE;
+        }
+        if (index == segments.length) {
+            return node.route;
+        }
+        int match = matchPath(node.literals.get(segments[index]), segments, index + 1);
+        return Math.min(match, matchPath(node.wildcard, segments, index + 1));
+    }
+
+    JSONObject toJSON() throws JSONException {
+        JSONArray routes = new JSONArray();
+        for (Route route : routes_) {
+            JSONObject json = new JSONObject();
+            json.put(KEY_ACTIVITY, route.activityName);
+            json.putOpt(KEY_LINK_KEYS, route.linkKeys);
+            json.putOpt(KEY_LINK_PATHS, route.linkPaths);
+            json.put(KEY_REQUEST_CODE, route.requestCode);
+            routes.put(json);
+        }
+        return new JSONObject().put(KEY_DISABLED, disabled_).put(KEY_ROUTES, routes);
+    }
+
+    static AutoDeepLinkIndex fromJSON(JSONObject json) throws JSONException {
+        JSONArray routesJson = json.getJSONArray(KEY_ROUTES);
+        List<Route> routes = new ArrayList<>(routesJson.length());
+        for (int i = 0; i < routesJson.length(); i++) {
+            JSONObject route = routesJson.getJSONObject(i);
+            routes.add(new Route(route.getString(KEY_ACTIVITY), route.optString(KEY_LINK_KEYS, null),
+                    route.optString(KEY_LINK_PATHS, null), route.getInt(KEY_REQUEST_CODE)));
+        }
+        return new AutoDeepLinkIndex(json.getBoolean(KEY_DISABLED), routes);
+    }
+}
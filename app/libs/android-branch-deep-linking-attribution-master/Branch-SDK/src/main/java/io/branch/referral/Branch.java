@@ -10,9 +10,6 @@ import android.app.Activity;
 import android.app.Application;
 import android.content.Context;
 import android.content.Intent;
-import android.content.pm.ActivityInfo;
-import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
@@ -35,6 +32,7 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
 import java.io.UnsupportedEncodingException;
 import java.lang.ref.WeakReference;
 import java.net.HttpURLConnection;
@@ -54,6 +52,7 @@ import java.util.concurrent.TimeoutException;
 import io.branch.indexing.BranchUniversalObject;
 import io.branch.referral.network.BranchRemoteInterface;
 import io.branch.referral.network.BranchRemoteInterfaceUrlConnection;
+import io.branch.referral.network.CircuitBreaker;
 import io.branch.referral.util.BRANCH_STANDARD_EVENT;
 import io.branch.referral.util.BranchEvent;
 import io.branch.referral.util.CommerceEvent;
@@ -274,6 +273,10 @@ public class Branch implements BranchViewHandler.IBranchViewEvents, SystemObserv
     /* Json object containing key-value pairs for debugging deep linking */
     private JSONObject deeplinkDebugParams_;
     
+    /* Parsed install and session params, reparsed only when the stored params change */
+    private final ReferringParams.Cache firstReferringParams_ = new ReferringParams.Cache();
+    private final ReferringParams.Cache latestReferringParams_ = new ReferringParams.Cache();
+    
     private static boolean disableDeviceIDFetch_;
     
     private boolean enableFacebookAppLinkCheck_ = false;
@@ -290,9 +293,10 @@ public class Branch implements BranchViewHandler.IBranchViewEvents, SystemObserv
     
     /**
      * <p>A {@link Branch} object that is instantiated on init and holds the singleton instance of
-     * the class during application runtime.</p>
+     * the class during application runtime. Volatile, so that {@link #getInstance()} reads it
+     * without a lock.</p>
      */
-    private static Branch branchReferral_;
+    private static volatile Branch branchReferral_;
 
     private BranchRemoteInterface branchRemoteInterface_;
     final PrefHelper prefHelper_;
@@ -304,8 +308,16 @@ public class Branch implements BranchViewHandler.IBranchViewEvents, SystemObserv
     final ServerRequestQueue requestQueue_;
     
     int networkCount_ = 0;
+    // Set while processing the queue is scheduled to resume after its head was parked
+    private volatile boolean queueResumeScheduled_;
 
     final ConcurrentHashMap<BranchLinkData, String> linkCache_ = new ConcurrentHashMap<>();
+
+    final ResponseCache responseCache_ = new ResponseCache();
+
+    final RequestHedger requestHedger_ = new RequestHedger();
+
+    final EventCoalescer eventCoalescer_ = new EventCoalescer();
     
     /* Set to true when {@link Activity} life cycle callbacks are registered. */
     private static boolean isActivityLifeCycleCallbackRegistered_ = false;
@@ -338,19 +350,22 @@ public class Branch implements BranchViewHandler.IBranchViewEvents, SystemObserv
     WeakReference<Activity> currentActivityReference_;
     
     /* Key for Auto Deep link param. The activities which need to automatically deep linked should define in this in the activity metadata. */
-    private static final String AUTO_DEEP_LINK_KEY = "io.branch.sdk.auto_link_keys";
+    static final String AUTO_DEEP_LINK_KEY = "io.branch.sdk.auto_link_keys";
     
     /* Path for $deeplink_path or $android_deeplink_path to auto deep link. The activities which need to automatically deep linked should define in this in the activity metadata. */
-    private static final String AUTO_DEEP_LINK_PATH = "io.branch.sdk.auto_link_path";
+    static final String AUTO_DEEP_LINK_PATH = "io.branch.sdk.auto_link_path";
     
     /* Key for disabling auto deep link feature. Setting this to true in manifest will disable auto deep linking feature. */
-    private static final String AUTO_DEEP_LINK_DISABLE = "io.branch.sdk.auto_link_disable";
+    static final String AUTO_DEEP_LINK_DISABLE = "io.branch.sdk.auto_link_disable";
     
     /*Key for defining a request code for an activity. should be added as a metadata for an activity. This is used as a request code for launching a an activity on auto deep link. */
-    private static final String AUTO_DEEP_LINK_REQ_CODE = "io.branch.sdk.auto_link_request_code";
+    static final String AUTO_DEEP_LINK_REQ_CODE = "io.branch.sdk.auto_link_request_code";
     
     /* Request code  used to launch and activity on auto deep linking unless DEF_AUTO_DEEP_LINK_REQ_CODE is not specified for teh activity in manifest.*/
-    private static final int DEF_AUTO_DEEP_LINK_REQ_CODE = 1501;
+    static final int DEF_AUTO_DEEP_LINK_REQ_CODE = 1501;
+    
+    /* Auto deep link routes of the app, loaded on the first session opened by a Branch link */
+    private AutoDeepLinkIndex autoDeepLinkIndex_;
     
     final ConcurrentHashMap<String, String> instrumentationExtraData_ = new ConcurrentHashMap<>();
 
@@ -377,6 +392,7 @@ public class Branch implements BranchViewHandler.IBranchViewEvents, SystemObserv
     /* Flag to turn on or off instant deeplinking feature. IDL is disabled by default */
     private static boolean enableInstantDeepLinking = false;
     private final TrackingController trackingController;
+    private final DeferralController deferralController_;
 
     /** Variables for reporting plugin type and version (some TUNE customers do that), plus helps
      * us make data driven decisions. */
@@ -397,6 +413,7 @@ public class Branch implements BranchViewHandler.IBranchViewEvents, SystemObserv
         branchRemoteInterface_ = new BranchRemoteInterfaceUrlConnection(this);
         deviceInfo_ = new DeviceInfo(context);
         requestQueue_ = ServerRequestQueue.getInstance(context);
+        deferralController_ = new DeferralController(context, this);
         if (!trackingController.isTrackingDisabled()) { // Do not get GAID when tracking is disabled
             isGAParamsFetchInProgress_ = deviceInfo_.getSystemObserver().prefetchAdsParams(context,this);
         }
@@ -409,33 +426,41 @@ public class Branch implements BranchViewHandler.IBranchViewEvents, SystemObserv
      *
      * @return An initialised singleton {@link Branch} object
      */
-    synchronized public static Branch getInstance() {
-        if (branchReferral_ == null) {
+    public static Branch getInstance() {
+        // Read once, the instance is published through the volatile field without taking the class lock
+        Branch branch = branchReferral_;
+        if (branch == null) {
             PrefHelper.Debug("Branch instance is not created yet. Make sure you call getAutoInstance(Context).");
         }
-        return branchReferral_;
+        return branch;
     }
 
-    synchronized private static Branch initBranchSDK(@NonNull Context context, String branchKey) {
-        if (branchReferral_ != null) {
-            PrefHelper.Debug("Warning, attempted to reinitialize Branch SDK singleton!");
-            return branchReferral_;
-        }
-        branchReferral_ = new Branch(context.getApplicationContext());
+    // Called holding the class lock, see getAutoInstance(Context, String)
+    private static Branch initBranchSDK(@NonNull Context context, String branchKey) {
+        Branch branch = new Branch(context.getApplicationContext());
 
+        boolean keyChanged;
         if (TextUtils.isEmpty(branchKey)) {
             PrefHelper.Debug("Warning: Please enter your branch_key in your project's Manifest file!");
-            branchReferral_.prefHelper_.setBranchKey(PrefHelper.NO_STRING_VALUE);
+            keyChanged = branch.prefHelper_.setBranchKey(PrefHelper.NO_STRING_VALUE);
         } else {
-            branchReferral_.prefHelper_.setBranchKey(branchKey);
+            keyChanged = branch.prefHelper_.setBranchKey(branchKey);
+        }
+        // Requests and links restored from the preferences belong to the previous key
+        if (keyChanged) {
+            branch.linkCache_.clear();
+            branch.requestQueue_.clear();
         }
 
         /* If {@link Application} is instantiated register for activity life cycle events. */
         if (context instanceof Application) {
-            branchReferral_.setActivityLifeCycleObserver((Application) context);
+            branch.setActivityLifeCycleObserver((Application) context);
         }
+        getPreinstallSystemData(branch, context);
 
-        return branchReferral_;
+        // Published last, other threads only see the instance once it is set up
+        branchReferral_ = branch;
+        return branch;
     }
 
     /**
@@ -448,13 +473,20 @@ public class Branch implements BranchViewHandler.IBranchViewEvents, SystemObserv
      * instance within the singleton class, or a newly instantiated object where
      * one was not already requested during the current app lifecycle.
      */
-    synchronized public static Branch getAutoInstance(@NonNull Context context) {
-        if (branchReferral_ == null) {
-            BranchUtil.setTestMode(BranchUtil.checkTestMode(context));
-            branchReferral_ = initBranchSDK(context, BranchUtil.readBranchKey(context));
-            getPreinstallSystemData(branchReferral_, context);
+    public static Branch getAutoInstance(@NonNull Context context) {
+        Branch branch = branchReferral_;
+        if (branch == null) {
+            synchronized (Branch.class) {
+                branch = branchReferral_;
+                if (branch == null) {
+                    long traceStart = SessionTracer.begin();
+                    BranchUtil.setTestMode(BranchUtil.checkTestMode(context));
+                    branch = initBranchSDK(context, BranchUtil.readBranchKey(context));
+                    SessionTracer.end("getAutoInstance", traceStart);
+                }
+            }
         }
-        return branchReferral_;
+        return branch;
     }
 
     /**
@@ -469,17 +501,24 @@ public class Branch implements BranchViewHandler.IBranchViewEvents, SystemObserv
      * one was not already requested during the current app lifecycle.
      */
     public static Branch getAutoInstance(@NonNull Context context, @NonNull String branchKey) {
-        if (branchReferral_ == null) {
-            BranchUtil.setTestMode(BranchUtil.checkTestMode(context));
-            // If a Branch key is passed already use it. Else read the key
-            if (!isValidBranchKey(branchKey)) {
-                PrefHelper.Debug("Warning, Invalid branch key passed! Branch key will be read from manifest instead!");
-                branchKey = BranchUtil.readBranchKey(context);
+        Branch branch = branchReferral_;
+        if (branch == null) {
+            synchronized (Branch.class) {
+                branch = branchReferral_;
+                if (branch == null) {
+                    long traceStart = SessionTracer.begin();
+                    BranchUtil.setTestMode(BranchUtil.checkTestMode(context));
+                    // If a Branch key is passed already use it. Else read the key
+                    if (!isValidBranchKey(branchKey)) {
+                        PrefHelper.Debug("Warning, Invalid branch key passed! Branch key will be read from manifest instead!");
+                        branchKey = BranchUtil.readBranchKey(context);
+                    }
+                    branch = initBranchSDK(context, branchKey);
+                    SessionTracer.end("getAutoInstance", traceStart);
+                }
             }
-            branchReferral_ = initBranchSDK(context, branchKey);
-            getPreinstallSystemData(branchReferral_, context);
         }
-        return branchReferral_;
+        return branch;
     }
 
     public Context getApplicationContext() {
@@ -708,6 +747,122 @@ public class Branch implements BranchViewHandler.IBranchViewEvents, SystemObserv
             prefHelper_.setTimeout(timeout);
         }
     }
+
+    /**
+     * <p>Sets the bounds for the adaptive request timeouts. Once an endpoint has responded, its
+     * timeout follows the observed round trip times on the current connection type instead of the
+     * fixed value from {@link #setNetworkTimeout(int)}, but never goes below the floor or above
+     * the ceiling. Defaults to 2000 ms and 15000 ms. Setting both to the same value disables adaptation.</p>
+     *
+     * @param floor   An {@link Integer} specifying the shortest timeout in milliseconds.
+     * @param ceiling An {@link Integer} specifying the longest timeout in milliseconds.
+     */
+    public void setNetworkTimeoutBounds(int floor, int ceiling) {
+        if (prefHelper_ != null && floor > 0 && ceiling >= floor) {
+            prefHelper_.setTimeoutBounds(floor, ceiling);
+        }
+    }
+
+    /**
+     * <p>Sets how long responses of a lookup endpoint are reused for identical lookups, e.g. by
+     * {@link #getCrossPlatformIds(ServerRequestGetCPID.BranchCrossPlatformIdListener)} or
+     * {@link #getLastAttributedTouchData(BranchLastAttributedTouchDataListener)}. Identical lookups
+     * made while one is in flight always share its response. Cached responses are dropped when the
+     * user identity changes and on logout. Defaults to 10 minutes for cross platform ids, 1 minute
+     * for last attributed touch data and 0 for credits and credit history.</p>
+     *
+     * @param requestPath The {@link Defines.RequestPath} of the lookup, one of GetCPID, GetLATD,
+     *                    GetCredits, GetCreditHistory or GetApp.
+     * @param timeToLive  A {@link Long} specifying how long responses are reused in milliseconds.
+     *                    0 disables caching.
+     */
+    public void setResponseCacheTimeToLive(@NonNull Defines.RequestPath requestPath, long timeToLive) {
+        responseCache_.setTimeToLive(requestPath, timeToLive);
+    }
+
+    /**
+     * <p>Sets how long requests that are not needed right away, such as custom events and session
+     * close, may be held back while the device is on a metered connection with an idle radio. Held
+     * requests are sent together with the next immediate request, as soon as the radio becomes
+     * active, or at the latest after this delay. Defaults to 60 seconds.</p>
+     *
+     * @param maxDelay A {@link Long} specifying the longest delay in milliseconds. 0 sends all
+     *                 requests immediately.
+     */
+    public static void setDeferredRequestMaxDelay(long maxDelay) {
+        DeferralController.setMaxDelay(maxDelay);
+    }
+
+    /**
+     * <p>Reports how long the requests of a scheduling class waited in the queue before they were
+     * sent, over the most recent requests of the class. Requests are sent by their
+     * {@link ServerRequest.PRIORITY}, e.g. links created for sharing ahead of analytics events.</p>
+     *
+     * @param priority   The {@link ServerRequest.PRIORITY} scheduling class.
+     * @param percentile A {@link Double} between 0 and 100, e.g. 50 for the median.
+     * @return The queue wait at the percentile in milliseconds, or -1 if no request of the class
+     * has been sent yet.
+     */
+    public long getQueueWaitPercentile(@NonNull ServerRequest.PRIORITY priority, double percentile) {
+        return requestQueue_.getQueueWaitPercentile(priority, percentile);
+    }
+
+    /**
+     * <p>Hedges read only lookups, such as cross platform ids, last attributed touch data and the
+     * app config, against slow connections. Once a lookup takes longer than the given percentile of
+     * the recent round trips of its endpoint, an identical second lookup is sent and the first
+     * answer is used, the other lookup is cancelled. Disabled by default.</p>
+     *
+     * @param latencyPercentile A {@link Double} between 50 and 99.9, the percentile of the round
+     *                          trips after which a lookup is hedged, e.g. 95.
+     * @param maxExtraLoad      A {@link Double} specifying the largest fraction of the lookups that
+     *                          may be hedged, e.g. 0.05 for at most 5% extra lookups.
+     */
+    public void enableRequestHedging(double latencyPercentile, double maxExtraLoad) {
+        requestHedger_.enable(latencyPercentile, maxExtraLoad);
+    }
+
+    /**
+     * <p>Stops hedging lookups, see {@link #enableRequestHedging(double, double)}.</p>
+     */
+    public void disableRequestHedging() {
+        requestHedger_.disable();
+    }
+
+    /**
+     * <p>Coalesces identical events logged in quick succession, e.g. the VIEW_ITEM events logged
+     * by {@link #registerView(BranchUniversalObject, BranchUniversalObject.RegisterViewStatusListener)}
+     * each time a list re-binds the view of the same content. Events are identical if they have the
+     * same name, the same content items by canonical identifier and the same values of the given
+     * properties. Identical events logged within the window of the first one are not sent, they
+     * complete along with the first one. No events are coalesced by default.</p>
+     *
+     * @param eventName          The name of the event, e.g. a {@link BRANCH_STANDARD_EVENT} name.
+     * @param windowMillis       A {@link Long} specifying how long identical events are coalesced
+     *                           into the first one in milliseconds. 0 stops coalescing the event.
+     * @param carryCount         A {@link Boolean} that, if true, sends the number of events
+     *                           coalesced into the first one with it as "coalesced_count".
+     * @param identityProperties Names of event, custom data or metadata properties that tell
+     *                           events apart in addition to their name and content items.
+     */
+    public void setEventCoalescing(@NonNull String eventName, long windowMillis, boolean carryCount, String... identityProperties) {
+        eventCoalescer_.setRule(eventName, windowMillis, carryCount, identityProperties);
+    }
+
+    /**
+     * @return The number of events that were not sent since they duplicated an event logged
+     * moments before, see {@link #setEventCoalescing(String, long, boolean, String...)}.
+     */
+    public int getSuppressedEventCount() {
+        return eventCoalescer_.getSuppressedCount();
+    }
+
+    /**
+     * @return The number of events sent to Branch, retries not counted.
+     */
+    public int getSentEventCount() {
+        return eventCoalescer_.getSentCount();
+    }
     
     /**
      * Method to control reading Android ID from device. Set this to true to disable reading the device id.
@@ -827,6 +982,8 @@ public class Branch implements BranchViewHandler.IBranchViewEvents, SystemObserv
      * </p>
      */
     void closeSessionInternal() {
+        // Send the summaries of aggregated events ahead of the close request
+        BranchEvent.flushAggregatedEvents();
         clearPartnerParameters();
         executeClose();
         prefHelper_.setExternalIntentUri(null);
@@ -896,6 +1053,15 @@ public class Branch implements BranchViewHandler.IBranchViewEvents, SystemObserv
     }
 
     private void readAndStripParam(Uri data, Activity activity) {
+        long traceStart = SessionTracer.begin();
+        try {
+            readAndStripParamInternal(data, activity);
+        } finally {
+            SessionTracer.end("readAndStripParam", traceStart);
+        }
+    }
+
+    private void readAndStripParamInternal(Uri data, Activity activity) {
         if (enableInstantDeepLinking) {
 
             // If activity is launched anew (i.e. not from stack), then its intent can be readily consumed.
@@ -1060,7 +1226,7 @@ public class Branch implements BranchViewHandler.IBranchViewEvents, SystemObserv
             handleNewRequest(req);
         } else {
             if (req.isExistingID()) {
-                req.handleUserExist(branchReferral_);
+                req.handleUserExist(this);
             }
         }
     }
@@ -1407,7 +1573,7 @@ public class Branch implements BranchViewHandler.IBranchViewEvents, SystemObserv
      */
     public JSONObject getFirstReferringParams() {
         String storedParam = prefHelper_.getInstallParams();
-        JSONObject firstReferringParams = convertParamsStringToDictionary(storedParam);
+        JSONObject firstReferringParams = firstReferringParams_.get(storedParam);
         firstReferringParams = appendDebugParams(firstReferringParams);
         return firstReferringParams;
     }
@@ -1439,7 +1605,7 @@ public class Branch implements BranchViewHandler.IBranchViewEvents, SystemObserv
             }
         }
         String storedParam = prefHelper_.getInstallParams();
-        JSONObject firstReferringParams = convertParamsStringToDictionary(storedParam);
+        JSONObject firstReferringParams = firstReferringParams_.get(storedParam);
         firstReferringParams = appendDebugParams(firstReferringParams);
         getFirstReferringParamsLatch = null;
         return firstReferringParams;
@@ -1457,7 +1623,7 @@ public class Branch implements BranchViewHandler.IBranchViewEvents, SystemObserv
      */
     public JSONObject getLatestReferringParams() {
         String storedParam = prefHelper_.getSessionParams();
-        JSONObject latestParams = convertParamsStringToDictionary(storedParam);
+        JSONObject latestParams = latestReferringParams_.get(storedParam);
         latestParams = appendDebugParams(latestParams);
         return latestParams;
     }
@@ -1483,7 +1649,7 @@ public class Branch implements BranchViewHandler.IBranchViewEvents, SystemObserv
         } catch (InterruptedException e) {
         }
         String storedParam = prefHelper_.getSessionParams();
-        JSONObject latestParams = convertParamsStringToDictionary(storedParam);
+        JSONObject latestParams = latestReferringParams_.get(storedParam);
         latestParams = appendDebugParams(latestParams);
         getLatestReferringParamsLatch = null;
         return latestParams;
@@ -1602,7 +1768,7 @@ public class Branch implements BranchViewHandler.IBranchViewEvents, SystemObserv
         if (initState_ == SESSION_STATE.INITIALISED) {
             ServerResponse response = null;
             try {
-                int timeOut = prefHelper_.getTimeout() + 2000; // Time out is set to slightly more than link creation time to prevent any edge case
+                int timeOut = prefHelper_.getRequestTimeoutEstimator().getTimeout(Defines.RequestPath.GetURL.getPath()) + 2000; // Time out is set to slightly more than link creation time to prevent any edge case
                 response = new GetShortLinkTask().execute(req).get(timeOut, TimeUnit.MILLISECONDS);
             } catch (InterruptedException | ExecutionException | TimeoutException ignore) {
             }
@@ -1627,53 +1793,50 @@ public class Branch implements BranchViewHandler.IBranchViewEvents, SystemObserv
         return null;
     }
     
-    private JSONObject convertParamsStringToDictionary(String paramString) {
-        if (paramString.equals(PrefHelper.NO_STRING_VALUE)) {
-            return new JSONObject();
-        } else {
-            try {
-                return new JSONObject(paramString);
-            } catch (JSONException e) {
-                byte[] encodedArray = Base64.decode(paramString.getBytes(), Base64.NO_WRAP);
-                try {
-                    return new JSONObject(new String(encodedArray));
-                } catch (JSONException ex) {
-                    ex.printStackTrace();
-                    return new JSONObject();
-                }
-            }
-        }
-    }
-    
     void processNextQueueItem() {
         try {
             serverSema_.acquire();
             if (networkCount_ == 0 && requestQueue_.getSize() > 0) {
                 networkCount_ = 1;
-                ServerRequest req = requestQueue_.peek();
+                CircuitFilter circuitFilter = new CircuitFilter();
+                ServerRequest req = requestQueue_.peekNextToSend(circuitFilter);
                 
                 serverSema_.release();
                 if (req != null) {
-                    PrefHelper.Debug("processNextQueueItem, req " + req.getClass().getSimpleName());
+                    final ServerRequest nextReq = req;
+                    BranchLogger.debug(new BranchLogger.MessageSupplier() {
+                        @Override
+                        public String get() {
+                            return "processNextQueueItem, req " + nextReq.getClass().getSimpleName();
+                        }
+                    });
                     if (!req.isWaitingOnProcessToFinish()) {
                         // All request except Install request need a valid IdentityID
                         if (!(req instanceof ServerRequestRegisterInstall) && !hasUser()) {
                             PrefHelper.Debug("Branch Error: User session has not been initialized!");
                             networkCount_ = 0;
-                            req.handleFailure(BranchError.ERR_NO_SESSION, "");
+                            responseCache_.handleFailure(req, BranchError.ERR_NO_SESSION, "");
                         }
                         // Determine if a session is needed to execute (SDK-271)
                         else if (requestNeedsSession(req) && !isSessionAvailableForRequest()) {
                             networkCount_ = 0;
-                            req.handleFailure(BranchError.ERR_NO_SESSION, "");
+                            responseCache_.handleFailure(req, BranchError.ERR_NO_SESSION, "");
                         } else {
-                            executeTimedBranchPostTask(req, prefHelper_.getTimeout());
+                            RequestTimeoutEstimator timeoutEstimator = prefHelper_.getRequestTimeoutEstimator();
+                            timeoutEstimator.setConnectionType(SystemObserver.getConnectionType(context_));
+                            requestQueue_.setInFlight(req);
+                            executeTimedBranchPostTask(req, timeoutEstimator.getTimeout(req.getRequestPath()));
                         }
                     } else {
                         networkCount_ = 0;
                     }
                 } else {
-                    requestQueue_.remove(null); //In case there is any request nullified remove it.
+                    networkCount_ = 0;
+                    if (circuitFilter.retryDelay_ > 0) {
+                        // Every request that could be sent is to an endpoint whose circuit is open, failing
+                        // fast would retry them at once, so park the queue until the first may be probed again
+                        resumeQueueAfter(circuitFilter.retryDelay_);
+                    }
                 }
             } else {
                 serverSema_.release();
@@ -1683,9 +1846,45 @@ public class Branch implements BranchViewHandler.IBranchViewEvents, SystemObserv
         }
     }
 
+    /**
+     * Passes over the requests to be retried on failure whose endpoint has an open circuit, so
+     * requests to other endpoints are still sent, and keeps the shortest time until one of them
+     * may be probed again.
+     */
+    private class CircuitFilter implements ServerRequestQueue.SendFilter {
+        long retryDelay_ = 0;
+
+        @Override
+        public boolean isBlocked(ServerRequest request) {
+            if (!request.shouldRetryOnFail()) {
+                // Fails fast and is removed from the queue
+                return false;
+            }
+            long delay = branchRemoteInterface_.getCircuitBreaker().getRetryDelay(CircuitBreaker.getEndpoint(request.getRequestUrl()));
+            if (delay <= 0) {
+                return false;
+            }
+            retryDelay_ = retryDelay_ == 0 ? delay : Math.min(retryDelay_, delay);
+            return true;
+        }
+    }
+
+    private void resumeQueueAfter(long delay) {
+        if (queueResumeScheduled_) {
+            return;
+        }
+        queueResumeScheduled_ = true;
+        new Handler(Looper.getMainLooper()).postDelayed(new Runnable() {
+            @Override public void run() {
+                queueResumeScheduled_ = false;
+                processNextQueueItem();
+            }
+        }, delay);
+    }
+
     private void executeTimedBranchPostTask(final ServerRequest req, final int timeout) {
         final CountDownLatch latch = new CountDownLatch(1);
-        final BranchPostTask postTask = new BranchPostTask(branchReferral_, req, latch);
+        final BranchPostTask postTask = new BranchPostTask(this, req, latch);
 
         postTask.executeTask();
         if (Looper.myLooper() == Looper.getMainLooper()) {
@@ -1702,6 +1901,7 @@ public class Branch implements BranchViewHandler.IBranchViewEvents, SystemObserv
     private void awaitTimedBranchPostTask(CountDownLatch latch, int timeout, BranchPostTask postTask) {
         try {
             if (!latch.await(timeout, TimeUnit.MILLISECONDS)) {
+                prefHelper_.getRequestTimeoutEstimator().onTimeout(postTask.thisReq_.getRequestPath());
                 postTask.cancel(true);
                 postTask.onPostExecuteInner(new ServerResponse(postTask.thisReq_.getRequestPath(), ERR_BRANCH_REQ_TIMED_OUT, ""));
             }
@@ -1728,30 +1928,6 @@ public class Branch implements BranchViewHandler.IBranchViewEvents, SystemObserv
         return (hasSession() && hasDeviceFingerPrint());
     }
     
-    void updateAllRequestsInQueue() {
-        try {
-            for (int i = 0; i < requestQueue_.getSize(); i++) {
-                ServerRequest req = requestQueue_.peekAt(i);
-                if (req != null) {
-                    JSONObject reqJson = req.getPost();
-                    if (reqJson != null) {
-                        if (reqJson.has(Defines.Jsonkey.SessionID.getKey())) {
-                            req.getPost().put(Defines.Jsonkey.SessionID.getKey(), prefHelper_.getSessionID());
-                        }
-                        if (reqJson.has(Defines.Jsonkey.IdentityID.getKey())) {
-                            req.getPost().put(Defines.Jsonkey.IdentityID.getKey(), prefHelper_.getIdentityID());
-                        }
-                        if (reqJson.has(Defines.Jsonkey.DeviceFingerprintID.getKey())) {
-                            req.getPost().put(Defines.Jsonkey.DeviceFingerprintID.getKey(), prefHelper_.getDeviceFingerPrintID());
-                        }
-                    }
-                }
-            }
-        } catch (JSONException e) {
-            e.printStackTrace();
-        }
-    }
-
     public TrackingController getTrackingController() {
         return trackingController;
     }
@@ -1809,11 +1985,7 @@ public class Branch implements BranchViewHandler.IBranchViewEvents, SystemObserv
     }
     
     private void insertRequestAtFront(ServerRequest req) {
-        if (networkCount_ == 0) {
-            requestQueue_.insert(req, 0);
-        } else {
-            requestQueue_.insert(req, 1);
-        }
+        requestQueue_.insertAtFront(req);
     }
 
     private void initializeSession(ServerRequestInitSession initRequest, int delay) {
@@ -1918,6 +2090,8 @@ public class Branch implements BranchViewHandler.IBranchViewEvents, SystemObserv
 
         ServerRequestInitSession r = requestQueue_.getSelfInitRequest();
         if (r == null) {
+            // Start sending any held back close or events before the init request is put in front of them
+            deferralController_.flush("session init");
             insertRequestAtFront(request);
             processNextQueueItem();
         } else {
@@ -2007,9 +2181,25 @@ public class Branch implements BranchViewHandler.IBranchViewEvents, SystemObserv
             }
         }
 
-        requestQueue_.enqueue(req);
+        if (eventCoalescer_.handleNewRequest(req, this)) {
+            // Duplicates an event logged moments ago
+            return;
+        }
+
+        if (responseCache_.handleNewRequest(req, this)) {
+            // Answered from the cache, or by the identical lookup in flight
+            return;
+        }
+
+        boolean isDeferred = deferralController_.deferIfPossible(req);
+        // Stamped before it is queued, so the persisted form carries the queued time
         req.onRequestQueued();
+        requestQueue_.enqueue(req);
 
+        if (!isDeferred) {
+            // The radio is about to be woken up, send anything held back along with this request
+            deferralController_.onImmediateRequestQueued();
+        }
         processNextQueueItem();
     }
 
@@ -2232,7 +2422,7 @@ public class Branch implements BranchViewHandler.IBranchViewEvents, SystemObserv
         @Override protected ServerResponse doInBackground(ServerRequest... serverRequests) {
             return branchRemoteInterface_.make_restful_post(serverRequests[0].getPost(),
                     prefHelper_.getAPIBaseUrl() + Defines.RequestPath.GetURL.getPath(),
-                    Defines.RequestPath.GetURL.getPath(), prefHelper_.getBranchKey());
+                    Defines.RequestPath.GetURL.getPath(), prefHelper_.getBranchKey(), Branch.this);
         }
     }
 
@@ -2266,25 +2456,18 @@ public class Branch implements BranchViewHandler.IBranchViewEvents, SystemObserv
                 return;
             }
             if (latestParams.length() > 0) {
+                if (autoDeepLinkIndex_ == null) {
+                    autoDeepLinkIndex_ = AutoDeepLinkIndex.load(context_, prefHelper_);
+                }
                 // Check if auto deep link is disabled.
-                ApplicationInfo appInfo = context_.getPackageManager().getApplicationInfo(context_.getPackageName(), PackageManager.GET_META_DATA);
-                if (appInfo.metaData != null && appInfo.metaData.getBoolean(AUTO_DEEP_LINK_DISABLE, false)) {
+                if (autoDeepLinkIndex_.isDisabled()) {
                     return;
                 }
-                PackageInfo info = context_.getPackageManager().getPackageInfo(context_.getPackageName(), PackageManager.GET_ACTIVITIES | PackageManager.GET_META_DATA);
-                ActivityInfo[] activityInfos = info.activities;
                 int deepLinkActivityReqCode = DEF_AUTO_DEEP_LINK_REQ_CODE;
-                
-                if (activityInfos != null) {
-                    for (ActivityInfo activityInfo : activityInfos) {
-                        if (activityInfo != null && activityInfo.metaData != null && (activityInfo.metaData.getString(AUTO_DEEP_LINK_KEY) != null || activityInfo.metaData.getString(AUTO_DEEP_LINK_PATH) != null)) {
-                            if (checkForAutoDeepLinkKeys(latestParams, activityInfo) || checkForAutoDeepLinkPath(latestParams, activityInfo)) {
-                                deepLinkActivity = activityInfo.name;
-                                deepLinkActivityReqCode = activityInfo.metaData.getInt(AUTO_DEEP_LINK_REQ_CODE, DEF_AUTO_DEEP_LINK_REQ_CODE);
-                                break;
-                            }
-                        }
-                    }
+                AutoDeepLinkIndex.Route route = autoDeepLinkIndex_.resolve(latestParams);
+                if (route != null) {
+                    deepLinkActivity = route.activityName;
+                    deepLinkActivityReqCode = route.requestCode;
                 }
                 if (deepLinkActivity != null && getCurrentActivity() != null) {
                     Activity currentActivity = getCurrentActivity();
@@ -2316,57 +2499,6 @@ public class Branch implements BranchViewHandler.IBranchViewEvents, SystemObserv
         }
     }
     
-    private boolean checkForAutoDeepLinkKeys(JSONObject params, ActivityInfo activityInfo) {
-        if (activityInfo.metaData.getString(AUTO_DEEP_LINK_KEY) != null) {
-            String[] activityLinkKeys = activityInfo.metaData.getString(AUTO_DEEP_LINK_KEY).split(",");
-            for (String activityLinkKey : activityLinkKeys) {
-                if (params.has(activityLinkKey)) {
-                    return true;
-                }
-            }
-        }
-        return false;
-    }
-    
-    private boolean checkForAutoDeepLinkPath(JSONObject params, ActivityInfo activityInfo) {
-        String deepLinkPath = null;
-        try {
-            if (params.has(Defines.Jsonkey.AndroidDeepLinkPath.getKey())) {
-                deepLinkPath = params.getString(Defines.Jsonkey.AndroidDeepLinkPath.getKey());
-            } else if (params.has(Defines.Jsonkey.DeepLinkPath.getKey())) {
-                deepLinkPath = params.getString(Defines.Jsonkey.DeepLinkPath.getKey());
-            }
-        } catch (JSONException ignored) {
-        }
-        if (activityInfo.metaData.getString(AUTO_DEEP_LINK_PATH) != null && deepLinkPath != null) {
-            String[] activityLinkPaths = activityInfo.metaData.getString(AUTO_DEEP_LINK_PATH).split(",");
-            for (String activityLinkPath : activityLinkPaths) {
-                if (pathMatch(activityLinkPath.trim(), deepLinkPath)) {
-                    return true;
-                }
-            }
-        }
-        return false;
-    }
-    
-    private boolean pathMatch(String templatePath, String path) {
-        boolean matched = true;
-        String[] pathSegmentsTemplate = templatePath.split("\\?")[0].split("/");
-        String[] pathSegmentsTarget = path.split("\\?")[0].split("/");
-        if (pathSegmentsTemplate.length != pathSegmentsTarget.length) {
-            return false;
-        }
-        for (int i = 0; i < pathSegmentsTemplate.length && i < pathSegmentsTarget.length; i++) {
-            String pathSegmentTemplate = pathSegmentsTemplate[i];
-            String pathSegmentTarget = pathSegmentsTarget[i];
-            if (!pathSegmentTemplate.equals(pathSegmentTarget) && !pathSegmentTemplate.contains("*")) {
-                matched = false;
-                break;
-            }
-        }
-        return matched;
-    }
-
     /**
      * Enable Logging, independent of Debug Mode.
      */
@@ -2382,6 +2514,77 @@ public class Branch implements BranchViewHandler.IBranchViewEvents, SystemObserv
         PrefHelper.enableLogging(false);
     }
 
+    /**
+     * <p>Keeps the most recent SDK log records in memory, including debug messages while logging
+     * is disabled, so they can be retrieved with {@link #dumpLogBuffer()} when debugging issues in
+     * the field.</p>
+     */
+    public static void enableLogBuffer() {
+        enableLogBuffer(BranchLogger.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * <p>Keeps at most the given number of most recent SDK log records in memory.</p>
+     *
+     * @param maxRecords Maximum number of log records kept in memory.
+     */
+    public static void enableLogBuffer(int maxRecords) {
+        BranchLogger.enableBuffer(maxRecords);
+    }
+
+    /**
+     * Disables the in-memory log buffer and discards any buffered records.
+     */
+    public static void disableLogBuffer() {
+        BranchLogger.disableBuffer();
+    }
+
+    /**
+     * @return The buffered SDK log records, oldest first, one per line. Null if the log buffer is
+     * not enabled.
+     */
+    public static String dumpLogBuffer() {
+        return BranchLogger.dumpBuffer();
+    }
+
+    /**
+     * <p>Enables recording of SDK session timeline spans (auto instance creation, intent parsing,
+     * process wait locks, queue wait, network round trips, response handling and callbacks) into
+     * an in-memory ring buffer. Use {@link #dumpSessionTrace(File)} to export them.</p>
+     * <p>Call this before {@link #getAutoInstance(Context)} to include SDK start up.</p>
+     */
+    public static void enableSessionTracing() {
+        enableSessionTracing(SessionTracer.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * <p>Enables recording of SDK session timeline spans, keeping at most the given number of
+     * most recent spans.</p>
+     *
+     * @param maxEvents Maximum number of spans kept in memory.
+     */
+    public static void enableSessionTracing(int maxEvents) {
+        SessionTracer.enable(maxEvents);
+    }
+
+    /**
+     * Disables session tracing and discards any recorded spans.
+     */
+    public static void disableSessionTracing() {
+        SessionTracer.disable();
+    }
+
+    /**
+     * <p>Writes the recorded session spans to the given file in Chrome trace-event JSON format,
+     * which can be opened in chrome://tracing or ui.perfetto.dev.</p>
+     *
+     * @param file {@link File} to write the trace to.
+     * @return True if the trace was written, false if tracing is not enabled or the write failed.
+     */
+    public static boolean dumpSessionTrace(@NonNull File file) {
+        return SessionTracer.dump(file);
+    }
+
     /**
      * @deprecated use Branch.bypassWaitingForIntent(true)
      */
@@ -2535,8 +2738,9 @@ public class Branch implements BranchViewHandler.IBranchViewEvents, SystemObserv
      */
     public static boolean showInstallPrompt(@NonNull Activity activity, int requestCode) {
         String installReferrerString = "";
-        if (Branch.getInstance() != null) {
-            JSONObject latestReferringParams = Branch.getInstance().getLatestReferringParams();
+        Branch branch = Branch.getInstance();
+        if (branch != null) {
+            JSONObject latestReferringParams = branch.getLatestReferringParams();
             String referringLinkKey = "~" + Defines.Jsonkey.ReferringLink.getKey();
             if (latestReferringParams != null && latestReferringParams.has(referringLinkKey)) {
                 String referringLink = "";
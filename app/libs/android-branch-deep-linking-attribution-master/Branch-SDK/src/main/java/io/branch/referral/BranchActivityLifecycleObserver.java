@@ -25,19 +25,20 @@ class BranchActivityLifecycleObserver implements Application.ActivityLifecycleCa
 
     @Override
     public void onActivityCreated(@NonNull Activity activity, @Nullable Bundle bundle) {
-        PrefHelper.Debug("onActivityCreated, activity = " + activity);
+        logActivityEvent("onActivityCreated", activity);
         Branch branch = Branch.getInstance();
         if (branch == null) return;
 
         branch.setIntentState(Branch.INTENT_STATE.PENDING);
-        if (BranchViewHandler.getInstance().isInstallOrOpenBranchViewPending(activity.getApplicationContext())) {
+        // Branch views are only loaded once the server sent one
+        if (BranchFeatures.branchViewsUsed_ && BranchViewHandler.getInstance().isInstallOrOpenBranchViewPending(activity.getApplicationContext())) {
             BranchViewHandler.getInstance().showPendingBranchView(activity);
         }
     }
 
     @Override
     public void onActivityStarted(@NonNull Activity activity) {
-        PrefHelper.Debug("onActivityStarted, activity = " + activity);
+        logActivityEvent("onActivityStarted", activity);
         Branch branch = Branch.getInstance();
         if (branch == null) {
             return;
@@ -55,7 +56,7 @@ class BranchActivityLifecycleObserver implements Application.ActivityLifecycleCa
 
     @Override
     public void onActivityResumed(@NonNull Activity activity) {
-        PrefHelper.Debug("onActivityResumed, activity = " + activity);
+        logActivityEvent("onActivityResumed", activity);
         Branch branch = Branch.getInstance();
         if (branch == null) return;
 
@@ -83,7 +84,7 @@ class BranchActivityLifecycleObserver implements Application.ActivityLifecycleCa
 
     @Override
     public void onActivityPaused(@NonNull Activity activity) {
-        PrefHelper.Debug("onActivityPaused, activity = " + activity);
+        logActivityEvent("onActivityPaused", activity);
         Branch branch = Branch.getInstance();
         if (branch == null) return;
 
@@ -95,7 +96,7 @@ class BranchActivityLifecycleObserver implements Application.ActivityLifecycleCa
 
     @Override
     public void onActivityStopped(@NonNull Activity activity) {
-        PrefHelper.Debug("onActivityStopped, activity = " + activity);
+        logActivityEvent("onActivityStopped", activity);
         Branch branch = Branch.getInstance();
         if (branch == null) return;
 
@@ -112,18 +113,30 @@ class BranchActivityLifecycleObserver implements Application.ActivityLifecycleCa
 
     @Override
     public void onActivityDestroyed(@NonNull Activity activity) {
-        PrefHelper.Debug("onActivityDestroyed, activity = " + activity);
+        logActivityEvent("onActivityDestroyed", activity);
         Branch branch = Branch.getInstance();
         if (branch == null) return;
 
         if (branch.getCurrentActivity() == activity) {
             branch.currentActivityReference_.clear();
         }
-        BranchViewHandler.getInstance().onCurrentActivityDestroyed(activity);
+        if (BranchFeatures.branchViewsUsed_) {
+            BranchViewHandler.getInstance().onCurrentActivityDestroyed(activity);
+        }
 
         activitiesOnStack_.remove(activity.toString());
     }
 
+    // Activity.toString() is only called while debug logging is enabled
+    private static void logActivityEvent(final String event, final Activity activity) {
+        BranchLogger.debug(new BranchLogger.MessageSupplier() {
+            @Override
+            public String get() {
+                return event + ", activity = " + activity;
+            }
+        });
+    }
+
     private void maybeRefreshAdvertisingID(Context context) {
         Branch branch = Branch.getInstance();
         if (branch == null) return;
@@ -1,6 +1,7 @@
 package io.branch.referral;
 
 import android.app.Application;
+import android.content.Context;
 
 /**
  * <p>
@@ -20,6 +21,13 @@ import android.app.Application;
  */
 public class BranchApp extends Application {
 
+    @Override
+    protected void attachBaseContext(Context base) {
+        super.attachBaseContext(base);
+        // Runs before onCreate(), and before any content provider is created
+        BranchJsonConfig.preload(base);
+    }
+
     @Override
     public void onCreate() {
         super.onCreate();
@@ -0,0 +1,94 @@
+package io.branch.referral;
+
+import android.app.Activity;
+import android.content.Context;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Constructor;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.branch.indexing.BranchUniversalObject;
+import io.branch.referral.util.LinkProperties;
+
+/**
+ * <p>
+ * Discovers the optional feature modules of the SDK at runtime. A feature module is an artifact
+ * apart from the attribution core, e.g. {@code library-validators} or {@code library-appindexing},
+ * with an entry point that implements one of the interfaces below. The core only refers to the
+ * entry point by its class name, so it does not link against the module, and none of the classes
+ * of a feature are loaded before the app uses it, or at all if the app does not include it.
+ * </p>
+ * <p>
+ * Entry points are found by name through {@link IntegrationRegistry} rather than with
+ * {@link java.util.ServiceLoader}, which scans the APK for its service files on first use. Each
+ * entry point is created once, and its absence is remembered as well.
+ * </p>
+ */
+public final class BranchFeatures {
+    /**
+     * Entry point of the {@code library-appindexing} module, publishing Branch Universal Objects
+     * with Firebase app indexing.
+     */
+    public interface AppIndexing {
+        void addToIndex(Context context, BranchUniversalObject buo, LinkProperties linkProperties);
+
+        void removeFromIndex(Context context, BranchUniversalObject buo, LinkProperties linkProperties);
+    }
+
+    /**
+     * Entry point of the {@code library-validators} module, validating the deep link routing of
+     * the app when it is opened by a validation link from the Branch dashboard.
+     */
+    public interface LinkValidator {
+        void onSessionInitialized(WeakReference<Activity> currentActivity);
+    }
+
+    static final String APP_INDEXING_ENTRY_POINT = "io.branch.indexing.AppIndexingFeature";
+    static final String LINK_VALIDATOR_ENTRY_POINT = "io.branch.referral.validators.LinkValidatorFeature";
+
+    // Marks the entry points resolved as not available
+    private static final Object MISSING = new Object();
+    private static final ConcurrentHashMap<String, Object> entryPoints_ = new ConcurrentHashMap<>();
+
+    // Set once a Branch view is received, the activity lifecycle callbacks only load BranchViewHandler after that
+    static volatile boolean branchViewsUsed_ = false;
+
+    private BranchFeatures() {
+    }
+
+    /**
+     * @return The app indexing feature, or null if the app does not include {@code library-appindexing}.
+     */
+    public static AppIndexing getAppIndexing() {
+        return find(APP_INDEXING_ENTRY_POINT, AppIndexing.class);
+    }
+
+    /**
+     * @return The link validator, or null if the app does not include {@code library-validators}.
+     */
+    static LinkValidator getLinkValidator() {
+        return find(LINK_VALIDATOR_ENTRY_POINT, LinkValidator.class);
+    }
+
+    // Package Private, for Unit Testing
+    static <T> T find(String className, Class<T> type) {
+        Object entryPoint = entryPoints_.get(className);
+        if (entryPoint == null) {
+            entryPoint = MISSING;
+            Class<?> entryPointClass = IntegrationRegistry.findClass(className);
+            Constructor<?> constructor = IntegrationRegistry.findConstructor(entryPointClass);
+            if (constructor != null && type.isAssignableFrom(entryPointClass)) {
+                try {
+                    entryPoint = constructor.newInstance();
+                } catch (Exception e) {
+                    PrefHelper.Debug("Unable to load the Branch feature " + className + ": " + e.getMessage());
+                }
+            }
+            Object previous = entryPoints_.putIfAbsent(className, entryPoint);
+            if (previous != null) {
+                entryPoint = previous;
+            }
+        }
+        return entryPoint == MISSING ? null : type.cast(entryPoint);
+    }
+}
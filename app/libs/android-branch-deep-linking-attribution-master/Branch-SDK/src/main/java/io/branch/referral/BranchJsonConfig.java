@@ -3,7 +3,12 @@ package io.branch.referral;
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
 import android.content.Context;
 import android.util.Log;
 
@@ -15,13 +20,21 @@ import androidx.annotation.Nullable;
 
 /**
  * Created by jdee on 6/7/17.
+ * <p>
+ * The configuration is compiled into typed fields once, when it is loaded. It is loaded from
+ * {@code io.branch.referral.GeneratedBranchJsonConfig} if the app generated it from branch.json at
+ * build time with the branch-json-config.gradle script, without any asset I/O, and from the
+ * branch.json asset otherwise. {@link #preload(Context)} starts loading it in the background at
+ * process start, {@link BranchApp} does so from {@link BranchApp#attachBaseContext(Context)}.
+ * </p>
  */
 
 public class BranchJsonConfig {
-    private JSONObject mConfiguration = null;
     public static final String TAG = "BranchJsonConfig";
 
     private static final String fileName = "branch.json";
+    // Generated from branch.json by branch-json-config.gradle, see there for the generated code
+    private static final String GENERATED_CONFIG_CLASS = "io.branch.referral.GeneratedBranchJsonConfig";
 
     public enum BranchJsonKey {
         branchKey,
@@ -48,134 +61,213 @@ public class BranchJsonConfig {
        }
     */
 
-    private BranchJsonConfig(Context context) {
-        try {
-            BufferedReader reader = null;
-            try {
-                reader = new BufferedReader(new InputStreamReader(context.getAssets().open(fileName)));
-            } catch (FileNotFoundException e) {
-                return;
-            }
+    // Values as configured by BranchJsonKey ordinal, null if there is no configuration
+    private final Object[] values_;
+    private final String branchKey_;
+    private final String testKey_;
+    private final String liveKey_;
+    private final Boolean useTestInstance_;
+    private final Boolean enableFacebookLinkCheck_;
+    private final Boolean enableLogging_;
 
-            StringBuilder builder = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                builder.append(line);
-            }
+    private BranchJsonConfig() {
+        values_ = null;
+        branchKey_ = testKey_ = liveKey_ = null;
+        useTestInstance_ = enableFacebookLinkCheck_ = enableLogging_ = null;
+    }
 
-            mConfiguration = new JSONObject(builder.toString());
-        }
-        catch (IOException e) {
-            Log.e(TAG, "Error loading branch.json: " + e.getMessage());
-        }
-        catch (JSONException e) {
-            Log.e(TAG, "Error parsing branch.json: " + e.getMessage());
+    private BranchJsonConfig(@NonNull JSONObject configuration) {
+        values_ = new Object[BranchJsonKey.values().length];
+        for (BranchJsonKey key : BranchJsonKey.values()) {
+            values_[key.ordinal()] = configuration.opt(key.toString());
         }
+        branchKey_ = stringValue(BranchJsonKey.branchKey);
+        testKey_ = stringValue(BranchJsonKey.testKey);
+        liveKey_ = stringValue(BranchJsonKey.liveKey);
+        useTestInstance_ = booleanValue(BranchJsonKey.useTestInstance);
+        enableFacebookLinkCheck_ = booleanValue(BranchJsonKey.enableFacebookLinkCheck);
+        enableLogging_ = booleanValue(BranchJsonKey.enableLogging);
     }
 
-    private static BranchJsonConfig instance;
-    public static BranchJsonConfig getInstance(@NonNull Context context) {
-        if (instance == null) {
-            instance = new BranchJsonConfig(context);
-        }
-        return instance;
+    /**
+     * Constructor for the configuration generated from branch.json at build time, null for the
+     * keys missing in branch.json.
+     */
+    BranchJsonConfig(String branchKey, String testKey, String liveKey, Boolean useTestInstance,
+                     Boolean enableFacebookLinkCheck, Boolean enableLogging) {
+        values_ = new Object[BranchJsonKey.values().length];
+        values_[BranchJsonKey.branchKey.ordinal()] = branchKey_ = branchKey;
+        values_[BranchJsonKey.testKey.ordinal()] = testKey_ = testKey;
+        values_[BranchJsonKey.liveKey.ordinal()] = liveKey_ = liveKey;
+        values_[BranchJsonKey.useTestInstance.ordinal()] = useTestInstance_ = useTestInstance;
+        values_[BranchJsonKey.enableFacebookLinkCheck.ordinal()] = enableFacebookLinkCheck_ = enableFacebookLinkCheck;
+        values_[BranchJsonKey.enableLogging.ordinal()] = enableLogging_ = enableLogging;
     }
 
-    public boolean isValid() {
-        return mConfiguration != null;
+    private String stringValue(BranchJsonKey key) {
+        Object value = values_[key.ordinal()];
+        return value == null ? null : value.toString();
     }
-    public boolean isValid(BranchJsonKey key) {
-        return mConfiguration != null && mConfiguration.has(key.toString());
+
+    private Boolean booleanValue(BranchJsonKey key) {
+        Object value = values_[key.ordinal()];
+        if (value == null) {
+            return null;
+        } else if (value instanceof Boolean) {
+            return (Boolean) value;
+        } else if ("true".equalsIgnoreCase(value.toString())) {
+            return true;
+        } else if (!"false".equalsIgnoreCase(value.toString())) {
+            Log.e(TAG, "Error parsing branch.json: " + key + " is not a boolean");
+        }
+        return false;
     }
 
-    @Nullable
-    public Object get(BranchJsonKey key) {
-        if (!isValid(key)) return null;
+    private static volatile BranchJsonConfig instance;
+    private static FutureTask<BranchJsonConfig> pendingLoad_;
+
+    /**
+     * <p>Starts loading the configuration on a background thread, so it is ready by the time
+     * Branch is initialized. Call it as early as possible, e.g. from
+     * {@code Application.attachBaseContext()}, if the app does not use {@link BranchApp}.</p>
+     *
+     * @param context A {@link Context} with access to the app assets.
+     */
+    public static void preload(@NonNull Context context) {
+        FutureTask<BranchJsonConfig> load;
+        synchronized (BranchJsonConfig.class) {
+            if (instance != null || pendingLoad_ != null) {
+                return;
+            }
+            load = pendingLoad_ = newLoad(context);
+        }
+        new Thread(load, "BranchJsonConfigLoad").start();
+    }
 
+    public static BranchJsonConfig getInstance(@NonNull Context context) {
+        BranchJsonConfig config = instance;
+        if (config != null) {
+            return config;
+        }
+        FutureTask<BranchJsonConfig> load;
+        synchronized (BranchJsonConfig.class) {
+            if (instance != null) {
+                return instance;
+            }
+            if (pendingLoad_ == null) {
+                pendingLoad_ = newLoad(context);
+            }
+            load = pendingLoad_;
+        }
+        // Loads on this thread unless the background load already started, then waits for it
+        load.run();
         try {
-            return mConfiguration.get(key.toString());
-        } catch (JSONException exception) {
-            Log.e(TAG, "Error parsing branch.json: " + exception.getMessage());
-            return null;
+            config = load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            config = load(context);
+        } catch (ExecutionException e) {
+            config = new BranchJsonConfig();
+        }
+        synchronized (BranchJsonConfig.class) {
+            if (instance == null) {
+                instance = config;
+                pendingLoad_ = null;
+            }
+            return instance;
         }
     }
 
-    public @Nullable Boolean getLoggingMode() {
-        if (!isValid(BranchJsonKey.enableLogging)) return null;
+    private static FutureTask<BranchJsonConfig> newLoad(final Context context) {
+        return new FutureTask<>(new Callable<BranchJsonConfig>() {
+            @Override
+            public BranchJsonConfig call() {
+                return load(context);
+            }
+        });
+    }
 
+    private static BranchJsonConfig load(Context context) {
         try {
-            return mConfiguration.getBoolean(BranchJsonKey.enableLogging.toString());
-        } catch (JSONException exception) {
-            Log.e(TAG, "Error parsing branch.json: " + exception.getMessage());
-            return false;
+            return (BranchJsonConfig) Class.forName(GENERATED_CONFIG_CLASS).getDeclaredMethod("create").invoke(null);
+        } catch (ClassNotFoundException ignore) {
+            // Not generated at build time, read from the asset
+        } catch (Exception e) {
+            Log.e(TAG, "Error loading " + GENERATED_CONFIG_CLASS + ": " + e.getMessage());
         }
-    }
 
-    @Nullable
-    public String getBranchKey() {
-        if (isValid(BranchJsonKey.branchKey) ||
-                (isValid(BranchJsonKey.liveKey) && isValid(BranchJsonKey.testKey) && isValid(BranchJsonKey.useTestInstance))) {
+        InputStream asset;
+        try {
+            asset = context.getAssets().open(fileName);
+        } catch (FileNotFoundException e) {
+            return new BranchJsonConfig();
+        } catch (IOException e) {
+            Log.e(TAG, "Error loading branch.json: " + e.getMessage());
+            return new BranchJsonConfig();
+        }
+        return load(asset);
+    }
 
+    /**
+     * @param asset The contents of branch.json, closed when read.
+     * @return The configuration, invalid if it can not be read or parsed.
+     */
+    // Package Private
+    static BranchJsonConfig load(InputStream asset) {
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(asset));
             try {
-                if (isValid(BranchJsonKey.branchKey)) {
-                    return mConfiguration.getString(BranchJsonKey.branchKey.toString());
-                } else {
-                    return getUseTestInstance() ? getTestKey() : getLiveKey();
+                StringBuilder builder = new StringBuilder();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    builder.append(line);
                 }
-            } catch (JSONException exception) {
-                Log.e(TAG, "Error parsing branch.json: " + exception.getMessage());
-                return null;
+                return new BranchJsonConfig(new JSONObject(builder.toString()));
+            } finally {
+                reader.close();
             }
-        } else {
-            return null;
         }
+        catch (IOException e) {
+            Log.e(TAG, "Error loading branch.json: " + e.getMessage());
+        }
+        catch (JSONException e) {
+            Log.e(TAG, "Error parsing branch.json: " + e.getMessage());
+        }
+        return new BranchJsonConfig();
+    }
+
+    public boolean isValid() {
+        return values_ != null;
+    }
+    public boolean isValid(BranchJsonKey key) {
+        return values_ != null && values_[key.ordinal()] != null;
     }
 
     @Nullable
-    private String getLiveKey() {
-        if (!isValid(BranchJsonKey.liveKey)) return null;
+    public Object get(BranchJsonKey key) {
+        return isValid(key) ? values_[key.ordinal()] : null;
+    }
 
-        try {
-            return mConfiguration.getString(BranchJsonKey.liveKey.toString());
-        } catch (JSONException exception) {
-            Log.e(TAG, "Error parsing branch.json: " + exception.getMessage());
-            return null;
-        }
+    public @Nullable Boolean getLoggingMode() {
+        return enableLogging_;
     }
 
     @Nullable
-    private String getTestKey() {
-        if (mConfiguration == null) return null;
-
-        try {
-            if (!mConfiguration.has("testKey")) return null;
-            return mConfiguration.getString("testKey");
-        }
-        catch (JSONException exception) {
-            Log.e(TAG, "Error parsing branch.json: " + exception.getMessage());
+    public String getBranchKey() {
+        if (branchKey_ != null) {
+            return branchKey_;
+        } else if (liveKey_ != null && testKey_ != null && useTestInstance_ != null) {
+            return useTestInstance_ ? testKey_ : liveKey_;
+        } else {
             return null;
         }
     }
 
     public @Nullable Boolean getUseTestInstance() {
-        if (isValid(BranchJsonKey.useTestInstance)) return null;
-
-        try {
-            return mConfiguration.getBoolean(BranchJsonKey.useTestInstance.toString());
-        } catch (JSONException exception) {
-            Log.e(TAG, "Error parsing branch.json: " + exception.getMessage());
-            return false;
-        }
+        return useTestInstance_;
     }
 
     public @Nullable Boolean getEnableFacebookLinkCheck() {
-        if (!isValid(BranchJsonKey.enableFacebookLinkCheck)) return null;
-
-        try {
-            return mConfiguration.getBoolean(BranchJsonKey.enableFacebookLinkCheck.toString());
-        } catch (JSONException exception) {
-            Log.e(TAG, "Error parsing branch.json: " + exception.getMessage());
-            return false;
-        }
+        return enableFacebookLinkCheck_;
     }
 }
@@ -0,0 +1,182 @@
+package io.branch.referral;
+
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * <p>
+ * Logging facility for the SDK. Debug messages go to logcat when logging is enabled with
+ * {@link Branch#enableLogging()}, and to an optional in-memory ring buffer of the most recent
+ * records that can be dumped on demand with {@link Branch#dumpLogBuffer()} for field debugging.
+ * </p>
+ * <p>
+ * While neither is enabled a debug call costs a single volatile read. Messages that are expensive
+ * to build should either be guarded with {@link #isDebugEnabled()} or passed as a
+ * {@link MessageSupplier}, so that nothing is formatted or serialized when logging is disabled.
+ * </p>
+ */
+public final class BranchLogger {
+    static final int DEFAULT_CAPACITY = 512;
+    private static final String TAG = "BranchSDK";
+
+    private static final char LEVEL_DEBUG = 'D';
+    private static final char LEVEL_INFO = 'I';
+    private static final char LEVEL_WARN = 'W';
+    private static final char LEVEL_ERROR = 'E';
+
+    private static volatile boolean logcatEnabled_ = false;
+    // Null while the ring buffer is disabled
+    private static volatile BranchLogger buffer_;
+
+    private final Record[] records_;
+    private int next_;
+    private long recorded_;
+
+    /**
+     * Builds a log message only when it is actually going to be logged.
+     */
+    public interface MessageSupplier {
+        String get();
+    }
+
+    private static class Record {
+        final long timeMillis;
+        final char level;
+        final String threadName;
+        final String message;
+
+        Record(char level, String message) {
+            this.timeMillis = System.currentTimeMillis();
+            this.level = level;
+            this.threadName = Thread.currentThread().getName();
+            this.message = message;
+        }
+    }
+
+    private BranchLogger(int capacity) {
+        records_ = new Record[Math.max(1, capacity)];
+    }
+
+    static void setLogcatEnabled(boolean enabled) {
+        logcatEnabled_ = enabled;
+    }
+
+    /**
+     * Starts keeping the given number of most recent log records in memory, including debug
+     * messages while logcat logging is disabled. Any previously buffered records are discarded.
+     */
+    static void enableBuffer(int capacity) {
+        buffer_ = new BranchLogger(capacity);
+    }
+
+    static void disableBuffer() {
+        buffer_ = null;
+    }
+
+    /**
+     * @return True if debug messages are logged to logcat or the ring buffer. Guard building
+     * expensive messages with this.
+     */
+    public static boolean isDebugEnabled() {
+        return logcatEnabled_ || buffer_ != null;
+    }
+
+    public static void debug(String message) {
+        if (isDebugEnabled() && !TextUtils.isEmpty(message)) {
+            log(LEVEL_DEBUG, message, null);
+        }
+    }
+
+    /**
+     * Logs the message from the given supplier, which is only called if debug logging is enabled.
+     */
+    public static void debug(MessageSupplier supplier) {
+        if (isDebugEnabled()) {
+            String message = supplier.get();
+            if (!TextUtils.isEmpty(message)) {
+                log(LEVEL_DEBUG, message, null);
+            }
+        }
+    }
+
+    static void info(String message) {
+        if (!TextUtils.isEmpty(message)) {
+            log(LEVEL_INFO, message, null);
+        }
+    }
+
+    static void warn(String message) {
+        if (!TextUtils.isEmpty(message)) {
+            log(LEVEL_WARN, message, null);
+        }
+    }
+
+    static void error(String message, Throwable t) {
+        if (!TextUtils.isEmpty(message)) {
+            log(LEVEL_ERROR, message, t);
+        }
+    }
+
+    private static void log(char level, String message, Throwable t) {
+        BranchLogger buffer = buffer_;
+        if (buffer != null) {
+            buffer.add(new Record(level, t == null ? message : message + " " + t));
+        }
+        if (level == LEVEL_ERROR) {
+            Log.e(TAG, message, t);
+        } else if (level == LEVEL_WARN) {
+            Log.w(TAG, message);
+        } else if (level == LEVEL_INFO || logcatEnabled_) {
+            Log.i(TAG, message);
+        }
+    }
+
+    private synchronized void add(Record record) {
+        records_[next_] = record;
+        next_ = (next_ + 1) % records_.length;
+        recorded_++;
+    }
+
+    private synchronized Record[] snapshot() {
+        int count = (int) Math.min(recorded_, records_.length);
+        Record[] result = new Record[count];
+        int start = recorded_ > records_.length ? next_ : 0;
+        for (int i = 0; i < count; i++) {
+            result[i] = records_[(start + i) % records_.length];
+        }
+        return result;
+    }
+
+    /**
+     * @return The buffered log records, oldest first, one per line in a logcat like format. Null
+     * if the ring buffer is disabled.
+     */
+    static String dumpBuffer() {
+        BranchLogger buffer = buffer_;
+        if (buffer == null) {
+            return null;
+        }
+        SimpleDateFormat dateFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+        StringBuilder dump = new StringBuilder();
+        long dropped;
+        Record[] records;
+        synchronized (buffer) {
+            records = buffer.snapshot();
+            dropped = buffer.recorded_ - records.length;
+        }
+        if (dropped > 0) {
+            dump.append(dropped).append(" earlier records dropped\n");
+        }
+        for (Record record : records) {
+            dump.append(dateFormat.format(new Date(record.timeMillis)))
+                    .append(' ').append(record.level)
+                    .append(' ').append(record.threadName)
+                    .append(": ").append(record.message).append('\n');
+        }
+        return dump.toString();
+    }
+}
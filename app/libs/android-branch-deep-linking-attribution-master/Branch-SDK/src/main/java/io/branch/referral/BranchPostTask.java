@@ -6,6 +6,7 @@ import androidx.annotation.Nullable;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
 
 /**
@@ -37,23 +38,78 @@ public class BranchPostTask extends BranchAsyncTask<Void, Void, ServerResponse>
     protected ServerResponse doInBackground(Void... voids) {
         // update queue wait time
         branch.addExtraInstrumentationData(thisReq_.getRequestPath() + "-" + Defines.Jsonkey.Queue_Wait_Time.getKey(), String.valueOf(thisReq_.getQueueWaitTime()));
+        SessionTracer.end("queue wait", thisReq_.getRequestPath(), thisReq_.queuedTraceTime_);
+        branch.requestQueue_.onRequestSent(thisReq_);
         thisReq_.doFinalUpdateOnBackgroundThread();
         if (branch.isTrackingDisabled() && !thisReq_.prepareExecuteWithoutTracking()) {
             return new ServerResponse(thisReq_.getRequestPath(), BranchError.ERR_BRANCH_TRACKING_DISABLED, "");
         }
         String branchKey = branch.prefHelper_.getBranchKey();
+        RequestTimeoutEstimator timeoutEstimator = branch.prefHelper_.getRequestTimeoutEstimator();
+        branch.addExtraInstrumentationData(thisReq_.getRequestPath() + "-" + Defines.Jsonkey.Branch_Request_Timeout.getKey(), String.valueOf(timeoutEstimator.getTimeout(thisReq_.getRequestPath())));
+        long requestStartTime = System.nanoTime();
+        JSONObject payload = thisReq_.isGetRequest() ? thisReq_.getGetParams() : thisReq_.getPostWithInstrumentationValues(branch.instrumentationExtraData_);
+        branch.eventCoalescer_.onRequestSent(thisReq_, payload);
         ServerResponse result;
-        if (thisReq_.isGetRequest()) {
-            result = branch.getBranchRemoteInterface().make_restful_get(thisReq_.getRequestUrl(), thisReq_.getGetParams(), thisReq_.getRequestPath(), branchKey);
+        if (thisReq_.isIdempotent() && branch.requestHedger_.isEnabled()) {
+            result = sendHedged(payload, branchKey);
         } else {
-            result = branch.getBranchRemoteInterface().make_restful_post(thisReq_.getPostWithInstrumentationValues(branch.instrumentationExtraData_), thisReq_.getRequestUrl(), thisReq_.getRequestPath(), branchKey);
+            result = send(payload, branchKey);
         }
+        // The round trip of each attempt is sampled by the transport, only the outcome is left
+        onRequestCompleted(timeoutEstimator, result, (System.nanoTime() - requestStartTime) / 1000000);
         if (latch_ != null) {
             latch_.countDown();
         }
         return result;
     }
 
+    private ServerResponse send(JSONObject payload, String branchKey) {
+        if (thisReq_.isGetRequest()) {
+            return branch.getBranchRemoteInterface().make_restful_get(thisReq_.getRequestUrl(), payload, thisReq_.getRequestPath(), branchKey, branch);
+        } else {
+            return branch.getBranchRemoteInterface().make_restful_post(payload, thisReq_.getRequestUrl(), thisReq_.getRequestPath(), branchKey, branch);
+        }
+    }
+
+    private ServerResponse sendHedged(final JSONObject payload, final String branchKey) {
+        final JSONObject hedgePayload;
+        try {
+            // The network layer adds to the payload, each attempt needs its own
+            hedgePayload = payload == null ? null : new JSONObject(payload.toString());
+        } catch (JSONException e) {
+            return send(payload, branchKey);
+        }
+        try {
+            return branch.requestHedger_.execute(thisReq_.getRequestPath(), new Callable<ServerResponse>() {
+                @Override
+                public ServerResponse call() {
+                    return send(payload, branchKey);
+                }
+            }, new Callable<ServerResponse>() {
+                @Override
+                public ServerResponse call() {
+                    return send(hedgePayload, branchKey);
+                }
+            });
+        } catch (InterruptedException e) {
+            // Cancelled once the request timed out on the queue side
+            Thread.currentThread().interrupt();
+            return new ServerResponse(thisReq_.getRequestPath(), BranchError.ERR_BRANCH_REQ_TIMED_OUT, "");
+        }
+    }
+
+    private void onRequestCompleted(RequestTimeoutEstimator timeoutEstimator, ServerResponse result, long elapsedTime) {
+        if (result == null || isCancelled()) {
+            // A cancelled task already timed out waiting on the queue side
+            return;
+        }
+        if (result.getStatusCode() == BranchError.ERR_BRANCH_REQ_TIMED_OUT) {
+            timeoutEstimator.onTimeout(thisReq_.getRequestPath());
+            branch.addExtraInstrumentationData(thisReq_.getRequestPath() + "-" + Defines.Jsonkey.Branch_Request_Timed_Out.getKey(), String.valueOf(elapsedTime));
+        }
+    }
+
     @Override
     protected void onPostExecute(ServerResponse serverResponse) {
         super.onPostExecute(serverResponse);
@@ -64,16 +120,20 @@ public class BranchPostTask extends BranchAsyncTask<Void, Void, ServerResponse>
         if (latch_ != null) {
             latch_.countDown();
         }
+        branch.requestQueue_.onRequestCompleted(thisReq_);
         if (serverResponse == null) {
-            thisReq_.handleFailure(BranchError.ERR_BRANCH_INVALID_REQUEST, "Null response.");
+            branch.responseCache_.handleFailure(thisReq_, BranchError.ERR_BRANCH_INVALID_REQUEST, "Null response.");
             return;
         }
 
         int status = serverResponse.getStatusCode();
+        long traceStart = SessionTracer.begin();
         if (status == 200) {
             onRequestSuccess(serverResponse);
+            SessionTracer.end("BranchPostTask.onRequestSuccess", thisReq_.getRequestPath(), traceStart);
         } else {
             onRequestFailed(serverResponse, status);
+            SessionTracer.end("BranchPostTask.onRequestFailed", thisReq_.getRequestPath(), traceStart);
         }
         branch.networkCount_ = 0;
 
@@ -84,7 +144,7 @@ public class BranchPostTask extends BranchAsyncTask<Void, Void, ServerResponse>
         // If the request succeeded
         @Nullable final JSONObject respJson = serverResponse.getObject();
         if (respJson == null) {
-            thisReq_.handleFailure(500, "Null response json.");
+            branch.responseCache_.handleFailure(thisReq_, 500, "Null response json.");
         }
 
         if (thisReq_ instanceof ServerRequestCreateUrl && respJson != null) {
@@ -100,58 +160,88 @@ public class BranchPostTask extends BranchAsyncTask<Void, Void, ServerResponse>
             //On Logout clear the link cache and all pending requests
             branch.linkCache_.clear();
             branch.requestQueue_.clear();
+            branch.responseCache_.invalidate();
+            branch.eventCoalescer_.clear();
+        } else if (thisReq_ instanceof ServerRequestIdentifyUserRequest || thisReq_ instanceof ServerRequestRedeemRewards) {
+            // Cached lookups belong to the previous user, or report the credits before redemption
+            branch.responseCache_.invalidate();
         }
 
 
+        boolean isInitSession = thisReq_ instanceof ServerRequestInitSession;
+        boolean isSessionUpdate = isInitSession || thisReq_ instanceof ServerRequestIdentifyUserRequest;
+        if (isSessionUpdate) {
+            // Write the new session state at once, before any callback can read it from another thread
+            branch.prefHelper_.beginSessionStateUpdate();
+        }
+        try {
+            handleSessionUpdate(serverResponse, respJson);
+        } finally {
+            if (isSessionUpdate) {
+                branch.prefHelper_.commitSessionStateUpdate();
+            }
+        }
+        dispatchResponse(serverResponse, respJson);
+        if (isInitSession) {
+            // Count down the latch holding getLatestReferringParamsSync
+            if (branch.getLatestReferringParamsLatch != null) {
+                branch.getLatestReferringParamsLatch.countDown();
+            }
+            // Count down the latch holding getFirstReferringParamsSync
+            if (branch.getFirstReferringParamsLatch != null) {
+                branch.getFirstReferringParamsLatch.countDown();
+            }
+        }
+    }
+
+    private void handleSessionUpdate(ServerResponse serverResponse, @Nullable JSONObject respJson) {
         if (thisReq_ instanceof ServerRequestInitSession || thisReq_ instanceof ServerRequestIdentifyUserRequest) {
-            // If this request changes a session update the session-id to queued requests.
-            boolean updateRequestsInQueue = false;
+            // Queued requests pick up the new ids when they are sent, see ServerRequest#updateSessionIds()
             if (!branch.isTrackingDisabled() && respJson != null) {
                 // Update PII data only if tracking is disabled
                 try {
                     if (respJson.has(Defines.Jsonkey.SessionID.getKey())) {
                         branch.prefHelper_.setSessionID(respJson.getString(Defines.Jsonkey.SessionID.getKey()));
-                        updateRequestsInQueue = true;
                     }
                     if (respJson.has(Defines.Jsonkey.IdentityID.getKey())) {
                         String new_Identity_Id = respJson.getString(Defines.Jsonkey.IdentityID.getKey());
                         if (!branch.prefHelper_.getIdentityID().equals(new_Identity_Id)) {
                             //On setting a new identity Id clear the link cache
                             branch.linkCache_.clear();
+                            branch.responseCache_.invalidate();
+                            branch.eventCoalescer_.clear();
                             branch.prefHelper_.setIdentityID(new_Identity_Id);
-                            updateRequestsInQueue = true;
                         }
                     }
                     if (respJson.has(Defines.Jsonkey.DeviceFingerprintID.getKey())) {
                         branch.prefHelper_.setDeviceFingerPrintID(respJson.getString(Defines.Jsonkey.DeviceFingerprintID.getKey()));
-                        updateRequestsInQueue = true;
-                    }
-                    if (updateRequestsInQueue) {
-                        branch.updateAllRequestsInQueue();
                     }
                 } catch (JSONException ex) {
                     ex.printStackTrace();
                 }
             }
+        }
+        if (respJson != null) {
+            thisReq_.updateStateOnSuccess(serverResponse, branch);
+        }
+    }
 
-            if (thisReq_ instanceof ServerRequestInitSession) {
-                branch.setInitState(Branch.SESSION_STATE.INITIALISED);
-                if (!((ServerRequestInitSession) thisReq_).handleBranchViewIfAvailable((serverResponse))) {
-                    branch.checkForAutoDeepLinkConfiguration();
-                }
-                // Count down the latch holding getLatestReferringParamsSync
-                if (branch.getLatestReferringParamsLatch != null) {
-                    branch.getLatestReferringParamsLatch.countDown();
-                }
-                // Count down the latch holding getFirstReferringParamsSync
-                if (branch.getFirstReferringParamsLatch != null) {
-                    branch.getFirstReferringParamsLatch.countDown();
-                }
+    /**
+     * Reports the response to the callbacks, once the session state it carries has been written.
+     */
+    private void dispatchResponse(ServerResponse serverResponse, @Nullable JSONObject respJson) {
+        if (thisReq_ instanceof ServerRequestInitSession) {
+            branch.setInitState(Branch.SESSION_STATE.INITIALISED);
+            if (!((ServerRequestInitSession) thisReq_).handleBranchViewIfAvailable(serverResponse, branch)) {
+                branch.checkForAutoDeepLinkConfiguration();
             }
         }
 
         if (respJson != null) {
-            thisReq_.onRequestSucceeded(serverResponse, branch);
+            long traceStart = SessionTracer.begin();
+            branch.responseCache_.onRequestSucceeded(thisReq_, serverResponse, branch);
+            branch.eventCoalescer_.onRequestSucceeded(thisReq_, serverResponse, branch);
+            SessionTracer.end("callback dispatch", thisReq_.getRequestPath(), traceStart);
             branch.requestQueue_.remove(thisReq_);
         } else if (thisReq_.shouldRetryOnFail()) {
             // already called handleFailure above
@@ -174,11 +264,15 @@ public class BranchPostTask extends BranchAsyncTask<Void, Void, ServerResponse>
             //On Network error or Branch is down fail all the pending requests in the queue except
             //for request which need to be replayed on failure.
             branch.networkCount_ = 0;
-            thisReq_.handleFailure(status, serverResponse.getFailReason());
+            long traceStart = SessionTracer.begin();
+            branch.responseCache_.handleFailure(thisReq_, status, serverResponse.getFailReason());
+            SessionTracer.end("callback dispatch", thisReq_.getRequestPath(), traceStart);
         }
 
         boolean unretryableErrorCode = (400 <= status && status <= 451);
         if (unretryableErrorCode || !thisReq_.shouldRetryOnFail()) {
+            // Events coalesced into the request fail along with it, they are not retried on their own
+            branch.eventCoalescer_.handleFailure(thisReq_, status, serverResponse.getFailReason());
             branch.requestQueue_.remove(thisReq_);
         } else {
             // failure has already been handled
@@ -18,29 +18,96 @@ import org.json.JSONObject;
  */
 class BranchPreinstall {
 
-    private static final String SYSTEM_PROPERTIES_CLASS_KEY = "android.os.SystemProperties";
     private static final String BRANCH_PREINSTALL_PROP_KEY = "io.branch.preinstall.apps.path";
 
+    // The preinstall data for this app from the last file read, with the file it was read from
+    static final String KEY_PREINSTALL_FILE_CACHE = "bnc_preinstall_file_cache";
+    private static final String KEY_FILE_PATH = "path";
+    private static final String KEY_FILE_SIZE = "size";
+    private static final String KEY_FILE_MODIFIED = "modified";
+    private static final String KEY_APP_DATA = "app_data";
+
+    // System properties are fixed for the lifetime of the process, read the path once
+    private static volatile boolean isPreinstallPathRead_;
+    private static String preinstallPath_;
+
     public static void getPreinstallSystemData(Branch branchInstance, Context context) {
         if (branchInstance != null) {
             // check if the SystemProperties has the branch file path added
             String branchFilePath = checkForBranchPreinstallInSystem();
             if (!TextUtils.isEmpty(branchFilePath)) {
-                // after getting the file path get the file contents
-                readBranchFile(branchFilePath, branchInstance, context);
+                // Unchanged files are applied from the cache right away, before the install request is built
+                if (!applyCachedBranchFile(branchFilePath, branchInstance, context)) {
+                    // after getting the file path get the file contents
+                    readBranchFile(branchFilePath, branchInstance, context);
+                }
             }
         }
     }
 
     private static String checkForBranchPreinstallInSystem() {
-        String path = null;
+        if (!isPreinstallPathRead_) {
+            preinstallPath_ = IntegrationRegistry.getSystemProperty(BRANCH_PREINSTALL_PROP_KEY);
+            isPreinstallPathRead_ = true;
+        }
+        return preinstallPath_;
+    }
+
+    /**
+     * Applies the preinstall data cached from the given file if the file has not changed since
+     * it was read.
+     *
+     * @return True if the cached data was applied and the file does not need to be read.
+     */
+    private static boolean applyCachedBranchFile(String branchFilePath, Branch branchInstance, Context context) {
+        JSONObject appData = getCachedAppData(new File(branchFilePath), PrefHelper.getInstance(context));
+        if (appData == null) {
+            return false;
+        }
+        applyPreinstallData(appData, branchInstance, context);
+        return true;
+    }
+
+    /**
+     * @return The preinstall data for this app cached from the file, empty if the file has none,
+     * or null if the file was not read before or has changed since, judged by its size and
+     * modification time.
+     */
+    // Package Private
+    static JSONObject getCachedAppData(File branchFile, PrefHelper prefHelper) {
+        String cached = prefHelper.getString(KEY_PREINSTALL_FILE_CACHE);
+        if (PrefHelper.NO_STRING_VALUE.equals(cached)) {
+            return null;
+        }
         try {
-            path = (String) Class.forName(SYSTEM_PROPERTIES_CLASS_KEY)
-                    .getMethod("get", String.class).invoke(null, BRANCH_PREINSTALL_PROP_KEY);
-        } catch (Exception e) {
+            JSONObject cache = new JSONObject(cached);
+            if (!branchFile.getPath().equals(cache.getString(KEY_FILE_PATH))
+                    || branchFile.length() != cache.getLong(KEY_FILE_SIZE)
+                    || branchFile.lastModified() != cache.getLong(KEY_FILE_MODIFIED)) {
+                return null;
+            }
+            JSONObject appData = cache.optJSONObject(KEY_APP_DATA);
+            return appData == null ? new JSONObject() : appData;
+        } catch (JSONException e) {
             return null;
         }
-        return path;
+    }
+
+    // Package Private
+    static void cacheAppData(File branchFile, long size, long modified, JSONObject branchFileContentJson,
+            String packageName, PrefHelper prefHelper) {
+        try {
+            JSONObject cache = new JSONObject();
+            cache.put(KEY_FILE_PATH, branchFile.getPath());
+            cache.put(KEY_FILE_SIZE, size);
+            cache.put(KEY_FILE_MODIFIED, modified);
+            JSONObject apps = branchFileContentJson.optJSONObject("apps");
+            if (apps != null) {
+                cache.putOpt(KEY_APP_DATA, apps.optJSONObject(packageName));
+            }
+            prefHelper.setString(KEY_PREINSTALL_FILE_CACHE, cache.toString());
+        } catch (JSONException ignore) {
+        }
     }
 
     private static void readBranchFile(final String branchFilePath, final Branch branchInstance,
@@ -52,6 +119,9 @@ class BranchPreinstall {
                     final StringBuilder branchFileContent = new StringBuilder();
                     JSONObject branchFileContentJson;
                     File branchFile = new File(branchFilePath);
+                    // Taken before reading, a change while reading makes the next launch read it again
+                    long size = branchFile.length();
+                    long modified = branchFile.lastModified();
                     BufferedReader br = new BufferedReader(new FileReader(branchFile));
                     String line;
 
@@ -62,6 +132,8 @@ class BranchPreinstall {
                     branchFileContentJson = new JSONObject(branchFileContent.toString().trim());
 
                     if (!TextUtils.isEmpty(branchFileContentJson.toString())) {
+                        cacheAppData(branchFile, size, modified, branchFileContentJson,
+                                SystemObserver.getPackageName(context), PrefHelper.getInstance(context));
                         getBranchFileContent(branchFileContentJson, branchInstance, context);
                     } else {
                         throw new FileNotFoundException();
@@ -88,27 +160,7 @@ class BranchPreinstall {
                         JSONObject branchPreinstallData = branchFileContentJson
                                 .getJSONObject(key)
                                 .getJSONObject(SystemObserver.getPackageName(context));
-
-                        // find the preinstalls keys and any custom data
-                        Iterator<String> preinstallDataKeys = branchPreinstallData
-                                .keys();
-                        while (preinstallDataKeys.hasNext()) {
-                            String datakey = preinstallDataKeys.next();
-                            if (datakey.equals(PreinstallKey.campaign.getKey()) && TextUtils.isEmpty(PrefHelper.getInstance(context).getInstallMetaData(PreinstallKey.campaign.getKey()))) {
-                                branchInstance
-                                        .setPreinstallCampaign(
-                                                branchPreinstallData.get(datakey)
-                                                        .toString());
-                            } else if (datakey.equals(PreinstallKey.partner.getKey()) && TextUtils.isEmpty(PrefHelper.getInstance(context).getInstallMetaData(PreinstallKey.partner.getKey()))) {
-                                branchInstance
-                                        .setPreinstallPartner(
-                                                branchPreinstallData.get(datakey)
-                                                        .toString());
-                            } else {
-                                branchInstance.setRequestMetadata(datakey,
-                                        branchPreinstallData.get(datakey).toString());
-                            }
-                        }
+                        applyPreinstallData(branchPreinstallData, branchInstance, context);
                     }
                 }
             } catch (JSONException ignore) {
@@ -116,6 +168,33 @@ class BranchPreinstall {
         }
     }
 
+    private static void applyPreinstallData(JSONObject branchPreinstallData, Branch branchInstance,
+            Context context) {
+        // find the preinstalls keys and any custom data
+        Iterator<String> preinstallDataKeys = branchPreinstallData
+                .keys();
+        while (preinstallDataKeys.hasNext()) {
+            String datakey = preinstallDataKeys.next();
+            try {
+                if (datakey.equals(PreinstallKey.campaign.getKey()) && TextUtils.isEmpty(PrefHelper.getInstance(context).getInstallMetaData(PreinstallKey.campaign.getKey()))) {
+                    branchInstance
+                            .setPreinstallCampaign(
+                                    branchPreinstallData.get(datakey)
+                                            .toString());
+                } else if (datakey.equals(PreinstallKey.partner.getKey()) && TextUtils.isEmpty(PrefHelper.getInstance(context).getInstallMetaData(PreinstallKey.partner.getKey()))) {
+                    branchInstance
+                            .setPreinstallPartner(
+                                    branchPreinstallData.get(datakey)
+                                            .toString());
+                } else {
+                    branchInstance.setRequestMetadata(datakey,
+                            branchPreinstallData.get(datakey).toString());
+                }
+            } catch (JSONException ignore) {
+            }
+        }
+    }
+
     public static void setBranchPreInstallGoogleReferrer(Context context, HashMap<String, String> referrerMap){
         Branch branchInstance = Branch.getInstance();
         PrefHelper prefHelper = PrefHelper.getInstance(context);
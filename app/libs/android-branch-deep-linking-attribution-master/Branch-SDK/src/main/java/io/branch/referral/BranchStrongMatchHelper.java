@@ -41,14 +41,12 @@ class BranchStrongMatchHelper {
     private Class<?> ICustomTabsServiceClass;
 
     {
-        try {
-            CustomTabsClientClass = Class.forName("android.support.customtabs.CustomTabsClient");
-            CustomTabsCallbackClass = Class.forName("android.support.customtabs.CustomTabsCallback");
-            CustomTabsSessionClass = Class.forName("android.support.customtabs.CustomTabsSession");
-            ICustomTabsServiceClass = Class.forName("android.support.customtabs.ICustomTabsService");
-        } catch (Exception t) {
-            isCustomTabsAvailable_ = false;
-        }
+        CustomTabsClientClass = IntegrationRegistry.findClass("android.support.customtabs.CustomTabsClient");
+        CustomTabsCallbackClass = IntegrationRegistry.findClass("android.support.customtabs.CustomTabsCallback");
+        CustomTabsSessionClass = IntegrationRegistry.findClass("android.support.customtabs.CustomTabsSession");
+        ICustomTabsServiceClass = IntegrationRegistry.findClass("android.support.customtabs.ICustomTabsService");
+        isCustomTabsAvailable_ = CustomTabsClientClass != null && CustomTabsCallbackClass != null
+                && CustomTabsSessionClass != null && ICustomTabsServiceClass != null;
     }
 
 
@@ -86,9 +84,13 @@ class BranchStrongMatchHelper {
                             }
                         }, STRONG_MATCH_CHECK_TIME_OUT);
 
-                        final Method warmupMethod = CustomTabsClientClass.getMethod("warmup", long.class);
-                        final Method newSessionMethod = CustomTabsClientClass.getMethod("newSession", CustomTabsCallbackClass);
-                        final Method mayLaunchUrlMethod = CustomTabsSessionClass.getMethod("mayLaunchUrl", Uri.class, Bundle.class, List.class);
+                        final Method warmupMethod = IntegrationRegistry.findMethod(CustomTabsClientClass, "warmup", long.class);
+                        final Method newSessionMethod = IntegrationRegistry.findMethod(CustomTabsClientClass, "newSession", CustomTabsCallbackClass);
+                        final Method mayLaunchUrlMethod = IntegrationRegistry.findMethod(CustomTabsSessionClass, "mayLaunchUrl", Uri.class, Bundle.class, List.class);
+                        if (warmupMethod == null || newSessionMethod == null || mayLaunchUrlMethod == null) {
+                            updateStrongMatchCheckFinished(callback, isStrongMatchUrlLaunched);
+                            return;
+                        }
 
                         // Try connecting to ChromeCustomTab service
                         // Note : Refer to android.support.customtabs.CustomTabsClient::bindCustomTabsService
@@ -202,10 +204,9 @@ class BranchStrongMatchHelper {
         public final void onServiceConnected(final ComponentName name, IBinder service) {
             try {
                 // Once the service is connected get the customTabClient from binder
-                Constructor<?> customTabClientConstructor = CustomTabsClientClass.getDeclaredConstructor(ICustomTabsServiceClass, ComponentName.class);
-                customTabClientConstructor.setAccessible(true);
-                Class<?> ICustomTabServiceStubClass = Class.forName("android.support.customtabs.ICustomTabsService$Stub");
-                Method asInterfaceMethod = ICustomTabServiceStubClass.getMethod("asInterface", IBinder.class);
+                Constructor<?> customTabClientConstructor = IntegrationRegistry.findDeclaredConstructor(CustomTabsClientClass, ICustomTabsServiceClass, ComponentName.class);
+                Class<?> ICustomTabServiceStubClass = IntegrationRegistry.findClass("android.support.customtabs.ICustomTabsService$Stub");
+                Method asInterfaceMethod = IntegrationRegistry.findMethod(ICustomTabServiceStubClass, "asInterface", IBinder.class);
 
                 Object customTabClientObject = customTabClientConstructor.newInstance(asInterfaceMethod.invoke(null, service), name);
                 this.onCustomTabsServiceConnected(name, customTabClientObject);
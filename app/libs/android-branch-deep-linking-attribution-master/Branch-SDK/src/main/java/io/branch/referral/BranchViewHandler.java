@@ -66,6 +66,7 @@ public class BranchViewHandler {
     public static BranchViewHandler getInstance() {
         if (thisInstance_ == null) {
             thisInstance_ = new BranchViewHandler();
+            BranchFeatures.branchViewsUsed_ = true;
         }
         return thisInstance_;
     }
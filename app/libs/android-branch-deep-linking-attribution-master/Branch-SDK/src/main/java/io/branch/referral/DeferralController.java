@@ -0,0 +1,254 @@
+package io.branch.referral;
+
+import android.Manifest;
+import android.annotation.TargetApi;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * <p>
+ * Holds back {@link ServerRequest.URGENCY#DEFERRABLE} requests, such as custom events, while the
+ * device is on a metered connection and the radio is idle, so that they can be sent in a single
+ * burst instead of waking the radio for each one. Only requests the queue restores after a restart
+ * are deferred, see {@link ServerRequest#isRestorable(String)}.
+ * </p>
+ * <p>
+ * Deferred requests stay in the {@link ServerRequestQueue}, locked with
+ * {@link ServerRequest.PROCESS_WAIT_LOCK#DEFERRED_SEND_WAIT_LOCK}, so they are still persisted.
+ * They are released together when an immediate request is queued, when the radio becomes active,
+ * when the connection becomes unmetered, when too many are held, or at the latest after the
+ * maximum delay.
+ * </p>
+ */
+class DeferralController {
+    static final long DEFAULT_MAX_DELAY = 60 * 1000;
+    private static final int MAX_HELD_REQUESTS = 10;
+
+    private static long maxDelay_ = DEFAULT_MAX_DELAY;
+
+    private final Context context_;
+    private final Branch branch_;
+    private final Handler handler_ = new Handler(Looper.getMainLooper());
+    private int heldCount_;
+    private Object networkActiveListener_;
+    // A ConnectivityManager.NetworkCallback from API 21, a BroadcastReceiver below
+    private Object unmeteredListener_;
+
+    private final Runnable flushRunnable_ = new Runnable() {
+        @Override
+        public void run() {
+            flush("max delay");
+        }
+    };
+
+    private final Runnable radioActiveRunnable_ = new Runnable() {
+        @Override
+        public void run() {
+            flush("radio active");
+        }
+    };
+
+    private final Runnable unmeteredRunnable_ = new Runnable() {
+        @Override
+        public void run() {
+            flush("unmetered connection");
+        }
+    };
+
+    DeferralController(Context context, Branch branch) {
+        context_ = context;
+        branch_ = branch;
+    }
+
+    /**
+     * @param maxDelay Longest time in milliseconds a deferrable request is held. 0 sends every
+     *                 request immediately.
+     */
+    static void setMaxDelay(long maxDelay) {
+        maxDelay_ = Math.max(0, maxDelay);
+    }
+
+    /**
+     * Decides whether the request is held back, and if so locks it until the next flush. Must be
+     * called before the request is queued.
+     *
+     * @return True if the request is deferred.
+     */
+    synchronized boolean deferIfPossible(final ServerRequest request) {
+        // A held request that is not restored would be lost if the app died while holding it
+        if (request.getUrgency() != ServerRequest.URGENCY.DEFERRABLE || !request.isPersistable()
+                || !ServerRequest.isRestorable(request.getRequestPath()) || !shouldDefer()) {
+            return false;
+        }
+        request.addProcessWaitLock(ServerRequest.PROCESS_WAIT_LOCK.DEFERRED_SEND_WAIT_LOCK);
+        heldCount_++;
+        if (heldCount_ == 1) {
+            handler_.postDelayed(flushRunnable_, maxDelay_);
+            registerNetworkActiveListener();
+            registerUnmeteredListener();
+        }
+        final int heldCount = heldCount_;
+        BranchLogger.debug(new BranchLogger.MessageSupplier() {
+            @Override
+            public String get() {
+                return "Deferring " + request.getRequestPath() + ", held requests " + heldCount;
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Called for every request that is sent immediately. The radio is about to be active, so any
+     * held requests are sent right behind it.
+     */
+    void onImmediateRequestQueued() {
+        flush("immediate request");
+    }
+
+    /**
+     * Releases all held requests and triggers sending them.
+     */
+    void flush(String reason) {
+        synchronized (this) {
+            if (heldCount_ == 0) {
+                return;
+            }
+            PrefHelper.Debug("Sending " + heldCount_ + " deferred requests, " + reason);
+            heldCount_ = 0;
+            handler_.removeCallbacks(flushRunnable_);
+            handler_.removeCallbacks(radioActiveRunnable_);
+            handler_.removeCallbacks(unmeteredRunnable_);
+            unregisterNetworkActiveListener();
+            unregisterUnmeteredListener();
+        }
+        branch_.requestQueue_.unlockProcessWait(ServerRequest.PROCESS_WAIT_LOCK.DEFERRED_SEND_WAIT_LOCK);
+        branch_.processNextQueueItem();
+    }
+
+    private boolean shouldDefer() {
+        if (maxDelay_ <= 0 || heldCount_ >= MAX_HELD_REQUESTS) {
+            return false;
+        }
+        ConnectivityManager connectivityManager = getConnectivityManager();
+        if (connectivityManager == null || !connectivityManager.isActiveNetworkMetered()) {
+            // Unknown network state or an unmetered connection, nothing to save by waiting
+            return false;
+        }
+        return !isRadioActive(connectivityManager);
+    }
+
+    private boolean isRadioActive(ConnectivityManager connectivityManager) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && connectivityManager.isDefaultNetworkActive();
+    }
+
+    private ConnectivityManager getConnectivityManager() {
+        if (context_ == null || PackageManager.PERMISSION_GRANTED !=
+                context_.checkCallingOrSelfPermission(Manifest.permission.ACCESS_NETWORK_STATE)) {
+            return null;
+        }
+        return (ConnectivityManager) context_.getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void registerNetworkActiveListener() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
+        ConnectivityManager connectivityManager = getConnectivityManager();
+        if (connectivityManager != null && networkActiveListener_ == null) {
+            ConnectivityManager.OnNetworkActiveListener listener = new ConnectivityManager.OnNetworkActiveListener() {
+                @Override
+                public void onNetworkActive() {
+                    // Called on a binder thread, sending from it would block it
+                    handler_.post(radioActiveRunnable_);
+                }
+            };
+            connectivityManager.addDefaultNetworkActiveListener(listener);
+            networkActiveListener_ = listener;
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void unregisterNetworkActiveListener() {
+        ConnectivityManager connectivityManager = getConnectivityManager();
+        if (connectivityManager != null && networkActiveListener_ != null) {
+            connectivityManager.removeDefaultNetworkActiveListener((ConnectivityManager.OnNetworkActiveListener) networkActiveListener_);
+        }
+        networkActiveListener_ = null;
+    }
+
+    private void registerUnmeteredListener() {
+        ConnectivityManager connectivityManager = getConnectivityManager();
+        if (connectivityManager == null || unmeteredListener_ != null) {
+            return;
+        }
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                unmeteredListener_ = registerUnmeteredCallback(connectivityManager);
+            } else {
+                BroadcastReceiver receiver = new BroadcastReceiver() {
+                    @Override
+                    public void onReceive(Context context, Intent intent) {
+                        ConnectivityManager connectivityManager = getConnectivityManager();
+                        if (connectivityManager != null && !connectivityManager.isActiveNetworkMetered()) {
+                            handler_.post(unmeteredRunnable_);
+                        }
+                    }
+                };
+                context_.registerReceiver(receiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+                unmeteredListener_ = receiver;
+            }
+        } catch (RuntimeException e) {
+            // Held requests are still sent on the other triggers
+            PrefHelper.Debug("Unable to listen for unmetered connections: " + e.getMessage());
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private Object registerUnmeteredCallback(ConnectivityManager connectivityManager) {
+        ConnectivityManager.NetworkCallback callback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                // Called on a binder thread, sending from it would block it
+                handler_.post(unmeteredRunnable_);
+            }
+        };
+        NetworkRequest request = new NetworkRequest.Builder()
+                .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                .addCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED)
+                .build();
+        connectivityManager.registerNetworkCallback(request, callback);
+        return callback;
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void unregisterUnmeteredListener() {
+        Object listener = unmeteredListener_;
+        unmeteredListener_ = null;
+        if (listener == null) {
+            return;
+        }
+        try {
+            if (listener instanceof BroadcastReceiver) {
+                context_.unregisterReceiver((BroadcastReceiver) listener);
+            } else {
+                ConnectivityManager connectivityManager = getConnectivityManager();
+                if (connectivityManager != null) {
+                    connectivityManager.unregisterNetworkCallback((ConnectivityManager.NetworkCallback) listener);
+                }
+            }
+        } catch (RuntimeException ignore) {
+            // Already unregistered
+        }
+    }
+}
@@ -19,21 +19,24 @@ class DeferredAppLinkDataHandler {
         boolean isRequestSucceeded = true;
         try {
             // Init FB SDK
-            Class<?> FacebookSdkClass = Class.forName("com.facebook.FacebookSdk");
-            Method initSdkMethod = FacebookSdkClass.getMethod("sdkInitialize", Context.class);
+            Class<?> FacebookSdkClass = IntegrationRegistry.findClass("com.facebook.FacebookSdk");
+            Method initSdkMethod = IntegrationRegistry.findMethod(FacebookSdkClass, "sdkInitialize", Context.class);
+            final Class<?> AppLinkDataClass = IntegrationRegistry.findClass("com.facebook.applinks.AppLinkData");
+            Class<?> AppLinkDataCompletionHandlerClass = IntegrationRegistry.findClass("com.facebook.applinks.AppLinkData$CompletionHandler");
+            Method fetchDeferredAppLinkDataMethod = IntegrationRegistry.findMethod(AppLinkDataClass, "fetchDeferredAppLinkData", Context.class, String.class, AppLinkDataCompletionHandlerClass);
+            final Method getArgumentBundleMethod = IntegrationRegistry.findMethod(AppLinkDataClass, "getArgumentBundle");
+            if (initSdkMethod == null || fetchDeferredAppLinkDataMethod == null || getArgumentBundleMethod == null) {
+                // The Facebook SDK is not included in the app
+                return false;
+            }
             initSdkMethod.invoke(null, context);
 
-            final Class<?> AppLinkDataClass = Class.forName("com.facebook.applinks.AppLinkData");
-            Class<?> AppLinkDataCompletionHandlerClass = Class.forName("com.facebook.applinks.AppLinkData$CompletionHandler");
-            Method fetchDeferredAppLinkDataMethod = AppLinkDataClass.getMethod("fetchDeferredAppLinkData", Context.class, String.class, AppLinkDataCompletionHandlerClass);
-
             InvocationHandler ALDataCompletionHandler = new InvocationHandler() {
                 @Override
                 public Object invoke(Object proxy, Method method, Object[] args) throws Exception {
                     if (method.getName().equals("onDeferredAppLinkDataFetched") && args[0] != null) {
                         String appLinkUrl = null;
                         Object appLinkDataClass = AppLinkDataClass.cast(args[0]);
-                        Method getArgumentBundleMethod = AppLinkDataClass.getMethod("getArgumentBundle");
                         Bundle appLinkDataBundle = Bundle.class.cast(getArgumentBundleMethod.invoke(appLinkDataClass));
 
                         if (appLinkDataBundle != null) {
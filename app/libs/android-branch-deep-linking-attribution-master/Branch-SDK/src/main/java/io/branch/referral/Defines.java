@@ -129,6 +129,8 @@ public class Defines {
         Branch_Round_Trip_Time("brtt"),
         Branch_Instrumentation("instrumentation"),
         Queue_Wait_Time("qwt"),
+        Branch_Request_Timeout("tout"),
+        Branch_Request_Timed_Out("tmo"),
         InstantDeepLinkSession("instant_dl_session"),
         
         BranchViewData("branch_view_data"),
@@ -203,7 +205,8 @@ public class Defines {
         TrackingDisabled("tracking_disabled"),
         DisableAdNetworkCallouts("disable_ad_network_callouts"),
         PartnerData("partner_data"),
-        Instant("instant");
+        Instant("instant"),
+        CoalescedCount("coalesced_count");
         
         private final String key;
         
@@ -0,0 +1,277 @@
+package io.branch.referral;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Coalesces duplicate events in front of the request queue, e.g. the VIEW_ITEM events fired each
+ * time a list re-binds the view of the same content. An event is identified by its endpoint, its
+ * name, the canonical identifiers of its content items and the properties configured for the event
+ * name, see {@link #setRule(String, long, boolean, String...)}. Identical events logged within the
+ * window of the first one are suppressed. While the first one waits in the queue, the suppressed
+ * events are counted on it and the count can be sent along with it as
+ * {@link Defines.Jsonkey#CoalescedCount}. Once that count has been sent, the next identical event
+ * is sent on its own and starts a new window, so no event goes uncounted. The suppressed events
+ * are completed with the response to the first one.
+ * </p>
+ * <p>
+ * Events without a rule are never coalesced, there are no rules by default.
+ * </p>
+ */
+class EventCoalescer {
+    private final Map<String, Rule> rules_ = new HashMap<>();
+    // Events in their coalescing window by identity key
+    private final Map<String, Flight> flights_ = new HashMap<>();
+    private int suppressedCount_;
+    private int sentCount_;
+
+    private static class Rule {
+        final long windowMillis;
+        final boolean carryCount;
+        final String[] identityProperties;
+
+        Rule(long windowMillis, boolean carryCount, String[] identityProperties) {
+            this.windowMillis = windowMillis;
+            this.carryCount = carryCount;
+            this.identityProperties = identityProperties;
+        }
+    }
+
+    static class Flight {
+        final ServerRequest leader;
+        final boolean carryCount;
+        final long expiresAt;
+        final List<ServerRequest> coalesced = new ArrayList<>();
+        int count = 1;
+        boolean sent;
+        // Outcome of the first event once it completed, given to the events suppressed afterwards
+        boolean completed;
+        ServerResponse response;
+        int failureCode;
+        String failureMsg;
+
+        Flight(ServerRequest leader, boolean carryCount, long expiresAt) {
+            this.leader = leader;
+            this.carryCount = carryCount;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * @param eventName          The name of the event.
+     * @param windowMillis       How long identical events are coalesced into the first one, in
+     *                           milliseconds. Zero stops coalescing the event.
+     * @param carryCount         True to send the number of coalesced events with the first one.
+     * @param identityProperties Properties of the event that tell events apart in addition to
+     *                           their name and content items, looked up in the event, its custom
+     *                           data, event data and metadata.
+     */
+    synchronized void setRule(String eventName, long windowMillis, boolean carryCount, String... identityProperties) {
+        if (windowMillis <= 0) {
+            rules_.remove(eventName);
+        } else {
+            rules_.put(eventName, new Rule(windowMillis, carryCount, identityProperties == null ? new String[0] : identityProperties.clone()));
+        }
+    }
+
+    /**
+     * @return True if the request duplicates an event in its coalescing window, it has been
+     * counted and must not be queued. It is completed along with the first event, or at once if
+     * the first event has completed already.
+     */
+    boolean handleNewRequest(ServerRequest request, Branch branch) {
+        String eventName = getEventName(request);
+        Flight flight;
+        synchronized (this) {
+            Rule rule = eventName == null ? null : rules_.get(eventName);
+            if (rule == null) {
+                return false;
+            }
+            long now = now();
+            pruneExpired(now);
+            String key = getIdentityKey(request, eventName, rule);
+            flight = flights_.get(key);
+            // Dropped from the queue without being sent, e.g. evicted from a full queue, or its
+            // count was sent already and would miss this event
+            if (flight == null || !(flight.sent || flight.leader.queue_ != null) || (flight.sent && flight.carryCount)) {
+                flight = new Flight(request, rule.carryCount, now + TimeUnit.MILLISECONDS.toNanos(rule.windowMillis));
+                flights_.put(key, flight);
+                request.eventCoalescerFlight_ = flight;
+                return false;
+            }
+            flight.count++;
+            suppressedCount_++;
+            PrefHelper.Debug("Coalesced " + eventName + " event into the identical event " + (flight.sent ? "sent" : "queued") + " before");
+            if (!flight.completed) {
+                flight.coalesced.add(request);
+                return true;
+            }
+        }
+        if (flight.response != null) {
+            request.onRequestSucceeded(flight.response.copy(), branch);
+        } else {
+            request.handleFailure(flight.failureCode, flight.failureMsg);
+        }
+        return true;
+    }
+
+    /**
+     * Counts the event as sent the first time it is sent, and adds the number of events coalesced
+     * into it to the payload if configured. Identical events logged afterwards within its window
+     * are still suppressed, unless the count was sent, they start a new window then.
+     *
+     * @param request The request being sent.
+     * @param payload The payload the request is sent with.
+     */
+    void onRequestSent(ServerRequest request, JSONObject payload) {
+        if (!isEvent(request)) {
+            return;
+        }
+        int count = 0;
+        synchronized (this) {
+            if (!request.eventSent_) {
+                // Retries are not counted
+                request.eventSent_ = true;
+                sentCount_++;
+            }
+            Flight flight = request.eventCoalescerFlight_;
+            if (flight != null) {
+                flight.sent = true;
+                count = flight.carryCount ? flight.count : 0;
+            }
+        }
+        if (count > 1 && payload != null) {
+            try {
+                payload.put(Defines.Jsonkey.CoalescedCount.getKey(), count);
+            } catch (JSONException ignore) {
+            }
+        }
+    }
+
+    /**
+     * Reports the successful response to the events coalesced into the request.
+     */
+    void onRequestSucceeded(ServerRequest request, ServerResponse response, Branch branch) {
+        List<ServerRequest> coalesced = complete(request, response, 0, null);
+        for (ServerRequest follower : coalesced) {
+            follower.onRequestSucceeded(response.copy(), branch);
+        }
+    }
+
+    /**
+     * Reports the failure to the events coalesced into the request.
+     */
+    void handleFailure(ServerRequest request, int statusCode, String causeMsg) {
+        List<ServerRequest> coalesced = complete(request, null, statusCode, causeMsg);
+        for (ServerRequest follower : coalesced) {
+            follower.handleFailure(statusCode, causeMsg);
+        }
+    }
+
+    private synchronized List<ServerRequest> complete(ServerRequest request, ServerResponse response, int failureCode, String failureMsg) {
+        Flight flight = request.eventCoalescerFlight_;
+        if (flight == null) {
+            return Collections.emptyList();
+        }
+        request.eventCoalescerFlight_ = null;
+        flight.completed = true;
+        // A copy, the callbacks of the request may modify the response they are given
+        flight.response = response == null ? null : response.copy();
+        flight.failureCode = failureCode;
+        flight.failureMsg = failureMsg;
+        List<ServerRequest> coalesced = new ArrayList<>(flight.coalesced);
+        flight.coalesced.clear();
+        return coalesced;
+    }
+
+    /**
+     * Ends all coalescing windows, e.g. when the user changes.
+     */
+    synchronized void clear() {
+        flights_.clear();
+    }
+
+    /**
+     * @return How many events were suppressed as duplicates.
+     */
+    synchronized int getSuppressedCount() {
+        return suppressedCount_;
+    }
+
+    /**
+     * @return How many events were sent, each event is counted once however often it is retried.
+     */
+    synchronized int getSentCount() {
+        return sentCount_;
+    }
+
+    private void pruneExpired(long now) {
+        Iterator<Flight> flights = flights_.values().iterator();
+        while (flights.hasNext()) {
+            if (flights.next().expiresAt - now <= 0) {
+                flights.remove();
+            }
+        }
+    }
+
+    private static boolean isEvent(ServerRequest request) {
+        Defines.RequestPath path = request.requestPath_;
+        return path == Defines.RequestPath.CompletedAction
+                || path == Defines.RequestPath.TrackStandardEvent
+                || path == Defines.RequestPath.TrackCustomEvent;
+    }
+
+    private static String getEventName(ServerRequest request) {
+        JSONObject post = request.getPost();
+        if (post == null || !isEvent(request)) {
+            return null;
+        }
+        String nameKey = request.requestPath_ == Defines.RequestPath.CompletedAction
+                ? Defines.Jsonkey.Event.getKey() : Defines.Jsonkey.Name.getKey();
+        return post.optString(nameKey, null);
+    }
+
+    private static String getIdentityKey(ServerRequest request, String eventName, Rule rule) {
+        JSONObject post = request.getPost();
+        StringBuilder key = new StringBuilder(request.requestPath_.getPath()).append('\n').append(eventName);
+        JSONArray contentItems = post.optJSONArray(Defines.Jsonkey.ContentItems.getKey());
+        if (contentItems != null) {
+            for (int i = 0; i < contentItems.length(); i++) {
+                JSONObject contentItem = contentItems.optJSONObject(i);
+                key.append('\n').append(contentItem == null ? "" : contentItem.optString(Defines.Jsonkey.CanonicalIdentifier.getKey()));
+            }
+        }
+        for (String property : rule.identityProperties) {
+            key.append('\n').append(property).append('=').append(getProperty(post, property));
+        }
+        return key.toString();
+    }
+
+    private static Object getProperty(JSONObject post, String property) {
+        if (post.has(property)) {
+            return post.opt(property);
+        }
+        String[] nested = {Defines.Jsonkey.CustomData.getKey(), Defines.Jsonkey.EventData.getKey(), Defines.Jsonkey.Metadata.getKey()};
+        for (String nestedKey : nested) {
+            JSONObject properties = post.optJSONObject(nestedKey);
+            if (properties != null && properties.has(property)) {
+                return properties.opt(property);
+            }
+        }
+        return null;
+    }
+
+    private static long now() {
+        return System.nanoTime();
+    }
+}
@@ -85,8 +85,8 @@ public class GAdsPrefetchTask extends BranchAsyncTask<Void, Void, Void> {
         Object adInfoObj = null;
         if (context != null) {
             try {
-                Class<?> advertisingIdClientClass = Class.forName("com.google.android.gms.ads.identifier.AdvertisingIdClient");
-                Method getAdvertisingIdInfoMethod = advertisingIdClientClass.getMethod("getAdvertisingIdInfo", Context.class);
+                Class<?> advertisingIdClientClass = IntegrationRegistry.findClass("com.google.android.gms.ads.identifier.AdvertisingIdClient");
+                Method getAdvertisingIdInfoMethod = IntegrationRegistry.findMethod(advertisingIdClientClass, "getAdvertisingIdInfo", Context.class);
                 adInfoObj = getAdvertisingIdInfoMethod.invoke(null, context);
             } catch (Exception ignore) {
                 PrefHelper.Debug("Either class com.google.android.gms.ads.identifier.AdvertisingIdClient " +
@@ -106,7 +106,7 @@ public class GAdsPrefetchTask extends BranchAsyncTask<Void, Void, Void> {
      */
     private void setGoogleLATWithAdvertisingIdClient(@NonNull SystemObserver so, Object adInfoObj) {
         try {
-            Method getLatMethod = adInfoObj.getClass().getMethod("isLimitAdTrackingEnabled");
+            Method getLatMethod = IntegrationRegistry.findMethod(adInfoObj.getClass(), "isLimitAdTrackingEnabled");
             Object latEnabled = getLatMethod.invoke(adInfoObj);
             if (latEnabled instanceof Boolean) {
                 so.setLAT((Boolean) latEnabled ? 1 : 0);
@@ -128,7 +128,7 @@ public class GAdsPrefetchTask extends BranchAsyncTask<Void, Void, Void> {
      */
     private void setGAIDWithAdvertisingIdClient(@NonNull SystemObserver so, Object adInfoObj) {
         try {
-            Method getIdMethod = adInfoObj.getClass().getMethod("getId");
+            Method getIdMethod = IntegrationRegistry.findMethod(adInfoObj.getClass(), "getId");
             so.setGAID((String) getIdMethod.invoke(adInfoObj));
         } catch (Exception ignore) {
         }
@@ -71,17 +71,17 @@ public class HuaweiOAIDFetchTask extends BranchAsyncTask<Void, Void, Void> {
         //https://developer.huawei.com/consumer/en/doc/development/HMS-References/27462122
         try {
             // get Huawei AdvertisingIdClient
-            Class HW_AdvertisingIdClient = Class.forName("com.huawei.hms.ads.identifier.AdvertisingIdClient");
+            Class HW_AdvertisingIdClient = IntegrationRegistry.findClass("com.huawei.hms.ads.identifier.AdvertisingIdClient");
             // get Huawei AdvertisingIdClient.Info
-            Method HW_getAdvertisingIdInfo = HW_AdvertisingIdClient.getDeclaredMethod("getAdvertisingIdInfo", Context.class);
+            Method HW_getAdvertisingIdInfo = IntegrationRegistry.findDeclaredMethod(HW_AdvertisingIdClient, "getAdvertisingIdInfo", Context.class);
             Object HW_AdvertisingIdClient_Info = HW_getAdvertisingIdInfo.invoke(null, context);
 
             // get Huawei's ad id
-            Method HW_getId = HW_AdvertisingIdClient_Info.getClass().getDeclaredMethod("getId");
+            Method HW_getId = IntegrationRegistry.findDeclaredMethod(HW_AdvertisingIdClient_Info.getClass(), "getId");
             String HW_id = HW_getId.invoke(HW_AdvertisingIdClient_Info).toString();
 
             // get Huawei's lat
-            Method HW_isLimitAdTrackingEnabled = HW_AdvertisingIdClient_Info.getClass().getDeclaredMethod("isLimitAdTrackingEnabled");
+            Method HW_isLimitAdTrackingEnabled = IntegrationRegistry.findDeclaredMethod(HW_AdvertisingIdClient_Info.getClass(), "isLimitAdTrackingEnabled");
             Boolean HW_lat = (Boolean) HW_isLimitAdTrackingEnabled.invoke(HW_AdvertisingIdClient_Info);
 
             DeviceInfo di = DeviceInfo.getInstance();
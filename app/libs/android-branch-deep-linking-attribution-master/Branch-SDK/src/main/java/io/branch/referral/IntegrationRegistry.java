@@ -0,0 +1,175 @@
+package io.branch.referral;
+
+import android.content.Context;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * Per-process registry of the reflective handles for the optional integrations of the SDK, e.g.
+ * Google Play services, the Facebook SDK, Chrome custom tabs and Google app indexing, which are
+ * only used when the app includes them. Each class and member is resolved once, and so is its
+ * absence, so the integrations do not pay for {@link Class#forName(String)} and the member
+ * lookups, or the exceptions thrown for missing dependencies, every time they run.
+ * </p>
+ * <p>
+ * Lookups return null if the class or member is not available. Member lookups on a null class
+ * or with a null parameter type return null as well, so chained lookups only need to check the
+ * final result.
+ * </p>
+ */
+public final class IntegrationRegistry {
+    private static final String SYSTEM_PROPERTIES_CLASS = "android.os.SystemProperties";
+    private static final String GOOGLE_API_AVAILABILITY_CLASS = "com.google.android.gms.common.GoogleApiAvailability";
+
+    // Marks the classes and members resolved as not available
+    private static final Object MISSING = new Object();
+    private static final ConcurrentHashMap<String, Object> handles_ = new ConcurrentHashMap<>();
+
+    private static final char KIND_METHOD = 'm';
+    private static final char KIND_DECLARED_METHOD = 'M';
+    private static final char KIND_CONSTRUCTOR = 'c';
+    private static final char KIND_DECLARED_CONSTRUCTOR = 'C';
+    private static final char KIND_DECLARED_FIELD = 'F';
+
+    private IntegrationRegistry() {
+    }
+
+    /**
+     * @param className The fully qualified name of the class.
+     * @return The class, or null if it is not available to the app.
+     */
+    public static Class<?> findClass(String className) {
+        Object handle = handles_.get(className);
+        if (handle == null) {
+            try {
+                handle = Class.forName(className);
+            } catch (ClassNotFoundException | LinkageError e) {
+                handle = MISSING;
+            }
+            handles_.put(className, handle);
+        }
+        return handle == MISSING ? null : (Class<?>) handle;
+    }
+
+    /**
+     * @return The public method of the class or its super classes, as {@link Class#getMethod(String, Class[])}.
+     */
+    public static Method findMethod(Class<?> declaringClass, String name, Class<?>... parameterTypes) {
+        return (Method) findMember(KIND_METHOD, declaringClass, name, parameterTypes);
+    }
+
+    /**
+     * @return The method declared by the class, as {@link Class#getDeclaredMethod(String, Class[])}.
+     */
+    public static Method findDeclaredMethod(Class<?> declaringClass, String name, Class<?>... parameterTypes) {
+        return (Method) findMember(KIND_DECLARED_METHOD, declaringClass, name, parameterTypes);
+    }
+
+    /**
+     * @return The public constructor of the class, as {@link Class#getConstructor(Class[])}.
+     */
+    public static Constructor<?> findConstructor(Class<?> declaringClass, Class<?>... parameterTypes) {
+        return (Constructor<?>) findMember(KIND_CONSTRUCTOR, declaringClass, null, parameterTypes);
+    }
+
+    /**
+     * @return The constructor declared by the class, made accessible if it is not public.
+     */
+    public static Constructor<?> findDeclaredConstructor(Class<?> declaringClass, Class<?>... parameterTypes) {
+        return (Constructor<?>) findMember(KIND_DECLARED_CONSTRUCTOR, declaringClass, null, parameterTypes);
+    }
+
+    /**
+     * @return The field declared by the class, as {@link Class#getDeclaredField(String)}.
+     */
+    public static Field findDeclaredField(Class<?> declaringClass, String name) {
+        return (Field) findMember(KIND_DECLARED_FIELD, declaringClass, name);
+    }
+
+    private static Member findMember(char kind, Class<?> declaringClass, String name, Class<?>... parameterTypes) {
+        if (declaringClass == null) {
+            return null;
+        }
+        StringBuilder key = new StringBuilder(declaringClass.getName()).append(kind).append(name).append('(');
+        for (Class<?> parameterType : parameterTypes) {
+            if (parameterType == null) {
+                return null;
+            }
+            key.append(parameterType.getName()).append(',');
+        }
+        String memberKey = key.toString();
+
+        Object handle = handles_.get(memberKey);
+        if (handle == null) {
+            try {
+                switch (kind) {
+                    case KIND_METHOD:
+                        handle = declaringClass.getMethod(name, parameterTypes);
+                        break;
+                    case KIND_DECLARED_METHOD:
+                        handle = declaringClass.getDeclaredMethod(name, parameterTypes);
+                        break;
+                    case KIND_CONSTRUCTOR:
+                        handle = declaringClass.getConstructor(parameterTypes);
+                        break;
+                    case KIND_DECLARED_CONSTRUCTOR:
+                        Constructor<?> constructor = declaringClass.getDeclaredConstructor(parameterTypes);
+                        constructor.setAccessible(true);
+                        handle = constructor;
+                        break;
+                    default:
+                        handle = declaringClass.getDeclaredField(name);
+                        break;
+                }
+            } catch (NoSuchMethodException | NoSuchFieldException | SecurityException | LinkageError e) {
+                handle = MISSING;
+            }
+            handles_.put(memberKey, handle);
+        }
+        return handle == MISSING ? null : (Member) handle;
+    }
+
+    /**
+     * @param key The name of the system property.
+     * @return The value of the system property, empty if it is not set, or null if system
+     * properties can not be read.
+     */
+    static String getSystemProperty(String key) {
+        Method get = findMethod(findClass(SYSTEM_PROPERTIES_CLASS), "get", String.class);
+        if (get != null) {
+            try {
+                return (String) get.invoke(null, key);
+            } catch (Exception ignore) {
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return True if Google Play services are included in the app and available on the device.
+     */
+    static boolean isGooglePlayServicesAvailable(Context context) {
+        Class<?> googleApiAvailability = findClass(GOOGLE_API_AVAILABILITY_CLASS);
+        Method getInstance = findDeclaredMethod(googleApiAvailability, "getInstance");
+        Method isGooglePlayServicesAvailable = findDeclaredMethod(googleApiAvailability, "isGooglePlayServicesAvailable", Context.class);
+        if (getInstance == null || isGooglePlayServicesAvailable == null) {
+            return false;
+        }
+        try {
+            Object result = isGooglePlayServicesAvailable.invoke(getInstance.invoke(null), context);
+            return (result instanceof Integer) && (Integer) result == 0;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    // For Unit Testing
+    static void clear() {
+        handles_.clear();
+    }
+}
@@ -7,7 +7,6 @@ import android.content.SharedPreferences.Editor;
 import android.os.Build;
 import androidx.annotation.NonNull;
 import android.text.TextUtils;
-import android.util.Log;
 import android.webkit.URLUtil;
 
 import org.json.JSONException;
@@ -16,6 +15,7 @@ import org.json.JSONObject;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -27,8 +27,6 @@ import static io.branch.referral.BranchUtil.isTestModeEnabled;
  * preference values.</p>
  */
 public class PrefHelper {
-    private static final String TAG = "BranchSDK";
-
     /**
      * The base URL to use for all calls to the Branch API.
      */
@@ -87,6 +85,8 @@ public class PrefHelper {
     private static final String KEY_RETRY_COUNT = "bnc_retry_count";
     private static final String KEY_RETRY_INTERVAL = "bnc_retry_interval";
     private static final String KEY_TIMEOUT = "bnc_timeout";
+    private static final String KEY_TIMEOUT_FLOOR = "bnc_timeout_floor";
+    private static final String KEY_TIMEOUT_CEILING = "bnc_timeout_ceiling";
     
     private static final String KEY_LAST_READ_SYSTEM = "bnc_system_read_date";
     
@@ -110,9 +110,10 @@ public class PrefHelper {
     
     /**
      * Internal static variable of own type {@link PrefHelper}. This variable holds the single
-     * instance used when the class is instantiated via the Singleton pattern.
+     * instance used when the class is instantiated via the Singleton pattern. Volatile, so that
+     * {@link #getInstance(Context)} reads it without a lock once it is created.
      */
-    private static PrefHelper prefHelper_;
+    private static volatile PrefHelper prefHelper_;
     
     /**
      * A single variable that holds a reference to the application's {@link SharedPreferences}
@@ -126,6 +127,17 @@ public class PrefHelper {
      * helper class whenever the preferences for the application are changed.
      */
     private Editor prefsEditor_;
+
+    /**
+     * Session state update in progress, see {@link #beginSessionStateUpdate()}. Null while there
+     * is none.
+     */
+    private volatile SessionStateUpdate sessionStateUpdate_;
+
+    /**
+     * Adaptive per endpoint timeouts, created on first use.
+     */
+    private RequestTimeoutEstimator requestTimeoutEstimator_;
     
     /**
      * Arbitrary key values added to all requests.
@@ -164,7 +176,17 @@ public class PrefHelper {
      *                within. This is normally the base context of the application.
      */
     private PrefHelper(Context context) {
-        this.appSharedPrefs_ = context.getSharedPreferences(SHARED_PREF_FILE, Context.MODE_PRIVATE);
+        this(context.getSharedPreferences(SHARED_PREF_FILE, Context.MODE_PRIVATE));
+    }
+
+    /**
+     * <p>Constructor backed directly by a {@link SharedPreferences} store, so the helper can be
+     * created without a {@link Context}.</p>
+     *
+     * @param sharedPreferences The {@link SharedPreferences} to read and write values from.
+     */
+    PrefHelper(SharedPreferences sharedPreferences) {
+        this.appSharedPrefs_ = sharedPreferences;
         this.prefsEditor_ = this.appSharedPrefs_.edit();
     }
     
@@ -178,9 +200,23 @@ public class PrefHelper {
      * @return A {@link PrefHelper} object instance.
      */
     public static PrefHelper getInstance(Context context) {
-        if (prefHelper_ == null) {
-            prefHelper_ = new PrefHelper(context);
+        PrefHelper prefHelper = prefHelper_;
+        if (prefHelper == null) {
+            synchronized (PrefHelper.class) {
+                prefHelper = prefHelper_;
+                if (prefHelper == null) {
+                    prefHelper = new PrefHelper(context);
+                    prefHelper_ = prefHelper;
+                }
+            }
         }
+        return prefHelper;
+    }
+
+    // Package Private
+    // For Unit Testing, installs a singleton backed by the given store instead of the app's preferences
+    static PrefHelper initForTesting(SharedPreferences sharedPreferences) {
+        prefHelper_ = new PrefHelper(sharedPreferences);
         return prefHelper_;
     }
 
@@ -191,7 +227,7 @@ public class PrefHelper {
         }
 
         // Reset all of the statics.
-        enableLogging_ = false;
+        BranchLogger.setLogcatEnabled(false);
         prefHelper_ = null;
         customServerURL_ = null;
         customCDNBaseURL_ = null;
@@ -266,6 +302,59 @@ public class PrefHelper {
     public int getTimeout() {
         return getInteger(KEY_TIMEOUT, TIMEOUT);
     }
+
+    /**
+     * <p>Returns the adaptive timeout for a request to the given url, derived from the round trip
+     * times observed for the same endpoint on the current connection type. Falls back to
+     * {@link #getTimeout()} while the endpoint has not been measured yet.</p>
+     *
+     * @param url The url of the request to the Branch API.
+     * @return An {@link Integer} value containing the timeout in milliseconds.
+     */
+    public int getTimeout(String url) {
+        String requestPath = RequestTimeoutEstimator.getRequestPath(url);
+        return requestPath == null ? getTimeout() : getRequestTimeoutEstimator().getTimeout(requestPath);
+    }
+
+    /**
+     * <p>Records the round trip time of a single attempt of a request to the given url, which
+     * {@link #getTimeout(String)} adapts the timeout of the endpoint to.</p>
+     *
+     * @param url             The url of the request to the Branch API.
+     * @param roundTripMillis Time from starting the attempt until the response arrived.
+     */
+    public void onRoundTrip(String url, long roundTripMillis) {
+        String requestPath = RequestTimeoutEstimator.getRequestPath(url);
+        if (requestPath != null) {
+            getRequestTimeoutEstimator().onResponse(requestPath, roundTripMillis);
+        }
+    }
+
+    synchronized RequestTimeoutEstimator getRequestTimeoutEstimator() {
+        if (requestTimeoutEstimator_ == null) {
+            requestTimeoutEstimator_ = new RequestTimeoutEstimator(this);
+        }
+        return requestTimeoutEstimator_;
+    }
+
+    /**
+     * <p>Sets the lower and upper bounds in milliseconds for the adaptive request timeouts.</p>
+     *
+     * @param floor   Shortest timeout applied to a request, however fast the endpoint responded before.
+     * @param ceiling Longest timeout applied to a request, however slow the endpoint responded before.
+     */
+    public void setTimeoutBounds(int floor, int ceiling) {
+        setInteger(KEY_TIMEOUT_FLOOR, floor);
+        setInteger(KEY_TIMEOUT_CEILING, ceiling);
+    }
+
+    public int getTimeoutFloor() {
+        return getInteger(KEY_TIMEOUT_FLOOR, RequestTimeoutEstimator.DEFAULT_TIMEOUT_FLOOR);
+    }
+
+    public int getTimeoutCeiling() {
+        return getInteger(KEY_TIMEOUT_CEILING, RequestTimeoutEstimator.DEFAULT_TIMEOUT_CEILING);
+    }
     
     /**
      * <p>Sets the value specifying the number of times that a Branch API call has been re-attempted.</p>
@@ -341,13 +430,7 @@ public class PrefHelper {
         if (!currentBranchKey.equals(key)) {
             clearPrefOnBranchKeyChange();
             setString(KEY_BRANCH_KEY, key);
-
-            // PrefHelper can be retrieved before Branch singleton is initialized
-            if (Branch.getInstance() != null) {
-                Branch.getInstance().linkCache_.clear();
-                Branch.getInstance().requestQueue_.clear();
-            }
-
+            // The Branch instance setting the key clears its queue and link cache
             return true;
         }
         return false;
@@ -984,6 +1067,10 @@ public class PrefHelper {
      * @return A {@link Boolean} indicating whether some preference exists.
      */
     public boolean hasPrefValue(String key) {
+        SessionStateUpdate update = ownSessionStateUpdate();
+        if (update != null && update.staged.containsKey(key)) {
+            return update.staged.get(key) != SessionStateUpdate.REMOVED;
+        }
         return appSharedPrefs_.contains(key);
     }
 
@@ -993,6 +1080,12 @@ public class PrefHelper {
      * @param key A {@link String} value containing the key to the value that's to be deleted.
      */
     public void removePrefValue(String key) {
+        SessionStateUpdate update = ownSessionStateUpdate();
+        if (update != null) {
+            update.editor.remove(key);
+            update.staged.put(key, SessionStateUpdate.REMOVED);
+            return;
+        }
         prefsEditor_.remove(key).apply();
     }
     
@@ -1017,6 +1110,11 @@ public class PrefHelper {
      * default value if null.
      */
     public int getInteger(String key, int defaultValue) {
+        SessionStateUpdate update = ownSessionStateUpdate();
+        if (update != null && update.staged.containsKey(key)) {
+            Object value = update.staged.get(key);
+            return value == SessionStateUpdate.REMOVED ? defaultValue : (Integer) value;
+        }
         return appSharedPrefs_.getInt(key, defaultValue);
     }
     
@@ -1027,6 +1125,11 @@ public class PrefHelper {
      * @return A {@link Long} value of the specified key as stored in preferences.
      */
     public long getLong(String key) {
+        SessionStateUpdate update = ownSessionStateUpdate();
+        if (update != null && update.staged.containsKey(key)) {
+            Object value = update.staged.get(key);
+            return value == SessionStateUpdate.REMOVED ? 0L : (Long) value;
+        }
         return appSharedPrefs_.getLong(key, 0);
     }
     
@@ -1037,6 +1140,11 @@ public class PrefHelper {
      * @return A {@link Float} value of the specified key as stored in preferences.
      */
     public float getFloat(String key) {
+        SessionStateUpdate update = ownSessionStateUpdate();
+        if (update != null && update.staged.containsKey(key)) {
+            Object value = update.staged.get(key);
+            return value == SessionStateUpdate.REMOVED ? 0f : (Float) value;
+        }
         return appSharedPrefs_.getFloat(key, 0);
     }
     
@@ -1047,6 +1155,11 @@ public class PrefHelper {
      * @return A {@link String} value of the specified key as stored in preferences.
      */
     public String getString(String key) {
+        SessionStateUpdate update = ownSessionStateUpdate();
+        if (update != null && update.staged.containsKey(key)) {
+            Object value = update.staged.get(key);
+            return value == SessionStateUpdate.REMOVED ? NO_STRING_VALUE : (String) value;
+        }
         return appSharedPrefs_.getString(key, NO_STRING_VALUE);
     }
     
@@ -1057,6 +1170,11 @@ public class PrefHelper {
      * @return An {@link Boolean} value of the specified key as stored in preferences.
      */
     public boolean getBool(String key) {
+        SessionStateUpdate update = ownSessionStateUpdate();
+        if (update != null && update.staged.containsKey(key)) {
+            Object value = update.staged.get(key);
+            return value == SessionStateUpdate.REMOVED ? false : (Boolean) value;
+        }
         return appSharedPrefs_.getBoolean(key, false);
     }
     
@@ -1067,6 +1185,12 @@ public class PrefHelper {
      * @param value An {@link Integer} value to set the preference record to.
      */
     public void setInteger(String key, int value) {
+        SessionStateUpdate update = ownSessionStateUpdate();
+        if (update != null) {
+            update.editor.putInt(key, value);
+            update.staged.put(key, value);
+            return;
+        }
         prefsEditor_.putInt(key, value).apply();
     }
     
@@ -1077,6 +1201,12 @@ public class PrefHelper {
      * @param value A {@link Long} value to set the preference record to.
      */
     public void setLong(String key, long value) {
+        SessionStateUpdate update = ownSessionStateUpdate();
+        if (update != null) {
+            update.editor.putLong(key, value);
+            update.staged.put(key, value);
+            return;
+        }
         prefsEditor_.putLong(key, value).apply();
     }
     
@@ -1087,6 +1217,12 @@ public class PrefHelper {
      * @param value A {@link Float} value to set the preference record to.
      */
     public void setFloat(String key, float value) {
+        SessionStateUpdate update = ownSessionStateUpdate();
+        if (update != null) {
+            update.editor.putFloat(key, value);
+            update.staged.put(key, value);
+            return;
+        }
         prefsEditor_.putFloat(key, value).apply();
     }
     
@@ -1097,6 +1233,12 @@ public class PrefHelper {
      * @param value A {@link String} value to set the preference record to.
      */
     public void setString(String key, String value) {
+        SessionStateUpdate update = ownSessionStateUpdate();
+        if (update != null) {
+            update.editor.putString(key, value);
+            update.staged.put(key, value);
+            return;
+        }
         prefsEditor_.putString(key, value).apply();
     }
     
@@ -1107,9 +1249,75 @@ public class PrefHelper {
      * @param value A {@link Boolean} value to set the preference record to.
      */
     public void setBool(String key, Boolean value) {
+        SessionStateUpdate update = ownSessionStateUpdate();
+        if (update != null) {
+            update.editor.putBoolean(key, value);
+            update.staged.put(key, value);
+            return;
+        }
         prefsEditor_.putBoolean(key, value).apply();
     }
     
+    /**
+     * <p>Starts staging all preference writes made by the calling thread, until the matching
+     * {@link #commitSessionStateUpdate()}. The staged values are then written in a single
+     * {@link Editor#apply()}, so other threads and the persisted file either see all of the new
+     * session state or none of it, also if the app dies halfway through. The calling thread reads
+     * its own staged values in the meantime. Calls can be nested. Writes from other threads are not
+     * staged, and while another thread's update is in progress the calling thread writes directly.</p>
+     */
+    void beginSessionStateUpdate() {
+        SessionStateUpdate update = ownSessionStateUpdate();
+        if (update != null) {
+            update.depth++;
+            return;
+        }
+        synchronized (this) {
+            if (sessionStateUpdate_ == null) {
+                sessionStateUpdate_ = new SessionStateUpdate(appSharedPrefs_.edit());
+            }
+        }
+    }
+
+    /**
+     * <p>Writes the session state staged since {@link #beginSessionStateUpdate()}, once the
+     * outermost update is committed.</p>
+     */
+    void commitSessionStateUpdate() {
+        SessionStateUpdate update = ownSessionStateUpdate();
+        if (update == null || update.depth-- > 0) {
+            return;
+        }
+        synchronized (this) {
+            sessionStateUpdate_ = null;
+        }
+        if (!update.staged.isEmpty()) {
+            update.editor.apply();
+        }
+    }
+
+    /**
+     * @return The session state update started by the calling thread, or null.
+     */
+    private SessionStateUpdate ownSessionStateUpdate() {
+        SessionStateUpdate update = sessionStateUpdate_;
+        return update != null && update.owner == Thread.currentThread() ? update : null;
+    }
+
+    private static class SessionStateUpdate {
+        // Marks a staged removal
+        static final Object REMOVED = new Object();
+
+        final Thread owner = Thread.currentThread();
+        final Editor editor;
+        final Map<String, Object> staged = new HashMap<>();
+        int depth;
+
+        SessionStateUpdate(Editor editor) {
+            this.editor = editor;
+        }
+    }
+    
     public void updateBranchViewUsageCount(String branchViewId) {
         String key = KEY_BRANCH_VIEW_NUM_OF_USE + "_" + branchViewId;
         int currentUsage = getBranchViewUsageCount(branchViewId) + 1;
@@ -1270,27 +1478,28 @@ public class PrefHelper {
      * @param message A {@link String} value containing the debug message to record.
      */
     public static void Debug(String message) {
-        if (enableLogging_ && !TextUtils.isEmpty(message)) {
-            Log.i(TAG, message);
-        }
+        BranchLogger.debug(message);
     }
 
     public static void LogException(String message, Exception t) {
-        if (!TextUtils.isEmpty(message)) {
-            Log.e(TAG, message, t);
-        }
+        BranchLogger.error(message, t);
     }
 
     public static void LogAlways(String message) {
-        if (!TextUtils.isEmpty(message)) {
-            Log.i(TAG, message);
-        }
+        BranchLogger.info(message);
     }
 
-    private static boolean enableLogging_ = false;
+    /**
+     * <p>Creates a <b>Warning</b> message, logged whether or not debugging is enabled.</p>
+     *
+     * @param message A {@link String} value containing the warning message to record.
+     */
+    public static void LogWarning(String message) {
+        BranchLogger.warn(message);
+    }
 
     static void enableLogging(boolean fEnable) {
-        enableLogging_ = fEnable;
+        BranchLogger.setLogcatEnabled(fEnable);
     }
 
     boolean hasValidBranchKey() {
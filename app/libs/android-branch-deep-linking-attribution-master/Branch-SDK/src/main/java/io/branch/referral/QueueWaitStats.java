@@ -0,0 +1,49 @@
+package io.branch.referral;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Queue wait times of the most recently sent requests, per {@link ServerRequest.PRIORITY}, to
+ * report how long each scheduling class waits. Only the last {@link #SAMPLES_PER_CLASS} waits
+ * of each class are kept.
+ * </p>
+ */
+class QueueWaitStats {
+    static final int SAMPLES_PER_CLASS = 128;
+
+    private final long[][] samples_ = new long[ServerRequest.PRIORITY.values().length][SAMPLES_PER_CLASS];
+    private final long[] counts_ = new long[ServerRequest.PRIORITY.values().length];
+
+    synchronized void record(ServerRequest.PRIORITY priority, long waitMillis) {
+        int index = priority.ordinal();
+        samples_[index][(int) (counts_[index] % SAMPLES_PER_CLASS)] = waitMillis;
+        counts_[index]++;
+    }
+
+    /**
+     * @param priority   The scheduling class.
+     * @param percentile The percentile, between 0 and 100.
+     * @return The queue wait at the percentile in milliseconds, or -1 if no request of the class
+     * has been sent yet.
+     */
+    synchronized long getPercentile(ServerRequest.PRIORITY priority, double percentile) {
+        int index = priority.ordinal();
+        int count = (int) Math.min(counts_[index], SAMPLES_PER_CLASS);
+        if (count == 0) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(samples_[index], count);
+        Arrays.sort(sorted);
+        // Nearest rank
+        int rank = (int) Math.ceil(Math.max(0, Math.min(100, percentile)) / 100 * count);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    /**
+     * @return How many requests of the class have been sent.
+     */
+    synchronized long getCount(ServerRequest.PRIORITY priority) {
+        return counts_[priority.ordinal()];
+    }
+}
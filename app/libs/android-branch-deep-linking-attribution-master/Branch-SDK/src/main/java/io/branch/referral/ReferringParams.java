@@ -0,0 +1,113 @@
+package io.branch.referral;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Iterator;
+
+/**
+ * <p>
+ * Parses referring parameters from their stored form, as returned by
+ * {@link Branch#getLatestReferringParams()} and {@link Branch#getFirstReferringParams()}, and
+ * caches the parsed parameters until the stored parameters change. Every caller gets its own
+ * copy of the cached parameters, which it is free to modify.
+ * </p>
+ */
+class ReferringParams {
+    private ReferringParams() {
+    }
+
+    /**
+     * <p>Parses referring parameters as stored in preferences, either plain or Base64 encoded
+     * JSON.</p>
+     *
+     * @param stored The stored parameters, {@link PrefHelper#NO_STRING_VALUE} if there are none.
+     * @return The parsed parameters, empty if there are none or they can not be parsed.
+     */
+    static JSONObject parse(String stored) {
+        if (stored.equals(PrefHelper.NO_STRING_VALUE)) {
+            return new JSONObject();
+        }
+        try {
+            return new JSONObject(stored);
+        } catch (JSONException e) {
+            byte[] encodedArray = Base64.decode(stored.getBytes(), Base64.NO_WRAP);
+            try {
+                return new JSONObject(new String(encodedArray));
+            } catch (JSONException ex) {
+                ex.printStackTrace();
+                return new JSONObject();
+            }
+        }
+    }
+
+    /**
+     * <p>Holds the parameters parsed from the most recently read stored form. Stored parameters
+     * are replaced as a whole when they are written, so comparing the stored string, normally by
+     * reference, tells whether the parsed parameters are still current. Safe for concurrent
+     * readers, at worst two threads parse the same new value.</p>
+     */
+    static class Cache {
+        private volatile Entry entry_;
+
+        private static class Entry {
+            final String stored;
+            // Never handed out, callers get copies
+            final JSONObject params;
+
+            Entry(String stored, JSONObject params) {
+                this.stored = stored;
+                this.params = params;
+            }
+        }
+
+        /**
+         * @return A copy of the parameters parsed from the stored form, nested objects and arrays
+         * included.
+         */
+        JSONObject get(String stored) {
+            Entry entry = entry_;
+            if (entry == null || !(entry.stored == stored || entry.stored.equals(stored))) {
+                entry = new Entry(stored, parse(stored));
+                entry_ = entry;
+            }
+            return copy(entry.params);
+        }
+    }
+
+    /**
+     * @return A deep copy of the given object, cheaper than parsing its string form again.
+     */
+    static JSONObject copy(JSONObject object) {
+        JSONObject copy = new JSONObject();
+        Iterator<String> keys = object.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            try {
+                copy.put(key, copyValue(object.opt(key)));
+            } catch (JSONException ignore) {
+                // The value was accepted by the original
+            }
+        }
+        return copy;
+    }
+
+    private static JSONArray copy(JSONArray array) {
+        JSONArray copy = new JSONArray();
+        for (int i = 0; i < array.length(); i++) {
+            copy.put(copyValue(array.opt(i)));
+        }
+        return copy;
+    }
+
+    private static Object copyValue(Object value) {
+        if (value instanceof JSONObject) {
+            return copy((JSONObject) value);
+        } else if (value instanceof JSONArray) {
+            return copy((JSONArray) value);
+        }
+        // Strings, numbers, booleans and JSONObject.NULL are immutable
+        return value;
+    }
+}
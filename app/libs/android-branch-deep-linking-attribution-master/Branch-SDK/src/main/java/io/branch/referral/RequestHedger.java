@@ -0,0 +1,239 @@
+package io.branch.referral;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import io.branch.referral.network.BranchRemoteInterface;
+
+/**
+ * <p>
+ * Hedges idempotent requests against tail latency, see {@link ServerRequest#isIdempotent()}. Once a
+ * request has been waiting longer than the configured percentile of the recent round trips of its
+ * endpoint, an identical second request is sent and whichever gets an answer from the server first
+ * is used. The other one is cancelled, which closes its connection, see
+ * {@link BranchRemoteInterface#callCancellable(BranchRemoteInterface.Cancellation, Callable)}. Hedges are paid for from a budget that grows by the
+ * configured fraction of the eligible requests, so hedging adds at most that much load.
+ * </p>
+ * <p>
+ * Hedging is disabled until {@link #enable(double, double)} is called. Endpoints are only hedged
+ * once {@link #MIN_SAMPLES} round trips have been observed.
+ * </p>
+ */
+class RequestHedger {
+    static final int MIN_SAMPLES = 20;
+    static final int MAX_SAMPLES = 64;
+    // Hedges that may be sent at once after a quiet period
+    static final double MAX_BUDGET = 3;
+
+    private volatile boolean enabled_;
+    private double percentile_;
+    private double maxExtraLoad_;
+    private double budget_;
+    private final Map<String, Samples> samples_ = new HashMap<>();
+    private int hedgedCount_;
+    private int hedgeWinCount_;
+    private ExecutorService executor_;
+
+    private static class Samples {
+        final long[] roundTrips = new long[MAX_SAMPLES];
+        int count;
+    }
+
+    private static class Attempt {
+        final boolean isHedge;
+        final ServerResponse response;
+
+        Attempt(boolean isHedge, ServerResponse response) {
+            this.isHedge = isHedge;
+            this.response = response;
+        }
+    }
+
+    /**
+     * @param percentile   Percentile of the recent round trips after which a request is hedged,
+     *                     between 50 and 99.9.
+     * @param maxExtraLoad Largest fraction of the eligible requests that may be hedged, e.g. 0.05.
+     */
+    synchronized void enable(double percentile, double maxExtraLoad) {
+        percentile_ = Math.max(50, Math.min(99.9, percentile));
+        maxExtraLoad_ = Math.max(0, Math.min(1, maxExtraLoad));
+        enabled_ = true;
+    }
+
+    synchronized void disable() {
+        enabled_ = false;
+    }
+
+    boolean isEnabled() {
+        return enabled_;
+    }
+
+    /**
+     * Sends the request, hedging it with the second request if it is slow.
+     *
+     * @param requestPath The endpoint the round trips are tracked for.
+     * @param primary     Sends the request.
+     * @param hedge       Sends an identical request, only called if the request is hedged.
+     * @return The first response from the server, or a failure if neither got one.
+     * @throws InterruptedException if the calling thread is interrupted while waiting, both
+     *                              requests are cancelled then.
+     */
+    ServerResponse execute(String requestPath, Callable<ServerResponse> primary, Callable<ServerResponse> hedge) throws InterruptedException {
+        long hedgeDelay;
+        synchronized (this) {
+            budget_ = Math.min(MAX_BUDGET, budget_ + maxExtraLoad_);
+            hedgeDelay = getHedgeDelay(requestPath);
+        }
+        if (hedgeDelay < 0) {
+            // Nothing to hedge against yet, send it on the calling thread
+            return send(requestPath, primary, false).response;
+        }
+        BlockingQueue<Attempt> completed = new LinkedBlockingQueue<>();
+        BranchRemoteInterface.Cancellation primaryCancellation = new BranchRemoteInterface.Cancellation();
+        BranchRemoteInterface.Cancellation hedgeCancellation = new BranchRemoteInterface.Cancellation();
+        Future<?> primaryFuture = submit(requestPath, primary, false, primaryCancellation, completed);
+        Future<?> hedgeFuture = null;
+        try {
+            Attempt first = completed.poll(hedgeDelay, TimeUnit.MILLISECONDS);
+            if (first == null) {
+                if (!spendBudget()) {
+                    return completed.take().response;
+                }
+                PrefHelper.Debug("Hedging " + requestPath + " after " + hedgeDelay + " ms");
+                hedgeFuture = submit(requestPath, hedge, true, hedgeCancellation, completed);
+                first = completed.take();
+                if (!isAnswered(first.response)) {
+                    // Give the other request the chance to get an answer
+                    Attempt second = completed.take();
+                    if (isAnswered(second.response)) {
+                        first = second;
+                    }
+                }
+                if (first.isHedge) {
+                    synchronized (this) {
+                        hedgeWinCount_++;
+                    }
+                }
+            }
+            return first.response;
+        } finally {
+            // Aborts the loser, the results of finished requests are ignored. The cancellation
+            // closes the connection, the interrupt ends a wait between retries.
+            primaryCancellation.cancel();
+            primaryFuture.cancel(true);
+            if (hedgeFuture != null) {
+                hedgeCancellation.cancel();
+                hedgeFuture.cancel(true);
+            }
+        }
+    }
+
+    private Future<?> submit(final String requestPath, final Callable<ServerResponse> call, final boolean isHedge,
+                             final BranchRemoteInterface.Cancellation cancellation, final BlockingQueue<Attempt> completed) {
+        return getExecutor().submit(new Runnable() {
+            @Override
+            public void run() {
+                completed.add(send(requestPath, new Callable<ServerResponse>() {
+                    @Override
+                    public ServerResponse call() throws Exception {
+                        return BranchRemoteInterface.callCancellable(cancellation, call);
+                    }
+                }, isHedge));
+            }
+        });
+    }
+
+    private Attempt send(String requestPath, Callable<ServerResponse> call, boolean isHedge) {
+        long start = System.currentTimeMillis();
+        ServerResponse response;
+        try {
+            response = call.call();
+        } catch (Exception e) {
+            response = null;
+        }
+        if (response == null) {
+            response = new ServerResponse(requestPath, BranchError.ERR_BRANCH_NO_CONNECTIVITY, "");
+        }
+        long roundTrip = System.currentTimeMillis() - start;
+        // Cancelled requests may have been cut short, they are no valid sample
+        if (isAnswered(response) && !Thread.currentThread().isInterrupted()) {
+            onResponse(requestPath, roundTrip);
+        }
+        return new Attempt(isHedge, response);
+    }
+
+    private static boolean isAnswered(ServerResponse response) {
+        return response.getStatusCode() > 0 && response.getStatusCode() < 500;
+    }
+
+    /**
+     * @return Milliseconds to wait before hedging, or -1 if the request is not to be hedged.
+     */
+    private long getHedgeDelay(String requestPath) {
+        Samples samples = samples_.get(requestPath);
+        if (!enabled_ || samples == null || samples.count < MIN_SAMPLES) {
+            return -1;
+        }
+        int count = Math.min(samples.count, MAX_SAMPLES);
+        long[] sorted = Arrays.copyOf(samples.roundTrips, count);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile_ / 100 * count);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    private synchronized boolean spendBudget() {
+        if (budget_ < 1) {
+            return false;
+        }
+        budget_--;
+        hedgedCount_++;
+        return true;
+    }
+
+    synchronized void onResponse(String requestPath, long roundTripMillis) {
+        Samples samples = samples_.get(requestPath);
+        if (samples == null) {
+            samples = new Samples();
+            samples_.put(requestPath, samples);
+        }
+        samples.roundTrips[samples.count % MAX_SAMPLES] = roundTripMillis;
+        samples.count++;
+    }
+
+    /**
+     * @return How many requests were hedged.
+     */
+    synchronized int getHedgedCount() {
+        return hedgedCount_;
+    }
+
+    /**
+     * @return How many hedged requests were answered by the hedge first.
+     */
+    synchronized int getHedgeWinCount() {
+        return hedgeWinCount_;
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor_ == null) {
+            executor_ = Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "BranchHedgedRequest");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor_;
+    }
+}
@@ -0,0 +1,198 @@
+package io.branch.referral;
+
+import android.text.TextUtils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * <p>
+ * Computes per endpoint request timeouts from the observed round trip times, in the style of the
+ * TCP retransmission timeout (RFC 6298). A smoothed RTT and RTT variance are kept for each request
+ * path and connection type, and the timeout is {@code SRTT + 4 * RTTVAR}, doubled for every
+ * consecutive timeout and clamped between the configured floor and ceiling.
+ * </p>
+ * <p>
+ * Until a path has been measured on the current connection type the configured network timeout
+ * from {@link PrefHelper#getTimeout()} is used. Estimates are persisted so they survive launches.
+ * </p>
+ */
+class RequestTimeoutEstimator {
+    static final String KEY_RTT_ESTIMATES = "bnc_rtt_estimates";
+    static final int DEFAULT_TIMEOUT_FLOOR = 2000;
+    static final int DEFAULT_TIMEOUT_CEILING = 15000;
+
+    static final String CONNECTION_UNKNOWN = "unknown";
+
+    private static final double ALPHA = 0.125;  // Gain for the smoothed RTT
+    private static final double BETA = 0.25;    // Gain for the RTT variance
+    private static final int K = 4;
+    private static final int MIN_VARIANCE_MS = 100;
+    private static final int MAX_BACKOFF = 3;
+
+    private static final String KEY_SRTT = "srtt";
+    private static final String KEY_RTTVAR = "rttvar";
+    private static final String KEY_SAMPLES = "samples";
+    private static final String KEY_TIMEOUTS = "timeouts";
+    private static final String KEY_BACKOFF = "backoff";
+
+    private final PrefHelper prefHelper_;
+    private final Map<String, Estimate> estimates_ = new HashMap<>();
+    private volatile String connectionType_ = CONNECTION_UNKNOWN;
+
+    private static class Estimate {
+        double srtt;
+        double rttvar;
+        int samples;
+        int timeouts;
+        int backoff;
+    }
+
+    RequestTimeoutEstimator(PrefHelper prefHelper) {
+        prefHelper_ = prefHelper;
+        restore();
+    }
+
+    /**
+     * Sets the connection type, e.g. "wifi" or "mobile", that following samples and timeouts apply to.
+     */
+    void setConnectionType(String connectionType) {
+        connectionType_ = TextUtils.isEmpty(connectionType) ? CONNECTION_UNKNOWN : connectionType;
+    }
+
+    /**
+     * @param requestPath Request path, e.g. {@link Defines.RequestPath#getPath()}.
+     * @return The timeout in milliseconds to apply to the request on the current connection type.
+     */
+    synchronized int getTimeout(String requestPath) {
+        Estimate estimate = estimates_.get(key(requestPath));
+        if (estimate == null || estimate.samples == 0) {
+            return prefHelper_.getTimeout();
+        }
+        double rto = estimate.srtt + Math.max(MIN_VARIANCE_MS, K * estimate.rttvar);
+        rto *= 1 << estimate.backoff;
+        return (int) Math.min(getCeiling(), Math.max(getFloor(), rto));
+    }
+
+    /**
+     * Adds a round trip time sample for a request that received a response.
+     */
+    synchronized void onResponse(String requestPath, long roundTripMillis) {
+        String key = key(requestPath);
+        Estimate estimate = estimates_.get(key);
+        if (estimate == null) {
+            estimate = new Estimate();
+            estimates_.put(key, estimate);
+        }
+        if (estimate.samples == 0) {
+            estimate.srtt = roundTripMillis;
+            estimate.rttvar = roundTripMillis / 2.0;
+        } else {
+            estimate.rttvar = (1 - BETA) * estimate.rttvar + BETA * Math.abs(estimate.srtt - roundTripMillis);
+            estimate.srtt = (1 - ALPHA) * estimate.srtt + ALPHA * roundTripMillis;
+        }
+        estimate.samples++;
+        estimate.backoff = 0;
+        persist();
+    }
+
+    /**
+     * Records a timed out request, backing off the timeout for the following attempts.
+     */
+    synchronized void onTimeout(String requestPath) {
+        Estimate estimate = estimates_.get(key(requestPath));
+        if (estimate != null) {
+            estimate.timeouts++;
+            estimate.backoff = Math.min(MAX_BACKOFF, estimate.backoff + 1);
+            persist();
+        }
+    }
+
+    int getFloor() {
+        return prefHelper_.getTimeoutFloor();
+    }
+
+    int getCeiling() {
+        return Math.max(getFloor(), prefHelper_.getTimeoutCeiling());
+    }
+
+    private String key(String requestPath) {
+        return requestPath + "|" + connectionType_;
+    }
+
+    /**
+     * @return The current estimates keyed by request path and connection type, for metrics and debugging.
+     */
+    synchronized JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        try {
+            for (Map.Entry<String, Estimate> entry : estimates_.entrySet()) {
+                Estimate estimate = entry.getValue();
+                JSONObject estimateJson = new JSONObject();
+                estimateJson.put(KEY_SRTT, Math.round(estimate.srtt));
+                estimateJson.put(KEY_RTTVAR, Math.round(estimate.rttvar));
+                estimateJson.put(KEY_SAMPLES, estimate.samples);
+                estimateJson.put(KEY_TIMEOUTS, estimate.timeouts);
+                estimateJson.put(KEY_BACKOFF, estimate.backoff);
+                json.put(entry.getKey(), estimateJson);
+            }
+        } catch (JSONException ignore) {
+        }
+        return json;
+    }
+
+    private void persist() {
+        prefHelper_.setString(KEY_RTT_ESTIMATES, toJSON().toString());
+    }
+
+    private void restore() {
+        String saved = prefHelper_.getString(KEY_RTT_ESTIMATES);
+        if (TextUtils.isEmpty(saved) || PrefHelper.NO_STRING_VALUE.equals(saved)) {
+            return;
+        }
+        try {
+            JSONObject json = new JSONObject(saved);
+            Iterator<String> keys = json.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                JSONObject estimateJson = json.getJSONObject(key);
+                Estimate estimate = new Estimate();
+                estimate.srtt = estimateJson.optDouble(KEY_SRTT);
+                estimate.rttvar = estimateJson.optDouble(KEY_RTTVAR);
+                estimate.samples = estimateJson.optInt(KEY_SAMPLES);
+                estimate.timeouts = estimateJson.optInt(KEY_TIMEOUTS);
+                estimate.backoff = estimateJson.optInt(KEY_BACKOFF);
+                if (!Double.isNaN(estimate.srtt) && !Double.isNaN(estimate.rttvar)) {
+                    estimates_.put(key, estimate);
+                }
+            }
+        } catch (JSONException e) {
+            PrefHelper.Debug("Discarding invalid round trip estimates " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param url Request url, optionally with a query.
+     * @return The {@link Defines.RequestPath} path the url is for, or null if it is not a known Branch endpoint.
+     */
+    static String getRequestPath(String url) {
+        if (url == null) {
+            return null;
+        }
+        int query = url.indexOf('?');
+        String path = query >= 0 ? url.substring(0, query) : url;
+        String match = null;
+        for (Defines.RequestPath requestPath : Defines.RequestPath.values()) {
+            // Credits are requested as v1/credits/<identity>, so match on the path prefix
+            String candidate = requestPath.getPath();
+            if (path.contains("/" + candidate) && (match == null || candidate.length() > match.length())) {
+                match = candidate;
+            }
+        }
+        return match;
+    }
+}
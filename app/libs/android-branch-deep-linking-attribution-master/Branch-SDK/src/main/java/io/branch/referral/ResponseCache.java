@@ -0,0 +1,178 @@
+package io.branch.referral;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Response cache for the idempotent lookups, e.g. cross platform ids and last attributed touch
+ * data, identified by {@link ServerRequest#getResponseCacheKey()}. A lookup is answered from a
+ * cached response while it is fresher than the time to live of its endpoint. Otherwise it is
+ * queued, and identical lookups made while it is in flight are coalesced into it: they are not
+ * queued and are answered with its outcome once it completes.
+ * </p>
+ * <p>
+ * Cached responses depend on the identity of the user, so the cache is invalidated when the
+ * identity changes and on logout. Lookups in flight at that time still answer the requests
+ * coalesced into them, but their responses are not cached.
+ * </p>
+ */
+class ResponseCache {
+    private static final Map<Defines.RequestPath, Long> DEFAULT_TIME_TO_LIVE = new EnumMap<>(Defines.RequestPath.class);
+
+    static {
+        DEFAULT_TIME_TO_LIVE.put(Defines.RequestPath.GetCPID, TimeUnit.MINUTES.toMillis(10));
+        DEFAULT_TIME_TO_LIVE.put(Defines.RequestPath.GetLATD, TimeUnit.MINUTES.toMillis(1));
+        DEFAULT_TIME_TO_LIVE.put(Defines.RequestPath.GetApp, TimeUnit.HOURS.toMillis(1));
+        // Credits change with user actions and redemptions, only coalesced unless configured
+        DEFAULT_TIME_TO_LIVE.put(Defines.RequestPath.GetCredits, 0L);
+        DEFAULT_TIME_TO_LIVE.put(Defines.RequestPath.GetCreditHistory, 0L);
+    }
+
+    private final Map<Defines.RequestPath, Long> timeToLive_ = new EnumMap<>(DEFAULT_TIME_TO_LIVE);
+    private final Map<String, Entry> responses_ = new HashMap<>();
+    // Lookups in flight by key, the requests that identical lookups are coalesced into
+    private final Map<String, ServerRequest> inFlight_ = new HashMap<>();
+    // Incremented on invalidation, responses to lookups sent before are not cached
+    private int generation_;
+
+    private static class Entry {
+        final ServerResponse response;
+        final long expiresAt;
+
+        Entry(ServerResponse response, long expiresAt) {
+            this.response = response;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * State of a lookup in flight, held by the request itself so it can answer the requests
+     * coalesced into it even after the cache was invalidated.
+     */
+    static class Flight {
+        final String key;
+        final int generation;
+        final List<ServerRequest> coalesced = new ArrayList<>();
+
+        Flight(String key, int generation) {
+            this.key = key;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * @param requestPath The endpoint.
+     * @param timeToLive  How long responses of the endpoint are reused, in milliseconds. Zero
+     *                    disables caching, identical requests in flight are still coalesced.
+     */
+    synchronized void setTimeToLive(Defines.RequestPath requestPath, long timeToLive) {
+        timeToLive_.put(requestPath, Math.max(0, timeToLive));
+        if (timeToLive <= 0) {
+            responses_.clear();
+        }
+    }
+
+    /**
+     * <p>Answers a new request from the cache, or coalesces it into an identical request in
+     * flight. Requests that are not cacheable, and lookups that have to reach the server, are
+     * left to be queued.</p>
+     *
+     * @return True if the request has been handled and must not be queued.
+     */
+    boolean handleNewRequest(ServerRequest request, Branch branch) {
+        String key = request.getResponseCacheKey();
+        if (key == null) {
+            return false;
+        }
+        ServerResponse cached;
+        synchronized (this) {
+            Entry entry = responses_.get(key);
+            if (entry != null && entry.expiresAt - now() > 0) {
+                cached = entry.response;
+            } else {
+                responses_.remove(key);
+                ServerRequest leader = inFlight_.get(key);
+                // Dropped from the queue without completing, e.g. evicted from a full queue
+                if (leader != null && leader.queue_ != null) {
+                    leader.responseCacheFlight_.coalesced.add(request);
+                    PrefHelper.Debug("Coalesced " + request.getRequestPath() + " into the request in flight");
+                    return true;
+                }
+                request.responseCacheFlight_ = new Flight(key, generation_);
+                inFlight_.put(key, request);
+                return false;
+            }
+        }
+        PrefHelper.Debug("Answered " + request.getRequestPath() + " from the response cache");
+        request.onRequestSucceeded(cached.copy(), branch);
+        return true;
+    }
+
+    /**
+     * Reports the successful response to the request and the requests coalesced into it, and
+     * caches it for the following identical lookups.
+     */
+    void onRequestSucceeded(ServerRequest request, ServerResponse response, Branch branch) {
+        List<ServerRequest> coalesced = complete(request, response);
+        ServerResponse shared = coalesced.isEmpty() ? null : response.copy();
+        request.onRequestSucceeded(response, branch);
+        for (ServerRequest follower : coalesced) {
+            follower.onRequestSucceeded(shared.copy(), branch);
+        }
+    }
+
+    /**
+     * Reports the failure to the request and the requests coalesced into it.
+     */
+    void handleFailure(ServerRequest request, int statusCode, String causeMsg) {
+        List<ServerRequest> coalesced = complete(request, null);
+        request.handleFailure(statusCode, causeMsg);
+        for (ServerRequest follower : coalesced) {
+            follower.handleFailure(statusCode, causeMsg);
+        }
+    }
+
+    private synchronized List<ServerRequest> complete(ServerRequest request, ServerResponse response) {
+        Flight flight = request.responseCacheFlight_;
+        if (flight == null) {
+            return Collections.emptyList();
+        }
+        request.responseCacheFlight_ = null;
+        if (inFlight_.get(flight.key) == request) {
+            inFlight_.remove(flight.key);
+        }
+        if (response != null && response.getStatusCode() == 200 && flight.generation == generation_) {
+            Long timeToLive = timeToLive_.get(request.requestPath_);
+            if (timeToLive != null && timeToLive > 0) {
+                // A copy, the callbacks of the request may modify the response they are given
+                responses_.put(flight.key, new Entry(response.copy(), now() + TimeUnit.MILLISECONDS.toNanos(timeToLive)));
+            }
+        }
+        return flight.coalesced;
+    }
+
+    /**
+     * Drops the cached responses, and stops coalescing new requests into the ones in flight.
+     */
+    synchronized void invalidate() {
+        generation_++;
+        responses_.clear();
+        inFlight_.clear();
+    }
+
+    // For Unit Testing
+    synchronized boolean isCached(String key) {
+        Entry entry = responses_.get(key);
+        return entry != null && entry.expiresAt - now() > 0;
+    }
+
+    private static long now() {
+        return System.nanoTime();
+    }
+}
@@ -11,8 +11,10 @@ import androidx.annotation.NonNull;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.nio.charset.Charset;
 import java.util.ConcurrentModificationException;
-import java.util.HashSet;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
@@ -33,23 +35,80 @@ public abstract class ServerRequest {
             Defines.RequestPath.TrackStandardEvent,
             Defines.RequestPath.TrackCustomEvent};
     
+    // Request paths handled by getExtendedServerRequest()
+    private static final Defines.RequestPath[] restorableRoutes = new Defines.RequestPath[]{
+            Defines.RequestPath.CompletedAction,
+            Defines.RequestPath.GetURL,
+            Defines.RequestPath.GetCreditHistory,
+            Defines.RequestPath.GetCredits,
+            Defines.RequestPath.IdentifyUser,
+            Defines.RequestPath.Logout,
+            Defines.RequestPath.RedeemRewards,
+            Defines.RequestPath.RegisterClose,
+            Defines.RequestPath.RegisterInstall,
+            Defines.RequestPath.RegisterOpen,
+            Defines.RequestPath.TrackStandardEvent,
+            Defines.RequestPath.TrackCustomEvent};
+    
     private static final String POST_KEY = "REQ_POST";
-    private static final String POST_PATH_KEY = "REQ_POST_PATH";
+    static final String POST_PATH_KEY = "REQ_POST_PATH";
+    // Wall clock time the request was queued at, restored requests keep aging from it
+    static final String QUEUED_AT_KEY = "REQ_QUEUED_AT";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
 
     private JSONObject params_;
+    // While the request waits behind the head of the queue its post data is only held as the UTF-8
+    // bytes of the persisted JSON form, see compact()
+    private byte[] compactForm_;
     final Defines.RequestPath requestPath_;
     protected final PrefHelper prefHelper_;
     private long queueWaitTime_ = 0;
+    // Monotonic time the request was queued at, only set while session tracing is enabled
+    long queuedTraceTime_ = 0;
     private final Context context_;
 
     // Various process wait locks for Branch server request
     enum PROCESS_WAIT_LOCK {
         SDK_INIT_WAIT_LOCK, FB_APP_LINK_WAIT_LOCK, GAID_FETCH_WAIT_LOCK, INTENT_PENDING_WAIT_LOCK,
-        STRONG_MATCH_PENDING_WAIT_LOCK, INSTALL_REFERRER_FETCH_WAIT_LOCK, USER_SET_WAIT_LOCK
+        STRONG_MATCH_PENDING_WAIT_LOCK, INSTALL_REFERRER_FETCH_WAIT_LOCK, USER_SET_WAIT_LOCK,
+        DEFERRED_SEND_WAIT_LOCK
+    }
+
+    /**
+     * How soon a request needs to reach the server. {@link #DEFERRABLE} requests may be held back and
+     * sent together with other requests to avoid waking up the radio for each of them.
+     */
+    public enum URGENCY {
+        IMMEDIATE, DEFERRABLE
+    }
+
+    /**
+     * Scheduling class of a request. The queue sends the queued request of the highest class
+     * first, but ages waiting requests so lower classes are never starved, see
+     * {@link ServerRequestQueue#peekNextToSend()}.
+     */
+    public enum PRIORITY {
+        /** Init session, identity and logout requests. Queued requests never pass them. */
+        SESSION_CRITICAL,
+        /** Requests a user is waiting on, such as creating a link to share. */
+        USER_INTERACTIVE,
+        STANDARD,
+        /** Analytics events that no one is waiting on. */
+        BACKGROUND
     }
     
     // Set for holding any active wait locks
     private final Set<PROCESS_WAIT_LOCK> locks_;
+    // Monotonic time each wait lock was set at, only populated while session tracing is enabled
+    private Map<PROCESS_WAIT_LOCK, Long> lockTraceTimes_;
+    // Queue this request is in, notified when a wait lock is set while the request is queued
+    volatile ServerRequestQueue queue_;
+    // Set while this request is an idempotent lookup in flight, see ResponseCache
+    ResponseCache.Flight responseCacheFlight_;
+    // Set while events coalesced into this event wait for it to complete, see EventCoalescer
+    EventCoalescer.Flight eventCoalescerFlight_;
+    // Set once this event has been counted as sent, see EventCoalescer
+    boolean eventSent_;
     
     /*True if there is an error in creating this request such as error with json parameters.*/
     public boolean constructError_ = false;
@@ -72,7 +131,7 @@ public abstract class ServerRequest {
         requestPath_ = requestPath;
         prefHelper_ = PrefHelper.getInstance(context);
         params_ = new JSONObject();
-        locks_ = new HashSet<>();
+        locks_ = EnumSet.noneOf(PROCESS_WAIT_LOCK.class);
     }
     
     /**
@@ -88,7 +147,7 @@ public abstract class ServerRequest {
         requestPath_ = requestPath;
         params_ = post;
         prefHelper_ = PrefHelper.getInstance(context);
-        locks_ = new HashSet<>();
+        locks_ = EnumSet.noneOf(PROCESS_WAIT_LOCK.class);
     }
     
     /**
@@ -109,6 +168,18 @@ public abstract class ServerRequest {
      * @param branch   Current {@link Branch} instance
      */
     public abstract void onRequestSucceeded(ServerResponse response, Branch branch);
+
+    /**
+     * <p>Called when execution of this request to server succeeds, before
+     * {@link #onRequestSucceeded(ServerResponse, Branch)}. Writes the state carried by the response
+     * without notifying any callback, session init requests write it in a single session state
+     * update that is committed before the callbacks run.</p>
+     *
+     * @param response A {@link ServerResponse} object containing server response for this request.
+     * @param branch   Current {@link Branch} instance
+     */
+    void updateStateOnSuccess(ServerResponse response, Branch branch) {
+    }
     
     /**
      * <p>Called when there is an error on executing this request. Child class should handle the failure
@@ -160,6 +231,27 @@ public abstract class ServerRequest {
         return false;
     }
     
+    /**
+     * Identifies the response of idempotent lookups, which may be answered from the {@link ResponseCache}
+     * and coalesced with identical lookups in flight. Lookups with the same key must get the same
+     * response from the server.
+     *
+     * @return The key, or {@code null} by default for requests that always have to reach the server.
+     */
+    protected String getResponseCacheKey() {
+        return null;
+    }
+
+    /**
+     * Marks read only lookups that may be sent more than once, e.g. hedged by the {@link RequestHedger}
+     * when the first attempt is slow.
+     *
+     * @return True if sending the request twice has the same effect as sending it once, false by default.
+     */
+    protected boolean isIdempotent() {
+        return false;
+    }
+    
     /**
      * <p>Provides the path to server for this request.
      * see {@link Defines.RequestPath} <p>
@@ -187,7 +279,10 @@ public abstract class ServerRequest {
      *             as key-value pairs.
      */
     protected void setPost(JSONObject post) throws JSONException {
-        params_ = post;
+        synchronized (this) {
+            params_ = post;
+            compactForm_ = null;
+        }
 
         if (getBranchRemoteAPIVersion() == BRANCH_API_VERSION.V1) {
             DeviceInfo.getInstance().updateRequestWithV1Params(this, params_);
@@ -206,7 +301,7 @@ public abstract class ServerRequest {
      * as key-value pairs.
      */
     public JSONObject getPost() {
-        return params_;
+        return params();
     }
     
     /**
@@ -234,8 +329,8 @@ public abstract class ServerRequest {
         JSONObject extendedPost = new JSONObject();
         try {
             //Add original parameters
-            if (params_ != null) {
-                JSONObject originalParams = new JSONObject(params_.toString());
+            if (params() != null) {
+                JSONObject originalParams = new JSONObject(params().toString());
                 Iterator<String> keys = originalParams.keys();
                 while (keys.hasNext()) {
                     String key = keys.next();
@@ -257,7 +352,7 @@ public abstract class ServerRequest {
             }
         } catch (JSONException ignore) {
         } catch (ConcurrentModificationException ex) {
-            extendedPost = params_;
+            extendedPost = params();
         }
         return extendedPost;
     }
@@ -268,7 +363,7 @@ public abstract class ServerRequest {
      * @return A {@link JSONObject} representation of get request parameters.
      */
     public JSONObject getGetParams() {
-        return params_;
+        return params();
     }
     
     /**
@@ -279,7 +374,7 @@ public abstract class ServerRequest {
      */
     protected void addGetParam(String paramKey, String paramValue) {
         try {
-            params_.put(paramKey, paramValue);
+            params().put(paramKey, paramValue);
         } catch (JSONException ignore) {
         }
     }
@@ -296,13 +391,72 @@ public abstract class ServerRequest {
     public JSONObject toJSON() {
         JSONObject json = new JSONObject();
         try {
-            json.put(POST_KEY, params_);
+            json.put(POST_KEY, params());
             json.put(POST_PATH_KEY, requestPath_.getPath());
+            if (queueWaitTime_ > 0) {
+                json.put(QUEUED_AT_KEY, queueWaitTime_);
+            }
         } catch (JSONException e) {
             return null;
         }
         return json;
     }
+
+    /**
+     * @return The persisted JSON form of this request as returned by {@link #toJSON()}, without
+     * inflating the post data if the request is compacted. Null if the request can not be persisted.
+     */
+    synchronized String toPersistedString() {
+        if (compactForm_ != null) {
+            return new String(compactForm_, UTF_8);
+        }
+        JSONObject json = toJSON();
+        return json == null ? null : json.toString();
+    }
+
+    /**
+     * Override this to allow the post data to be held in the compact encoded form while the
+     * request waits in the queue. Only safe for requests that do not keep references into their
+     * post data and can be restored with {@link #fromJSON(JSONObject, Context)} semantics.
+     *
+     * @return True if this request can be compacted, false by default
+     */
+    protected boolean isCompactable() {
+        return false;
+    }
+
+    /**
+     * Replaces the post data with the UTF-8 bytes of its persisted JSON form, releasing the
+     * {@link JSONObject} tree. The post data is inflated again the next time it is accessed, which
+     * is normally when the request reaches the head of the queue.
+     */
+    synchronized void compact() {
+        if (compactForm_ != null || params_ == null || !isCompactable()) {
+            return;
+        }
+        JSONObject json = toJSON();
+        if (json != null) {
+            compactForm_ = json.toString().getBytes(UTF_8);
+            params_ = null;
+        }
+    }
+
+    synchronized boolean isCompact() {
+        return compactForm_ != null;
+    }
+
+    private synchronized JSONObject params() {
+        if (compactForm_ != null) {
+            try {
+                params_ = new JSONObject(new String(compactForm_, UTF_8)).optJSONObject(POST_KEY);
+            } catch (JSONException e) {
+                // Can not happen as the form is written by compact()
+                params_ = new JSONObject();
+            }
+            compactForm_ = null;
+        }
+        return params_;
+    }
     
     /**
      * <p>Converts a {@link JSONObject} object containing keys stored as key-value pairs into
@@ -341,11 +495,53 @@ public abstract class ServerRequest {
         } catch (JSONException ignored) { }
         
         if (!TextUtils.isEmpty(requestPath)) {
-            return getExtendedServerRequest(requestPath, post, context, initiatedByClient);
+            ServerRequest extendedReq = getExtendedServerRequest(requestPath, post, context, initiatedByClient);
+            if (extendedReq != null) {
+                extendedReq.queueWaitTime_ = json.optLong(QUEUED_AT_KEY, 0);
+            }
+            return extendedReq;
         }
         return null;
     }
     
+    /**
+     * @param requestPath Path of a persisted request.
+     * @return True if {@link #fromJSON(JSONObject, Context)} can restore a request with this path.
+     */
+    static boolean isRestorable(String requestPath) {
+        for (Defines.RequestPath path : restorableRoutes) {
+            if (requestPath.equalsIgnoreCase(path.getPath())) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * @param requestPath Path of a persisted request.
+     * @return The {@link PRIORITY} of the request {@link #fromJSON(JSONObject, Context)} restores
+     * for the path, so that the queue can schedule a restored request without decoding it.
+     */
+    static PRIORITY getRestoredPriority(String requestPath) {
+        if (requestPath.equalsIgnoreCase(Defines.RequestPath.RegisterInstall.getPath())
+                || requestPath.equalsIgnoreCase(Defines.RequestPath.RegisterOpen.getPath())
+                || requestPath.equalsIgnoreCase(Defines.RequestPath.IdentifyUser.getPath())
+                || requestPath.equalsIgnoreCase(Defines.RequestPath.Logout.getPath())) {
+            return PRIORITY.SESSION_CRITICAL;
+        } else if (requestPath.equalsIgnoreCase(Defines.RequestPath.GetURL.getPath())
+                || requestPath.equalsIgnoreCase(Defines.RequestPath.GetCreditHistory.getPath())
+                || requestPath.equalsIgnoreCase(Defines.RequestPath.GetCredits.getPath())
+                || requestPath.equalsIgnoreCase(Defines.RequestPath.RedeemRewards.getPath())) {
+            return PRIORITY.USER_INTERACTIVE;
+        } else if (requestPath.equalsIgnoreCase(Defines.RequestPath.CompletedAction.getPath())
+                || requestPath.equalsIgnoreCase(Defines.RequestPath.TrackStandardEvent.getPath())
+                || requestPath.equalsIgnoreCase(Defines.RequestPath.TrackCustomEvent.getPath())
+                || requestPath.equalsIgnoreCase(Defines.RequestPath.RegisterClose.getPath())) {
+            return PRIORITY.BACKGROUND;
+        }
+        return PRIORITY.STANDARD;
+    }
+    
     /**
      * <p>Factory method for creating the specific server requests objects. Creates requests according
      * to the request path.</p>
@@ -378,6 +574,10 @@ public abstract class ServerRequest {
             extendedReq = new ServerRequestRegisterInstall(Defines.RequestPath.RegisterInstall, post, context, initiatedByClient);
         } else if (requestPath.equalsIgnoreCase(Defines.RequestPath.RegisterOpen.getPath())) {
             extendedReq = new ServerRequestRegisterOpen(Defines.RequestPath.RegisterOpen, post, context, initiatedByClient);
+        } else if (requestPath.equalsIgnoreCase(Defines.RequestPath.TrackStandardEvent.getPath())) {
+            extendedReq = new ServerRequestLogEvent(Defines.RequestPath.TrackStandardEvent, post, context);
+        } else if (requestPath.equalsIgnoreCase(Defines.RequestPath.TrackCustomEvent.getPath())) {
+            extendedReq = new ServerRequestLogEvent(Defines.RequestPath.TrackCustomEvent, post, context);
         }
         
         return extendedReq;
@@ -395,20 +595,20 @@ public abstract class ServerRequest {
         }
         try {
             if (version == BRANCH_API_VERSION.V1) {
-                params_.put(Defines.Jsonkey.LATVal.getKey(), LATVal);
+                params().put(Defines.Jsonkey.LATVal.getKey(), LATVal);
                 if (!TextUtils.isEmpty(gaid)) {
                     if (!SystemObserver.isHuaweiMobileServicesAvailable(context_)) {
                         // Fire OS overloads ad id (representing it as Google ad id at the top level),
                         // HUAWEI only reports ad id in the advertising_ids object
-                        params_.put(Defines.Jsonkey.GoogleAdvertisingID.getKey(), gaid);
+                        params().put(Defines.Jsonkey.GoogleAdvertisingID.getKey(), gaid);
                     }
-                    params_.remove(Defines.Jsonkey.UnidentifiedDevice.getKey());
-                } else if (!payloadContainsDeviceIdentifiers(params_) &&
-                        !params_.optBoolean(Defines.Jsonkey.UnidentifiedDevice.getKey())) {
-                    params_.put(Defines.Jsonkey.UnidentifiedDevice.getKey(), true);
+                    params().remove(Defines.Jsonkey.UnidentifiedDevice.getKey());
+                } else if (!payloadContainsDeviceIdentifiers(params()) &&
+                        !params().optBoolean(Defines.Jsonkey.UnidentifiedDevice.getKey())) {
+                    params().put(Defines.Jsonkey.UnidentifiedDevice.getKey(), true);
                 }
             } else {
-                JSONObject userDataObj = params_.optJSONObject(Defines.Jsonkey.UserData.getKey());
+                JSONObject userDataObj = params().optJSONObject(Defines.Jsonkey.UserData.getKey());
                 if (userDataObj != null) {
                     userDataObj.put(Defines.Jsonkey.LimitedAdTracking.getKey(), LATVal);
                     if (!TextUtils.isEmpty(gaid)) {
@@ -440,7 +640,7 @@ public abstract class ServerRequest {
             }
 
             JSONObject advertisingIdsObject = new JSONObject().put(key, aid);
-            params_.put(Defines.Jsonkey.AdvertisingIDs.getKey(), advertisingIdsObject);
+            params().put(Defines.Jsonkey.AdvertisingIDs.getKey(), advertisingIdsObject);
         } catch (JSONException ignored) {}
     }
 
@@ -453,7 +653,7 @@ public abstract class ServerRequest {
     private void updateDeviceInfo() {
         BRANCH_API_VERSION version = getBranchRemoteAPIVersion();
         if (version == BRANCH_API_VERSION.V2) {
-            JSONObject userDataObj = params_.optJSONObject(Defines.Jsonkey.UserData.getKey());
+            JSONObject userDataObj = params().optJSONObject(Defines.Jsonkey.UserData.getKey());
             if (userDataObj != null) {
                 try {
                     userDataObj.put(Defines.Jsonkey.DeveloperIdentity.getKey(), prefHelper_.getIdentity());
@@ -478,7 +678,7 @@ public abstract class ServerRequest {
                 String k = i.next();
                 metadata.put(k, prefHelper_.getRequestMetadata().get(k));
             }
-            JSONObject originalMetadata = params_.optJSONObject(Defines.Jsonkey.Metadata.getKey());
+            JSONObject originalMetadata = params().optJSONObject(Defines.Jsonkey.Metadata.getKey());
             if (originalMetadata != null) {
                 Iterator<String> postIter = originalMetadata.keys();
                 while (postIter.hasNext()) {
@@ -493,10 +693,10 @@ public abstract class ServerRequest {
                 while (postIterInstallMetaData.hasNext()) {
                     String key = postIterInstallMetaData.next();
                     // override keys from above
-                    params_.putOpt(key,  prefHelper_.getInstallMetadata().get(key));
+                    params().putOpt(key,  prefHelper_.getInstallMetadata().get(key));
                 }
             }
-            params_.put(Defines.Jsonkey.Metadata.getKey(), metadata);
+            params().put(Defines.Jsonkey.Metadata.getKey(), metadata);
         } catch (JSONException e) {
            PrefHelper.Debug("Could not merge metadata, ignoring user metadata.");
         }
@@ -506,7 +706,7 @@ public abstract class ServerRequest {
      * Update the the limit app tracking value to the request
      */
     private void updateLimitFacebookTracking() {
-        JSONObject updateJson = getBranchRemoteAPIVersion() == BRANCH_API_VERSION.V1 ? params_ : params_.optJSONObject(Defines.Jsonkey.UserData.getKey());
+        JSONObject updateJson = getBranchRemoteAPIVersion() == BRANCH_API_VERSION.V1 ? params() : params().optJSONObject(Defines.Jsonkey.UserData.getKey());
         if (updateJson != null) {
             boolean isLimitFacebookTracking = prefHelper_.isAppTrackingLimited(); // Currently only FB app tracking
             if (isLimitFacebookTracking) {
@@ -519,7 +719,7 @@ public abstract class ServerRequest {
     }
 
     private void updateDisableAdNetworkCallouts() {
-        JSONObject updateJson = getBranchRemoteAPIVersion() == BRANCH_API_VERSION.V1 ? params_ : params_.optJSONObject(Defines.Jsonkey.UserData.getKey());
+        JSONObject updateJson = getBranchRemoteAPIVersion() == BRANCH_API_VERSION.V1 ? params() : params().optJSONObject(Defines.Jsonkey.UserData.getKey());
         if (updateJson != null) {
             boolean disableAdNetworkCallouts = prefHelper_.getAdNetworkCalloutsDisabled();
             if (disableAdNetworkCallouts) {
@@ -531,6 +731,32 @@ public abstract class ServerRequest {
         }
     }
     
+    /**
+     * Replaces the session, identity and device fingerprint ids the request was queued with by the
+     * current ones, which an init session or identify request answered since may have changed.
+     * Done when the request is sent, so queued and restored requests are not touched on every
+     * change.
+     */
+    void updateSessionIds() {
+        JSONObject post = params();
+        if (post == null) {
+            return;
+        }
+        try {
+            if (post.has(Defines.Jsonkey.SessionID.getKey())) {
+                post.put(Defines.Jsonkey.SessionID.getKey(), prefHelper_.getSessionID());
+            }
+            if (post.has(Defines.Jsonkey.IdentityID.getKey())) {
+                post.put(Defines.Jsonkey.IdentityID.getKey(), prefHelper_.getIdentityID());
+            }
+            if (post.has(Defines.Jsonkey.DeviceFingerprintID.getKey())) {
+                post.put(Defines.Jsonkey.DeviceFingerprintID.getKey(), prefHelper_.getDeviceFingerPrintID());
+            }
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+    }
+
     void doFinalUpdateOnMainThread() {
         updateRequestMetadata();
         if (shouldUpdateLimitFacebookTracking()) {
@@ -539,6 +765,7 @@ public abstract class ServerRequest {
     }
     
     void doFinalUpdateOnBackgroundThread() {
+        updateSessionIds();
         if (this instanceof ServerRequestInitSession) {
             ((ServerRequestInitSession) this).updateLinkReferrerParams();
         }
@@ -577,6 +804,7 @@ public abstract class ServerRequest {
      */
     public void onRequestQueued() {
         queueWaitTime_ = System.currentTimeMillis();
+        queuedTraceTime_ = SessionTracer.begin();
     }
     
     /**
@@ -585,12 +813,27 @@ public abstract class ServerRequest {
      * @return {@link Integer} with value of queued time in milli sec
      */
     public long getQueueWaitTime() {
+        return getQueueWaitTime(queueWaitTime_);
+    }
+
+    /**
+     * @param queuedTime Wall clock time a request was queued at, 0 if unknown.
+     * @return The time waited since, 0 if unknown or the clock was set back.
+     */
+    static long getQueueWaitTime(long queuedTime) {
         long waitTime = 0;
-        if (queueWaitTime_ > 0) {
-            waitTime = System.currentTimeMillis() - queueWaitTime_;
+        if (queuedTime > 0) {
+            waitTime = Math.max(0, System.currentTimeMillis() - queuedTime);
         }
         return waitTime;
     }
+
+    /**
+     * @param queuedTime Wall clock time a restored request was first queued at.
+     */
+    void setQueuedTime(long queuedTime) {
+        queueWaitTime_ = queuedTime;
+    }
     
     /**
      * <p>
@@ -603,6 +846,16 @@ public abstract class ServerRequest {
     public void addProcessWaitLock(PROCESS_WAIT_LOCK lock) {
         if (lock != null) {
             locks_.add(lock);
+            if (SessionTracer.isEnabled()) {
+                if (lockTraceTimes_ == null) {
+                    lockTraceTimes_ = new EnumMap<>(PROCESS_WAIT_LOCK.class);
+                }
+                lockTraceTimes_.put(lock, SessionTracer.begin());
+            }
+            ServerRequestQueue queue = queue_;
+            if (queue != null) {
+                queue.onProcessWaitLockAdded(this, lock);
+            }
         }
     }
     
@@ -614,6 +867,19 @@ public abstract class ServerRequest {
     public void removeProcessWaitLock(PROCESS_WAIT_LOCK lock) {
         locks_.remove(lock);
     }
+
+    /**
+     * @param lock {@link PROCESS_WAIT_LOCK} type of lock
+     * @return Monotonic time the given lock was set at for session tracing, or 0 if unknown
+     */
+    long getProcessWaitLockTime(PROCESS_WAIT_LOCK lock) {
+        Map<PROCESS_WAIT_LOCK, Long> lockTraceTimes = lockTraceTimes_;
+        if (lockTraceTimes == null || !locks_.contains(lock)) {
+            return 0;
+        }
+        Long lockedSince = lockTraceTimes.get(lock);
+        return lockedSince == null ? 0 : lockedSince;
+    }
     
     
     /**
@@ -624,6 +890,38 @@ public abstract class ServerRequest {
     public boolean isWaitingOnProcessToFinish() {
         return locks_.size() > 0;
     }
+
+    Set<PROCESS_WAIT_LOCK> getProcessWaitLocks() {
+        return locks_;
+    }
+
+    /**
+     * @return True if this request is only held back by {@link DeferralController} and does not
+     * have to be sent before the requests queued after it
+     */
+    boolean isDeferred() {
+        return locks_.size() == 1 && locks_.contains(PROCESS_WAIT_LOCK.DEFERRED_SEND_WAIT_LOCK);
+    }
+
+    /**
+     * Requests that are not needed for the current user interaction can override this to allow
+     * sending them later along with other requests.
+     *
+     * @return {@link URGENCY} of this request, {@link URGENCY#IMMEDIATE} by default
+     */
+    public URGENCY getUrgency() {
+        return URGENCY.IMMEDIATE;
+    }
+
+    /**
+     * Requests override this to be sent ahead of, or after, the requests of other classes queued
+     * at the same time.
+     *
+     * @return {@link PRIORITY} of this request, {@link PRIORITY#STANDARD} by default
+     */
+    public PRIORITY getPriority() {
+        return PRIORITY.STANDARD;
+    }
     
     /**
      * Called on UI thread just before executing a request. Do any final updates to the request here
@@ -111,6 +111,11 @@ class ServerRequestActionCompleted extends ServerRequest {
         return false;
     }
 
+    @Override
+    public PRIORITY getPriority() {
+        return PRIORITY.BACKGROUND;
+    }
+
     @Override
     public void clearCallbacks() {
         //No implementation on purpose
@@ -120,4 +125,9 @@ class ServerRequestActionCompleted extends ServerRequest {
     public boolean shouldRetryOnFail() {
         return true;   //Action completed request need to retry on failure.
     }
+
+    @Override
+    protected boolean isCompactable() {
+        return true;
+    }
 }
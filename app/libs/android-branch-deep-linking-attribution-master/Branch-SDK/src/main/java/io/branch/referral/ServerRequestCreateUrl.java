@@ -172,6 +172,11 @@ class ServerRequestCreateUrl extends ServerRequest {
         return false;
     }
 
+    @Override
+    public PRIORITY getPriority() {
+        return PRIORITY.USER_INTERACTIVE;
+    }
+
     @Override
     public void
     clearCallbacks() {
@@ -188,64 +193,82 @@ class ServerRequestCreateUrl extends ServerRequest {
      * @return A {@link String} url with given deep link parameters
      */
     private String generateLongUrlWithParams(String baseUrl) {
-        String longUrl = baseUrl;
+        Branch branch = Branch.getInstance();
+        boolean trackingDisabled = branch != null && branch.isTrackingDisabled();
         try {
-            if (Branch.getInstance().isTrackingDisabled() && !longUrl.contains(DEF_BASE_URL)) {
-                // By def the base url contains identity id as query param. This should be removed when tracking is disabled.
-                longUrl = longUrl.replace(new URL(longUrl).getQuery(), "");
-            }
-            longUrl += longUrl.contains("?") ? "" : "?";
-            longUrl += longUrl.endsWith("?") ? "" : "&";
-
-            Collection<String> tags = linkPost_.getTags();
-            if (tags != null) {
-                for (String tag : tags) {
-                    if (tag != null && tag.length() > 0)
-                        longUrl = longUrl + Defines.LinkParam.Tags + "=" + URLEncoder.encode(tag, "UTF8") + "&";
-                }
-            }
-            String alias = linkPost_.getAlias();
-            if (alias != null && alias.length() > 0) {
-                longUrl = longUrl + Defines.LinkParam.Alias + "=" + URLEncoder.encode(alias, "UTF8") + "&";
+            return generateLongUrl(baseUrl, linkPost_, trackingDisabled);
+        } catch (Exception ignore) {
+            if (callback_ != null) {
+                callback_.onLinkCreate(null, new BranchError("Trouble creating a URL.", BranchError.ERR_BRANCH_INVALID_REQUEST));
             }
+        }
+        return baseUrl;
+    }
 
-            String channel = linkPost_.getChannel();
-            if (channel != null && channel.length() > 0) {
-                longUrl = longUrl + Defines.LinkParam.Channel + "=" + URLEncoder.encode(channel, "UTF8") + "&";
+    /**
+     * <p>Builds a long url from the given base url and link data. Does not depend on any SDK
+     * state, so it can be measured and tested in isolation.</p>
+     *
+     * @param baseUrl          Base url, optionally carrying query params
+     * @param linkData         {@link BranchLinkData} with the link properties and deep link params
+     * @param trackingDisabled True if the identity query params should be removed from the base url
+     * @return A {@link String} url with given deep link parameters
+     * @throws Exception if the base url is malformed or a value can not be url encoded
+     */
+    static String generateLongUrl(String baseUrl, BranchLinkData linkData, boolean trackingDisabled) throws Exception {
+        String longUrl = baseUrl;
+        if (trackingDisabled && !longUrl.contains(DEF_BASE_URL)) {
+            // By def the base url contains identity id as query param. This should be removed when tracking is disabled.
+            longUrl = longUrl.replace(new URL(longUrl).getQuery(), "");
+        }
+        longUrl += longUrl.contains("?") ? "" : "?";
+        longUrl += longUrl.endsWith("?") ? "" : "&";
+
+        Collection<String> tags = linkData.getTags();
+        if (tags != null) {
+            for (String tag : tags) {
+                if (tag != null && tag.length() > 0)
+                    longUrl = longUrl + Defines.LinkParam.Tags + "=" + URLEncoder.encode(tag, "UTF8") + "&";
             }
+        }
+        String alias = linkData.getAlias();
+        if (alias != null && alias.length() > 0) {
+            longUrl = longUrl + Defines.LinkParam.Alias + "=" + URLEncoder.encode(alias, "UTF8") + "&";
+        }
 
-            String feature = linkPost_.getFeature();
-            if (feature != null && feature.length() > 0) {
-                longUrl = longUrl + Defines.LinkParam.Feature + "=" + URLEncoder.encode(feature, "UTF8") + "&";
-            }
+        String channel = linkData.getChannel();
+        if (channel != null && channel.length() > 0) {
+            longUrl = longUrl + Defines.LinkParam.Channel + "=" + URLEncoder.encode(channel, "UTF8") + "&";
+        }
 
-            String stage = linkPost_.getStage();
-            if (stage != null && stage.length() > 0) {
-                longUrl = longUrl + Defines.LinkParam.Stage + "=" + URLEncoder.encode(stage, "UTF8") + "&";
-            }
+        String feature = linkData.getFeature();
+        if (feature != null && feature.length() > 0) {
+            longUrl = longUrl + Defines.LinkParam.Feature + "=" + URLEncoder.encode(feature, "UTF8") + "&";
+        }
 
-            String campaign = linkPost_.getCampaign();
-            if (campaign != null && campaign.length() > 0) {
-                longUrl = longUrl + Defines.LinkParam.Campaign + "=" + URLEncoder.encode(campaign, "UTF8") + "&";
-            }
+        String stage = linkData.getStage();
+        if (stage != null && stage.length() > 0) {
+            longUrl = longUrl + Defines.LinkParam.Stage + "=" + URLEncoder.encode(stage, "UTF8") + "&";
+        }
 
-            long type = linkPost_.getType();
-            longUrl = longUrl + Defines.LinkParam.Type + "=" + type + "&";
+        String campaign = linkData.getCampaign();
+        if (campaign != null && campaign.length() > 0) {
+            longUrl = longUrl + Defines.LinkParam.Campaign + "=" + URLEncoder.encode(campaign, "UTF8") + "&";
+        }
 
-            long duration = linkPost_.getDuration();
-            longUrl = longUrl + Defines.LinkParam.Duration + "=" + duration;
+        long type = linkData.getType();
+        longUrl = longUrl + Defines.LinkParam.Type + "=" + type + "&";
 
-            String params = linkPost_.getParams().toString();
-            if (params != null && params.length() > 0) {
-                byte[] data = params.getBytes();
-                String base64Data = Base64.encodeToString(data, android.util.Base64.NO_WRAP);
-                String urlEncodedBase64Data = URLEncoder.encode(base64Data, "UTF8");
-                longUrl = longUrl + "&source=android&data=" + urlEncodedBase64Data;
-            }
-        } catch (Exception ignore) {
-            callback_.onLinkCreate(null, new BranchError("Trouble creating a URL.", BranchError.ERR_BRANCH_INVALID_REQUEST));
-        }
+        long duration = linkData.getDuration();
+        longUrl = longUrl + Defines.LinkParam.Duration + "=" + duration;
 
+        String params = linkData.getParams().toString();
+        if (params != null && params.length() > 0) {
+            byte[] data = params.getBytes();
+            String base64Data = Base64.encodeToString(data, android.util.Base64.NO_WRAP);
+            String urlEncodedBase64Data = URLEncoder.encode(base64Data, "UTF8");
+            longUrl = longUrl + "&source=android&data=" + urlEncodedBase64Data;
+        }
         return longUrl;
     }
 
@@ -74,6 +74,16 @@ public class ServerRequestGetCPID extends ServerRequest {
         return true;
     }
 
+    @Override
+    protected String getResponseCacheKey() {
+        return getRequestPath();
+    }
+
+    @Override
+    protected boolean isIdempotent() {
+        return true;
+    }
+
     public interface BranchCrossPlatformIdListener {
         void onDataFetched(BranchCPID branchCPID, BranchError error);
     }
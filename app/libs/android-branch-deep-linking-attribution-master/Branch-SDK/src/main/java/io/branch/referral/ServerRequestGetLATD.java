@@ -79,6 +79,16 @@ public class ServerRequestGetLATD extends ServerRequest {
         return true;
     }
 
+    @Override
+    protected String getResponseCacheKey() {
+        return getRequestPath() + "?attribution_window=" + attributionWindow;
+    }
+
+    @Override
+    protected boolean isIdempotent() {
+        return true;
+    }
+
     public interface BranchLastAttributedTouchDataListener {
         void onDataFetched(JSONObject jsonObject, BranchError error);
     }
@@ -103,6 +103,23 @@ class ServerRequestGetRewardHistory extends ServerRequest {
         return false;
     }
 
+    @Override
+    public PRIORITY getPriority() {
+        return PRIORITY.USER_INTERACTIVE;
+    }
+
+    @Override
+    protected String getResponseCacheKey() {
+        JSONObject post = getPost();
+        if (post == null) {
+            return null;
+        }
+        return getRequestPath() + "?" + Defines.Jsonkey.Bucket.getKey() + "=" + post.optString(Defines.Jsonkey.Bucket.getKey())
+                + "&" + Defines.Jsonkey.BeginAfterID.getKey() + "=" + post.optString(Defines.Jsonkey.BeginAfterID.getKey())
+                + "&" + Defines.Jsonkey.Length.getKey() + "=" + post.optString(Defines.Jsonkey.Length.getKey())
+                + "&" + Defines.Jsonkey.Direction.getKey() + "=" + post.optString(Defines.Jsonkey.Direction.getKey());
+    }
+
     @Override
     public void clearCallbacks() {
         callback_ = null;
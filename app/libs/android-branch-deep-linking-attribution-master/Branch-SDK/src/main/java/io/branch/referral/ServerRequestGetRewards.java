@@ -86,6 +86,16 @@ class ServerRequestGetRewards extends ServerRequest {
         return true;
     }
 
+    @Override
+    public PRIORITY getPriority() {
+        return PRIORITY.USER_INTERACTIVE;
+    }
+
+    @Override
+    protected String getResponseCacheKey() {
+        return getRequestUrl();
+    }
+
     @Override
     public void clearCallbacks() {
         callback_ = null;
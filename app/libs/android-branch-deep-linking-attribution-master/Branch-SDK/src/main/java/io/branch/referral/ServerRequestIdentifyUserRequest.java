@@ -52,6 +52,13 @@ class ServerRequestIdentifyUserRequest extends ServerRequest {
     }
 
     public void onRequestSucceeded(ServerResponse resp, Branch branch) {
+        if (callback_ != null) {
+            callback_.onInitFinished(branch.getFirstReferringParams(), null);
+        }
+    }
+
+    @Override
+    void updateStateOnSuccess(ServerResponse resp, Branch branch) {
         try {
             if (getPost() != null && getPost().has(Defines.Jsonkey.Identity.getKey())) {
                 prefHelper_.setIdentity(getPost().getString(Defines.Jsonkey.Identity.getKey()));
@@ -64,10 +71,6 @@ class ServerRequestIdentifyUserRequest extends ServerRequest {
                 String params = resp.getObject().getString(Defines.Jsonkey.ReferringData.getKey());
                 prefHelper_.setInstallParams(params);
             }
-
-            if (callback_ != null) {
-                callback_.onInitFinished(branch.getFirstReferringParams(), null);
-            }
         } catch (JSONException e) {
             e.printStackTrace();
         }
@@ -111,6 +114,11 @@ class ServerRequestIdentifyUserRequest extends ServerRequest {
         return false;
     }
 
+    @Override
+    public PRIORITY getPriority() {
+        return PRIORITY.SESSION_CRITICAL;
+    }
+
     /**
      * Return true if the user id provided for user identification is the same as existing id
      *
@@ -8,9 +8,6 @@ import android.text.TextUtils;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-
-import io.branch.referral.validators.DeepLinkRoutingValidator;
-
 /**
  * <p>
  * Abstract for Session init request. All request which do initialize session should extend from this.
@@ -67,6 +64,11 @@ abstract class ServerRequestInitSession extends ServerRequest {
         return true;
     }
 
+    @Override
+    public PRIORITY getPriority() {
+        return PRIORITY.SESSION_CRITICAL;
+    }
+
     public abstract String getRequestActionName();
 
     static boolean isInitSessionAction(String actionName) {
@@ -77,20 +79,20 @@ abstract class ServerRequestInitSession extends ServerRequest {
         return isInitSessionAction;
     }
 
-    boolean handleBranchViewIfAvailable(ServerResponse resp) {
+    boolean handleBranchViewIfAvailable(ServerResponse resp, Branch branch) {
         boolean isBranchViewShowing = false;
         if (resp != null && resp.getObject() != null && resp.getObject().has(Defines.Jsonkey.BranchViewData.getKey())) {
             try {
                 JSONObject branchViewJsonObj = resp.getObject().getJSONObject(Defines.Jsonkey.BranchViewData.getKey());
                 String actionName = getRequestActionName();
-                if ((Branch.getInstance().getCurrentActivity() != null)) {
-                    Activity currentActivity = Branch.getInstance().getCurrentActivity();
+                Activity currentActivity = branch.getCurrentActivity();
+                if (currentActivity != null) {
                     boolean isActivityEnabledForBranchView = true;
                     if (currentActivity instanceof Branch.IBranchViewControl) {
                         isActivityEnabledForBranchView = !((Branch.IBranchViewControl) currentActivity).skipBranchViewsOnThisActivity();
                     }
                     if (isActivityEnabledForBranchView) {
-                        isBranchViewShowing = BranchViewHandler.getInstance().showBranchView(branchViewJsonObj, actionName, currentActivity, Branch.getInstance());
+                        isBranchViewShowing = BranchViewHandler.getInstance().showBranchView(branchViewJsonObj, actionName, currentActivity, branch);
                     } else {
                         isBranchViewShowing = BranchViewHandler.getInstance().markInstallOrOpenBranchViewPending(branchViewJsonObj, actionName);
                     }
@@ -105,7 +107,11 @@ abstract class ServerRequestInitSession extends ServerRequest {
 
     @Override
     public void onRequestSucceeded(ServerResponse response, Branch branch) {
-        Branch.getInstance().unlockSDKInitWaitLock();
+        branch.unlockSDKInitWaitLock();
+    }
+
+    @Override
+    void updateStateOnSuccess(ServerResponse response, Branch branch) {
         // Check for any Third party SDK for data handling
         prefHelper_.setLinkClickIdentifier(PrefHelper.NO_STRING_VALUE);
         prefHelper_.setGoogleSearchInstallIdentifier(PrefHelper.NO_STRING_VALUE);
@@ -125,7 +131,10 @@ abstract class ServerRequestInitSession extends ServerRequest {
     }
 
     void onInitSessionCompleted(ServerResponse response, Branch branch) {
-        DeepLinkRoutingValidator.validate(branch.currentActivityReference_);
+        BranchFeatures.LinkValidator linkValidator = BranchFeatures.getLinkValidator();
+        if (linkValidator != null) {
+            linkValidator.onSessionInitialized(branch.currentActivityReference_);
+        }
         branch.updateSkipURLFormats();
     }
 
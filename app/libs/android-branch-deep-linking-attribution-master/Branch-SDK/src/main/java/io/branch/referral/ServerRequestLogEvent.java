@@ -0,0 +1,69 @@
+package io.branch.referral;
+
+import android.content.Context;
+
+import org.json.JSONObject;
+
+/**
+ * <p>
+ * A v2 standard or custom event restored from the persisted queue. The event is logged through
+ * {@link io.branch.referral.util.BranchEvent}, which builds its request, this class only sends the
+ * persisted post again after the app was restarted.
+ * </p>
+ */
+class ServerRequestLogEvent extends ServerRequest {
+
+    ServerRequestLogEvent(Defines.RequestPath requestPath, JSONObject post, Context context) {
+        super(requestPath, post, context);
+    }
+
+    @Override
+    public boolean handleErrors(Context context) {
+        return false;
+    }
+
+    @Override
+    public void onRequestSucceeded(ServerResponse response, Branch branch) {
+        //No implementation on purpose, the callbacks of the event did not survive the restart
+    }
+
+    @Override
+    public void handleFailure(int statusCode, String causeMsg) {
+        //No implementation on purpose
+    }
+
+    @Override
+    public boolean isGetRequest() {
+        return false;
+    }
+
+    @Override
+    public void clearCallbacks() {
+        //No implementation on purpose
+    }
+
+    @Override
+    public BRANCH_API_VERSION getBranchRemoteAPIVersion() {
+        return BRANCH_API_VERSION.V2;
+    }
+
+    @Override
+    protected boolean shouldUpdateLimitFacebookTracking() {
+        return true;
+    }
+
+    @Override
+    public boolean shouldRetryOnFail() {
+        return true;
+    }
+
+    @Override
+    protected boolean isCompactable() {
+        return true;
+    }
+
+    @Override
+    public PRIORITY getPriority() {
+        return PRIORITY.BACKGROUND;
+    }
+}
@@ -88,6 +88,11 @@ class ServerRequestLogout extends ServerRequest {
         return false;
     }
 
+    @Override
+    public PRIORITY getPriority() {
+        return PRIORITY.SESSION_CRITICAL;
+    }
+
     @Override
     public void clearCallbacks() {
         callback_ = null;
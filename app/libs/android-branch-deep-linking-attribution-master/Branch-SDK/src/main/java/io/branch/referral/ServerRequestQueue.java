@@ -4,32 +4,109 @@ import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.SharedPreferences;
 
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.ConcurrentModificationException;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.NoSuchElementException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * <p>The Branch SDK can queue up requests whilst it is waiting for initialization of a session to
  * complete. This allows you to start sending requests to the Branch API as soon as your app is
  * opened.</p>
+ * <p>Requests are kept in a circular array guarded by a single per queue lock, so adding and
+ * removing at either end, inserting right behind the head and access by index take constant
+ * time. Init session requests and the holders of each process wait lock are additionally
+ * indexed, so looking them up does not scan the queue. Requests queued behind the head are
+ * compacted, see {@link ServerRequest#compact()}. Persisting copies the queue under the lock but
+ * serializes it outside of it.</p>
+ * <p>The persisted queue is read on a background thread when the queue is created, and every
+ * operation waits for that read to finish. Only an index of the persisted entries is built then,
+ * each entry is decoded into its {@link ServerRequest} when it is first accessed. Init session
+ * requests are the exception, they are decoded right away so they are indexed.</p>
+ * <p>Requests are sent by {@link ServerRequest.PRIORITY}, oldest first within a class. Waiting
+ * raises a request by one class every {@link #DEFAULT_AGING_MILLIS}, so background requests are
+ * sent at the latest that long per class after they were queued. Session critical requests, and
+ * requests blocked on a process wait lock, are never passed by the requests queued after them,
+ * so requests needing a session still wait for the init session request. Restored entries are
+ * scheduled on their path and persisted queued time, only the request chosen to be sent is
+ * decoded. When the queue is full the oldest request of the lowest class is dropped.</p>
  */
 class ServerRequestQueue {
     private static final String PREF_KEY = "BNCServerRequestQueue";
     private static final int MAX_ITEMS = 25;
+    private static final int INITIAL_CAPACITY = 32;
+    static final long DEFAULT_AGING_MILLIS = 5000;
+    private static final String POST_PATH_TOKEN = JSONObject.quote(ServerRequest.POST_PATH_KEY);
+    private static final String QUEUED_AT_TOKEN = JSONObject.quote(ServerRequest.QUEUED_AT_KEY);
     private static ServerRequestQueue SharedInstance;
     private SharedPreferences sharedPref;
     private SharedPreferences.Editor editor;
-    private final List<ServerRequest> queue;
-    //Object for synchronising operations on server request queue
-    private static final Object reqQueueLockObject = new Object();
+    private final Context context_;
+    private final int maxItems_;
+    // Released once the persisted queue has been read
+    private final CountDownLatch restoreLatch_ = new CountDownLatch(1);
+
+    // Object for synchronising operations on server request queue
+    private final Object reqQueueLockObject = new Object();
+    // Circular array holding the queued requests, oldest at head_. A slot holds either a
+    // ServerRequest or a PersistedEntry that has not been decoded yet.
+    private Object[] queue;
+    private int head_;
+    private int size_;
+    // Secondary indexes into the queue
+    private final List<ServerRequestInitSession> initRequests_ = new ArrayList<>(2);
+    // The request being sent, it stays queued until its response is handled
+    private ServerRequest inFlight_;
+    private final Map<ServerRequest.PROCESS_WAIT_LOCK, Set<ServerRequest>> waitLockHolders_ =
+            new EnumMap<>(ServerRequest.PROCESS_WAIT_LOCK.class);
+
+    private long agingMillis_ = DEFAULT_AGING_MILLIS;
+    private final QueueWaitStats queueWaitStats_ = new QueueWaitStats();
+
+    // Discards persisting a snapshot that is older than the one already written
+    private final Object persistLockObject = new Object();
+    private long snapshotVersion_;
+    private long persistedVersion_;
+
+    /**
+     * A restored request that has not been decoded yet, kept as its persisted JSON.
+     */
+    private static class PersistedEntry {
+        final String json;
+        final String path;
+        // Restored requests hold no process wait locks and are not deferred, the priority of the
+        // request class and the time it was queued at are all that is needed to schedule them
+        final ServerRequest.PRIORITY priority;
+        // The persisted queued time, or the time it was restored if none was persisted
+        final long queuedTime;
+
+        PersistedEntry(String json, String path, long queuedTime) {
+            this.json = json;
+            this.path = path;
+            this.priority = ServerRequest.getRestoredPriority(path);
+            this.queuedTime = queuedTime;
+        }
+    }
+
+    /**
+     * Passes over requests that can not be sent right now, see {@link #peekNextToSend(SendFilter)}.
+     */
+    interface SendFilter {
+        /**
+         * Called while holding the queue lock.
+         *
+         * @return True if the request can not be sent right now.
+         */
+        boolean isBlocked(ServerRequest request);
+    }
     
     /**
      * <p>Singleton method to return the pre-initialised, or newly initialise and return, a singleton
@@ -53,7 +130,7 @@ class ServerRequestQueue {
 
     // Package Private
     static void shutDown() {
-        synchronized (reqQueueLockObject) {
+        synchronized (ServerRequestQueue.class) {
             SharedInstance = null;
         }
     }
@@ -64,65 +141,261 @@ class ServerRequestQueue {
      *
      * @param c A {@link Context} from which this call was made.
      */
-    @SuppressLint("CommitPrefEdits")
     private ServerRequestQueue(Context c) {
-        sharedPref = c.getSharedPreferences("BNC_Server_Request_Queue", Context.MODE_PRIVATE);
+        this(c.getSharedPreferences("BNC_Server_Request_Queue", Context.MODE_PRIVATE), c);
+    }
+
+    /**
+     * <p>Creates a queue persisted to the given {@link SharedPreferences}. Package private so the
+     * queue can be exercised on a plain JVM.</p>
+     *
+     * @param sharedPreferences The {@link SharedPreferences} the queue is persisted to.
+     * @param c                 A {@link Context} passed on to the restored requests.
+     */
+    ServerRequestQueue(SharedPreferences sharedPreferences, Context c) {
+        this(sharedPreferences, c, MAX_ITEMS);
+    }
+
+    // For Unit Testing, allows queues deeper than the production limit
+    @SuppressLint("CommitPrefEdits")
+    ServerRequestQueue(SharedPreferences sharedPreferences, Context c, int maxItems) {
+        sharedPref = sharedPreferences;
         editor = sharedPref.edit();
-        queue = retrieve(c);
+        context_ = c;
+        maxItems_ = maxItems;
+        queue = new Object[Math.max(INITIAL_CAPACITY, Integer.highestOneBit(Math.max(1, maxItems - 1)) << 1)];
+        // Reading the preferences waits for them to be loaded from disk, keep that off the caller's thread
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                retrieve();
+            }
+        }, "BranchQueueRestore").start();
     }
     
-    private void persist() {
+    void persist() {
+        awaitRestore();
+        List<Object> persistable;
+        long version;
+        synchronized (reqQueueLockObject) {
+            persistable = new ArrayList<>(size_);
+            for (int i = 0; i < size_; i++) {
+                Object slot = getSlot(i);
+                if (slot instanceof PersistedEntry || ((ServerRequest) slot).isPersistable()) {
+                    persistable.add(slot);
+                }
+            }
+            version = ++snapshotVersion_;
+        }
         try {
-            JSONArray jsonArr = new JSONArray();
-            synchronized (reqQueueLockObject) {
-                for (ServerRequest aQueue : queue) {
-                    if (aQueue.isPersistable()) {
-                        JSONObject json = aQueue.toJSON();
-                        if (json != null) {
-                            jsonArr.put(json);
-                        }
+            // Compacted and not yet decoded requests are already held in their persisted form, join the entries as is
+            StringBuilder jsonArr = new StringBuilder("[");
+            for (Object slot : persistable) {
+                String json = slot instanceof PersistedEntry ? ((PersistedEntry) slot).json
+                        : ((ServerRequest) slot).toPersistedString();
+                if (json != null) {
+                    if (jsonArr.length() > 1) {
+                        jsonArr.append(',');
                     }
+                    jsonArr.append(json);
+                }
+            }
+            jsonArr.append(']');
+            synchronized (persistLockObject) {
+                if (version > persistedVersion_) {
+                    persistedVersion_ = version;
+                    editor.putString(PREF_KEY, jsonArr.toString()).apply();
                 }
             }
-
-            editor.putString(PREF_KEY, jsonArr.toString()).apply();
         } catch (Exception ex) {
             String msg = ex.getMessage();
             PrefHelper.Debug("Failed to persist queue" + (msg == null ? "" : msg));
         }
     }
     
-    private List<ServerRequest> retrieve(Context context) {
-        String jsonStr = sharedPref.getString(PREF_KEY, null);
-        List<ServerRequest> result = Collections.synchronizedList(new LinkedList<ServerRequest>());
-        synchronized (reqQueueLockObject) {
+    private void retrieve() {
+        try {
+            String jsonStr = sharedPref.getString(PREF_KEY, null);
             if (jsonStr != null) {
-                try {
-                    JSONArray jsonArr = new JSONArray(jsonStr);
-                    for (int i = 0, size = Math.min(jsonArr.length(), MAX_ITEMS); i < size; i++) {
-                        JSONObject json = jsonArr.getJSONObject(i);
-                        ServerRequest req = ServerRequest.fromJSON(json, context);
+                List<PersistedEntry> entries = indexEntries(jsonStr, maxItems_, System.currentTimeMillis());
+                List<Object> restored = new ArrayList<>(entries.size());
+                for (PersistedEntry entry : entries) {
+                    if (isInitSessionPath(entry.path)) {
+                        ServerRequest req = decode(entry);
                         if (req != null) {
-                            result.add(req);
+                            restored.add(req);
+                        }
+                    } else {
+                        restored.add(entry);
+                    }
+                }
+                synchronized (reqQueueLockObject) {
+                    for (Object slot : restored) {
+                        add(size_, slot);
+                    }
+                }
+            }
+        } catch (Exception ex) {
+            PrefHelper.Debug("Failed to restore queue " + ex.getMessage());
+        } finally {
+            restoreLatch_.countDown();
+        }
+    }
+
+    /**
+     * Blocks until the persisted queue has been read, which normally finished long before the
+     * queue is first used.
+     */
+    private void awaitRestore() {
+        if (restoreLatch_.getCount() == 0) {
+            return;
+        }
+        try {
+            restoreLatch_.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Splits the persisted JSON array into its entries without parsing them, only reading the
+     * request path and queued time of each. Entries with a path that can not be restored are
+     * skipped.
+     *
+     * @param restoreTime Queued time of the entries persisted without one.
+     * @return At most maxItems entries, or none if the array is malformed.
+     */
+    private static List<PersistedEntry> indexEntries(String jsonArr, int maxItems, long restoreTime) throws JSONException {
+        List<PersistedEntry> entries = new ArrayList<>();
+        int length = jsonArr.length();
+        int depth = 0;
+        int entryStart = -1;
+        int stringStart = -1;
+        boolean inString = false;
+        boolean expectKey = false;
+        boolean isPathValue = false;
+        boolean isQueuedAtValue = false;
+        int numberStart = -1;
+        String path = null;
+        long queuedTime = 0;
+        for (int i = 0; i < length && entries.size() < maxItems; i++) {
+            char c = jsonArr.charAt(i);
+            if (inString) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == '"') {
+                    inString = false;
+                    if (depth == 2) {
+                        // A top level key or string value of the entry object
+                        String token = jsonArr.substring(stringStart, i + 1);
+                        if (expectKey) {
+                            isPathValue = POST_PATH_TOKEN.equals(token);
+                            isQueuedAtValue = QUEUED_AT_TOKEN.equals(token);
+                        } else if (isPathValue) {
+                            // Values are escaped, "/" is written as "\/"
+                            path = (String) new JSONTokener(token).nextValue();
                         }
                     }
-                } catch (JSONException ignored) {
                 }
+                continue;
+            }
+            switch (c) {
+                case '"':
+                    inString = true;
+                    stringStart = i;
+                    break;
+                case '[':
+                case '{':
+                    if (depth == 1) {
+                        entryStart = i;
+                        path = null;
+                        queuedTime = 0;
+                        expectKey = true;
+                    }
+                    depth++;
+                    break;
+                case ']':
+                case '}':
+                    if (depth == 2) {
+                        queuedTime = readQueuedTime(jsonArr, numberStart, i, queuedTime);
+                        numberStart = -1;
+                    }
+                    depth--;
+                    if (depth == 1 && entryStart >= 0) {
+                        if (path != null && ServerRequest.isRestorable(path)) {
+                            entries.add(new PersistedEntry(jsonArr.substring(entryStart, i + 1), path,
+                                    queuedTime > 0 ? queuedTime : restoreTime));
+                        }
+                        entryStart = -1;
+                    }
+                    break;
+                case ':':
+                    if (depth == 2) {
+                        expectKey = false;
+                        if (isQueuedAtValue) {
+                            numberStart = i + 1;
+                        }
+                    }
+                    break;
+                case ',':
+                    if (depth == 2) {
+                        queuedTime = readQueuedTime(jsonArr, numberStart, i, queuedTime);
+                        numberStart = -1;
+                        expectKey = true;
+                        isPathValue = false;
+                        isQueuedAtValue = false;
+                    }
+                    break;
+                default:
+                    break;
             }
         }
-        return result;
+        if (entries.size() < maxItems && (inString || depth != 0)) {
+            // Truncated or malformed, like a JSONArray parse nothing is restored
+            entries.clear();
+        }
+        return entries;
+    }
+
+    private static long readQueuedTime(String jsonArr, int numberStart, int numberEnd, long queuedTime) {
+        if (numberStart < 0) {
+            return queuedTime;
+        }
+        try {
+            return Long.parseLong(jsonArr.substring(numberStart, numberEnd).trim());
+        } catch (NumberFormatException e) {
+            return queuedTime;
+        }
+    }
+
+    private static boolean isInitSessionPath(String path) {
+        return path.equalsIgnoreCase(Defines.RequestPath.RegisterInstall.getPath())
+                || path.equalsIgnoreCase(Defines.RequestPath.RegisterOpen.getPath());
+    }
+
+    private ServerRequest decode(PersistedEntry entry) {
+        try {
+            ServerRequest request = ServerRequest.fromJSON(new JSONObject(entry.json), context_);
+            if (request != null) {
+                request.setQueuedTime(entry.queuedTime);
+            }
+            return request;
+        } catch (JSONException e) {
+            PrefHelper.Debug("Dropping unreadable queued request " + entry.path);
+            return null;
+        }
     }
     
     /**
      * <p>Gets the number of {@link ServerRequest} objects currently queued up for submission to
      * the Branch API.</p>
      *
-     * @return An {@link Integer} value indicating the current size of the {@link List} object
-     * that forms the logical queue for the class.
+     * @return An {@link Integer} value indicating the current size of the logical queue for the class.
      */
     public int getSize() {
+        awaitRestore();
         synchronized (reqQueueLockObject) {
-            return queue.size();
+            return size_;
         }
     }
     
@@ -132,15 +405,40 @@ class ServerRequestQueue {
      * @param request The {@link ServerRequest} object to add to the queue.
      */
     void enqueue(ServerRequest request) {
+        if (request == null) {
+            return;
+        }
+        awaitRestore();
         synchronized (reqQueueLockObject) {
-            if (request != null) {
-                queue.add(request);
-                if (getSize() >= MAX_ITEMS) {
-                    queue.remove(1);
-                }
-                persist();
+            add(size_, request);
+            if (size_ >= maxItems_) {
+                removeIndex(getEvictionIndex());
             }
         }
+        persist();
+    }
+
+    /**
+     * @return The index of the oldest request of the lowest priority class, restored or not,
+     * passing over the head, the request in flight and session critical requests. 1 if there is
+     * no such request.
+     */
+    private int getEvictionIndex() {
+        int evictIndex = -1;
+        int evictOrdinal = ServerRequest.PRIORITY.SESSION_CRITICAL.ordinal();
+        for (int i = 1; i < size_; i++) {
+            Object slot = getSlot(i);
+            if (slot == inFlight_) {
+                continue;
+            }
+            int ordinal = slot instanceof PersistedEntry ? ((PersistedEntry) slot).priority.ordinal()
+                    : ((ServerRequest) slot).getPriority().ordinal();
+            if (ordinal > evictOrdinal) {
+                evictIndex = i;
+                evictOrdinal = ordinal;
+            }
+        }
+        return evictIndex < 0 ? 1 : evictIndex;
     }
     
     /**
@@ -150,14 +448,153 @@ class ServerRequestQueue {
      * @return The {@link ServerRequest} object at position with index 0 within the queue.
      */
     ServerRequest peek() {
-        ServerRequest req = null;
+        awaitRestore();
+        synchronized (reqQueueLockObject) {
+            return size_ > 0 ? get(0) : null;
+        }
+    }
+    
+    /**
+     * Same as {@link #peekNextToSend(SendFilter)} without passing over any request.
+     */
+    ServerRequest peekNextToSend() {
+        return peekNextToSend(null);
+    }
+
+    /**
+     * <p>Gets the queued {@link ServerRequest} to send next without removing it: the one of the
+     * highest {@link ServerRequest.PRIORITY} after aging, the oldest one on ties. Requests held back
+     * by {@link DeferralController}, and requests the filter blocks, are skipped. Session critical
+     * requests and requests waiting on a process wait lock are barriers, requests queued after
+     * them are not considered.</p>
+     *
+     * @param filter Passes over the requests that can not be sent right now, or null.
+     * @return The request to send next, a barrier that is still waiting if it is first, the head
+     * of the queue if all requests are deferred, or null if the filter blocks every request that
+     * could be sent.
+     */
+    ServerRequest peekNextToSend(SendFilter filter) {
+        awaitRestore();
+        synchronized (reqQueueLockObject) {
+            Set<ServerRequest> blocked = null;
+            while (size_ > 0) {
+                int nextIndex = -1;
+                long nextScore = 0;
+                for (int i = 0; i < size_; i++) {
+                    Object slot = getSlot(i);
+                    ServerRequest.PRIORITY priority;
+                    long waitTime;
+                    boolean barrier;
+                    if (slot instanceof PersistedEntry) {
+                        priority = ((PersistedEntry) slot).priority;
+                        waitTime = ServerRequest.getQueueWaitTime(((PersistedEntry) slot).queuedTime);
+                        barrier = priority == ServerRequest.PRIORITY.SESSION_CRITICAL;
+                    } else {
+                        ServerRequest req = (ServerRequest) slot;
+                        if (req.isDeferred() || (blocked != null && blocked.contains(req))) {
+                            continue;
+                        }
+                        priority = req.getPriority();
+                        waitTime = req.getQueueWaitTime();
+                        barrier = isBarrier(req);
+                    }
+                    if (barrier) {
+                        if (nextIndex < 0) {
+                            nextIndex = i;
+                        }
+                        break;
+                    }
+                    // Lower is sent first, each aging interval waited makes up for one class
+                    long score = priority.ordinal() * agingMillis_ - waitTime;
+                    if (nextIndex < 0 || score < nextScore) {
+                        nextIndex = i;
+                        nextScore = score;
+                    }
+                }
+                if (nextIndex < 0) {
+                    // Only deferred or blocked requests are left
+                    return blocked == null ? get(0) : null;
+                }
+                ServerRequest next = decodeAt(nextIndex);
+                if (next == null) {
+                    // Dropped as unreadable, choose again
+                    continue;
+                }
+                if (filter == null || next.isWaitingOnProcessToFinish() || !filter.isBlocked(next)) {
+                    return next;
+                }
+                if (isBarrier(next)) {
+                    // Nothing queued after it may pass it
+                    return null;
+                }
+                if (blocked == null) {
+                    blocked = new HashSet<>();
+                }
+                blocked.add(next);
+            }
+            return null;
+        }
+    }
+
+    private static boolean isBarrier(ServerRequest req) {
+        return req.getPriority() == ServerRequest.PRIORITY.SESSION_CRITICAL || req.isWaitingOnProcessToFinish();
+    }
+
+    /**
+     * Marks the request as being sent, see {@link #insertAtFront(ServerRequest)}.
+     */
+    void setInFlight(ServerRequest request) {
         synchronized (reqQueueLockObject) {
-            try {
-                req = queue.get(0);
-            } catch (IndexOutOfBoundsException | NoSuchElementException ignored) {
+            inFlight_ = request;
+        }
+    }
+
+    /**
+     * Called once the response to the request is handled, or it timed out.
+     */
+    void onRequestCompleted(ServerRequest request) {
+        synchronized (reqQueueLockObject) {
+            if (inFlight_ == request) {
+                inFlight_ = null;
             }
         }
-        return req;
+    }
+
+    /**
+     * Inserts the request ahead of all requests waiting to be sent. The request being sent is not
+     * passed if it is the head, so the head is still the first request to complete.
+     */
+    void insertAtFront(ServerRequest request) {
+        if (request == null) {
+            return;
+        }
+        awaitRestore();
+        synchronized (reqQueueLockObject) {
+            add(size_ > 0 && inFlight_ != null && getSlot(0) == inFlight_ ? 1 : 0, request);
+        }
+        persist();
+    }
+
+    /**
+     * Records the queue wait of a request that is being sent.
+     */
+    void onRequestSent(ServerRequest request) {
+        queueWaitStats_.record(request.getPriority(), request.getQueueWaitTime());
+    }
+
+    /**
+     * @return The queue wait of the sent requests of the class at the percentile in milliseconds,
+     * or -1 if none have been sent.
+     */
+    long getQueueWaitPercentile(ServerRequest.PRIORITY priority, double percentile) {
+        return queueWaitStats_.getPercentile(priority, percentile);
+    }
+
+    // For Unit Testing
+    void setAgingMillis(long agingMillis) {
+        synchronized (reqQueueLockObject) {
+            agingMillis_ = Math.max(1, agingMillis);
+        }
     }
     
     /**
@@ -171,14 +608,10 @@ class ServerRequestQueue {
      * instance if {@link #getSize()} is 6 and index 6 is called.
      */
     ServerRequest peekAt(int index) {
-        ServerRequest req = null;
+        awaitRestore();
         synchronized (reqQueueLockObject) {
-            try {
-                req = queue.get(index);
-            } catch (IndexOutOfBoundsException | NoSuchElementException ignored) {
-            }
+            return index >= 0 && index < size_ ? get(index) : null;
         }
-        return req;
     }
     
     /**
@@ -191,16 +624,14 @@ class ServerRequestQueue {
      *                supplied is invalid.
      */
     void insert(ServerRequest request, int index) {
+        if (request == null || index < 0) {
+            return;
+        }
+        awaitRestore();
         synchronized (reqQueueLockObject) {
-            try {
-                if (queue.size() < index) {
-                    index = queue.size();
-                }
-                queue.add(index, request);
-                persist();
-            } catch (IndexOutOfBoundsException ignored) {
-            }
+            add(Math.min(index, size_), request);
         }
+        persist();
     }
     
     /**
@@ -214,15 +645,16 @@ class ServerRequestQueue {
      */
     @SuppressWarnings("unused")
     public ServerRequest removeAt(int index) {
-        ServerRequest req = null;
+        awaitRestore();
+        Object removed;
         synchronized (reqQueueLockObject) {
-            try {
-                req = queue.remove(index);
-                persist();
-            } catch (IndexOutOfBoundsException ignored) {
+            if (index < 0 || index >= size_) {
+                return null;
             }
+            removed = removeIndex(index);
         }
-        return req;
+        persist();
+        return removed instanceof PersistedEntry ? decode((PersistedEntry) removed) : (ServerRequest) removed;
     }
     
     /**
@@ -233,14 +665,21 @@ class ServerRequestQueue {
      * @return A {@link Boolean} whose value is true if the object is removed.
      */
     public boolean remove(ServerRequest request) {
+        awaitRestore();
         boolean isRemoved = false;
         synchronized (reqQueueLockObject) {
-            try {
-                isRemoved = queue.remove(request);
-                persist();
-            } catch (UnsupportedOperationException ignored) {
+            // Requests are nearly always removed from the head once they are processed
+            for (int i = 0; i < size_; i++) {
+                if (getSlot(i) == request) {
+                    removeIndex(i);
+                    isRemoved = true;
+                    break;
+                }
             }
         }
+        if (isRemoved) {
+            persist();
+        }
         return isRemoved;
     }
     
@@ -248,13 +687,22 @@ class ServerRequestQueue {
      * <p> Clears all pending requests in the queue </p>
      */
     void clear() {
+        awaitRestore();
         synchronized (reqQueueLockObject) {
-            try {
-                queue.clear();
-                persist();
-            } catch (UnsupportedOperationException ignored) {
+            for (int i = 0; i < size_; i++) {
+                Object slot = getSlot(i);
+                if (slot instanceof ServerRequest) {
+                    ((ServerRequest) slot).queue_ = null;
+                }
             }
+            queue = new Object[queue.length];
+            head_ = 0;
+            size_ = 0;
+            inFlight_ = null;
+            initRequests_.clear();
+            waitLockHolders_.clear();
         }
+        persist();
     }
     
     /**
@@ -265,13 +713,11 @@ class ServerRequestQueue {
      * <i>False</i> if not.
      */
     ServerRequestInitSession getSelfInitRequest() {
+        awaitRestore();
         synchronized (reqQueueLockObject) {
-            for (ServerRequest req : queue) {
-                if (req instanceof ServerRequestInitSession) {
-                    ServerRequestInitSession r = (ServerRequestInitSession) req;
-                    if (r.initiatedByClient) {
-                        return r;
-                    }
+            for (ServerRequestInitSession req : initRequests_) {
+                if (req.initiatedByClient) {
+                    return req;
                 }
             }
         }
@@ -282,10 +728,14 @@ class ServerRequestQueue {
      * Set Process wait lock to false for any open / install request in the queue
      */
     void unlockProcessWait(ServerRequest.PROCESS_WAIT_LOCK lock) {
+        awaitRestore();
         synchronized (reqQueueLockObject) {
-            for (ServerRequest req : queue) {
-                if (req != null) {
+            Set<ServerRequest> holders = waitLockHolders_.remove(lock);
+            if (holders != null) {
+                for (ServerRequest req : holders) {
+                    long lockedSince = req.getProcessWaitLockTime(lock);
                     req.removeProcessWaitLock(lock);
+                    SessionTracer.end("wait lock " + lock, req.getRequestPath(), lockedSince);
                 }
             }
         }
@@ -295,14 +745,168 @@ class ServerRequestQueue {
      * Sets the strong match wait for any init session request in the queue
      */
     void setStrongMatchWaitLock() {
+        awaitRestore();
         synchronized (reqQueueLockObject) {
-            for (ServerRequest req : queue) {
-                if (req != null) {
-                    if (req instanceof ServerRequestInitSession) {
-                        req.addProcessWaitLock(ServerRequest.PROCESS_WAIT_LOCK.STRONG_MATCH_PENDING_WAIT_LOCK);
-                    }
-                }
+            for (ServerRequestInitSession req : initRequests_) {
+                req.addProcessWaitLock(ServerRequest.PROCESS_WAIT_LOCK.STRONG_MATCH_PENDING_WAIT_LOCK);
+            }
+        }
+    }
+
+    /**
+     * Called by a queued request when a process wait lock is set on it.
+     */
+    void onProcessWaitLockAdded(ServerRequest request, ServerRequest.PROCESS_WAIT_LOCK lock) {
+        synchronized (reqQueueLockObject) {
+            if (request.queue_ == this) {
+                addWaitLockHolder(request, lock);
             }
         }
     }
+
+    // For Unit Testing
+    boolean isDecoded(int index) {
+        awaitRestore();
+        synchronized (reqQueueLockObject) {
+            return index >= 0 && index < size_ && getSlot(index) instanceof ServerRequest;
+        }
+    }
+
+    //----------- Circular array operations, to be called while holding the queue lock ----------//
+
+    /**
+     * Returns the request at the given index, decoding it first if it was restored and not accessed
+     * since. Entries that fail to decode are dropped, in which case the request that moved into
+     * their place is returned, or null if there is none.
+     */
+    private ServerRequest get(int index) {
+        while (index < size_) {
+            ServerRequest request = decodeAt(index);
+            if (request != null) {
+                return request;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the request at the given index, decoding it first if it was restored and not accessed
+     * since. An entry that fails to decode is dropped and null is returned.
+     */
+    private ServerRequest decodeAt(int index) {
+        Object slot = getSlot(index);
+        if (slot instanceof ServerRequest) {
+            return (ServerRequest) slot;
+        }
+        ServerRequest request = decode((PersistedEntry) slot);
+        if (request == null) {
+            removeIndex(index);
+            return null;
+        }
+        setSlot(index, request);
+        request.queue_ = this;
+        if (index > 0) {
+            // Accessed while still queued behind the head, keep it compact
+            request.compact();
+        }
+        return request;
+    }
+
+    private Object getSlot(int index) {
+        return queue[(head_ + index) & (queue.length - 1)];
+    }
+
+    private void setSlot(int index, Object slot) {
+        queue[(head_ + index) & (queue.length - 1)] = slot;
+    }
+
+    /**
+     * Inserts the request or restored entry at the given index, moving the shorter side of the
+     * queue by one. Constant time at the head, right behind the head and at the tail.
+     */
+    private void add(int index, Object slot) {
+        if (size_ == queue.length) {
+            grow();
+        }
+        if (index < size_ / 2) {
+            head_ = (head_ - 1) & (queue.length - 1);
+            for (int i = 0; i < index; i++) {
+                setSlot(i, getSlot(i + 1));
+            }
+        } else {
+            for (int i = size_; i > index; i--) {
+                setSlot(i, getSlot(i - 1));
+            }
+        }
+        setSlot(index, slot);
+        size_++;
+        if (!(slot instanceof ServerRequest)) {
+            return;
+        }
+        ServerRequest request = (ServerRequest) slot;
+        request.queue_ = this;
+        if (index > 0) {
+            // Only the head is about to be sent, hold the others in their compact form
+            request.compact();
+        }
+        if (request instanceof ServerRequestInitSession) {
+            initRequests_.add((ServerRequestInitSession) request);
+        }
+        for (ServerRequest.PROCESS_WAIT_LOCK lock : request.getProcessWaitLocks()) {
+            addWaitLockHolder(request, lock);
+        }
+    }
+
+    /**
+     * Removes the request or restored entry at the given index, moving the shorter side of the
+     * queue by one.
+     */
+    private Object removeIndex(int index) {
+        Object slot = getSlot(index);
+        if (index < size_ / 2) {
+            for (int i = index; i > 0; i--) {
+                setSlot(i, getSlot(i - 1));
+            }
+            setSlot(0, null);
+            head_ = (head_ + 1) & (queue.length - 1);
+        } else {
+            for (int i = index; i < size_ - 1; i++) {
+                setSlot(i, getSlot(i + 1));
+            }
+            setSlot(size_ - 1, null);
+        }
+        size_--;
+        if (slot instanceof ServerRequest) {
+            ServerRequest request = (ServerRequest) slot;
+            request.queue_ = null;
+            if (request == inFlight_) {
+                inFlight_ = null;
+            }
+            if (request instanceof ServerRequestInitSession) {
+                initRequests_.remove(request);
+            }
+            for (Set<ServerRequest> holders : waitLockHolders_.values()) {
+                holders.remove(request);
+            }
+        }
+        return slot;
+    }
+
+    private void addWaitLockHolder(ServerRequest request, ServerRequest.PROCESS_WAIT_LOCK lock) {
+        Set<ServerRequest> holders = waitLockHolders_.get(lock);
+        if (holders == null) {
+            holders = new LinkedHashSet<>();
+            waitLockHolders_.put(lock, holders);
+        }
+        holders.add(request);
+    }
+
+    private void grow() {
+        Object[] grown = new Object[queue.length << 1];
+        for (int i = 0; i < size_; i++) {
+            grown[i] = getSlot(i);
+        }
+        queue = grown;
+        head_ = 0;
+    }
 }
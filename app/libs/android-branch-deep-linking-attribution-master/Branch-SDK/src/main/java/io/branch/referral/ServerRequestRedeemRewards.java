@@ -119,6 +119,11 @@ class ServerRequestRedeemRewards extends ServerRequest {
         return false;
     }
 
+    @Override
+    public PRIORITY getPriority() {
+        return PRIORITY.USER_INTERACTIVE;
+    }
+
     @Override
     public void clearCallbacks() {
         callback_ = null;
@@ -66,6 +66,11 @@ class ServerRequestRegisterClose extends ServerRequest {
     public boolean isGetRequest() {
         return false;
     }
+
+    @Override
+    public PRIORITY getPriority() {
+        return PRIORITY.BACKGROUND;
+    }
     
     @Override
     public void clearCallbacks() {
@@ -74,6 +79,8 @@ class ServerRequestRegisterClose extends ServerRequest {
     
     @Override
     boolean isPersistable() {
-        return false; // No need to retrieve close from previous session
+        // No need to retrieve close from previous session. As it is not persisted, close is
+        // sent immediately rather than deferred, a deferred close would be lost on process death.
+        return false;
     }
 }
@@ -58,6 +58,19 @@ class ServerRequestRegisterInstall extends ServerRequestInitSession {
     @Override
     public void onRequestSucceeded(ServerResponse resp, Branch branch) {
         super.onRequestSucceeded(resp, branch);
+        try {
+            if (callback_ != null) {
+                callback_.onInitFinished(branch.getLatestReferringParams(), null);
+            }
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+        onInitSessionCompleted(resp, branch);
+    }
+
+    @Override
+    void updateStateOnSuccess(ServerResponse resp, Branch branch) {
+        super.updateStateOnSuccess(resp, branch);
         try {
             prefHelper_.setUserURL(resp.getObject().getString(Defines.Jsonkey.Link.getKey()));
             
@@ -88,16 +101,12 @@ class ServerRequestRegisterInstall extends ServerRequestInitSession {
             } else {
                 prefHelper_.setSessionParams(PrefHelper.NO_STRING_VALUE);
             }
-            if (callback_ != null) {
-                callback_.onInitFinished(branch.getLatestReferringParams(), null);
-            }
             
             prefHelper_.setAppVersion(DeviceInfo.getInstance().getAppVersion());
             
         } catch (Exception ex) {
             ex.printStackTrace();
         }
-        onInitSessionCompleted(resp, branch);
     }
     
     @Override
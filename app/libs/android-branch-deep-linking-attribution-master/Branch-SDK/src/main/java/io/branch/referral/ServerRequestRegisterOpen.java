@@ -45,18 +45,32 @@ class ServerRequestRegisterOpen extends ServerRequestInitSession {
         // Instant Deep Link if possible. This can happen when activity initializing the session is
         // already on stack, in which case we delay parsing out data and invoking the callback until
         // onResume to ensure that we have the latest intent data.
-        if (Branch.getInstance().isInstantDeepLinkPossible()) {
+        Branch branch = Branch.getInstance();
+        if (branch.isInstantDeepLinkPossible()) {
             if (callback_ != null) {
-                callback_.onInitFinished(Branch.getInstance().getLatestReferringParams(), null);
+                callback_.onInitFinished(branch.getLatestReferringParams(), null);
             }
-            Branch.getInstance().addExtraInstrumentationData(Defines.Jsonkey.InstantDeepLinkSession.getKey(), "true");
-            Branch.getInstance().setInstantDeepLinkPossible(false);
+            branch.addExtraInstrumentationData(Defines.Jsonkey.InstantDeepLinkSession.getKey(), "true");
+            branch.setInstantDeepLinkPossible(false);
         }
     }
 
     @Override
     public void onRequestSucceeded(ServerResponse resp, Branch branch) {
         super.onRequestSucceeded(resp, branch);
+        try {
+            if (callback_ != null && !branch.isIDLSession()) {
+                callback_.onInitFinished(branch.getLatestReferringParams(), null);
+            }
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+        onInitSessionCompleted(resp, branch);
+    }
+
+    @Override
+    void updateStateOnSuccess(ServerResponse resp, Branch branch) {
+        super.updateStateOnSuccess(resp, branch);
         try {
             if (resp.getObject().has(Defines.Jsonkey.LinkClickID.getKey())) {
                 prefHelper_.setLinkClickID(resp.getObject().getString(Defines.Jsonkey.LinkClickID.getKey()));
@@ -71,16 +85,11 @@ class ServerRequestRegisterOpen extends ServerRequestInitSession {
                 prefHelper_.setSessionParams(PrefHelper.NO_STRING_VALUE);
             }
 
-            if (callback_ != null && !Branch.getInstance().isIDLSession()) {
-                callback_.onInitFinished(branch.getLatestReferringParams(), null);
-            }
-            
             prefHelper_.setAppVersion(DeviceInfo.getInstance().getAppVersion());
             
         } catch (Exception ex) {
             ex.printStackTrace();
         }
-        onInitSessionCompleted(resp, branch);
     }
     
     @Override
@@ -1,6 +1,7 @@
 package io.branch.referral;
 
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
 /**
@@ -52,6 +53,25 @@ public class ServerResponse {
         requestId_ = requestId;
     }
 
+    /**
+     * @return A copy of the response, with its own copy of the post data.
+     */
+    ServerResponse copy() {
+        ServerResponse copy = new ServerResponse(tag_, statusCode_, requestId_);
+        try {
+            if (post_ instanceof JSONObject) {
+                copy.post_ = new JSONObject(post_.toString());
+            } else if (post_ instanceof JSONArray) {
+                copy.post_ = new JSONArray(post_.toString());
+            } else {
+                copy.post_ = post_;
+            }
+        } catch (JSONException e) {
+            copy.post_ = post_;
+        }
+        return copy;
+    }
+
     /**
      * <p>Gets the {@link String} value of the <i>Tag</i> attribute of the current link.</p>
      *
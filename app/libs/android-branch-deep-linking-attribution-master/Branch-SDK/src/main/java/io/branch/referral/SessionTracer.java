@@ -0,0 +1,208 @@
+package io.branch.referral;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Opt-in recorder for SDK session timeline spans such as auto instance creation, intent parsing,
+ * process wait locks, queue wait, network round trips and response handling. Spans are kept in a
+ * bounded ring buffer with their thread id and monotonic ({@link System#nanoTime()}) timestamps,
+ * and can be dumped as a Chrome / Perfetto trace-event JSON file.
+ * </p>
+ * <p>
+ * Tracing is disabled by default and costs a single volatile read per span while disabled. Enable
+ * it with {@link Branch#enableSessionTracing()} and export with {@link Branch#dumpSessionTrace(File)}.
+ * </p>
+ */
+public final class SessionTracer {
+    static final int DEFAULT_CAPACITY = 2048;
+    private static final String CATEGORY = "branch";
+
+    // Null while tracing is disabled
+    private static volatile SessionTracer tracer_;
+
+    private final Event[] events_;
+    private int next_;
+    private long recorded_;
+
+    private SessionTracer(int capacity) {
+        events_ = new Event[Math.max(1, capacity)];
+    }
+
+    private static class Event {
+        final String name;
+        final String detail;
+        final long startNanos;
+        final long durationNanos;
+        final long threadId;
+        final String threadName;
+
+        Event(String name, String detail, long startNanos, long durationNanos, Thread thread) {
+            this.name = name;
+            this.detail = detail;
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+            this.threadId = thread.getId();
+            this.threadName = thread.getName();
+        }
+    }
+
+    /**
+     * Starts recording spans into a new ring buffer holding at most the given number of spans.
+     * Any previously recorded spans are discarded.
+     */
+    static void enable(int capacity) {
+        tracer_ = new SessionTracer(capacity);
+    }
+
+    static void disable() {
+        tracer_ = null;
+    }
+
+    public static boolean isEnabled() {
+        return tracer_ != null;
+    }
+
+    /**
+     * Marks the start of a span.
+     *
+     * @return The monotonic start time to pass to {@link #end(String, long)}, or 0 if tracing is
+     * disabled.
+     */
+    public static long begin() {
+        return tracer_ != null ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records a span that started at the given time returned from {@link #begin()} and ends now.
+     *
+     * @param name       Name of the span.
+     * @param startNanos Start time returned from {@link #begin()}.
+     */
+    public static void end(String name, long startNanos) {
+        end(name, null, startNanos);
+    }
+
+    /**
+     * Records a span that started at the given time returned from {@link #begin()} and ends now.
+     *
+     * @param name       Name of the span.
+     * @param detail     Optional detail such as the request path, exported as a span argument.
+     * @param startNanos Start time returned from {@link #begin()}.
+     */
+    public static void end(String name, String detail, long startNanos) {
+        SessionTracer tracer = tracer_;
+        if (tracer != null && startNanos > 0) {
+            tracer.add(new Event(name, detail, startNanos, System.nanoTime() - startNanos, Thread.currentThread()));
+        }
+    }
+
+    private synchronized void add(Event event) {
+        events_[next_] = event;
+        next_ = (next_ + 1) % events_.length;
+        recorded_++;
+    }
+
+    private synchronized Event[] snapshot() {
+        int count = (int) Math.min(recorded_, events_.length);
+        Event[] result = new Event[count];
+        int start = recorded_ > events_.length ? next_ : 0;
+        for (int i = 0; i < count; i++) {
+            result[i] = events_[(start + i) % events_.length];
+        }
+        return result;
+    }
+
+    /**
+     * @return The recorded spans, oldest first, in Chrome trace-event format. Null if tracing is
+     * disabled.
+     */
+    static JSONObject toTraceJson() {
+        SessionTracer tracer = tracer_;
+        if (tracer == null) {
+            return null;
+        }
+        JSONObject trace = new JSONObject();
+        try {
+            int pid = getProcessId();
+            JSONArray traceEvents = new JSONArray();
+            Map<Long, String> threadNames = new HashMap<>();
+            for (Event event : tracer.snapshot()) {
+                JSONObject traceEvent = new JSONObject();
+                traceEvent.put("name", event.name);
+                traceEvent.put("cat", CATEGORY);
+                traceEvent.put("ph", "X");
+                traceEvent.put("ts", event.startNanos / 1000.0);
+                traceEvent.put("dur", event.durationNanos / 1000.0);
+                traceEvent.put("pid", pid);
+                traceEvent.put("tid", event.threadId);
+                if (event.detail != null) {
+                    traceEvent.put("args", new JSONObject().put("detail", event.detail));
+                }
+                traceEvents.put(traceEvent);
+                threadNames.put(event.threadId, event.threadName);
+            }
+            for (Map.Entry<Long, String> thread : threadNames.entrySet()) {
+                JSONObject metadata = new JSONObject();
+                metadata.put("name", "thread_name");
+                metadata.put("ph", "M");
+                metadata.put("pid", pid);
+                metadata.put("tid", thread.getKey());
+                metadata.put("args", new JSONObject().put("name", thread.getValue()));
+                traceEvents.put(metadata);
+            }
+            trace.put("traceEvents", traceEvents);
+            trace.put("displayTimeUnit", "ms");
+            trace.put("droppedEvents", Math.max(0, tracer.recorded_ - tracer.events_.length));
+        } catch (JSONException ignore) {
+        }
+        return trace;
+    }
+
+    /**
+     * Writes the recorded spans to the given file in Chrome trace-event format.
+     *
+     * @return True if the trace was written.
+     */
+    static boolean dump(File file) {
+        JSONObject trace = toTraceJson();
+        if (trace == null || file == null) {
+            return false;
+        }
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            writer.write(trace.toString());
+            return true;
+        } catch (IOException e) {
+            PrefHelper.Debug("Failed to write session trace " + e.getMessage());
+            return false;
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+
+    private static int getProcessId() {
+        try {
+            return android.os.Process.myPid();
+        } catch (RuntimeException | UnsatisfiedLinkError ignore) {
+            // Not available outside of a device, e.g. in unit tests
+            return 0;
+        }
+    }
+}
@@ -25,7 +25,6 @@ import androidx.annotation.NonNull;
 
 import io.branch.referral.Defines.ModuleNameKeys;
 
-import java.lang.reflect.Method;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.util.Collections;
@@ -234,19 +233,7 @@ abstract class SystemObserver {
     }
 
     static boolean isGooglePlayServicesAvailable(@NonNull Context context) {
-        try {
-            //get an instance of com.huawei.hms.api.HuaweiApiAvailability
-            Class GoogleApiAvailability = Class.forName("com.google.android.gms.common.GoogleApiAvailability");
-            Method GoogleApiAvailability_getInstance = GoogleApiAvailability.getDeclaredMethod("getInstance");
-            Object GoogleApiAvailabilityInstance = GoogleApiAvailability_getInstance.invoke(null);
-
-            // call isGooglePlayServicesAvailable on that instance
-            Method GoogleisPlayServicesAvailable = GoogleApiAvailability.getDeclaredMethod("isGooglePlayServicesAvailable", Context.class);
-            Object result = GoogleisPlayServicesAvailable.invoke(GoogleApiAvailabilityInstance, context);
-            return (result instanceof Integer) && (Integer) result == 0;
-        } catch (Exception e) {
-            return false;
-        }
+        return IntegrationRegistry.isGooglePlayServicesAvailable(context);
     }
 
     /**
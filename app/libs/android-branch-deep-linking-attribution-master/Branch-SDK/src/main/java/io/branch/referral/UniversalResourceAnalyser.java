@@ -27,7 +27,8 @@ import javax.net.ssl.HttpsURLConnection;
  */
 
 class UniversalResourceAnalyser {
-    private static JSONObject skipURLFormats;
+    // Replaced by the update task in the background
+    private static volatile JSONObject skipURLFormats;
     private final ArrayList<String> acceptURLFormats;
     private static final String SKIP_URL_FORMATS_KEY = "skip_url_format_key";
     private static final String VERSION_KEY = "version";
@@ -37,14 +38,21 @@ class UniversalResourceAnalyser {
     
     private final JSONObject DEFAULT_SKIP_URL_LIST;
 
-    private static UniversalResourceAnalyser instance;
+    private static volatile UniversalResourceAnalyser instance;
     
     
     public static UniversalResourceAnalyser getInstance(Context context) {
-        if (instance == null) {
-            instance = new UniversalResourceAnalyser(context);
+        UniversalResourceAnalyser analyser = instance;
+        if (analyser == null) {
+            synchronized (UniversalResourceAnalyser.class) {
+                analyser = instance;
+                if (analyser == null) {
+                    analyser = new UniversalResourceAnalyser(context);
+                    instance = analyser;
+                }
+            }
         }
-        return instance;
+        return analyser;
     }
     
     private UniversalResourceAnalyser(Context context) {
@@ -8,12 +8,15 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.Locale;
+import java.util.concurrent.Callable;
 
 import io.branch.referral.Branch;
 import io.branch.referral.BranchError;
+import io.branch.referral.BranchLogger;
 import io.branch.referral.Defines;
 import io.branch.referral.PrefHelper;
 import io.branch.referral.ServerResponse;
+import io.branch.referral.SessionTracer;
 
 /**
  * <p>
@@ -34,6 +37,11 @@ public abstract class BranchRemoteInterface {
      */
     public static final String RETRY_NUMBER = "retryNumber";
 
+    private CircuitBreaker circuitBreaker_ = new CircuitBreaker();
+    private volatile CompactWireFormat compactWireFormat_;
+    // Cancellation of the request sent on the thread, see callCancellable()
+    private static final ThreadLocal<Cancellation> cancellation_ = new ThreadLocal<>();
+
     //----------- Abstract methods-----------------------//
 
     /**
@@ -85,6 +93,16 @@ public abstract class BranchRemoteInterface {
      * @return {@link ServerResponse} object representing the result of RESTful GET to Branch Server
      */
     public final ServerResponse make_restful_get(String url, JSONObject params, String tag, String branchKey) {
+        return make_restful_get(url, params, tag, branchKey, Branch.getInstance());
+    }
+
+    /**
+     * Same as {@link #make_restful_get(String, JSONObject, String, String)}, recording the round
+     * trip time on the given instance rather than looking the singleton up.
+     *
+     * @param branch The {@link Branch} instance sending the request, or null to not record the round trip time
+     */
+    public final ServerResponse make_restful_get(String url, JSONObject params, String tag, String branchKey, @Nullable Branch branch) {
         String modifiedUrl = url;
         params = params != null ? params : new JSONObject();
         if (addCommonParams(params, branchKey)) {
@@ -94,24 +112,39 @@ public abstract class BranchRemoteInterface {
         }
 
         long reqStartTime = System.currentTimeMillis();
-        PrefHelper.Debug("getting " + modifiedUrl);
+        final String getUrl = modifiedUrl;
+        BranchLogger.debug(new BranchLogger.MessageSupplier() {
+            @Override
+            public String get() {
+                return "getting " + getUrl;
+            }
+        });
 
+        String endpoint = CircuitBreaker.getEndpoint(url);
+        if (!circuitBreaker_.allowRequest(endpoint)) {
+            return new ServerResponse(tag, BranchError.ERR_BRANCH_UNABLE_TO_REACH_SERVERS, "");
+        }
+        long traceStart = SessionTracer.begin();
+        ServerResponse result = null;
         try {
             BranchResponse response = doRestfulGet(modifiedUrl);
-            return processEntityForJSON(response, tag, response.requestId);
+            result = processEntityForJSON(response, tag, response.requestId);
         } catch (BranchRemoteException branchError) {
             if (branchError.branchErrorCode == BranchError.ERR_BRANCH_REQ_TIMED_OUT) {
-                return new ServerResponse(tag, BranchError.ERR_BRANCH_REQ_TIMED_OUT, "");
+                result = new ServerResponse(tag, BranchError.ERR_BRANCH_REQ_TIMED_OUT, "");
             } else { // All other errors are considered as connectivity error
-                return new ServerResponse(tag, BranchError.ERR_BRANCH_NO_CONNECTIVITY, "");
+                result = new ServerResponse(tag, BranchError.ERR_BRANCH_NO_CONNECTIVITY, "");
             }
         } finally {
+            reportOutcome(endpoint, result);
+            SessionTracer.end("network rtt", tag, traceStart);
             // Add total round trip time
-            if (Branch.getInstance() != null) {
+            if (branch != null) {
                 int brttVal = (int) (System.currentTimeMillis() - reqStartTime);
-                Branch.getInstance().addExtraInstrumentationData(tag + "-" + Defines.Jsonkey.Branch_Round_Trip_Time.getKey(), String.valueOf(brttVal));
+                branch.addExtraInstrumentationData(tag + "-" + Defines.Jsonkey.Branch_Round_Trip_Time.getKey(), String.valueOf(brttVal));
             }
         }
+        return result;
     }
 
     /**
@@ -124,35 +157,191 @@ public abstract class BranchRemoteInterface {
      * @return {@link ServerResponse} object representing the result of RESTful POST to Branch Server
      */
     public final ServerResponse make_restful_post(JSONObject body, String url, String tag, String branchKey) {
+        return make_restful_post(body, url, tag, branchKey, Branch.getInstance());
+    }
+
+    /**
+     * Same as {@link #make_restful_post(JSONObject, String, String, String)}, recording the round
+     * trip time on the given instance rather than looking the singleton up.
+     *
+     * @param branch The {@link Branch} instance sending the request, or null to not record the round trip time
+     */
+    public final ServerResponse make_restful_post(JSONObject body, String url, String tag, String branchKey, @Nullable Branch branch) {
         long reqStartTime = System.currentTimeMillis();
         body = body != null ? body : new JSONObject();
 
         if (!addCommonParams(body, branchKey)) {
             return new ServerResponse(tag, BranchError.ERR_BRANCH_KEY_INVALID, "");
         }
-        PrefHelper.Debug("posting to " + url);
-        PrefHelper.Debug("Post value = " + body.toString());
+        // The payload is only serialized for the log while debug logging is enabled
+        final String postUrl = url;
+        final JSONObject postBody = body;
+        BranchLogger.debug(new BranchLogger.MessageSupplier() {
+            @Override
+            public String get() {
+                return "posting to " + postUrl + ", Post value = " + postBody.toString();
+            }
+        });
 
+        String endpoint = CircuitBreaker.getEndpoint(url);
+        if (!circuitBreaker_.allowRequest(endpoint)) {
+            return new ServerResponse(tag, BranchError.ERR_BRANCH_UNABLE_TO_REACH_SERVERS, "");
+        }
+        long traceStart = SessionTracer.begin();
+        ServerResponse result = null;
         try {
             BranchResponse response = doRestfulPost(url, body);
-            return processEntityForJSON(response, tag, response.requestId);
+            result = processEntityForJSON(response, tag, response.requestId);
         } catch (BranchRemoteException branchError) {
             if (branchError.branchErrorCode == BranchError.ERR_BRANCH_REQ_TIMED_OUT) {
-                return new ServerResponse(tag, BranchError.ERR_BRANCH_REQ_TIMED_OUT, "");
+                result = new ServerResponse(tag, BranchError.ERR_BRANCH_REQ_TIMED_OUT, "");
             } else { // All other errors are considered as connectivity error
-                return new ServerResponse(tag, BranchError.ERR_BRANCH_NO_CONNECTIVITY, "");
+                result = new ServerResponse(tag, BranchError.ERR_BRANCH_NO_CONNECTIVITY, "");
             }
         } finally {
-            if (Branch.getInstance() != null) {
+            reportOutcome(endpoint, result);
+            SessionTracer.end("network rtt", tag, traceStart);
+            if (branch != null) {
                 int brttVal = (int) (System.currentTimeMillis() - reqStartTime);
-                Branch.getInstance().addExtraInstrumentationData(tag + "-" + Defines.Jsonkey.Branch_Round_Trip_Time.getKey(), String.valueOf(brttVal));
+                branch.addExtraInstrumentationData(tag + "-" + Defines.Jsonkey.Branch_Round_Trip_Time.getKey(), String.valueOf(brttVal));
             }
         }
+        return result;
+    }
+
+
+    /**
+     * @return The {@link CircuitBreaker} failing requests fast while their endpoint is down.
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker_;
+    }
+
+    /**
+     * Replaces the {@link CircuitBreaker}, e.g. to change its thresholds.
+     *
+     * @param circuitBreaker The {@link CircuitBreaker} to use, if null requests are never failed fast.
+     */
+    public void setCircuitBreaker(@Nullable CircuitBreaker circuitBreaker) {
+        circuitBreaker_ = circuitBreaker != null ? circuitBreaker : new CircuitBreaker(Integer.MAX_VALUE, 0, 0);
+    }
+
+    /**
+     * @return The {@link CompactWireFormat} offered to the server, or null if requests are only
+     * sent as JSON.
+     */
+    @Nullable
+    public CompactWireFormat getCompactWireFormat() {
+        return compactWireFormat_;
+    }
+
+    /**
+     * Offers the server the {@link CompactWireFormat}, sending requests in it once the server
+     * answers in it. Disabled by default. Transports that do not support the format ignore it.
+     *
+     * @param compactWireFormat The {@link CompactWireFormat} to negotiate, or null to only send
+     *                          JSON.
+     */
+    public void setCompactWireFormat(@Nullable CompactWireFormat compactWireFormat) {
+        compactWireFormat_ = compactWireFormat;
+    }
+
+    /**
+     * <p>Makes the requests sent by the call on the calling thread abortable, e.g. the attempt of
+     * a hedged request that lost. Interrupting the thread does not abort blocking socket I/O,
+     * cancelling has the transport close the connection instead, see
+     * {@link #setOnCancelListener(Runnable)}.</p>
+     *
+     * @param cancellation Cancelled to abort the requests.
+     * @param call         Sends the requests.
+     * @return The result of the call.
+     * @throws Exception if the call throws.
+     */
+    public static <T> T callCancellable(Cancellation cancellation, Callable<T> call) throws Exception {
+        cancellation_.set(cancellation);
+        try {
+            return call.call();
+        } finally {
+            cancellation_.remove();
+        }
     }
 
+    //----------- helpers shared by the transports ----------//
+
+    /**
+     * Sets the hook that aborts the request being sent on the calling thread when it is cancelled,
+     * see {@link #callCancellable(Cancellation, Callable)}. Runs right away if the request was
+     * already cancelled.
+     *
+     * @param listener Aborts the I/O of the request, e.g. closes its connection. Null once the
+     *                 request completed.
+     */
+    protected static void setOnCancelListener(@Nullable Runnable listener) {
+        Cancellation cancellation = cancellation_.get();
+        if (cancellation != null) {
+            cancellation.setOnCancelListener(listener);
+        }
+    }
+
+    /**
+     * Waits the retry interval before a request is retried.
+     *
+     * @param retryInterval The retry interval in milliseconds, see {@link PrefHelper#getRetryInterval()}.
+     * @return False if the request was cancelled while waiting, it is not retried then.
+     */
+    protected static boolean waitBeforeRetry(int retryInterval) {
+        try {
+            Thread.sleep(retryInterval);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Feeds the round trip time of a single attempt to the adaptive timeout of its endpoint, see
+     * {@link PrefHelper#getTimeout(String)}. Retries, the waits between them and the other attempt
+     * of a hedged request are not part of the sample.
+     *
+     * @param prefHelper        The settings the request is sent with.
+     * @param url               The url of the request.
+     * @param attemptStartNanos {@link System#nanoTime()} when the attempt was started.
+     */
+    protected static void onAttemptResponded(PrefHelper prefHelper, String url, long attemptStartNanos) {
+        prefHelper.onRoundTrip(url, (System.nanoTime() - attemptStartNanos) / 1000000);
+    }
+
+    /**
+     * Applies the {@link Defines.HeaderKey#SendCloseRequest} response header.
+     *
+     * @param branch      The {@link Branch} instance, or null in unit tests.
+     * @param headerValue The value of the header, or null if it is not in the response.
+     */
+    protected static void updateCloseRequestFlag(@Nullable Branch branch, @Nullable String headerValue) {
+        // technically only open/install events should have this header, but this method is called with
+        // every request and, by default, "X-Branch-Send-Close-Request" header is not added to the response.
+        // Note that, even if it gets added, we do not reset the `branch.closeRequestNeeded` flag if it has been set to `true`
+        // at least once during this session already. The flag will be reset in `executeClose()` where we potentially call v1/close.
+        // In the case of intra-app linking, this means that we will close session after the last v1/open event.
+        if (branch != null && headerValue != null && !branch.closeRequestNeeded) {
+            branch.closeRequestNeeded = Boolean.parseBoolean(headerValue);
+        }
+    }
 
     //----------- private methods----------------------------//
 
+    private void reportOutcome(String endpoint, ServerResponse result) {
+        if (result == null || result.getStatusCode() == BranchError.ERR_BRANCH_NO_CONNECTIVITY) {
+            // Did not reach the server, or an unexpected exception
+            circuitBreaker_.onInconclusive(endpoint);
+        } else if (result.getStatusCode() >= 500 || result.getStatusCode() == BranchError.ERR_BRANCH_REQ_TIMED_OUT) {
+            circuitBreaker_.onFailure(endpoint);
+        } else {
+            circuitBreaker_.onSuccess(endpoint);
+        }
+    }
+
     /**
      * <p>Converts resultant output object from Branch Remote server into a {@link ServerResponse} object by
      * reading the content supplied in the raw server response, and creating a {@link JSONObject}
@@ -172,11 +361,7 @@ public abstract class BranchRemoteInterface {
         int statusCode = response.responseCode;
 
         ServerResponse result = new ServerResponse(tag, statusCode, requestId);
-        if(!TextUtils.isEmpty(requestId)){
-            PrefHelper.Debug(String.format(Locale.getDefault(), "Server returned: [%s] Status: [%d]; Data: %s", requestId, statusCode, responseString));
-        } else {
-            PrefHelper.Debug(String.format("returned %s", responseString));
-        }
+        logResponse(requestId, statusCode, responseString);
 
         if (responseString != null) {
             try {
@@ -194,6 +379,18 @@ public abstract class BranchRemoteInterface {
         return result;
     }
 
+    private static void logResponse(final String requestId, final int statusCode, final String responseString) {
+        BranchLogger.debug(new BranchLogger.MessageSupplier() {
+            @Override
+            public String get() {
+                if (!TextUtils.isEmpty(requestId)) {
+                    return String.format(Locale.getDefault(), "Server returned: [%s] Status: [%d]; Data: %s", requestId, statusCode, responseString);
+                }
+                return String.format("returned %s", responseString);
+            }
+        });
+    }
+
     private boolean addCommonParams(JSONObject post, String branch_key) {
         try {
             if (!post.has(Defines.Jsonkey.UserData.getKey())) { // user data already has the sdk in it as part of v2 request
@@ -263,12 +460,56 @@ public abstract class BranchRemoteInterface {
             this.responseData = responseData;
             this.responseCode = responseCode;
         }
+
+        @Nullable String getResponseData() {
+            return responseData;
+        }
+
+        int getResponseCode() {
+            return responseCode;
+        }
     }
 
     /**
      * Exception thrown when there is an error while doing a restful operation with Branch Remote server
      * see {@link #doRestfulGet(String)} and {@link #doRestfulPost(String, JSONObject)}
      */
+    /**
+     * Aborts the requests sent under it, see {@link #callCancellable(Cancellation, Callable)}.
+     */
+    public static class Cancellation {
+        private Runnable listener_;
+        private boolean cancelled_;
+
+        /**
+         * Aborts the request being sent, and any request sent under this cancellation afterwards.
+         */
+        public void cancel() {
+            Runnable listener;
+            synchronized (this) {
+                if (cancelled_) {
+                    return;
+                }
+                cancelled_ = true;
+                listener = listener_;
+            }
+            if (listener != null) {
+                listener.run();
+            }
+        }
+
+        private void setOnCancelListener(@Nullable Runnable listener) {
+            boolean cancelled;
+            synchronized (this) {
+                listener_ = listener;
+                cancelled = cancelled_;
+            }
+            if (cancelled && listener != null) {
+                listener.run();
+            }
+        }
+    }
+
     public static class BranchRemoteException extends Exception {
         private int branchErrorCode = BranchError.ERR_BRANCH_NO_CONNECTIVITY;
 
@@ -281,6 +522,10 @@ public abstract class BranchRemoteInterface {
         public BranchRemoteException(int errorCode) {
             branchErrorCode = errorCode;
         }
+
+        int getBranchErrorCode() {
+            return branchErrorCode;
+        }
     }
 
 }
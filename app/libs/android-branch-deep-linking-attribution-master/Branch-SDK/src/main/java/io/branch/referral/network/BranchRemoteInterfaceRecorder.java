@@ -0,0 +1,267 @@
+package io.branch.referral.network;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import io.branch.referral.PrefHelper;
+
+/**
+ * <p>
+ * {@link BranchRemoteInterface} decorator that records every request and response pair passing
+ * through the wrapped interface, together with its round trip time. Recordings can be written to
+ * a file with {@link #writeTo(File)} and served back by a replaying interface, so that queue,
+ * retry and timeout behaviour can be measured without a device or network.
+ * </p>
+ * <p>
+ * Usage: {@code branch.setBranchRemoteInterface(new BranchRemoteInterfaceRecorder(new BranchRemoteInterfaceUrlConnection(branch)))}
+ * </p>
+ * <p>
+ * Note that recordings contain the full request payloads, including device identifiers. They are
+ * meant for debugging and performance work and should not be collected in production builds.
+ * </p>
+ */
+public class BranchRemoteInterfaceRecorder extends BranchRemoteInterface {
+    public static final int DEFAULT_MAX_EXCHANGES = 500;
+
+    private final BranchRemoteInterface delegate_;
+    private final int maxExchanges_;
+    private final LinkedList<RecordedExchange> exchanges_ = new LinkedList<>();
+
+    public BranchRemoteInterfaceRecorder(@NonNull BranchRemoteInterface delegate) {
+        this(delegate, DEFAULT_MAX_EXCHANGES);
+    }
+
+    /**
+     * @param delegate     The {@link BranchRemoteInterface} doing the actual network operations.
+     * @param maxExchanges Maximum number of exchanges kept, oldest are dropped first.
+     */
+    public BranchRemoteInterfaceRecorder(@NonNull BranchRemoteInterface delegate, int maxExchanges) {
+        delegate_ = delegate;
+        maxExchanges_ = Math.max(1, maxExchanges);
+    }
+
+    @Override
+    public BranchResponse doRestfulGet(String url) throws BranchRemoteException {
+        long start = System.nanoTime();
+        try {
+            BranchResponse response = delegate_.doRestfulGet(url);
+            record(new RecordedExchange(RecordedExchange.METHOD_GET, url, null, response, elapsedMillis(start)));
+            return response;
+        } catch (BranchRemoteException e) {
+            record(new RecordedExchange(RecordedExchange.METHOD_GET, url, null, e, elapsedMillis(start)));
+            throw e;
+        }
+    }
+
+    @Override
+    public BranchResponse doRestfulPost(String url, JSONObject payload) throws BranchRemoteException {
+        long start = System.nanoTime();
+        try {
+            BranchResponse response = delegate_.doRestfulPost(url, payload);
+            record(new RecordedExchange(RecordedExchange.METHOD_POST, url, payload, response, elapsedMillis(start)));
+            return response;
+        } catch (BranchRemoteException e) {
+            record(new RecordedExchange(RecordedExchange.METHOD_POST, url, payload, e, elapsedMillis(start)));
+            throw e;
+        }
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1000000;
+    }
+
+    private synchronized void record(RecordedExchange exchange) {
+        exchanges_.add(exchange);
+        if (exchanges_.size() > maxExchanges_) {
+            exchanges_.removeFirst();
+        }
+    }
+
+    /**
+     * @return A copy of the exchanges recorded so far, oldest first.
+     */
+    public synchronized List<RecordedExchange> getExchanges() {
+        return new ArrayList<>(exchanges_);
+    }
+
+    public synchronized void clear() {
+        exchanges_.clear();
+    }
+
+    /**
+     * Writes the recorded exchanges to the given file as a JSON array.
+     *
+     * @param file {@link File} to write the recording to.
+     * @return True if the recording was written.
+     */
+    public boolean writeTo(@NonNull File file) {
+        JSONArray recording = new JSONArray();
+        for (RecordedExchange exchange : getExchanges()) {
+            recording.put(exchange.toJSON());
+        }
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            writer.write(recording.toString());
+            return true;
+        } catch (IOException e) {
+            PrefHelper.Debug("Failed to write network recording " + e.getMessage());
+            return false;
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads exchanges previously written with {@link #writeTo(File)}.
+     *
+     * @param file {@link File} holding the recording.
+     * @return The recorded exchanges, oldest first.
+     * @throws IOException if the file can not be read or is not a valid recording.
+     */
+    public static List<RecordedExchange> readFrom(@NonNull File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                content.write(buffer, 0, read);
+            }
+            JSONArray recording = new JSONArray(content.toString("UTF-8"));
+            List<RecordedExchange> exchanges = new ArrayList<>(recording.length());
+            for (int i = 0; i < recording.length(); i++) {
+                exchanges.add(RecordedExchange.fromJSON(recording.getJSONObject(i)));
+            }
+            return exchanges;
+        } catch (JSONException e) {
+            throw new IOException("Invalid network recording " + e.getMessage());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * <p>A single recorded request and its outcome, either a response or a {@link BranchRemoteException}.</p>
+     */
+    public static class RecordedExchange {
+        public static final String METHOD_GET = "GET";
+        public static final String METHOD_POST = "POST";
+
+        private static final String KEY_METHOD = "method";
+        private static final String KEY_URL = "url";
+        private static final String KEY_PAYLOAD = "payload";
+        private static final String KEY_STATUS = "status";
+        private static final String KEY_RESPONSE = "response";
+        private static final String KEY_ERROR = "error";
+        private static final String KEY_LATENCY = "latency_ms";
+
+        public final String method;
+        public final String url;
+        @Nullable public final JSONObject payload;
+        public final int statusCode;
+        @Nullable public final String responseData;
+        // BranchError code of a thrown BranchRemoteException, 0 if a response was received
+        public final int errorCode;
+        public final long latencyMillis;
+
+        public RecordedExchange(String method, String url, @Nullable JSONObject payload, int statusCode,
+                                @Nullable String responseData, int errorCode, long latencyMillis) {
+            this.method = method;
+            this.url = url;
+            this.payload = payload;
+            this.statusCode = statusCode;
+            this.responseData = responseData;
+            this.errorCode = errorCode;
+            this.latencyMillis = latencyMillis;
+        }
+
+        RecordedExchange(String method, String url, JSONObject payload, BranchResponse response, long latencyMillis) {
+            this(method, url, copy(payload), response.getResponseCode(), response.getResponseData(), 0, latencyMillis);
+        }
+
+        RecordedExchange(String method, String url, JSONObject payload, BranchRemoteException error, long latencyMillis) {
+            this(method, url, copy(payload), 0, null, error.getBranchErrorCode(), latencyMillis);
+        }
+
+        public boolean isError() {
+            return errorCode != 0;
+        }
+
+        /**
+         * @return The request path of the url without scheme, host and query, e.g. "v1/open".
+         */
+        public String getPath() {
+            return getPath(url);
+        }
+
+        public static String getPath(String url) {
+            String path = url;
+            int query = path.indexOf('?');
+            if (query >= 0) {
+                path = path.substring(0, query);
+            }
+            int scheme = path.indexOf("://");
+            if (scheme >= 0) {
+                int host = path.indexOf('/', scheme + 3);
+                path = host >= 0 ? path.substring(host + 1) : "";
+            }
+            return path;
+        }
+
+        private static JSONObject copy(JSONObject payload) {
+            if (payload == null) {
+                return null;
+            }
+            try {
+                // The SDK keeps mutating request bodies, e.g. when retrying, so keep a snapshot
+                return new JSONObject(payload.toString());
+            } catch (JSONException e) {
+                return null;
+            }
+        }
+
+        JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+            try {
+                json.put(KEY_METHOD, method);
+                json.put(KEY_URL, url);
+                json.putOpt(KEY_PAYLOAD, payload);
+                json.put(KEY_STATUS, statusCode);
+                json.putOpt(KEY_RESPONSE, responseData);
+                json.put(KEY_ERROR, errorCode);
+                json.put(KEY_LATENCY, latencyMillis);
+            } catch (JSONException ignore) {
+            }
+            return json;
+        }
+
+        static RecordedExchange fromJSON(JSONObject json) throws JSONException {
+            return new RecordedExchange(json.getString(KEY_METHOD), json.getString(KEY_URL),
+                    json.optJSONObject(KEY_PAYLOAD), json.optInt(KEY_STATUS),
+                    json.has(KEY_RESPONSE) ? json.getString(KEY_RESPONSE) : null,
+                    json.optInt(KEY_ERROR), json.optLong(KEY_LATENCY));
+        }
+    }
+}
@@ -17,11 +17,12 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.net.HttpURLConnection;
 import java.net.URL;
-import javax.net.ssl.HttpsURLConnection;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -39,6 +40,11 @@ public class BranchRemoteInterfaceUrlConnection extends BranchRemoteInterface {
         this.branch = branch;
     }
 
+    // Package Private, the settings the requests are sent with
+    PrefHelper getPrefHelper() {
+        return PrefHelper.getInstance(branch.getApplicationContext());
+    }
+
     @Override
     public BranchResponse doRestfulGet(String url) throws BranchRemoteException {
         return doRestfulGet(url, 0);
@@ -52,36 +58,39 @@ public class BranchRemoteInterfaceUrlConnection extends BranchRemoteInterface {
 
     ///-------------- private methods to implement RESTful GET / POST using HttpURLConnection ---------------//
     private BranchResponse doRestfulGet(String url, int retryNumber) throws BranchRemoteException {
-        HttpsURLConnection connection = null;
-        PrefHelper prefHelper = PrefHelper.getInstance(branch.getApplicationContext());
+        HttpURLConnection connection = null;
+        PrefHelper prefHelper = getPrefHelper();
         try {
-            int timeout = prefHelper.getTimeout();
+            int timeout = prefHelper.getTimeout(url);
             String appendKey = url.contains("?") ? "&" : "?";
             String modifiedUrl = url + appendKey + RETRY_NUMBER + "=" + retryNumber;
             URL urlObject = new URL(modifiedUrl);
-            connection = (HttpsURLConnection) urlObject.openConnection();
+            long attemptStart = System.nanoTime();
+            connection = (HttpURLConnection) urlObject.openConnection();
+            disconnectOnCancel(connection);
             connection.setConnectTimeout(timeout);
             connection.setReadTimeout(timeout);
+            CompactWireFormat wireFormat = getCompactWireFormat();
+            if (wireFormat != null) {
+                connection.setRequestProperty("Accept", wireFormat.getAcceptHeader());
+                connection.setRequestProperty(CompactWireFormat.HEADER_KEY_DICTIONARY, CompactWireFormat.getDictionaryId());
+            }
 
             String requestId = connection.getHeaderField(Defines.HeaderKey.RequestId.getKey());
             maybeSetCloseRequestFlag(connection);
 
             int responseCode = connection.getResponseCode();
-            if (responseCode >= 500 && retryNumber < prefHelper.getRetryCount()) {
-                try {
-                    Thread.sleep(prefHelper.getRetryInterval());
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+            onAttemptResponded(prefHelper, url, attemptStart);
+            if (responseCode >= 500 && retryNumber < prefHelper.getRetryCount() && waitBeforeRetry(prefHelper.getRetryInterval())) {
                 retryNumber++;
                 return doRestfulGet(url, retryNumber);
             } else {
                 BranchResponse result;
                 try {
-                    if (responseCode != HttpsURLConnection.HTTP_OK && connection.getErrorStream() != null) {
-                        result = new BranchResponse(getResponseString(connection.getErrorStream()), responseCode);
+                    if (responseCode != HttpURLConnection.HTTP_OK && connection.getErrorStream() != null) {
+                        result = new BranchResponse(readResponse(connection, connection.getErrorStream(), wireFormat), responseCode);
                     } else {
-                        result = new BranchResponse(getResponseString(connection.getInputStream()), responseCode);
+                        result = new BranchResponse(readResponse(connection, connection.getInputStream(), wireFormat), responseCode);
                     }
                 } catch (FileNotFoundException ex) {
                     // In case of Resource conflict getInputStream will throw FileNotFoundException. Handle it here in order to send the right status code
@@ -97,12 +106,7 @@ public class BranchRemoteInterfaceUrlConnection extends BranchRemoteInterface {
 
         } catch (SocketTimeoutException ex) {
             // On socket  time out retry the request for retryNumber of times
-            if (retryNumber < prefHelper.getRetryCount()) {
-                try {
-                    Thread.sleep(prefHelper.getRetryInterval());
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+            if (retryNumber < prefHelper.getRetryCount() && waitBeforeRetry(prefHelper.getRetryInterval())) {
                 retryNumber++;
                 return doRestfulGet(url, retryNumber);
             } else {
@@ -112,6 +116,7 @@ public class BranchRemoteInterfaceUrlConnection extends BranchRemoteInterface {
             PrefHelper.Debug("Branch connect exception: " + ex.getMessage());
             throw new BranchRemoteException(BranchError.ERR_BRANCH_NO_CONNECTIVITY);
         } finally {
+            setOnCancelListener(null);
             if (connection != null) {
                 connection.disconnect();
             }
@@ -120,9 +125,9 @@ public class BranchRemoteInterfaceUrlConnection extends BranchRemoteInterface {
 
 
     private BranchResponse doRestfulPost(String url, JSONObject payload, int retryNumber) throws BranchRemoteException {
-        HttpsURLConnection connection = null;
-        PrefHelper prefHelper = PrefHelper.getInstance(branch.getApplicationContext());
-        int timeout = prefHelper.getTimeout();
+        HttpURLConnection connection = null;
+        PrefHelper prefHelper = getPrefHelper();
+        int timeout = prefHelper.getTimeout(url);
         try {
             payload.put(RETRY_NUMBER, retryNumber);
         } catch (JSONException ignore) {
@@ -134,41 +139,55 @@ public class BranchRemoteInterfaceUrlConnection extends BranchRemoteInterface {
             }
 
             URL urlObject = new URL(url);
-            connection = (HttpsURLConnection) urlObject.openConnection();
+            long attemptStart = System.nanoTime();
+            connection = (HttpURLConnection) urlObject.openConnection();
+            disconnectOnCancel(connection);
             connection.setConnectTimeout(timeout);
             connection.setReadTimeout(timeout);
             connection.setDoInput(true);
             connection.setDoOutput(true);
-            connection.setRequestProperty("Content-Type", "application/json");
-            connection.setRequestProperty("Accept", "application/json");
+            CompactWireFormat wireFormat = getCompactWireFormat();
+            boolean compact = wireFormat != null && wireFormat.shouldEncodeRequests();
+            connection.setRequestProperty("Content-Type", compact ? CompactWireFormat.CONTENT_TYPE : "application/json");
+            connection.setRequestProperty("Accept", wireFormat != null ? wireFormat.getAcceptHeader() : "application/json");
+            if (wireFormat != null) {
+                connection.setRequestProperty(CompactWireFormat.HEADER_KEY_DICTIONARY, CompactWireFormat.getDictionaryId());
+            }
             connection.setRequestMethod("POST");
 
-            OutputStreamWriter outputStreamWriter = new OutputStreamWriter(connection.getOutputStream());
+            if (compact) {
+                OutputStream outputStream = connection.getOutputStream();
+                outputStream.write(CompactWireFormat.encode(payload));
+                outputStream.close();
+            } else {
+                OutputStreamWriter outputStreamWriter = new OutputStreamWriter(connection.getOutputStream());
 
-            outputStreamWriter.write(payload.toString());
-            outputStreamWriter.flush();
-            outputStreamWriter.close();
+                outputStreamWriter.write(payload.toString());
+                outputStreamWriter.flush();
+                outputStreamWriter.close();
+            }
 
             String requestId = connection.getHeaderField(Defines.HeaderKey.RequestId.getKey());
             maybeSetCloseRequestFlag(connection);
 
             int responseCode = connection.getResponseCode();
-            if (responseCode >= HttpsURLConnection.HTTP_INTERNAL_ERROR
-                    && retryNumber < prefHelper.getRetryCount()) {
-                try {
-                    Thread.sleep(prefHelper.getRetryInterval());
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+            onAttemptResponded(prefHelper, url, attemptStart);
+            if (compact && responseCode == CompactWireFormat.HTTP_UNSUPPORTED_MEDIA_TYPE) {
+                // The server did not process the request, send it again as JSON
+                wireFormat.onRejected();
+                return doRestfulPost(url, payload, retryNumber);
+            }
+            if (responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR
+                    && retryNumber < prefHelper.getRetryCount() && waitBeforeRetry(prefHelper.getRetryInterval())) {
                 retryNumber++;
                 return doRestfulPost(url, payload, retryNumber);
             } else {
                 BranchResponse result;
                 try {
-                    if (responseCode != HttpsURLConnection.HTTP_OK && connection.getErrorStream() != null) {
-                        result = new BranchResponse(getResponseString(connection.getErrorStream()), responseCode);
+                    if (responseCode != HttpURLConnection.HTTP_OK && connection.getErrorStream() != null) {
+                        result = new BranchResponse(readResponse(connection, connection.getErrorStream(), wireFormat), responseCode);
                     } else {
-                        result = new BranchResponse(getResponseString(connection.getInputStream()), responseCode);
+                        result = new BranchResponse(readResponse(connection, connection.getInputStream(), wireFormat), responseCode);
                     }
                 } catch (FileNotFoundException ex) {
                     // In case of Resource conflict getInputStream will throw FileNotFoundException. Handle it here in order to send the right status code
@@ -182,12 +201,7 @@ public class BranchRemoteInterfaceUrlConnection extends BranchRemoteInterface {
 
         } catch (SocketTimeoutException ex) {
             // On socket  time out retry the request for retryNumber of times
-            if (retryNumber < prefHelper.getRetryCount()) {
-                try {
-                    Thread.sleep(prefHelper.getRetryInterval());
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+            if (retryNumber < prefHelper.getRetryCount() && waitBeforeRetry(prefHelper.getRetryInterval())) {
                 retryNumber++;
                 return doRestfulPost(url, payload, retryNumber);
             } else {
@@ -204,22 +218,32 @@ public class BranchRemoteInterfaceUrlConnection extends BranchRemoteInterface {
             }
             return new BranchResponse(null, 500);
         } finally {
+            setOnCancelListener(null);
             if (connection != null) {
                 connection.disconnect();
             }
         }
     }
 
-    private void maybeSetCloseRequestFlag(HttpsURLConnection connection) {
-        // technically only open/install events should have this header, but this method is called with
-        // every request and, by default, "X-Branch-Send-Close-Request" header is not added to the response.
-        // Note that, even if it gets added, we do not reset the `branch.closeRequestNeeded` flag if it has been set to `true`
-        // at least once during this session already. The flag will be reset in `executeClose()` where we potentially call v1/close.
-        // In the case of intra-app linking, this means that we will close session after the last v1/open event.
-        @Nullable String maybeHeaderVal =  connection.getHeaderField(Defines.HeaderKey.SendCloseRequest.getKey());
-        if (maybeHeaderVal != null && !branch.closeRequestNeeded) {
-            branch.closeRequestNeeded = Boolean.parseBoolean(maybeHeaderVal);
+    private static void disconnectOnCancel(final HttpURLConnection connection) {
+        setOnCancelListener(new Runnable() {
+            @Override
+            public void run() {
+                // Closes the socket, which unblocks the thread reading from it
+                connection.disconnect();
+            }
+        });
+    }
+
+    private void maybeSetCloseRequestFlag(HttpURLConnection connection) {
+        updateCloseRequestFlag(branch, connection.getHeaderField(Defines.HeaderKey.SendCloseRequest.getKey()));
+    }
+
+    private String readResponse(HttpURLConnection connection, InputStream inputStream, CompactWireFormat wireFormat) {
+        if (wireFormat != null && CompactWireFormat.isCompact(connection.getContentType())) {
+            return wireFormat.readResponse(connection.getHeaderField(CompactWireFormat.HEADER_KEY_DICTIONARY), inputStream);
         }
+        return getResponseString(inputStream);
     }
 
     private String getResponseString(InputStream inputStream) {
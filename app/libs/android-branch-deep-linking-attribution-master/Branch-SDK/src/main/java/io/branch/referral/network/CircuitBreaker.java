@@ -0,0 +1,203 @@
+package io.branch.referral.network;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.branch.referral.PrefHelper;
+import io.branch.referral.SessionTracer;
+
+/**
+ * <p>
+ * Circuit breaker for the Branch API, tracked per endpoint. An endpoint is closed while it
+ * works. After {@link #DEFAULT_FAILURE_THRESHOLD} consecutive server errors or timeouts it opens,
+ * and requests to it fail fast instead of going through the network layer with all its retries
+ * and timeouts. Once the open period has passed it is half-open: a single trial request is let
+ * through, closing the endpoint if it succeeds and opening it again for twice as long, up to
+ * {@link #DEFAULT_MAX_OPEN_MILLIS}, if it fails.
+ * </p>
+ * <p>
+ * Connectivity errors say nothing about the health of the API, so they neither open nor close an
+ * endpoint. State transitions are counted, see {@link #getTransitionCount(State)}, and the time
+ * each endpoint spends open is recorded as a "circuit open" span by {@link SessionTracer}.
+ * </p>
+ */
+public class CircuitBreaker {
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_OPEN_MILLIS = 30000;
+    public static final long DEFAULT_MAX_OPEN_MILLIS = 300000;
+
+    public enum State {
+        /** Requests go through. */
+        CLOSED,
+        /** Requests fail fast until the open period has passed. */
+        OPEN,
+        /** A single trial request probes whether the endpoint recovered. */
+        HALF_OPEN
+    }
+
+    private final int failureThreshold_;
+    private final long openMillis_;
+    private final long maxOpenMillis_;
+    private final Map<String, Circuit> circuits_ = new HashMap<>();
+    private final Map<State, Integer> transitions_ = new EnumMap<>(State.class);
+    private int rejectedCount_;
+
+    private static class Circuit {
+        State state = State.CLOSED;
+        int consecutiveFailures;
+        long openMillis;
+        long openUntil;
+        boolean trialInFlight;
+        long openTraceStart;
+    }
+
+    public CircuitBreaker() {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS, DEFAULT_MAX_OPEN_MILLIS);
+    }
+
+    /**
+     * @param failureThreshold Consecutive failures opening an endpoint.
+     * @param openMillis       How long an endpoint stays open the first time, in milliseconds.
+     * @param maxOpenMillis    Longest open period after repeatedly failed trials, in milliseconds.
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis, long maxOpenMillis) {
+        failureThreshold_ = Math.max(1, failureThreshold);
+        openMillis_ = Math.max(0, openMillis);
+        maxOpenMillis_ = Math.max(openMillis_, maxOpenMillis);
+    }
+
+    /**
+     * @param endpoint The endpoint url, without query.
+     * @return True if a request to the endpoint may be sent. A request allowed while half-open is
+     * the trial request and must be followed by a call to {@link #onSuccess(String)},
+     * {@link #onFailure(String)} or {@link #onInconclusive(String)}.
+     */
+    public synchronized boolean allowRequest(String endpoint) {
+        Circuit circuit = circuits_.get(endpoint);
+        if (circuit == null || circuit.state == State.CLOSED) {
+            return true;
+        }
+        if (circuit.state == State.OPEN && now() - circuit.openUntil >= 0) {
+            transition(endpoint, circuit, State.HALF_OPEN);
+        }
+        if (circuit.state == State.HALF_OPEN && !circuit.trialInFlight) {
+            circuit.trialInFlight = true;
+            return true;
+        }
+        rejectedCount_++;
+        return false;
+    }
+
+    /**
+     * @return Milliseconds until a request to the endpoint may be sent, 0 if it may be sent now.
+     */
+    public synchronized long getRetryDelay(String endpoint) {
+        Circuit circuit = circuits_.get(endpoint);
+        if (circuit == null || circuit.state == State.CLOSED) {
+            return 0;
+        } else if (circuit.state == State.OPEN) {
+            return Math.max(0, circuit.openUntil - now());
+        } else {
+            // The outcome of the trial decides, check again after a short while
+            return circuit.trialInFlight ? Math.min(openMillis_, 1000) : 0;
+        }
+    }
+
+    /**
+     * Reports a response from the endpoint other than a server error.
+     */
+    public synchronized void onSuccess(String endpoint) {
+        Circuit circuit = circuits_.get(endpoint);
+        if (circuit == null) {
+            return;
+        }
+        circuit.consecutiveFailures = 0;
+        circuit.trialInFlight = false;
+        if (circuit.state != State.CLOSED) {
+            transition(endpoint, circuit, State.CLOSED);
+            SessionTracer.end("circuit open", endpoint, circuit.openTraceStart);
+        }
+        circuits_.remove(endpoint);
+    }
+
+    /**
+     * Reports a server error or timeout from the endpoint.
+     */
+    public synchronized void onFailure(String endpoint) {
+        Circuit circuit = circuits_.get(endpoint);
+        if (circuit == null) {
+            circuit = new Circuit();
+            circuits_.put(endpoint, circuit);
+        }
+        circuit.consecutiveFailures++;
+        if (circuit.state == State.HALF_OPEN) {
+            // The trial failed, back off longer before the next one
+            circuit.trialInFlight = false;
+            open(endpoint, circuit, Math.min(maxOpenMillis_, circuit.openMillis * 2));
+        } else if (circuit.state == State.CLOSED && circuit.consecutiveFailures >= failureThreshold_) {
+            circuit.openTraceStart = SessionTracer.begin();
+            open(endpoint, circuit, openMillis_);
+        }
+    }
+
+    /**
+     * Reports a request that did not reach the endpoint, e.g. without connectivity. A trial
+     * request ending this way is given up, so another request can probe the endpoint.
+     */
+    public synchronized void onInconclusive(String endpoint) {
+        Circuit circuit = circuits_.get(endpoint);
+        if (circuit != null) {
+            circuit.trialInFlight = false;
+        }
+    }
+
+    private void open(String endpoint, Circuit circuit, long openMillis) {
+        circuit.openMillis = openMillis;
+        circuit.openUntil = now() + openMillis;
+        transition(endpoint, circuit, State.OPEN);
+    }
+
+    private void transition(String endpoint, Circuit circuit, State state) {
+        PrefHelper.Debug("Circuit for " + endpoint + " " + circuit.state + " -> " + state);
+        circuit.state = state;
+        Integer count = transitions_.get(state);
+        transitions_.put(state, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * @return The state of the endpoint.
+     */
+    public synchronized State getState(String endpoint) {
+        Circuit circuit = circuits_.get(endpoint);
+        return circuit == null ? State.CLOSED : circuit.state;
+    }
+
+    /**
+     * @return How many times any endpoint changed to the given state.
+     */
+    public synchronized int getTransitionCount(State state) {
+        Integer count = transitions_.get(state);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * @return How many requests failed fast since their endpoint was open.
+     */
+    public synchronized int getRejectedCount() {
+        return rejectedCount_;
+    }
+
+    /**
+     * @return The endpoint key of a request url, the url without its query.
+     */
+    public static String getEndpoint(String url) {
+        int query = url.indexOf('?');
+        return query >= 0 ? url.substring(0, query) : url;
+    }
+
+    // Package Private, for Unit Testing
+    long now() {
+        return System.nanoTime() / 1000000;
+    }
+}
@@ -0,0 +1,430 @@
+package io.branch.referral.network;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import io.branch.referral.Defines;
+import io.branch.referral.PrefHelper;
+
+/**
+ * <p>
+ * Compact binary wire format for the Branch API, CBOR (RFC 8949) with a key dictionary. Keys of
+ * {@link Defines.Jsonkey} are encoded as their index in the dictionary instead of as text, other
+ * keys and all values are encoded as their CBOR counterparts. The dictionary is identified by a
+ * checksum of its keys, sent in {@link #HEADER_KEY_DICTIONARY}, so client and server only use the
+ * format while they share the same dictionary.
+ * </p>
+ * <p>
+ * The format is negotiated. Requests are sent as JSON and advertise the format in their Accept
+ * header. Once the server answers in the format with the same dictionary, request bodies are sent
+ * in it as well. If the server rejects a request in the format with 415 Unsupported Media Type, or
+ * sends a response that can not be decoded, the transport falls back to JSON for good.
+ * </p>
+ */
+public class CompactWireFormat {
+    public static final String CONTENT_TYPE = "application/cbor";
+    public static final String JSON_CONTENT_TYPE = "application/json";
+    public static final String HEADER_KEY_DICTIONARY = "X-Branch-Key-Dictionary";
+    public static final int HTTP_UNSUPPORTED_MEDIA_TYPE = 415;
+
+    private static final String ACCEPT_COMPACT = CONTENT_TYPE + ", " + JSON_CONTENT_TYPE + ";q=0.9";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1;
+    private static final int MAJOR_BYTES = 2;
+    private static final int MAJOR_TEXT = 3;
+    private static final int MAJOR_ARRAY = 4;
+    private static final int MAJOR_MAP = 5;
+    private static final int MAJOR_SIMPLE = 7;
+    private static final int SIMPLE_FALSE = 20;
+    private static final int SIMPLE_TRUE = 21;
+    private static final int SIMPLE_NULL = 22;
+    private static final int SIMPLE_UNDEFINED = 23;
+    private static final int FLOAT_16 = 25;
+    private static final int FLOAT_32 = 26;
+    private static final int FLOAT_64 = 27;
+    // Nesting deeper than any Branch payload, guards the decoder against malformed input
+    private static final int MAX_DEPTH = 64;
+
+    private static final String[] DICTIONARY;
+    private static final Map<String, Integer> DICTIONARY_INDEX = new HashMap<>();
+    private static final String DICTIONARY_ID;
+
+    static {
+        Defines.Jsonkey[] keys = Defines.Jsonkey.values();
+        DICTIONARY = new String[keys.length];
+        CRC32 checksum = new CRC32();
+        for (int i = 0; i < keys.length; i++) {
+            DICTIONARY[i] = keys[i].getKey();
+            if (!DICTIONARY_INDEX.containsKey(DICTIONARY[i])) {
+                DICTIONARY_INDEX.put(DICTIONARY[i], i);
+            }
+            checksum.update((DICTIONARY[i] + '\n').getBytes(UTF_8));
+        }
+        DICTIONARY_ID = String.format(Locale.US, "%d-%08x", DICTIONARY.length, checksum.getValue());
+    }
+
+    private enum State {
+        /** The server has not answered in the format yet, requests are sent as JSON. */
+        OFFERED,
+        /** The server answered in the format, requests are sent in it. */
+        ACCEPTED,
+        /** The server does not support the format, it is no longer offered. */
+        REJECTED
+    }
+
+    private volatile State state_ = State.OFFERED;
+
+    /**
+     * @return The id of the key dictionary, to send in {@link #HEADER_KEY_DICTIONARY}.
+     */
+    public static String getDictionaryId() {
+        return DICTIONARY_ID;
+    }
+
+    /**
+     * @return The value of the Accept header for requests.
+     */
+    public String getAcceptHeader() {
+        return state_ == State.REJECTED ? JSON_CONTENT_TYPE : ACCEPT_COMPACT;
+    }
+
+    /**
+     * @return True if request bodies are to be sent in the format.
+     */
+    public boolean shouldEncodeRequests() {
+        return state_ == State.ACCEPTED;
+    }
+
+    /**
+     * @return True if the content type is the one of the format.
+     */
+    public static boolean isCompact(String contentType) {
+        return contentType != null && contentType.toLowerCase(Locale.US).startsWith(CONTENT_TYPE);
+    }
+
+    /**
+     * Reads a response in the format and converts it to JSON text.
+     *
+     * @param dictionaryId The {@link #HEADER_KEY_DICTIONARY} of the response.
+     * @param body         The response body.
+     * @return The response as JSON text, or null if it could not be decoded. The format is no
+     * longer used then.
+     */
+    public String readResponse(String dictionaryId, InputStream body) {
+        try {
+            if (!DICTIONARY_ID.equals(dictionaryId)) {
+                throw new JSONException("Unknown key dictionary " + dictionaryId);
+            }
+            String json = decode(readFully(body)).toString();
+            if (state_ == State.OFFERED) {
+                PrefHelper.Debug("Server accepted the compact wire format");
+                state_ = State.ACCEPTED;
+            }
+            return json;
+        } catch (IOException | JSONException e) {
+            PrefHelper.Debug("Unable to read compact response, falling back to JSON: " + e.getMessage());
+            state_ = State.REJECTED;
+            return null;
+        }
+    }
+
+    /**
+     * Reports that the server rejected a request in the format, the request is to be sent again as
+     * JSON.
+     */
+    public void onRejected() {
+        PrefHelper.Debug("Server rejected the compact wire format, falling back to JSON");
+        state_ = State.REJECTED;
+    }
+
+    //------------------------ Encoding ------------------------//
+
+    /**
+     * @return The object encoded in the format.
+     */
+    public static byte[] encode(JSONObject object) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        writeObject(out, object);
+        return out.toByteArray();
+    }
+
+    private static void writeObject(ByteArrayOutputStream out, JSONObject object) {
+        writeHead(out, MAJOR_MAP, object.length());
+        Iterator<String> keys = object.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            Integer index = DICTIONARY_INDEX.get(key);
+            if (index != null) {
+                writeHead(out, MAJOR_UNSIGNED, index);
+            } else {
+                writeText(out, key);
+            }
+            writeValue(out, object.opt(key));
+        }
+    }
+
+    private static void writeValue(ByteArrayOutputStream out, Object value) {
+        if (value == null || value == JSONObject.NULL) {
+            out.write(MAJOR_SIMPLE << 5 | SIMPLE_NULL);
+        } else if (value instanceof JSONObject) {
+            writeObject(out, (JSONObject) value);
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            writeHead(out, MAJOR_ARRAY, array.length());
+            for (int i = 0; i < array.length(); i++) {
+                writeValue(out, array.opt(i));
+            }
+        } else if (value instanceof Boolean) {
+            out.write(MAJOR_SIMPLE << 5 | ((Boolean) value ? SIMPLE_TRUE : SIMPLE_FALSE));
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            writeInteger(out, ((Number) value).longValue());
+        } else if (value instanceof BigInteger && ((BigInteger) value).bitLength() < 64) {
+            writeInteger(out, ((BigInteger) value).longValue());
+        } else if (value instanceof BigDecimal && isLong((BigDecimal) value)) {
+            writeInteger(out, ((BigDecimal) value).longValue());
+        } else if (value instanceof Number) {
+            writeDouble(out, ((Number) value).doubleValue());
+        } else {
+            writeText(out, value.toString());
+        }
+    }
+
+    private static boolean isLong(BigDecimal value) {
+        try {
+            value.longValueExact();
+            return true;
+        } catch (ArithmeticException e) {
+            return false;
+        }
+    }
+
+    private static void writeInteger(ByteArrayOutputStream out, long value) {
+        if (value >= 0) {
+            writeHead(out, MAJOR_UNSIGNED, value);
+        } else {
+            writeHead(out, MAJOR_NEGATIVE, -1 - value);
+        }
+    }
+
+    private static void writeDouble(ByteArrayOutputStream out, double value) {
+        float single = (float) value;
+        if (single == value || Double.isNaN(value)) {
+            out.write(MAJOR_SIMPLE << 5 | FLOAT_32);
+            writeBytes(out, Float.floatToIntBits(single), 4);
+        } else {
+            out.write(MAJOR_SIMPLE << 5 | FLOAT_64);
+            writeBytes(out, Double.doubleToLongBits(value), 8);
+        }
+    }
+
+    private static void writeText(ByteArrayOutputStream out, String text) {
+        byte[] bytes = text.getBytes(UTF_8);
+        writeHead(out, MAJOR_TEXT, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static void writeHead(ByteArrayOutputStream out, int majorType, long value) {
+        int major = majorType << 5;
+        if (value < 24) {
+            out.write(major | (int) value);
+        } else if (value <= 0xff) {
+            out.write(major | 24);
+            out.write((int) value);
+        } else if (value <= 0xffff) {
+            out.write(major | 25);
+            writeBytes(out, value, 2);
+        } else if (value <= 0xffffffffL) {
+            out.write(major | 26);
+            writeBytes(out, value, 4);
+        } else {
+            out.write(major | 27);
+            writeBytes(out, value, 8);
+        }
+    }
+
+    private static void writeBytes(ByteArrayOutputStream out, long value, int count) {
+        for (int shift = (count - 1) * 8; shift >= 0; shift -= 8) {
+            out.write((int) (value >>> shift) & 0xff);
+        }
+    }
+
+    //------------------------ Decoding ------------------------//
+
+    /**
+     * @return The object decoded from the format.
+     * @throws JSONException if the data is not an object in the format.
+     */
+    public static JSONObject decode(byte[] data) throws JSONException {
+        Reader reader = new Reader(data);
+        Object value = reader.readValue(0);
+        if (!(value instanceof JSONObject) || reader.position != data.length) {
+            throw new JSONException("Compact data is not a single object");
+        }
+        return (JSONObject) value;
+    }
+
+    private static class Reader {
+        final byte[] data;
+        int position;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        Object readValue(int depth) throws JSONException {
+            if (depth > MAX_DEPTH) {
+                throw new JSONException("Compact data nested too deep");
+            }
+            int initial = readByte();
+            int majorType = initial >>> 5;
+            int additional = initial & 0x1f;
+            if (majorType == MAJOR_SIMPLE) {
+                return readSimple(additional);
+            }
+            long argument = readArgument(additional);
+            switch (majorType) {
+                case MAJOR_UNSIGNED:
+                    return toNumber(argument);
+                case MAJOR_NEGATIVE:
+                    return toNumber(-1 - argument);
+                case MAJOR_TEXT:
+                    return readText(argument);
+                case MAJOR_ARRAY:
+                    JSONArray array = new JSONArray();
+                    for (long i = 0; i < argument; i++) {
+                        array.put(readValue(depth + 1));
+                    }
+                    return array;
+                case MAJOR_MAP:
+                    JSONObject object = new JSONObject();
+                    for (long i = 0; i < argument; i++) {
+                        object.put(readKey(), readValue(depth + 1));
+                    }
+                    return object;
+                default:
+                    // Byte strings and tags are not used by the Branch API
+                    throw new JSONException("Unsupported compact major type " + majorType);
+            }
+        }
+
+        String readKey() throws JSONException {
+            int initial = readByte();
+            long argument = readArgument(initial & 0x1f);
+            if (initial >>> 5 == MAJOR_UNSIGNED) {
+                if (argument >= DICTIONARY.length) {
+                    throw new JSONException("Unknown dictionary key " + argument);
+                }
+                return DICTIONARY[(int) argument];
+            } else if (initial >>> 5 == MAJOR_TEXT) {
+                return readText(argument);
+            }
+            throw new JSONException("Unsupported compact key type " + (initial >>> 5));
+        }
+
+        Object readSimple(int additional) throws JSONException {
+            switch (additional) {
+                case SIMPLE_FALSE:
+                    return Boolean.FALSE;
+                case SIMPLE_TRUE:
+                    return Boolean.TRUE;
+                case SIMPLE_NULL:
+                case SIMPLE_UNDEFINED:
+                    return JSONObject.NULL;
+                case FLOAT_16:
+                    return halfToDouble((int) readBytes(2));
+                case FLOAT_32:
+                    return (double) Float.intBitsToFloat((int) readBytes(4));
+                case FLOAT_64:
+                    return Double.longBitsToDouble(readBytes(8));
+                default:
+                    throw new JSONException("Unsupported compact simple value " + additional);
+            }
+        }
+
+        long readArgument(int additional) throws JSONException {
+            if (additional < 24) {
+                return additional;
+            } else if (additional <= 27) {
+                long value = readBytes(1 << (additional - 24));
+                if (value < 0) {
+                    throw new JSONException("Compact length out of range");
+                }
+                return value;
+            }
+            // Indefinite lengths are not used by the Branch API
+            throw new JSONException("Unsupported compact length " + additional);
+        }
+
+        String readText(long length) throws JSONException {
+            if (length > data.length - position) {
+                throw new JSONException("Compact data truncated");
+            }
+            String text = new String(data, position, (int) length, UTF_8);
+            position += (int) length;
+            return text;
+        }
+
+        long readBytes(int count) throws JSONException {
+            long value = 0;
+            for (int i = 0; i < count; i++) {
+                value = value << 8 | readByte();
+            }
+            return value;
+        }
+
+        int readByte() throws JSONException {
+            if (position >= data.length) {
+                throw new JSONException("Compact data truncated");
+            }
+            return data[position++] & 0xff;
+        }
+
+        static Object toNumber(long value) {
+            if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                return (int) value;
+            }
+            return value;
+        }
+
+        static double halfToDouble(int half) {
+            int exponent = (half >> 10) & 0x1f;
+            int mantissa = half & 0x3ff;
+            double value;
+            if (exponent == 0) {
+                value = mantissa * Math.pow(2, -24);
+            } else if (exponent == 31) {
+                value = mantissa == 0 ? Double.POSITIVE_INFINITY : Double.NaN;
+            } else {
+                value = (mantissa + 1024) * Math.pow(2, exponent - 25);
+            }
+            return (half & 0x8000) != 0 ? -value : value;
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (in != null) {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        return out.toByteArray();
+    }
+}
@@ -2,6 +2,7 @@ package io.branch.referral.util;
 
 
 import android.content.Context;
+import androidx.annotation.NonNull;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -33,6 +34,8 @@ public class BranchEvent {
     private final JSONObject standardProperties;
     private final JSONObject customProperties;
     private final List<BranchUniversalObject> buoList;
+    // Summary of aggregated events, sent as is
+    private boolean isAggregate;
 
     /**
      * Constructor.
@@ -240,17 +243,91 @@ public class BranchEvent {
         return eventName;
     }
 
+    JSONObject getCustomProperties() {
+        return customProperties;
+    }
+
+    List<BranchUniversalObject> getContentItems() {
+        return buoList;
+    }
+
+    BranchEvent setAggregate() {
+        isAggregate = true;
+        return this;
+    }
+
+    /**
+     * <p>Aggregates the custom events of the given name locally instead of sending each one, e.g.
+     * for scroll depth, impressions or search keystrokes. The events are counted per value of the
+     * bucket properties in their custom data, and sent as one summary event per bucket with the
+     * count in the custom data property "$aggregated_count", along with the distinct content items
+     * of the events. Summaries are sent every minute and when the app goes to the background.</p>
+     *
+     * @param eventName        The name of the custom event.
+     * @param bucketProperties Names of custom data properties whose values are counted separately.
+     */
+    public static void aggregateEvents(@NonNull String eventName, String... bucketProperties) {
+        EventAggregator.getInstance().setRule(eventName, bucketProperties, null, null);
+    }
+
+    /**
+     * <p>Aggregates the custom events of the given name locally like
+     * {@link #aggregateEvents(String, String...)}, and also sends a histogram of a numeric custom
+     * data property with each summary, in "$aggregated_histogram", along with the sum, minimum and
+     * maximum of its values.</p>
+     *
+     * @param eventName        The name of the custom event.
+     * @param valueProperty    Name of the numeric custom data property, e.g. a scroll depth.
+     * @param bucketBounds     Upper bounds of the histogram buckets, e.g. {25, 50, 75, 100}. Values
+     *                         at or above the largest bound are counted in an extra bucket.
+     * @param bucketProperties Names of custom data properties whose values are counted separately.
+     */
+    public static void aggregateEvents(@NonNull String eventName, @NonNull String valueProperty, @NonNull double[] bucketBounds, String... bucketProperties) {
+        EventAggregator.getInstance().setRule(eventName, bucketProperties, valueProperty, bucketBounds);
+    }
+
+    /**
+     * <p>Sends the events of the given name one by one again, after sending the summaries of the
+     * events aggregated so far.</p>
+     *
+     * @param eventName The name of the custom event.
+     */
+    public static void stopAggregatingEvents(@NonNull String eventName) {
+        EventAggregator.getInstance().removeRule(eventName);
+    }
+
+    /**
+     * <p>Sets how often the summaries of aggregated events are sent. Defaults to 60 seconds.</p>
+     *
+     * @param flushIntervalMillis The interval in milliseconds.
+     */
+    public static void setAggregationFlushInterval(long flushIntervalMillis) {
+        EventAggregator.getInstance().setFlushInterval(flushIntervalMillis);
+    }
+
+    /**
+     * <p>Sends the summaries of the events aggregated so far right away. Called by the SDK when the
+     * app goes to the background.</p>
+     */
+    public static void flushAggregatedEvents() {
+        EventAggregator.getInstance().flush(null);
+    }
+
     /**
      * Logs this BranchEvent to Branch for tracking and analytics
      *
      * @param context Current context
-     * @return {@code true} if the event is logged to Branch
+     * @return {@code true} if the event is logged to Branch, or aggregated, see {@link #aggregateEvents(String, String...)}
      */
     public boolean logEvent(Context context) {
+        if (!isAggregate && !isStandardEvent && EventAggregator.getInstance().aggregate(this, context)) {
+            return true;
+        }
         boolean isReqQueued = false;
         Defines.RequestPath reqPath = isStandardEvent ? Defines.RequestPath.TrackStandardEvent : Defines.RequestPath.TrackCustomEvent;
-        if (Branch.getInstance() != null) {
-            Branch.getInstance().handleNewRequest(new ServerRequestLogEvent(context, reqPath));
+        Branch branch = Branch.getInstance();
+        if (branch != null) {
+            branch.handleNewRequest(new ServerRequestLogEvent(context, reqPath));
             isReqQueued = true;
         }
         return isReqQueued;
@@ -331,5 +408,21 @@ public class BranchEvent {
         public boolean shouldRetryOnFail() {
             return true; // Branch event need to be retried on failure.
         }
+
+        @Override
+        protected boolean isCompactable() {
+            return true;
+        }
+
+        @Override
+        public URGENCY getUrgency() {
+            // Custom events are not needed right away and can be batched with other requests
+            return isStandardEvent ? URGENCY.IMMEDIATE : URGENCY.DEFERRABLE;
+        }
+
+        @Override
+        public PRIORITY getPriority() {
+            return PRIORITY.BACKGROUND;
+        }
     }
 }
@@ -0,0 +1,282 @@
+package io.branch.referral.util;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.branch.indexing.BranchUniversalObject;
+import io.branch.referral.PrefHelper;
+
+/**
+ * <p>
+ * Aggregates high frequency custom events locally, e.g. scroll depth, impressions or search
+ * keystrokes, instead of sending each one. Events of the configured names are accumulated into a
+ * group per name and values of the bucket properties in their custom data. Each group counts its
+ * events, can build a histogram of a numeric custom data property, and keeps the distinct content
+ * items of its events. The groups are flushed as one summary {@link BranchEvent} each, on a timer
+ * and when the app goes to the background.
+ * </p>
+ * <p>
+ * Memory is bounded: at most {@link #MAX_GROUPS} groups are held, reaching the limit flushes them
+ * early, and each group keeps at most {@link #MAX_CONTENT_ITEMS} content items.
+ * </p>
+ */
+class EventAggregator {
+    static final int MAX_GROUPS = 64;
+    static final int MAX_CONTENT_ITEMS = 10;
+    static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 60000;
+
+    // Custom data keys of the summary events
+    static final String KEY_COUNT = "$aggregated_count";
+    static final String KEY_START = "$aggregated_start";
+    static final String KEY_END = "$aggregated_end";
+    static final String KEY_VALUE_SUM = "$aggregated_sum";
+    static final String KEY_VALUE_MIN = "$aggregated_min";
+    static final String KEY_VALUE_MAX = "$aggregated_max";
+    static final String KEY_HISTOGRAM = "$aggregated_histogram";
+
+    private static final EventAggregator instance_ = new EventAggregator();
+
+    private final Map<String, Rule> rules_ = new HashMap<>();
+    private final Map<String, Group> groups_ = new LinkedHashMap<>();
+    private long flushIntervalMillis_ = DEFAULT_FLUSH_INTERVAL_MILLIS;
+    private boolean flushScheduled_;
+    private Context context_;
+
+    private static class Rule {
+        final String[] bucketProperties;
+        final String valueProperty;
+        final double[] bucketBounds;
+
+        Rule(String[] bucketProperties, String valueProperty, double[] bucketBounds) {
+            this.bucketProperties = bucketProperties;
+            this.valueProperty = valueProperty;
+            this.bucketBounds = bucketBounds;
+        }
+    }
+
+    private static class Group {
+        final String eventName;
+        final Rule rule;
+        final String[] bucketValues;
+        final long start = System.currentTimeMillis();
+        final long[] histogram;
+        final Map<String, BranchUniversalObject> contentItems = new LinkedHashMap<>();
+        int count;
+        int valueCount;
+        double sum;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+
+        Group(String eventName, Rule rule, String[] bucketValues) {
+            this.eventName = eventName;
+            this.rule = rule;
+            this.bucketValues = bucketValues;
+            this.histogram = rule.valueProperty == null ? null : new long[rule.bucketBounds.length + 1];
+        }
+    }
+
+    static EventAggregator getInstance() {
+        return instance_;
+    }
+
+    /**
+     * @param eventName        The name of the custom event to aggregate.
+     * @param bucketProperties Custom data properties whose values get a group of their own.
+     * @param valueProperty    Numeric custom data property to build a histogram of, or null.
+     * @param bucketBounds     Ascending upper bounds of the histogram buckets, values at or above
+     *                         the last bound go into an extra bucket.
+     */
+    void setRule(String eventName, String[] bucketProperties, String valueProperty, double[] bucketBounds) {
+        double[] bounds = bucketBounds == null ? new double[0] : bucketBounds.clone();
+        Arrays.sort(bounds);
+        synchronized (this) {
+            rules_.put(eventName, new Rule(bucketProperties == null ? new String[0] : bucketProperties.clone(), valueProperty, bounds));
+        }
+        // Groups of the previous rule do not match the new one
+        flush(eventName);
+    }
+
+    void removeRule(String eventName) {
+        synchronized (this) {
+            rules_.remove(eventName);
+        }
+        flush(eventName);
+    }
+
+    synchronized void setFlushInterval(long flushIntervalMillis) {
+        flushIntervalMillis_ = Math.max(0, flushIntervalMillis);
+    }
+
+    /**
+     * Accumulates the event if its name is aggregated.
+     *
+     * @return True if the event has been aggregated and must not be sent.
+     */
+    boolean aggregate(BranchEvent event, Context context) {
+        boolean flushNow = false;
+        boolean scheduleFlush = false;
+        long flushInterval;
+        synchronized (this) {
+            Rule rule = rules_.get(event.getEventName());
+            if (rule == null) {
+                return false;
+            }
+            if (context != null) {
+                context_ = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+            }
+            JSONObject customData = event.getCustomProperties();
+            String[] bucketValues = new String[rule.bucketProperties.length];
+            StringBuilder key = new StringBuilder(event.getEventName());
+            for (int i = 0; i < bucketValues.length; i++) {
+                bucketValues[i] = customData.optString(rule.bucketProperties[i], null);
+                key.append('\n').append(bucketValues[i]);
+            }
+            Group group = groups_.get(key.toString());
+            if (group == null) {
+                group = new Group(event.getEventName(), rule, bucketValues);
+                groups_.put(key.toString(), group);
+                flushNow = groups_.size() >= MAX_GROUPS;
+            }
+            add(group, event, customData);
+            flushInterval = flushIntervalMillis_;
+            if (!flushNow && !flushScheduled_) {
+                flushScheduled_ = true;
+                scheduleFlush = true;
+            }
+        }
+        if (flushNow) {
+            PrefHelper.Debug("Flushing aggregated events early, " + MAX_GROUPS + " groups held");
+            flush(null);
+        } else if (scheduleFlush) {
+            scheduleFlush(flushInterval);
+        }
+        return true;
+    }
+
+    private static void add(Group group, BranchEvent event, JSONObject customData) {
+        group.count++;
+        if (group.histogram != null && customData.has(group.rule.valueProperty)) {
+            try {
+                double value = Double.parseDouble(customData.optString(group.rule.valueProperty));
+                int bucket = 0;
+                while (bucket < group.rule.bucketBounds.length && value >= group.rule.bucketBounds[bucket]) {
+                    bucket++;
+                }
+                group.histogram[bucket]++;
+                group.valueCount++;
+                group.sum += value;
+                group.min = Math.min(group.min, value);
+                group.max = Math.max(group.max, value);
+            } catch (NumberFormatException ignore) {
+            }
+        }
+        for (BranchUniversalObject contentItem : event.getContentItems()) {
+            String canonicalIdentifier = contentItem.getCanonicalIdentifier();
+            if (group.contentItems.size() >= MAX_CONTENT_ITEMS) {
+                break;
+            }
+            if (canonicalIdentifier != null && !group.contentItems.containsKey(canonicalIdentifier)) {
+                group.contentItems.put(canonicalIdentifier, contentItem);
+            }
+        }
+    }
+
+    /**
+     * Sends a summary event for each group of the event name, or of all event names if null.
+     */
+    void flush(String eventName) {
+        List<Group> flushed = new ArrayList<>();
+        Context context;
+        synchronized (this) {
+            Iterator<Group> groups = groups_.values().iterator();
+            while (groups.hasNext()) {
+                Group group = groups.next();
+                if (eventName == null || eventName.equals(group.eventName)) {
+                    flushed.add(group);
+                    groups.remove();
+                }
+            }
+            context = context_;
+        }
+        for (Group group : flushed) {
+            send(createSummary(group), context);
+        }
+    }
+
+    private static BranchEvent createSummary(Group group) {
+        BranchEvent summary = new BranchEvent(group.eventName).setAggregate();
+        for (int i = 0; i < group.bucketValues.length; i++) {
+            if (group.bucketValues[i] != null) {
+                summary.addCustomDataProperty(group.rule.bucketProperties[i], group.bucketValues[i]);
+            }
+        }
+        summary.addCustomDataProperty(KEY_COUNT, String.valueOf(group.count));
+        summary.addCustomDataProperty(KEY_START, String.valueOf(group.start));
+        summary.addCustomDataProperty(KEY_END, String.valueOf(System.currentTimeMillis()));
+        if (group.histogram != null && group.valueCount > 0) {
+            summary.addCustomDataProperty(KEY_VALUE_SUM, String.valueOf(group.sum));
+            summary.addCustomDataProperty(KEY_VALUE_MIN, String.valueOf(group.min));
+            summary.addCustomDataProperty(KEY_VALUE_MAX, String.valueOf(group.max));
+            try {
+                JSONObject histogram = new JSONObject();
+                histogram.put("property", group.rule.valueProperty);
+                JSONArray bounds = new JSONArray();
+                for (double bound : group.rule.bucketBounds) {
+                    bounds.put(bound);
+                }
+                histogram.put("bounds", bounds);
+                JSONArray counts = new JSONArray();
+                for (long count : group.histogram) {
+                    counts.put(count);
+                }
+                histogram.put("counts", counts);
+                summary.addCustomDataProperty(KEY_HISTOGRAM, histogram.toString());
+            } catch (JSONException ignore) {
+            }
+        }
+        summary.addContentItems(new ArrayList<>(group.contentItems.values()));
+        return summary;
+    }
+
+    // Package Private, for Unit Testing
+    void send(BranchEvent summary, Context context) {
+        if (context != null) {
+            summary.logEvent(context);
+        }
+    }
+
+    // Package Private, for Unit Testing
+    void scheduleFlush(long delay) {
+        new Handler(Looper.getMainLooper()).postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                onFlushTimer();
+            }
+        }, delay);
+    }
+
+    void onFlushTimer() {
+        synchronized (this) {
+            flushScheduled_ = false;
+        }
+        flush(null);
+    }
+
+    // For Unit Testing
+    synchronized int getGroupCount() {
+        return groups_.size();
+    }
+}
@@ -0,0 +1,109 @@
+package io.branch.referral;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+@RunWith(JUnit4.class)
+public class AutoDeepLinkIndexTest {
+
+    @Test
+    public void testFirstMatchingActivityWins() throws Exception {
+        List<AutoDeepLinkIndex.Route> routes = new ArrayList<>();
+        routes.add(new AutoDeepLinkIndex.Route("ProductActivity", null, "products/*, products/*/reviews", 1));
+        routes.add(new AutoDeepLinkIndex.Route("OfferActivity", "offer_id,coupon", null, 2));
+        routes.add(new AutoDeepLinkIndex.Route("ShoesActivity", "product_id", "products/shoes", 3));
+        AutoDeepLinkIndex index = new AutoDeepLinkIndex(false, routes);
+
+        Assert.assertEquals("ProductActivity", resolve(index, new JSONObject().put("$deeplink_path", "products/shoes")));
+        Assert.assertEquals("ProductActivity", resolve(index, new JSONObject().put("$deeplink_path", "products/42/reviews?sort=new")));
+        Assert.assertNull(resolve(index, new JSONObject().put("$deeplink_path", "products/42/reviews/1")));
+        Assert.assertEquals("OfferActivity", resolve(index, new JSONObject().put("coupon", "X").put("product_id", "1")));
+        Assert.assertEquals(3, index.resolve(new JSONObject().put("product_id", "1")).requestCode);
+        // The Android specific path takes precedence over the generic one
+        Assert.assertNull(resolve(index, new JSONObject().put("$android_deeplink_path", "other").put("$deeplink_path", "products/1")));
+        Assert.assertNull(resolve(index, new JSONObject()));
+    }
+
+    @Test
+    public void testMatchesLinearScan() throws Exception {
+        Random random = new Random(11);
+        String[] segments = {"products", "offers", "42", "shoes", "*", "id*", "", "reviews"};
+        List<AutoDeepLinkIndex.Route> routes = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            String keys = random.nextInt(3) == 0 ? null : "key_" + random.nextInt(300) + ",key_" + random.nextInt(300);
+            String paths = random.nextInt(3) == 0 ? null : randomPath(random, segments) + ", " + randomPath(random, segments);
+            routes.add(new AutoDeepLinkIndex.Route("Activity" + i, keys == null && paths == null ? "key_" + i : keys, paths, i));
+        }
+        AutoDeepLinkIndex index = AutoDeepLinkIndex.fromJSON(new AutoDeepLinkIndex(false, routes).toJSON());
+        int pathMatches = 0;
+        for (int i = 0; i < 2000; i++) {
+            String path = randomPath(random, segments).replace("*", "x") + (random.nextBoolean() ? "?q=1" : "");
+            JSONObject params = new JSONObject().put("key_" + random.nextInt(600), true).put("$deeplink_path", path);
+            Assert.assertEquals(params.toString(), linearScan(routes, params), resolve(index, params));
+            JSONObject pathOnly = new JSONObject().put("$deeplink_path", path);
+            String expected = linearScan(routes, pathOnly);
+            Assert.assertEquals(path, expected, resolve(index, pathOnly));
+            if (expected != null) {
+                pathMatches++;
+            }
+        }
+        Assert.assertTrue(pathMatches > 100);
+    }
+
+    static String linearScan(List<AutoDeepLinkIndex.Route> routes, JSONObject params) throws Exception {
+        // The manifest scan the index replaces
+        for (AutoDeepLinkIndex.Route route : routes) {
+            if (route.linkKeys != null) {
+                for (String linkKey : route.linkKeys.split(",")) {
+                    if (params.has(linkKey)) {
+                        return route.activityName;
+                    }
+                }
+            }
+            String deepLinkPath = params.has("$android_deeplink_path") ? params.getString("$android_deeplink_path")
+                    : params.has("$deeplink_path") ? params.getString("$deeplink_path") : null;
+            if (route.linkPaths != null && deepLinkPath != null) {
+                for (String linkPath : route.linkPaths.split(",")) {
+                    if (pathMatch(linkPath.trim(), deepLinkPath)) {
+                        return route.activityName;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean pathMatch(String templatePath, String path) {
+        String[] pathSegmentsTemplate = templatePath.split("\\?")[0].split("/");
+        String[] pathSegmentsTarget = path.split("\\?")[0].split("/");
+        if (pathSegmentsTemplate.length != pathSegmentsTarget.length) {
+            return false;
+        }
+        for (int i = 0; i < pathSegmentsTemplate.length; i++) {
+            if (!pathSegmentsTemplate[i].equals(pathSegmentsTarget[i]) && !pathSegmentsTemplate[i].contains("*")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String randomPath(Random random, String[] segments) {
+        StringBuilder path = new StringBuilder(segments[random.nextInt(segments.length)]);
+        for (int i = random.nextInt(4); i > 0; i--) {
+            path.append('/').append(segments[random.nextInt(segments.length)]);
+        }
+        return path.toString();
+    }
+
+    private static String resolve(AutoDeepLinkIndex index, JSONObject params) {
+        AutoDeepLinkIndex.Route route = index.resolve(params);
+        return route == null ? null : route.activityName;
+    }
+}
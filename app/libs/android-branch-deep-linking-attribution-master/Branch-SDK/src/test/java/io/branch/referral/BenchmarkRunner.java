@@ -0,0 +1,170 @@
+package io.branch.referral;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Minimal micro benchmark harness for running SDK hot paths on the JVM.
+ * <p>
+ * Each benchmark is warmed up, then timed over a number of samples. Results are collected into a
+ * machine readable JSON report that can be compared between runs. Benchmarks only run when the
+ * {@code branch.benchmark} system property is true ({@code ./gradlew testDebugUnitTest -Pbenchmark}),
+ * so regular unit test runs are unaffected.
+ * </p>
+ */
+class BenchmarkRunner {
+    static final String ENABLED_PROPERTY = "branch.benchmark";
+    static final String REPORT_DIR_PROPERTY = "branch.benchmark.report";
+    private static final String DEFAULT_REPORT_DIR = "build/reports/benchmarks";
+
+    /**
+     * A unit of work to be measured. Return a value derived from the work so it can not be
+     * optimised away.
+     */
+    interface Operation {
+        Object run() throws Exception;
+    }
+
+    private final String suite;
+    private final int warmupIterations;
+    private final int samples;
+    private final JSONArray results = new JSONArray();
+    // Prevents the JIT from eliminating the benchmarked work
+    private volatile int sink;
+
+    BenchmarkRunner(String suite) {
+        this(suite, 2000, 5000);
+    }
+
+    BenchmarkRunner(String suite, int warmupIterations, int samples) {
+        this.suite = suite;
+        this.warmupIterations = warmupIterations;
+        this.samples = samples;
+    }
+
+    static boolean isEnabled() {
+        return Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "false"));
+    }
+
+    /**
+     * Warms up and measures the given operation, records the result and returns it.
+     *
+     * @param name      Name of the benchmark in the report.
+     * @param operation {@link Operation} to measure.
+     * @return {@link JSONObject} with the recorded statistics.
+     */
+    JSONObject measure(String name, Operation operation) throws Exception {
+        return measure(name, samples, operation);
+    }
+
+    JSONObject measure(String name, int sampleCount, Operation operation) throws Exception {
+        for (int i = 0; i < warmupIterations; i++) {
+            consume(operation.run());
+        }
+        long[] timings = new long[sampleCount];
+        for (int i = 0; i < sampleCount; i++) {
+            long start = System.nanoTime();
+            Object result = operation.run();
+            timings[i] = System.nanoTime() - start;
+            consume(result);
+        }
+        return record(name, timings);
+    }
+
+    /**
+     * Records externally collected timings, e.g. from concurrent or one shot measurements.
+     *
+     * @param name    Name of the benchmark in the report.
+     * @param timings Sample timings in nanoseconds.
+     * @return {@link JSONObject} with the recorded statistics.
+     */
+    JSONObject record(String name, long[] timings) throws JSONException {
+        long[] sorted = timings.clone();
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long timing : sorted) {
+            total += timing;
+        }
+        double mean = sorted.length == 0 ? 0 : (double) total / sorted.length;
+
+        JSONObject result = new JSONObject();
+        result.put("name", name);
+        result.put("samples", sorted.length);
+        result.put("mean_ns", mean);
+        result.put("min_ns", sorted.length == 0 ? 0 : sorted[0]);
+        result.put("p50_ns", percentile(sorted, 50));
+        result.put("p90_ns", percentile(sorted, 90));
+        result.put("p99_ns", percentile(sorted, 99));
+        result.put("max_ns", sorted.length == 0 ? 0 : sorted[sorted.length - 1]);
+        result.put("ops_per_sec", mean == 0 ? 0 : 1e9 / mean);
+        results.put(result);
+        System.out.println(String.format("[benchmark] %s.%s mean=%.0fns p50=%dns p99=%dns",
+                suite, name, mean, percentile(sorted, 50), percentile(sorted, 99)));
+        return result;
+    }
+
+    /**
+     * Adds a free form metric to the report, e.g. a heap size or a count.
+     */
+    void recordValue(String name, String unit, double value) throws JSONException {
+        JSONObject result = new JSONObject();
+        result.put("name", name);
+        result.put("unit", unit);
+        result.put("value", value);
+        results.put(result);
+        System.out.println(String.format("[benchmark] %s.%s %.2f %s", suite, name, value, unit));
+    }
+
+    static long percentile(long[] sorted, int percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private void consume(Object result) {
+        sink += result == null ? 0 : System.identityHashCode(result);
+    }
+
+    /**
+     * Writes the collected results to {@code <report dir>/<suite>.json}.
+     *
+     * @return The report file, or null if nothing was recorded.
+     */
+    File writeReport() throws IOException, JSONException {
+        if (results.length() == 0) {
+            return null;
+        }
+        JSONObject report = new JSONObject();
+        report.put("suite", suite);
+        report.put("timestamp", System.currentTimeMillis());
+        report.put("java_version", System.getProperty("java.version"));
+        report.put("java_vm", System.getProperty("java.vm.name"));
+        report.put("os_arch", System.getProperty("os.arch"));
+        report.put("available_processors", Runtime.getRuntime().availableProcessors());
+        report.put("results", results);
+
+        File dir = new File(System.getProperty(REPORT_DIR_PROPERTY, DEFAULT_REPORT_DIR));
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Unable to create benchmark report directory " + dir);
+        }
+        File file = new File(dir, suite + ".json");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(report.toString(2));
+        } finally {
+            writer.close();
+        }
+        System.out.println("[benchmark] report written to " + file.getAbsolutePath());
+        return file;
+    }
+}
@@ -0,0 +1,40 @@
+package io.branch.referral;
+
+import android.app.Activity;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.lang.ref.WeakReference;
+
+@RunWith(JUnit4.class)
+public class BranchFeaturesTest {
+    @Test
+    public void testMissingModules() {
+        // The feature modules are not dependencies of the core
+        Assert.assertNull(BranchFeatures.getAppIndexing());
+        Assert.assertNull(BranchFeatures.getLinkValidator());
+    }
+
+    @Test
+    public void testFindsEntryPointOnce() {
+        String className = TestLinkValidator.class.getName();
+        BranchFeatures.LinkValidator linkValidator = BranchFeatures.find(className, BranchFeatures.LinkValidator.class);
+        Assert.assertTrue(linkValidator instanceof TestLinkValidator);
+        Assert.assertSame(linkValidator, BranchFeatures.find(className, BranchFeatures.LinkValidator.class));
+    }
+
+    @Test
+    public void testEntryPointOfOtherType() {
+        Assert.assertNull(BranchFeatures.find(TestLinkValidator.class.getName() + "Other", BranchFeatures.LinkValidator.class));
+        Assert.assertNull(BranchFeatures.find(BranchFeaturesTest.class.getName(), BranchFeatures.AppIndexing.class));
+    }
+
+    public static class TestLinkValidator implements BranchFeatures.LinkValidator {
+        @Override
+        public void onSessionInitialized(WeakReference<Activity> currentActivity) {
+        }
+    }
+}
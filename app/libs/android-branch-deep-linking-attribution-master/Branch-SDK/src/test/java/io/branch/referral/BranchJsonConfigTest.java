@@ -0,0 +1,60 @@
+package io.branch.referral;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+
+@RunWith(JUnit4.class)
+public class BranchJsonConfigTest {
+    static final String BRANCH_JSON = "{\n"
+            + "  \"testKey\": \"key_test_hdcBLUy1xZ1JD0tKg7qrLcgirFmPPVJc\",\n"
+            + "  \"liveKey\": \"key_live_feebgAAhbH9Tv85H5wLQhpdaefiZv5Dv\",\n"
+            + "  \"useTestInstance\": true,\n"
+            + "  \"enableLogging\": \"false\"\n"
+            + "}";
+
+    static BranchJsonConfig load(String json) throws Exception {
+        return BranchJsonConfig.load(new ByteArrayInputStream(json.getBytes("UTF-8")));
+    }
+
+    @Test
+    public void testCompiledFromAsset() throws Exception {
+        BranchJsonConfig config = load(BRANCH_JSON);
+        Assert.assertTrue(config.isValid());
+        Assert.assertEquals("key_test_hdcBLUy1xZ1JD0tKg7qrLcgirFmPPVJc", config.getBranchKey());
+        Assert.assertTrue(config.getUseTestInstance());
+        Assert.assertFalse(config.getLoggingMode());
+        Assert.assertNull(config.getEnableFacebookLinkCheck());
+        Assert.assertFalse(config.isValid(BranchJsonConfig.BranchJsonKey.branchKey));
+        // Values are returned as configured
+        Assert.assertEquals("false", config.get(BranchJsonConfig.BranchJsonKey.enableLogging));
+        Assert.assertEquals(Boolean.TRUE, config.get(BranchJsonConfig.BranchJsonKey.useTestInstance));
+
+        BranchJsonConfig live = load(BRANCH_JSON.replace("\"useTestInstance\": true", "\"useTestInstance\": false"));
+        Assert.assertEquals("key_live_feebgAAhbH9Tv85H5wLQhpdaefiZv5Dv", live.getBranchKey());
+        // The branch key overrides the test and live keys
+        BranchJsonConfig branchKey = load("{\"branchKey\":\"key_live_branch\",\"useTestInstance\":true,\"testKey\":\"key_test_x\"}");
+        Assert.assertEquals("key_live_branch", branchKey.getBranchKey());
+        // Without the branch key all of the test key, live key and test instance flag are needed
+        Assert.assertNull(load("{\"testKey\":\"key_test_x\",\"useTestInstance\":true}").getBranchKey());
+    }
+
+    @Test
+    public void testGeneratedMatchesAsset() throws Exception {
+        // As generated by branch-json-config.gradle from BRANCH_JSON
+        BranchJsonConfig generated = new BranchJsonConfig(null, "key_test_hdcBLUy1xZ1JD0tKg7qrLcgirFmPPVJc",
+                "key_live_feebgAAhbH9Tv85H5wLQhpdaefiZv5Dv", Boolean.TRUE, null, Boolean.FALSE);
+        BranchJsonConfig asset = load(BRANCH_JSON);
+        Assert.assertTrue(generated.isValid());
+        Assert.assertEquals(asset.getBranchKey(), generated.getBranchKey());
+        Assert.assertEquals(asset.getUseTestInstance(), generated.getUseTestInstance());
+        Assert.assertEquals(asset.getLoggingMode(), generated.getLoggingMode());
+        Assert.assertEquals(asset.getEnableFacebookLinkCheck(), generated.getEnableFacebookLinkCheck());
+        for (BranchJsonConfig.BranchJsonKey key : BranchJsonConfig.BranchJsonKey.values()) {
+            Assert.assertEquals(key.toString(), asset.isValid(key), generated.isValid(key));
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package io.branch.referral;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class BranchLoggerTest {
+
+    @After
+    public void tearDown() {
+        BranchLogger.disableBuffer();
+        BranchLogger.setLogcatEnabled(false);
+    }
+
+    @Test
+    public void testSupplierIsNotCalledWhenDisabled() {
+        Assert.assertFalse(BranchLogger.isDebugEnabled());
+        BranchLogger.debug(new BranchLogger.MessageSupplier() {
+            @Override
+            public String get() {
+                throw new AssertionError("Message built while logging is disabled");
+            }
+        });
+        Assert.assertNull(BranchLogger.dumpBuffer());
+    }
+
+    @Test
+    public void testBufferKeepsDebugMessagesWithoutLogcat() {
+        BranchLogger.enableBuffer(10);
+        Assert.assertTrue(BranchLogger.isDebugEnabled());
+        PrefHelper.Debug("first");
+        BranchLogger.debug(new BranchLogger.MessageSupplier() {
+            @Override
+            public String get() {
+                return "second";
+            }
+        });
+        String[] lines = BranchLogger.dumpBuffer().split("\n");
+        Assert.assertEquals(2, lines.length);
+        Assert.assertTrue(lines[0].endsWith(" D " + Thread.currentThread().getName() + ": first"));
+        Assert.assertTrue(lines[1].endsWith(": second"));
+    }
+
+    @Test
+    public void testBufferIsBounded() {
+        BranchLogger.enableBuffer(3);
+        for (int i = 0; i < 5; i++) {
+            PrefHelper.Debug("message " + i);
+        }
+        String[] lines = BranchLogger.dumpBuffer().split("\n");
+        Assert.assertEquals(4, lines.length);
+        Assert.assertEquals("2 earlier records dropped", lines[0]);
+        Assert.assertTrue(lines[1].endsWith("message 2"));
+        Assert.assertTrue(lines[3].endsWith("message 4"));
+
+        BranchLogger.disableBuffer();
+        Assert.assertNull(BranchLogger.dumpBuffer());
+    }
+}
@@ -0,0 +1,75 @@
+package io.branch.referral;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.FileWriter;
+
+@RunWith(JUnit4.class)
+public class BranchPreinstallCacheTest {
+    private static final String PACKAGE_NAME = "io.branch.example";
+
+    private PrefHelper prefHelper;
+    private File branchFile;
+
+    @Before
+    public void setUp() throws Exception {
+        prefHelper = new PrefHelper(new InMemorySharedPreferences());
+        branchFile = File.createTempFile("branch_preinstall", ".json");
+        branchFile.setLastModified(1000000000L);
+    }
+
+    @After
+    public void tearDown() {
+        branchFile.delete();
+    }
+
+    @Test
+    public void testCachedDataUsedForUnchangedFile() throws Exception {
+        Assert.assertNull(BranchPreinstall.getCachedAppData(branchFile, prefHelper));
+
+        JSONObject content = new JSONObject("{\"apps\":{\"" + PACKAGE_NAME + "\":{\"$3p\":\"Partner\",\"$campaign\":\"Campaign\"},"
+                + "\"com.other\":{\"$3p\":\"Other\"}}}");
+        BranchPreinstall.cacheAppData(branchFile, branchFile.length(), branchFile.lastModified(), content, PACKAGE_NAME, prefHelper);
+
+        JSONObject appData = BranchPreinstall.getCachedAppData(branchFile, prefHelper);
+        Assert.assertEquals("Partner", appData.getString("$3p"));
+        Assert.assertEquals("Campaign", appData.getString("$campaign"));
+        Assert.assertEquals(2, appData.length());
+    }
+
+    @Test
+    public void testCacheWithoutAppDataIsStillAHit() throws Exception {
+        JSONObject content = new JSONObject("{\"apps\":{\"com.other\":{\"$3p\":\"Other\"}}}");
+        BranchPreinstall.cacheAppData(branchFile, branchFile.length(), branchFile.lastModified(), content, PACKAGE_NAME, prefHelper);
+        Assert.assertEquals(0, BranchPreinstall.getCachedAppData(branchFile, prefHelper).length());
+    }
+
+    @Test
+    public void testChangedFileInvalidatesCache() throws Exception {
+        JSONObject content = new JSONObject("{\"apps\":{\"" + PACKAGE_NAME + "\":{\"$3p\":\"Partner\"}}}");
+        BranchPreinstall.cacheAppData(branchFile, branchFile.length(), branchFile.lastModified(), content, PACKAGE_NAME, prefHelper);
+        Assert.assertNotNull(BranchPreinstall.getCachedAppData(branchFile, prefHelper));
+
+        branchFile.setLastModified(2000000000L);
+        Assert.assertNull(BranchPreinstall.getCachedAppData(branchFile, prefHelper));
+
+        BranchPreinstall.cacheAppData(branchFile, branchFile.length(), branchFile.lastModified(), content, PACKAGE_NAME, prefHelper);
+        Assert.assertNotNull(BranchPreinstall.getCachedAppData(branchFile, prefHelper));
+        // A rewrite within the modification time resolution still changes the size
+        FileWriter writer = new FileWriter(branchFile);
+        writer.write(content.toString());
+        writer.close();
+        branchFile.setLastModified(2000000000L);
+        Assert.assertNull(BranchPreinstall.getCachedAppData(branchFile, prefHelper));
+
+        File otherFile = new File(branchFile.getPath() + ".other");
+        Assert.assertNull(BranchPreinstall.getCachedAppData(otherFile, prefHelper));
+    }
+}
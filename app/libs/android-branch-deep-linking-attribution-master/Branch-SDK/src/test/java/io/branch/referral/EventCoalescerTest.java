@@ -0,0 +1,186 @@
+package io.branch.referral;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import io.branch.referral.util.BRANCH_STANDARD_EVENT;
+
+@RunWith(JUnit4.class)
+public class EventCoalescerTest {
+    private EventCoalescer coalescer;
+    private ServerRequestQueue queue;
+
+    @Before
+    public void setUp() {
+        PrefHelper.initForTesting(new InMemorySharedPreferences());
+        coalescer = new EventCoalescer();
+        queue = new ServerRequestQueue(new InMemorySharedPreferences(), null);
+    }
+
+    @After
+    public void tearDown() {
+        PrefHelper.shutDown();
+    }
+
+    @Test
+    public void testNothingCoalescedByDefault() throws Exception {
+        ServerRequest leader = viewItem("item/1");
+        Assert.assertFalse(coalescer.handleNewRequest(leader, null));
+        queue.enqueue(leader);
+        Assert.assertFalse(coalescer.handleNewRequest(viewItem("item/1"), null));
+        Assert.assertEquals(0, coalescer.getSuppressedCount());
+    }
+
+    @Test
+    public void testViewItemsCoalesced() throws Exception {
+        coalescer.setRule(BRANCH_STANDARD_EVENT.VIEW_ITEM.getName(), 1000, false);
+        ServerRequest leader = viewItem("item/1");
+        Assert.assertFalse(coalescer.handleNewRequest(leader, null));
+        queue.enqueue(leader);
+        Assert.assertTrue(coalescer.handleNewRequest(viewItem("item/1"), null));
+        Assert.assertTrue(coalescer.handleNewRequest(viewItem("item/1"), null));
+        // Other content and other events are sent on their own
+        Assert.assertFalse(coalescer.handleNewRequest(viewItem("item/2"), null));
+        Assert.assertFalse(coalescer.handleNewRequest(event("ADD_TO_CART", null), null));
+        Assert.assertEquals(2, coalescer.getSuppressedCount());
+
+        // The count is only sent if configured
+        JSONObject payload = new JSONObject();
+        coalescer.onRequestSent(leader, payload);
+        Assert.assertFalse(payload.has(Defines.Jsonkey.CoalescedCount.getKey()));
+        Assert.assertEquals(1, coalescer.getSentCount());
+
+        // Still suppressed within the window after the first one was sent
+        queue.remove(leader);
+        Assert.assertTrue(coalescer.handleNewRequest(viewItem("item/1"), null));
+        Assert.assertEquals(3, coalescer.getSuppressedCount());
+    }
+
+    @Test
+    public void testCountCarriedWithFirstEvent() throws Exception {
+        coalescer.setRule("scrolled", 60000, true, "screen");
+        ServerRequest leader = event("scrolled", "feed");
+        Assert.assertFalse(coalescer.handleNewRequest(leader, null));
+        queue.enqueue(leader);
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(coalescer.handleNewRequest(event("scrolled", "feed"), null));
+        }
+        // The identity property tells the events apart
+        Assert.assertFalse(coalescer.handleNewRequest(event("scrolled", "profile"), null));
+
+        JSONObject payload = new JSONObject();
+        coalescer.onRequestSent(leader, payload);
+        Assert.assertEquals(5, payload.getInt(Defines.Jsonkey.CoalescedCount.getKey()));
+        Assert.assertEquals(4, coalescer.getSuppressedCount());
+
+        // The count is on its way, the next identical event starts counting again
+        ServerRequest next = event("scrolled", "feed");
+        Assert.assertFalse(coalescer.handleNewRequest(next, null));
+        queue.enqueue(next);
+        Assert.assertTrue(coalescer.handleNewRequest(event("scrolled", "feed"), null));
+        JSONObject nextPayload = new JSONObject();
+        coalescer.onRequestSent(next, nextPayload);
+        Assert.assertEquals(2, nextPayload.getInt(Defines.Jsonkey.CoalescedCount.getKey()));
+
+        // A retry of the first one is sent with the same count
+        JSONObject retryPayload = new JSONObject();
+        coalescer.onRequestSent(leader, retryPayload);
+        Assert.assertEquals(5, retryPayload.getInt(Defines.Jsonkey.CoalescedCount.getKey()));
+        Assert.assertEquals(5, coalescer.getSuppressedCount());
+    }
+
+    @Test
+    public void testWindowExpires() throws Exception {
+        coalescer.setRule(BRANCH_STANDARD_EVENT.VIEW_ITEM.getName(), 20, false);
+        ServerRequest leader = viewItem("item/1");
+        coalescer.handleNewRequest(leader, null);
+        queue.enqueue(leader);
+        Thread.sleep(40);
+        Assert.assertFalse(coalescer.handleNewRequest(viewItem("item/1"), null));
+
+        // A window of 0 stops coalescing
+        coalescer.setRule(BRANCH_STANDARD_EVENT.VIEW_ITEM.getName(), 0, false);
+        Assert.assertFalse(coalescer.handleNewRequest(viewItem("item/1"), null));
+    }
+
+    @Test
+    public void testRetriesNotCountedAsSent() throws Exception {
+        ServerRequest request = event("purchase", null);
+        coalescer.onRequestSent(request, new JSONObject());
+        coalescer.onRequestSent(request, new JSONObject());
+        coalescer.onRequestSent(event("purchase", null), new JSONObject());
+        Assert.assertEquals(2, coalescer.getSentCount());
+    }
+
+    @Test
+    public void testCoalescedEventsCompleteWithFirstEvent() throws Exception {
+        coalescer.setRule("scrolled", 60000, false);
+        ServerRequest leader = event("scrolled", null);
+        coalescer.handleNewRequest(leader, null);
+        queue.enqueue(leader);
+        final int[] completed = new int[2];
+        ServerRequest follower = new ServerRequestActionCompleted(Defines.RequestPath.CompletedAction, leader.getPost(), null) {
+            @Override
+            public void onRequestSucceeded(ServerResponse resp, Branch branch) {
+                completed[0]++;
+            }
+        };
+        Assert.assertTrue(coalescer.handleNewRequest(follower, null));
+        Assert.assertEquals(0, completed[0]);
+
+        coalescer.onRequestSent(leader, new JSONObject());
+        coalescer.onRequestSucceeded(leader, new ServerResponse("scrolled", 200, ""), null);
+        Assert.assertEquals(1, completed[0]);
+
+        // Suppressed after the first one completed, completed at once
+        ServerRequest late = new ServerRequestActionCompleted(Defines.RequestPath.CompletedAction, leader.getPost(), null) {
+            @Override
+            public void onRequestSucceeded(ServerResponse resp, Branch branch) {
+                completed[1]++;
+            }
+        };
+        Assert.assertTrue(coalescer.handleNewRequest(late, null));
+        Assert.assertEquals(1, completed[1]);
+    }
+
+    @Test
+    public void testEventDroppedFromQueueIsReplaced() throws Exception {
+        coalescer.setRule(BRANCH_STANDARD_EVENT.VIEW_ITEM.getName(), 1000, false);
+        ServerRequest leader = viewItem("item/1");
+        coalescer.handleNewRequest(leader, null);
+        queue.enqueue(leader);
+        queue.remove(leader);
+        // The first event was never sent, the next one takes its place
+        ServerRequest next = viewItem("item/1");
+        Assert.assertFalse(coalescer.handleNewRequest(next, null));
+        queue.enqueue(next);
+        Assert.assertTrue(coalescer.handleNewRequest(viewItem("item/1"), null));
+
+        coalescer.clear();
+        Assert.assertFalse(coalescer.handleNewRequest(viewItem("item/1"), null));
+    }
+
+    private static ServerRequest viewItem(String canonicalIdentifier) throws Exception {
+        JSONObject post = new JSONObject();
+        post.put(Defines.Jsonkey.Name.getKey(), BRANCH_STANDARD_EVENT.VIEW_ITEM.getName());
+        JSONObject contentItem = new JSONObject();
+        contentItem.put(Defines.Jsonkey.CanonicalIdentifier.getKey(), canonicalIdentifier);
+        post.put(Defines.Jsonkey.ContentItems.getKey(), new JSONArray().put(contentItem));
+        return new ServerRequestActionCompleted(Defines.RequestPath.TrackStandardEvent, post, null);
+    }
+
+    private static ServerRequest event(String action, String screen) throws Exception {
+        JSONObject post = new JSONObject();
+        post.put(Defines.Jsonkey.Event.getKey(), action);
+        if (screen != null) {
+            post.put(Defines.Jsonkey.Metadata.getKey(), new JSONObject().put("screen", screen));
+        }
+        return new ServerRequestActionCompleted(Defines.RequestPath.CompletedAction, post, null);
+    }
+}
@@ -0,0 +1,582 @@
+package io.branch.referral;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * JVM benchmarks for the SDK hot paths that run on every session or link.
+ * <p>
+ * Run with {@code ./gradlew :Branch-SDK:testDebugUnitTest -Pbenchmark}; the report is written to
+ * {@code Branch-SDK/build/reports/benchmarks/HotPathBenchmark.json}.
+ * </p>
+ */
+@RunWith(JUnit4.class)
+public class HotPathBenchmarkTest {
+    // One below the queue capacity, the deepest queue that is persisted without eviction
+    private static final int QUEUE_DEPTH = 24;
+    private static BenchmarkRunner runner;
+
+    private InMemorySharedPreferences queuePrefs;
+
+    @BeforeClass
+    public static void setUpClass() {
+        runner = new BenchmarkRunner("HotPathBenchmark");
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        runner.writeReport();
+        PrefHelper.shutDown();
+    }
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(BenchmarkRunner.isEnabled());
+        PrefHelper.initForTesting(new InMemorySharedPreferences());
+        queuePrefs = new InMemorySharedPreferences();
+    }
+
+    @Test
+    public void benchmarkGetPostWithInstrumentationValues() throws Exception {
+        final ServerRequest request = new ServerRequestActionCompleted(Defines.RequestPath.CompletedAction,
+                createEventPost(0), null);
+        runner.measure("getPostWithInstrumentationValues", new BenchmarkRunner.Operation() {
+            @Override
+            public Object run() {
+                ConcurrentHashMap<String, String> instrumentation = new ConcurrentHashMap<>();
+                instrumentation.put("v1/open-qwt", "12");
+                instrumentation.put("v1/url-brtt", "250");
+                return request.getPostWithInstrumentationValues(instrumentation);
+            }
+        });
+    }
+
+    @Test
+    public void benchmarkBranchLinkDataHashCode() throws Exception {
+        final BranchLinkData linkData = createLinkData();
+        runner.measure("BranchLinkData.hashCode", new BenchmarkRunner.Operation() {
+            @Override
+            public Object run() {
+                return linkData.hashCode();
+            }
+        });
+    }
+
+    @Test
+    public void benchmarkBase64() throws Exception {
+        final byte[] data = createEventPost(0).toString().getBytes("UTF-8");
+        final String encoded = Base64.encodeToString(data, Base64.NO_WRAP);
+        runner.measure("Base64.encodeToString", new BenchmarkRunner.Operation() {
+            @Override
+            public Object run() {
+                return Base64.encodeToString(data, Base64.NO_WRAP);
+            }
+        });
+        runner.measure("Base64.decode", new BenchmarkRunner.Operation() {
+            @Override
+            public Object run() {
+                return Base64.decode(encoded, Base64.NO_WRAP);
+            }
+        });
+        Assert.assertArrayEquals(data, Base64.decode(encoded, Base64.NO_WRAP));
+    }
+
+    @Test
+    public void benchmarkReferringParams() throws Exception {
+        final PrefHelper prefHelper = new PrefHelper(new InMemorySharedPreferences());
+        JSONObject params = createEventPost(0);
+        params.put("+clicked_branch_link", true).put("~channel", "email").put("~feature", "sharing");
+        prefHelper.setSessionParams(params.toString());
+        final ReferringParams.Cache cache = new ReferringParams.Cache();
+        runner.measure("referringParams.parsePerRead", new BenchmarkRunner.Operation() {
+            @Override
+            public Object run() {
+                return ReferringParams.parse(prefHelper.getSessionParams());
+            }
+        });
+        runner.measure("referringParams.cached", new BenchmarkRunner.Operation() {
+            @Override
+            public Object run() {
+                return cache.get(prefHelper.getSessionParams());
+            }
+        });
+        Assert.assertEquals(cache.get(prefHelper.getSessionParams()).toString(), cache.get(prefHelper.getSessionParams()).toString());
+    }
+
+    @Test
+    public void benchmarkBranchJsonConfigColdStart() throws Exception {
+        // What readBranchKey and checkTestMode need from a fresh process, from the asset or generated
+        final byte[] asset = BranchJsonConfigTest.BRANCH_JSON.getBytes("UTF-8");
+        runner.measure("branchJsonConfig.asset", new BenchmarkRunner.Operation() {
+            @Override
+            public Object run() {
+                BranchJsonConfig config = BranchJsonConfig.load(new ByteArrayInputStream(asset));
+                return config.getUseTestInstance() + config.getBranchKey();
+            }
+        });
+        runner.measure("branchJsonConfig.generated", new BenchmarkRunner.Operation() {
+            @Override
+            public Object run() {
+                BranchJsonConfig config = new BranchJsonConfig(null, "key_test_hdcBLUy1xZ1JD0tKg7qrLcgirFmPPVJc",
+                        "key_live_feebgAAhbH9Tv85H5wLQhpdaefiZv5Dv", Boolean.TRUE, null, Boolean.FALSE);
+                return config.getUseTestInstance() + config.getBranchKey();
+            }
+        });
+
+        // Later reads, previously a JSONObject lookup per key
+        final JSONObject json = new JSONObject(BranchJsonConfigTest.BRANCH_JSON);
+        runner.measure("branchJsonConfig.getBranchKey.json", new BenchmarkRunner.Operation() {
+            @Override
+            public Object run() {
+                try {
+                    return json.has("branchKey") ? json.getString("branchKey")
+                            : json.getBoolean("useTestInstance") ? json.getString("testKey") : json.getString("liveKey");
+                } catch (JSONException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        });
+        final BranchJsonConfig config = BranchJsonConfigTest.load(BranchJsonConfigTest.BRANCH_JSON);
+        runner.measure("branchJsonConfig.getBranchKey.compiled", new BenchmarkRunner.Operation() {
+            @Override
+            public Object run() {
+                return config.getBranchKey();
+            }
+        });
+    }
+
+    @Test
+    public void benchmarkOptionalIntegrationLookups() throws Exception {
+        // The Facebook SDK lookups of a deferred app link fetch, for an app without it, and
+        // the handles of an integration that is present
+        final String missing = "com.facebook.applinks.AppLinkData";
+        runner.measure("integration.missing.forName", new BenchmarkRunner.Operation() {
+            @Override
+            public Object run() {
+                try {
+                    return Class.forName(missing);
+                } catch (ClassNotFoundException e) {
+                    return e;
+                }
+            }
+        });
+        runner.measure("integration.missing.registry", new BenchmarkRunner.Operation() {
+            @Override
+            public Object run() {
+                return IntegrationRegistry.findMethod(IntegrationRegistry.findClass(missing), "getArgumentBundle");
+            }
+        });
+        final String present = "io.branch.referral.ReferringParams";
+        runner.measure("integration.present.reflect", new BenchmarkRunner.Operation() {
+            @Override
+            public Object run() {
+                try {
+                    return Class.forName(present).getDeclaredMethod("parse", String.class);
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+            }
+        });
+        runner.measure("integration.present.registry", new BenchmarkRunner.Operation() {
+            @Override
+            public Object run() {
+                return IntegrationRegistry.findDeclaredMethod(IntegrationRegistry.findClass(present), "parse", String.class);
+            }
+        });
+    }
+
+    @Test
+    public void benchmarkAutoDeepLinkRouting() throws Exception {
+        // An app with hundreds of activities, the link routes to the last one
+        final List<AutoDeepLinkIndex.Route> routes = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            routes.add(new AutoDeepLinkIndex.Route("com.example.Activity" + i, "screen_" + i + ",item_" + i,
+                    "section" + i + "/*, section" + i + "/*/details", i));
+        }
+        final JSONObject params = createEventPost(0).put("+clicked_branch_link", true)
+                .put("$deeplink_path", "section499/42/details");
+        final AutoDeepLinkIndex index = new AutoDeepLinkIndex(false, routes);
+        final JSONObject persisted = index.toJSON();
+        JSONObject linear = runner.measure("autoDeepLink.linearScan.500", new BenchmarkRunner.Operation() {
+            @Override
+            public Object run() {
+                try {
+                    return AutoDeepLinkIndexTest.linearScan(routes, params);
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+            }
+        });
+        JSONObject indexed = runner.measure("autoDeepLink.index.500", new BenchmarkRunner.Operation() {
+            @Override
+            public Object run() {
+                return index.resolve(params);
+            }
+        });
+        runner.measure("autoDeepLink.restoreIndex.500", 1000, new BenchmarkRunner.Operation() {
+            @Override
+            public Object run() {
+                try {
+                    return AutoDeepLinkIndex.fromJSON(persisted);
+                } catch (JSONException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        });
+        Assert.assertEquals("com.example.Activity499", index.resolve(params).activityName);
+        Assert.assertTrue(indexed.getDouble("mean_ns") < linear.getDouble("mean_ns"));
+    }
+
+    @Test
+    public void benchmarkGetStrippedURL() throws Exception {
+        final UniversalResourceAnalyser analyser = UniversalResourceAnalyser.getInstance(null);
+        runner.measure("UniversalResourceAnalyser.getStrippedURL", new BenchmarkRunner.Operation() {
+            @Override
+            public Object run() {
+                return analyser.getStrippedURL("https://www.example.com/products/shoes?id=1234&ref=home");
+            }
+        });
+        Assert.assertEquals("^fb\\d+:", analyser.getStrippedURL("fb1234://authorize"));
+    }
+
+    @Test
+    public void benchmarkDecompressXMLForValidator() throws Exception {
+        final byte[] manifest = createBinaryManifest(50);
+        final ApkParser parser = new ApkParser();
+        JSONObject result = parser.decompressXMLForValidator(manifest);
+        Assert.assertEquals(50, result.getJSONObject(Defines.Jsonkey.URIScheme.getKey()).length());
+        runner.measure("ApkParser.decompressXMLForValidator", 1000, new BenchmarkRunner.Operation() {
+            @Override
+            public Object run() {
+                return parser.decompressXMLForValidator(manifest);
+            }
+        });
+    }
+
+    @Test
+    public void benchmarkQueuePersistAndRetrieve() throws Exception {
+        final ServerRequestQueue queue = new ServerRequestQueue(queuePrefs, null);
+        for (int i = 0; i < QUEUE_DEPTH; i++) {
+            queue.enqueue(new ServerRequestActionCompleted(Defines.RequestPath.CompletedAction, createEventPost(i), null));
+        }
+        runner.measure("ServerRequestQueue.persist", 1000, new BenchmarkRunner.Operation() {
+            @Override
+            public Object run() {
+                queue.persist();
+                return queue;
+            }
+        });
+        Assert.assertEquals(QUEUE_DEPTH, new ServerRequestQueue(queuePrefs, null).getSize());
+    }
+
+    @Test
+    public void benchmarkQueueColdStart() throws Exception {
+        ServerRequestQueue queue = new ServerRequestQueue(queuePrefs, null);
+        for (int i = 0; i < QUEUE_DEPTH; i++) {
+            queue.enqueue(new ServerRequestActionCompleted(Defines.RequestPath.CompletedAction, createEventPost(i), null));
+        }
+        final String persisted = queuePrefs.getString("BNCServerRequestQueue", null);
+        // The previous restore, parsing and decoding every persisted request on the calling thread
+        JSONObject eager = runner.measure("queueRestore.eager", 1000, new BenchmarkRunner.Operation() {
+            @Override
+            public Object run() {
+                List<ServerRequest> restored = new ArrayList<>();
+                try {
+                    JSONArray jsonArr = new JSONArray(persisted);
+                    for (int i = 0; i < jsonArr.length(); i++) {
+                        restored.add(ServerRequest.fromJSON(jsonArr.getJSONObject(i), null));
+                    }
+                } catch (JSONException e) {
+                    throw new AssertionError(e);
+                }
+                return restored;
+            }
+        });
+        // Cold start until the first request can be sent, only the head is decoded
+        JSONObject firstPeek = runner.measure("queueRestore.lazy.firstPeek", 1000, new BenchmarkRunner.Operation() {
+            @Override
+            public Object run() {
+                return new ServerRequestQueue(queuePrefs, null).peek();
+            }
+        });
+        runner.measure("queueRestore.lazy.all", 1000, new BenchmarkRunner.Operation() {
+            @Override
+            public Object run() {
+                ServerRequestQueue restored = new ServerRequestQueue(queuePrefs, null);
+                for (int i = 0; i < restored.getSize(); i++) {
+                    restored.peekAt(i);
+                }
+                return restored;
+            }
+        });
+        Assert.assertTrue(firstPeek.getDouble("mean_ns") < eager.getDouble("mean_ns"));
+    }
+
+    @Test
+    public void benchmarkDisabledDebugLogging() throws Exception {
+        // The debug messages built for every POST request and response, with logging disabled
+        PrefHelper.enableLogging(false);
+        BranchLogger.disableBuffer();
+        final JSONObject body = createEventPost(0);
+        final String response = "{\"session_id\":\"880938553235373649\",\"identity_id\":\"880938553226608667\"}";
+        final String requestId = "c8d3a9f2-1b7e-4f5d-9a41-5e2f0c9b7a11";
+        JSONObject eager = runner.measure("debugLogging.eager", new BenchmarkRunner.Operation() {
+            @Override
+            public Object run() {
+                PrefHelper.Debug("posting to " + "https://api2.branch.io/v2/event/custom");
+                PrefHelper.Debug("Post value = " + body.toString());
+                PrefHelper.Debug(String.format(Locale.getDefault(), "Server returned: [%s] Status: [%d]; Data: %s", requestId, 200, response));
+                return body;
+            }
+        });
+        JSONObject guarded = runner.measure("debugLogging.guarded", new BenchmarkRunner.Operation() {
+            @Override
+            public Object run() {
+                if (BranchLogger.isDebugEnabled()) {
+                    PrefHelper.Debug("posting to " + "https://api2.branch.io/v2/event/custom");
+                    PrefHelper.Debug("Post value = " + body.toString());
+                    PrefHelper.Debug(String.format(Locale.getDefault(), "Server returned: [%s] Status: [%d]; Data: %s", requestId, 200, response));
+                }
+                return body;
+            }
+        });
+        runner.recordValue("debugLogging.savedPerRequest", "ns",
+                eager.getDouble("mean_ns") - guarded.getDouble("mean_ns"));
+        Assert.assertTrue(guarded.getDouble("mean_ns") < eager.getDouble("mean_ns"));
+    }
+
+    @Test
+    public void benchmarkQueuedEventHeap() throws Exception {
+        // Requests with the post data of a custom BranchEvent with content items and user data
+        List<ServerRequest> requests = new ArrayList<>();
+        long baseline = usedHeap();
+        for (int i = 0; i < 1000; i++) {
+            requests.add(new ServerRequestActionCompleted(Defines.RequestPath.CompletedAction, createBranchEventPost(i), null));
+        }
+        long live = usedHeap() - baseline;
+        for (ServerRequest request : requests) {
+            request.compact();
+        }
+        long compact = usedHeap() - baseline;
+        runner.recordValue("queuedBranchEvents.heapPer1000.live", "KB", live / 1024.0);
+        runner.recordValue("queuedBranchEvents.heapPer1000.compact", "KB", compact / 1024.0);
+        Assert.assertEquals(1000, requests.size());
+        Assert.assertTrue(compact < live);
+    }
+
+    @Test
+    public void benchmarkGenerateLongUrl() throws Exception {
+        final BranchLinkData linkData = createLinkData();
+        runner.measure("ServerRequestCreateUrl.generateLongUrl", new BenchmarkRunner.Operation() {
+            @Override
+            public Object run() throws Exception {
+                return ServerRequestCreateUrl.generateLongUrl("https://bnc.lt/a/key_live_benchmark", linkData, false);
+            }
+        });
+    }
+
+    private static JSONObject createEventPost(int index) throws JSONException {
+        JSONObject post = new JSONObject();
+        post.put(Defines.Jsonkey.IdentityID.getKey(), "734567822098765432");
+        post.put(Defines.Jsonkey.DeviceFingerprintID.getKey(), "734567822098765431");
+        post.put(Defines.Jsonkey.SessionID.getKey(), "834567822098765430");
+        post.put(Defines.Jsonkey.Event.getKey(), "benchmark_event_" + index);
+        JSONObject metadata = new JSONObject();
+        metadata.put("product_id", "sku-" + index);
+        metadata.put("price", 12.5);
+        metadata.put("currency", "USD");
+        post.put(Defines.Jsonkey.Metadata.getKey(), metadata);
+        return post;
+    }
+
+    private static JSONObject createBranchEventPost(int index) throws JSONException {
+        JSONObject post = new JSONObject();
+        post.put(Defines.Jsonkey.Name.getKey(), "add_to_wishlist_" + index);
+        JSONObject customData = new JSONObject();
+        customData.put("screen", "product_detail");
+        customData.put("experiment", "checkout_v2");
+        post.put(Defines.Jsonkey.CustomData.getKey(), customData);
+        JSONArray contentItems = new JSONArray();
+        for (int i = 0; i < 2; i++) {
+            JSONObject item = new JSONObject();
+            item.put("$canonical_identifier", "item/" + index + "/" + i);
+            item.put("$og_title", "Product " + i);
+            item.put("$price", 19.99);
+            item.put("$currency", "USD");
+            item.put("$quantity", 1);
+            contentItems.put(item);
+        }
+        post.put(Defines.Jsonkey.ContentItems.getKey(), contentItems);
+        JSONObject userData = new JSONObject();
+        userData.put("android_id", "8a4a0f5e1b2c3d4e");
+        userData.put("brand", "Google");
+        userData.put("model", "Pixel 4");
+        userData.put("os", "Android");
+        userData.put("os_version", 29);
+        userData.put("screen_dpi", 440);
+        userData.put("screen_height", 2280);
+        userData.put("screen_width", 1080);
+        userData.put("locale", "en_US");
+        userData.put("connection_type", "wifi");
+        userData.put("sdk", "android");
+        userData.put("sdk_version", "5.0.1");
+        userData.put("developer_identity", "bnc_no_value");
+        userData.put("device_fingerprint_id", "734567822098765431");
+        post.put(Defines.Jsonkey.UserData.getKey(), userData);
+        return post;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static BranchLinkData createLinkData() throws JSONException {
+        BranchLinkData linkData = new BranchLinkData();
+        linkData.putTags(Arrays.asList("tag1", "tag two", "tag-3"));
+        linkData.putAlias("summer-sale");
+        linkData.putType(0);
+        linkData.putDuration(0);
+        linkData.putChannel("facebook");
+        linkData.putFeature("sharing");
+        linkData.putStage("level 5");
+        linkData.putCampaign("summer campaign");
+        JSONObject params = new JSONObject();
+        params.put("$og_title", "Benchmark content");
+        params.put("$canonical_identifier", "content/12345");
+        params.put("$desktop_url", "https://example.com/content/12345");
+        linkData.putParams(params);
+        return linkData;
+    }
+
+    /**
+     * Builds a minimal binary AndroidManifest.xml with the given number of activities, each
+     * declaring an intent filter with a custom scheme and host, in the layout read by
+     * {@link ApkParser}.
+     */
+    static byte[] createBinaryManifest(int activities) {
+        List<String> strings = new ArrayList<>();
+        strings.add("manifest");
+        strings.add("activity");
+        strings.add("intent-filter");
+        strings.add("data");
+        strings.add("name");
+        strings.add("scheme");
+        strings.add("host");
+        strings.add("android.intent.action.VIEW");
+        strings.add("open");
+
+        ByteArrayOutputStream tags = new ByteArrayOutputStream();
+        writeStartTag(tags, 0, new int[0][]);
+        for (int i = 0; i < activities; i++) {
+            int activityName = strings.size();
+            strings.add("io.branch.benchmark.Activity" + i);
+            int scheme = strings.size();
+            strings.add("benchmark" + i);
+
+            writeStartTag(tags, 1, new int[][]{{4, activityName}});
+            writeStartTag(tags, 2, new int[][]{{4, 7}});
+            writeStartTag(tags, 3, new int[][]{{5, scheme}, {6, 8}});
+            writeEndTag(tags, 3);
+            writeEndTag(tags, 2);
+            writeEndTag(tags, 1);
+        }
+        writeEndTag(tags, 0);
+        writeWord(tags, 0x00100101);
+
+        ByteArrayOutputStream stringTable = new ByteArrayOutputStream();
+        int[] offsets = new int[strings.size()];
+        for (int i = 0; i < strings.size(); i++) {
+            offsets[i] = stringTable.size();
+            String value = strings.get(i);
+            writeShort(stringTable, value.length());
+            for (int c = 0; c < value.length(); c++) {
+                writeShort(stringTable, value.charAt(c));
+            }
+        }
+        while (stringTable.size() % 4 != 0) {
+            stringTable.write(0);
+        }
+
+        int headerSize = 0x24;
+        int xmlTagOffset = headerSize + strings.size() * 4 + stringTable.size();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeWord(out, 0x00080003);
+        writeWord(out, xmlTagOffset + tags.size());
+        writeWord(out, 0x001C0001);
+        writeWord(out, xmlTagOffset);
+        writeWord(out, strings.size());
+        while (out.size() < headerSize) {
+            writeWord(out, 0);
+        }
+        for (int offset : offsets) {
+            writeWord(out, offset);
+        }
+        byte[] table = stringTable.toByteArray();
+        out.write(table, 0, table.length);
+        byte[] tagBytes = tags.toByteArray();
+        out.write(tagBytes, 0, tagBytes.length);
+        return out.toByteArray();
+    }
+
+    private static void writeStartTag(ByteArrayOutputStream out, int name, int[][] attributes) {
+        writeWord(out, 0x00100102);
+        writeWord(out, 0);
+        writeWord(out, 1);
+        writeWord(out, -1);
+        writeWord(out, -1);
+        writeWord(out, name);
+        writeWord(out, 0x00140014);
+        writeWord(out, attributes.length);
+        writeWord(out, 0);
+        for (int[] attribute : attributes) {
+            writeWord(out, -1);
+            writeWord(out, attribute[0]);
+            writeWord(out, attribute[1]);
+            writeWord(out, 0x03000008);
+            writeWord(out, attribute[1]);
+        }
+    }
+
+    private static void writeEndTag(ByteArrayOutputStream out, int name) {
+        writeWord(out, 0x00100103);
+        writeWord(out, 0);
+        writeWord(out, 1);
+        writeWord(out, -1);
+        writeWord(out, -1);
+        writeWord(out, name);
+    }
+
+    private static void writeWord(ByteArrayOutputStream out, int value) {
+        out.write(value & 0xFF);
+        out.write((value >> 8) & 0xFF);
+        out.write((value >> 16) & 0xFF);
+        out.write((value >> 24) & 0xFF);
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value & 0xFF);
+        out.write((value >> 8) & 0xFF);
+    }
+}
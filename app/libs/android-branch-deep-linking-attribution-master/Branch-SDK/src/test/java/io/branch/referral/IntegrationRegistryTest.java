@@ -0,0 +1,71 @@
+package io.branch.referral;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+
+@RunWith(JUnit4.class)
+public class IntegrationRegistryTest {
+    private static final String MISSING_CLASS = "com.facebook.FacebookSdk";
+
+    private static class Integration {
+        static final String TYPE = "integration";
+        private final String name;
+
+        private Integration(String name) {
+            this.name = name;
+        }
+
+        String getName() {
+            return name;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        IntegrationRegistry.clear();
+    }
+
+    @Test
+    public void testResolvesClassesOnce() {
+        Class<?> integration = IntegrationRegistry.findClass(Integration.class.getName());
+        Assert.assertSame(Integration.class, integration);
+        Assert.assertSame(integration, IntegrationRegistry.findClass(Integration.class.getName()));
+        Assert.assertNull(IntegrationRegistry.findClass(MISSING_CLASS));
+        Assert.assertNull(IntegrationRegistry.findClass(MISSING_CLASS));
+    }
+
+    @Test
+    public void testResolvesMembers() throws Exception {
+        Method toString = IntegrationRegistry.findMethod(Integration.class, "toString");
+        Assert.assertSame(toString, IntegrationRegistry.findMethod(Integration.class, "toString"));
+        Assert.assertEquals(Object.class, toString.getDeclaringClass());
+        // Non public members are only found as declared members, inherited ones only as public members
+        Assert.assertNull(IntegrationRegistry.findMethod(Integration.class, "getName"));
+        Assert.assertNotNull(IntegrationRegistry.findDeclaredMethod(Integration.class, "getName"));
+        Assert.assertNull(IntegrationRegistry.findDeclaredMethod(Integration.class, "toString"));
+        Assert.assertNull(IntegrationRegistry.findConstructor(Integration.class, String.class));
+
+        Constructor<?> constructor = IntegrationRegistry.findDeclaredConstructor(Integration.class, String.class);
+        Object integration = constructor.newInstance("facebook");
+        Assert.assertEquals("facebook", IntegrationRegistry.findDeclaredMethod(Integration.class, "getName").invoke(integration));
+        Assert.assertEquals("integration", IntegrationRegistry.findDeclaredField(Integration.class, "TYPE").get(null));
+        Assert.assertNull(IntegrationRegistry.findDeclaredField(Integration.class, "MISSING"));
+        // Overloads are resolved by parameter types
+        Assert.assertNotSame(IntegrationRegistry.findMethod(String.class, "indexOf", String.class),
+                IntegrationRegistry.findMethod(String.class, "indexOf", int.class));
+    }
+
+    @Test
+    public void testMissingClassesResolveToMissingMembers() {
+        Class<?> missing = IntegrationRegistry.findClass(MISSING_CLASS);
+        Assert.assertNull(IntegrationRegistry.findMethod(missing, "sdkInitialize", String.class));
+        Assert.assertNull(IntegrationRegistry.findDeclaredField(missing, "TYPE"));
+        Assert.assertNull(IntegrationRegistry.findMethod(String.class, "valueOf", missing));
+    }
+}
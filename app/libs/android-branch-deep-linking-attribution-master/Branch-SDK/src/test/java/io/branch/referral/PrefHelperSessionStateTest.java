@@ -0,0 +1,78 @@
+package io.branch.referral;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+@RunWith(JUnit4.class)
+public class PrefHelperSessionStateTest {
+    private InMemorySharedPreferences prefs;
+    private PrefHelper prefHelper;
+
+    @Before
+    public void setUp() {
+        prefs = new InMemorySharedPreferences();
+        prefHelper = new PrefHelper(prefs);
+        prefHelper.setSessionID("old_session");
+        prefHelper.setLinkClickIdentifier("click_id");
+    }
+
+    @Test
+    public void testUpdateIsWrittenOnce() {
+        int commits = prefs.getCommitCount();
+        prefHelper.beginSessionStateUpdate();
+        prefHelper.setSessionID("new_session");
+        prefHelper.setIdentityID("identity");
+        prefHelper.setIsFullAppConversion(false);
+        prefHelper.setLong(PrefHelper.KEY_PREVIOUS_UPDATE_TIME, 42);
+        prefHelper.removePrefValue(PrefHelper.KEY_LAST_KNOWN_UPDATE_TIME);
+        prefHelper.setLinkClickIdentifier(PrefHelper.NO_STRING_VALUE);
+
+        // The updating thread reads its own staged values, the store is untouched
+        Assert.assertEquals("new_session", prefHelper.getSessionID());
+        Assert.assertEquals(42, prefHelper.getLong(PrefHelper.KEY_PREVIOUS_UPDATE_TIME));
+        Assert.assertEquals(PrefHelper.NO_STRING_VALUE, prefHelper.getLinkClickIdentifier());
+        Assert.assertEquals("old_session", prefs.getString("bnc_session_id", null));
+        Assert.assertEquals(commits, prefs.getCommitCount());
+
+        prefHelper.commitSessionStateUpdate();
+        Assert.assertEquals(commits + 1, prefs.getCommitCount());
+        Assert.assertEquals("new_session", prefs.getString("bnc_session_id", null));
+        Assert.assertEquals("identity", prefHelper.getIdentityID());
+        Assert.assertEquals(PrefHelper.NO_STRING_VALUE, prefHelper.getLinkClickIdentifier());
+    }
+
+    @Test
+    public void testOtherThreadsSeeCommittedState() throws Exception {
+        prefHelper.beginSessionStateUpdate();
+        prefHelper.setSessionID("new_session");
+        Assert.assertEquals("old_session", readOnOtherThread());
+
+        // Nested updates are written with the outermost one
+        prefHelper.beginSessionStateUpdate();
+        prefHelper.setIdentityID("identity");
+        prefHelper.commitSessionStateUpdate();
+        Assert.assertEquals("old_session", readOnOtherThread());
+
+        prefHelper.commitSessionStateUpdate();
+        Assert.assertEquals("new_session", readOnOtherThread());
+        Assert.assertEquals("identity", prefHelper.getIdentityID());
+    }
+
+    private String readOnOtherThread() throws InterruptedException {
+        final AtomicReference<String> sessionId = new AtomicReference<>();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                sessionId.set(prefHelper.getSessionID());
+            }
+        });
+        reader.start();
+        reader.join();
+        return sessionId.get();
+    }
+}
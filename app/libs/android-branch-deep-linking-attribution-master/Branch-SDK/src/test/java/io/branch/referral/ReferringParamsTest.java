@@ -0,0 +1,51 @@
+package io.branch.referral;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ReferringParamsTest {
+    private static final String PARAMS = "{\"+clicked_branch_link\":true,\"~channel\":\"email\",\"$deeplink_path\":\"item\\/42\"}";
+
+    @Test
+    public void testParsesPlainAndEncodedParams() throws Exception {
+        Assert.assertEquals("item/42", ReferringParams.parse(PARAMS).getString("$deeplink_path"));
+        String encoded = Base64.encodeToString(PARAMS.getBytes("UTF-8"), Base64.NO_WRAP);
+        Assert.assertTrue(ReferringParams.parse(encoded).getBoolean("+clicked_branch_link"));
+        Assert.assertEquals(0, ReferringParams.parse(PrefHelper.NO_STRING_VALUE).length());
+    }
+
+    @Test
+    public void testCallersGetTheirOwnCopy() throws Exception {
+        ReferringParams.Cache cache = new ReferringParams.Cache();
+        String stored = "{\"~channel\":\"email\",\"nested\":{\"a\":1},\"list\":[{\"b\":2}]}";
+        JSONObject params = cache.get(stored);
+        params.put("~channel", "sms");
+        params.getJSONObject("nested").put("a", 3);
+        params.getJSONArray("list").getJSONObject(0).remove("b");
+        params.put("added", true);
+
+        JSONObject other = cache.get(stored);
+        Assert.assertNotSame(params, other);
+        Assert.assertEquals("email", other.getString("~channel"));
+        Assert.assertEquals(1, other.getJSONObject("nested").getInt("a"));
+        Assert.assertEquals(2, other.getJSONArray("list").getJSONObject(0).getInt("b"));
+        Assert.assertFalse(other.has("added"));
+    }
+
+    @Test
+    public void testCacheReparsesOnlyChangedParams() {
+        ReferringParams.Cache cache = new ReferringParams.Cache();
+        JSONObject params = cache.get(PARAMS);
+        Assert.assertEquals(params.toString(), cache.get(PARAMS).toString());
+        // An equal value written again, as read back from preferences
+        Assert.assertEquals("email", cache.get(new String(PARAMS)).optString("~channel"));
+
+        JSONObject changed = cache.get("{\"~channel\":\"sms\"}");
+        Assert.assertEquals("sms", changed.optString("~channel"));
+        Assert.assertEquals(0, cache.get(PrefHelper.NO_STRING_VALUE).length());
+    }
+}
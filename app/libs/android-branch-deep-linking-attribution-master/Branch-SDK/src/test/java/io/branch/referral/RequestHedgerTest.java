@@ -0,0 +1,161 @@
+package io.branch.referral;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.branch.referral.network.BranchRemoteInterface;
+
+@RunWith(JUnit4.class)
+public class RequestHedgerTest {
+    private static final String PATH = "v1/cpid";
+
+    private RequestHedger hedger;
+    private final AtomicInteger hedgesSent = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        hedger = new RequestHedger();
+        hedger.enable(95, 1);
+    }
+
+    @Test
+    public void testNotHedgedWithoutSamples() throws Exception {
+        ServerResponse response = hedger.execute(PATH, respond(200, 50), hedge(200));
+        Assert.assertEquals(200, response.getStatusCode());
+        Assert.assertEquals(0, hedgesSent.get());
+        Assert.assertEquals(0, hedger.getHedgedCount());
+    }
+
+    @Test
+    public void testSlowRequestIsHedged() throws Exception {
+        prime(10);
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        Callable<ServerResponse> stalled = new Callable<ServerResponse>() {
+            @Override
+            public ServerResponse call() {
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    cancelled.countDown();
+                }
+                return new ServerResponse(PATH, BranchError.ERR_BRANCH_REQ_TIMED_OUT, "");
+            }
+        };
+        long start = System.currentTimeMillis();
+        ServerResponse response = hedger.execute(PATH, stalled, hedge(200));
+        Assert.assertEquals(200, response.getStatusCode());
+        Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+        Assert.assertEquals(1, hedgesSent.get());
+        Assert.assertEquals(1, hedger.getHedgeWinCount());
+        // The loser is cancelled
+        Assert.assertTrue(cancelled.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testLoserConnectionIsClosed() throws Exception {
+        prime(10);
+        final CountDownLatch closed = new CountDownLatch(1);
+        // Reads that ignore interrupts, like blocking socket I/O
+        final BranchRemoteInterface stalledTransport = new BranchRemoteInterface() {
+            @Override
+            public BranchResponse doRestfulGet(String url) {
+                setOnCancelListener(new Runnable() {
+                    @Override
+                    public void run() {
+                        closed.countDown();
+                    }
+                });
+                while (closed.getCount() > 0) {
+                    try {
+                        closed.await();
+                    } catch (InterruptedException ignore) {
+                    }
+                }
+                setOnCancelListener(null);
+                return new BranchResponse(null, BranchError.ERR_BRANCH_NO_CONNECTIVITY);
+            }
+
+            @Override
+            public BranchResponse doRestfulPost(String url, JSONObject payload) throws BranchRemoteException {
+                throw new BranchRemoteException(BranchError.ERR_BRANCH_NO_CONNECTIVITY);
+            }
+        };
+        Callable<ServerResponse> stalled = new Callable<ServerResponse>() {
+            @Override
+            public ServerResponse call() throws Exception {
+                stalledTransport.doRestfulGet(PATH);
+                return new ServerResponse(PATH, BranchError.ERR_BRANCH_NO_CONNECTIVITY, "");
+            }
+        };
+        Assert.assertEquals(200, hedger.execute(PATH, stalled, hedge(200)).getStatusCode());
+        Assert.assertTrue(closed.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFastRequestIsNotHedged() throws Exception {
+        prime(1000);
+        Assert.assertEquals(200, hedger.execute(PATH, respond(200, 0), hedge(200)).getStatusCode());
+        Assert.assertEquals(0, hedgesSent.get());
+    }
+
+    @Test
+    public void testFailedHedgeWaitsForRequest() throws Exception {
+        prime(10);
+        ServerResponse response = hedger.execute(PATH, respond(200, 200), hedge(BranchError.ERR_BRANCH_UNABLE_TO_REACH_SERVERS));
+        Assert.assertEquals(200, response.getStatusCode());
+        Assert.assertEquals(1, hedger.getHedgedCount());
+        Assert.assertEquals(0, hedger.getHedgeWinCount());
+    }
+
+    @Test
+    public void testBudgetCapsHedges() throws Exception {
+        hedger.enable(95, 0.25);
+        for (int i = 0; i < 8; i++) {
+            // Keep the recent round trips low, the slow requests would raise the percentile
+            prime(10);
+            hedger.execute(PATH, respond(200, 40), hedge(200));
+        }
+        // A quarter of the requests, paid for after every fourth request
+        Assert.assertEquals(2, hedger.getHedgedCount());
+        Assert.assertEquals(2, hedgesSent.get());
+
+        hedger.disable();
+        hedger.execute(PATH, respond(200, 40), hedge(200));
+        Assert.assertEquals(2, hedgesSent.get());
+    }
+
+    private void prime(long roundTripMillis) {
+        for (int i = 0; i < RequestHedger.MIN_SAMPLES; i++) {
+            hedger.onResponse(PATH, roundTripMillis);
+        }
+    }
+
+    private static Callable<ServerResponse> respond(final int status, final long delayMillis) {
+        return new Callable<ServerResponse>() {
+            @Override
+            public ServerResponse call() throws InterruptedException {
+                Thread.sleep(delayMillis);
+                return new ServerResponse(PATH, status, "");
+            }
+        };
+    }
+
+    private Callable<ServerResponse> hedge(final int status) {
+        return new Callable<ServerResponse>() {
+            @Override
+            public ServerResponse call() {
+                hedgesSent.incrementAndGet();
+                return new ServerResponse(PATH, status, "");
+            }
+        };
+    }
+}
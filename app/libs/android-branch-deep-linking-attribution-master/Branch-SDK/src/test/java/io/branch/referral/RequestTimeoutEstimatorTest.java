@@ -0,0 +1,104 @@
+package io.branch.referral;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class RequestTimeoutEstimatorTest {
+    private static final String OPEN = Defines.RequestPath.RegisterOpen.getPath();
+
+    private InMemorySharedPreferences sharedPreferences;
+    private PrefHelper prefHelper;
+
+    @Before
+    public void setUp() {
+        sharedPreferences = new InMemorySharedPreferences();
+        prefHelper = new PrefHelper(sharedPreferences);
+    }
+
+    @Test
+    public void testDefaultsToConfiguredTimeoutWithoutSamples() {
+        RequestTimeoutEstimator estimator = new RequestTimeoutEstimator(prefHelper);
+        Assert.assertEquals(PrefHelper.TIMEOUT, estimator.getTimeout(OPEN));
+        prefHelper.setTimeout(8000);
+        Assert.assertEquals(8000, estimator.getTimeout(OPEN));
+    }
+
+    @Test
+    public void testFastEndpointIsClampedToFloor() {
+        RequestTimeoutEstimator estimator = new RequestTimeoutEstimator(prefHelper);
+        for (int i = 0; i < 20; i++) {
+            estimator.onResponse(OPEN, 150);
+        }
+        Assert.assertEquals(RequestTimeoutEstimator.DEFAULT_TIMEOUT_FLOOR, estimator.getTimeout(OPEN));
+    }
+
+    @Test
+    public void testSlowEndpointExceedsDefaultTimeout() {
+        RequestTimeoutEstimator estimator = new RequestTimeoutEstimator(prefHelper);
+        estimator.setConnectionType("mobile");
+        long[] samples = {4000, 6500, 5200, 7000, 4800, 6100};
+        for (long sample : samples) {
+            estimator.onResponse(OPEN, sample);
+        }
+        int timeout = estimator.getTimeout(OPEN);
+        Assert.assertTrue(timeout > PrefHelper.TIMEOUT);
+        Assert.assertTrue(timeout <= RequestTimeoutEstimator.DEFAULT_TIMEOUT_CEILING);
+
+        // Estimates are kept per connection type
+        estimator.setConnectionType("wifi");
+        Assert.assertEquals(PrefHelper.TIMEOUT, estimator.getTimeout(OPEN));
+    }
+
+    @Test
+    public void testTimeoutBacksOffUntilNextResponse() {
+        RequestTimeoutEstimator estimator = new RequestTimeoutEstimator(prefHelper);
+        prefHelper.setTimeoutBounds(500, 60000);
+        for (int i = 0; i < 10; i++) {
+            estimator.onResponse(OPEN, 1000);
+        }
+        int timeout = estimator.getTimeout(OPEN);
+        estimator.onTimeout(OPEN);
+        Assert.assertEquals(timeout * 2, estimator.getTimeout(OPEN), 1);
+        estimator.onTimeout(OPEN);
+        Assert.assertEquals(timeout * 4, estimator.getTimeout(OPEN), 2);
+        estimator.onResponse(OPEN, 1000);
+        Assert.assertTrue(estimator.getTimeout(OPEN) < timeout * 2);
+    }
+
+    @Test
+    public void testEstimatesArePersisted() {
+        RequestTimeoutEstimator estimator = new RequestTimeoutEstimator(prefHelper);
+        prefHelper.setTimeoutBounds(100, 60000);
+        estimator.onResponse(OPEN, 800);
+        estimator.onResponse(OPEN, 1200);
+        int timeout = estimator.getTimeout(OPEN);
+
+        RequestTimeoutEstimator restored = new RequestTimeoutEstimator(new PrefHelper(sharedPreferences));
+        Assert.assertEquals(timeout, restored.getTimeout(OPEN), 1);
+    }
+
+    @Test
+    public void testRoundTripsRecordedByUrl() {
+        prefHelper.setTimeoutBounds(500, 60000);
+        for (int i = 0; i < 10; i++) {
+            prefHelper.onRoundTrip("https://api2.branch.io/v1/open?retryNumber=1", 700);
+        }
+        prefHelper.onRoundTrip("https://example.com/other", 30000);
+        Assert.assertTrue(prefHelper.getTimeout("https://api2.branch.io/v1/open") < PrefHelper.TIMEOUT);
+        Assert.assertEquals(PrefHelper.TIMEOUT, prefHelper.getTimeout("https://example.com/other"));
+    }
+
+    @Test
+    public void testGetRequestPath() {
+        Assert.assertEquals(OPEN, RequestTimeoutEstimator.getRequestPath("https://api2.branch.io/v1/open"));
+        Assert.assertEquals(Defines.RequestPath.GetLATD.getPath(),
+                RequestTimeoutEstimator.getRequestPath("https://api2.branch.io/v1/cpid/latd?retryNumber=0"));
+        Assert.assertEquals(Defines.RequestPath.GetCredits.getPath(),
+                RequestTimeoutEstimator.getRequestPath("https://api.branch.io/v1/credits/12345?branch_key=key"));
+        Assert.assertNull(RequestTimeoutEstimator.getRequestPath("https://example.com/other"));
+    }
+}
@@ -0,0 +1,154 @@
+package io.branch.referral;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class ResponseCacheTest {
+    private ResponseCache cache;
+    private ServerRequestQueue queue;
+    private final List<JSONArray> responses = new ArrayList<>();
+    private final List<BranchError> errors = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        PrefHelper.initForTesting(new InMemorySharedPreferences());
+        cache = new ResponseCache();
+        queue = new ServerRequestQueue(new InMemorySharedPreferences(), null);
+    }
+
+    @After
+    public void tearDown() {
+        PrefHelper.shutDown();
+    }
+
+    @Test
+    public void testIdenticalLookupsCoalesce() throws Exception {
+        ServerRequest leader = creditHistory("default");
+        Assert.assertFalse(cache.handleNewRequest(leader, null));
+        queue.enqueue(leader);
+        Assert.assertTrue(cache.handleNewRequest(creditHistory("default"), null));
+        Assert.assertTrue(cache.handleNewRequest(creditHistory("default"), null));
+        // A different lookup is sent on its own
+        Assert.assertFalse(cache.handleNewRequest(creditHistory("other"), null));
+        Assert.assertTrue(responses.isEmpty());
+
+        cache.onRequestSucceeded(leader, response(200), null);
+        Assert.assertEquals(3, responses.size());
+        Assert.assertEquals("tx_1", responses.get(2).getJSONObject(0).getString("id"));
+        // Every callback gets its own copy
+        responses.get(0).put("modified");
+        Assert.assertEquals(1, responses.get(1).length());
+
+        // Credit history is not cached by default, the next lookup is sent again
+        Assert.assertFalse(cache.handleNewRequest(creditHistory("default"), null));
+    }
+
+    @Test
+    public void testFailureFansOut() {
+        ServerRequest leader = creditHistory("default");
+        cache.handleNewRequest(leader, null);
+        queue.enqueue(leader);
+        cache.handleNewRequest(creditHistory("default"), null);
+        cache.handleFailure(leader, BranchError.ERR_BRANCH_REQ_TIMED_OUT, "");
+        Assert.assertEquals(2, errors.size());
+        Assert.assertEquals(BranchError.ERR_BRANCH_REQ_TIMED_OUT, errors.get(1).getErrorCode());
+        Assert.assertFalse(cache.handleNewRequest(creditHistory("default"), null));
+    }
+
+    @Test
+    public void testResponsesCachedForTimeToLive() throws Exception {
+        cache.setTimeToLive(Defines.RequestPath.GetCreditHistory, 60000);
+        ServerRequest leader = creditHistory("default");
+        cache.handleNewRequest(leader, null);
+        queue.enqueue(leader);
+        cache.onRequestSucceeded(leader, response(200), null);
+
+        Assert.assertTrue(cache.handleNewRequest(creditHistory("default"), null));
+        Assert.assertEquals(2, responses.size());
+        Assert.assertEquals("tx_1", responses.get(1).getJSONObject(0).getString("id"));
+
+        // Identity change or logout
+        cache.invalidate();
+        Assert.assertFalse(cache.handleNewRequest(creditHistory("default"), null));
+
+        // Failed lookups are not cached
+        ServerRequest failed = creditHistory("other");
+        cache.handleNewRequest(failed, null);
+        cache.onRequestSucceeded(failed, response(500), null);
+        Assert.assertFalse(cache.handleNewRequest(creditHistory("other"), null));
+    }
+
+    @Test
+    public void testInvalidatedWhileInFlight() throws Exception {
+        cache.setTimeToLive(Defines.RequestPath.GetCreditHistory, 60000);
+        ServerRequest leader = creditHistory("default");
+        cache.handleNewRequest(leader, null);
+        queue.enqueue(leader);
+        cache.handleNewRequest(creditHistory("default"), null);
+        cache.invalidate();
+
+        // Not coalesced into the lookup of the previous user
+        ServerRequest next = creditHistory("default");
+        Assert.assertFalse(cache.handleNewRequest(next, null));
+        queue.enqueue(next);
+
+        cache.onRequestSucceeded(leader, response(200), null);
+        Assert.assertEquals(2, responses.size());
+        Assert.assertFalse(cache.isCached(next.getResponseCacheKey()));
+        cache.onRequestSucceeded(next, response(200), null);
+        Assert.assertTrue(cache.isCached(next.getResponseCacheKey()));
+    }
+
+    @Test
+    public void testNotCoalescedIntoDroppedRequest() {
+        ServerRequest leader = creditHistory("default");
+        cache.handleNewRequest(leader, null);
+        queue.enqueue(leader);
+        queue.clear();
+        Assert.assertFalse(cache.handleNewRequest(creditHistory("default"), null));
+    }
+
+    @Test
+    public void testRequestsWithoutKeyAreNotHandled() throws Exception {
+        ServerRequest event = new ServerRequestActionCompleted(Defines.RequestPath.CompletedAction, new JSONObject(), null);
+        Assert.assertFalse(cache.handleNewRequest(event, null));
+        Assert.assertFalse(cache.handleNewRequest(event, null));
+    }
+
+    private ServerRequestGetRewardHistory creditHistory(String bucket) {
+        JSONObject post = new JSONObject();
+        try {
+            post.put(Defines.Jsonkey.Bucket.getKey(), bucket).put(Defines.Jsonkey.Length.getKey(), 100);
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+        ServerRequestGetRewardHistory request = new ServerRequestGetRewardHistory(Defines.RequestPath.GetCreditHistory, post, null);
+        request.callback_ = new Branch.BranchListResponseListener() {
+            @Override
+            public void onReceivingResponse(JSONArray list, BranchError error) {
+                if (error != null) {
+                    errors.add(error);
+                } else {
+                    responses.add(list);
+                }
+            }
+        };
+        return request;
+    }
+
+    private static ServerResponse response(int status) throws Exception {
+        ServerResponse response = new ServerResponse(Defines.RequestPath.GetCreditHistory.getPath(), status, "");
+        response.setPost(new JSONArray().put(new JSONObject().put("id", "tx_1")));
+        return response;
+    }
+}
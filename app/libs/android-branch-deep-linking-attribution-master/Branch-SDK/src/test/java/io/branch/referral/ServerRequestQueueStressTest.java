@@ -0,0 +1,238 @@
+package io.branch.referral;
+
+import org.json.JSONObject;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JVM stress test for {@link ServerRequestQueue} operation cost and lock contention at queue
+ * depths up to 10k, compared with the previous linked list under a global lock.
+ * <p>
+ * Run with {@code ./gradlew :Branch-SDK:testDebugUnitTest -Pbenchmark}; the report is written to
+ * {@code Branch-SDK/build/reports/benchmarks/ServerRequestQueueStress.json}.
+ * </p>
+ */
+@RunWith(JUnit4.class)
+public class ServerRequestQueueStressTest {
+    private static final int[] DEPTHS = {100, 1000, 10000};
+    private static final int PRODUCERS = 4;
+    private static final int OPERATIONS_PER_PRODUCER = 20000;
+    private static BenchmarkRunner runner;
+
+    @BeforeClass
+    public static void setUpClass() {
+        runner = new BenchmarkRunner("ServerRequestQueueStress", 500, 2000);
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        runner.writeReport();
+        PrefHelper.shutDown();
+    }
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(BenchmarkRunner.isEnabled());
+        PrefHelper.initForTesting(new InMemorySharedPreferences());
+    }
+
+    @Test
+    public void stressOperationCost() throws Exception {
+        for (final int depth : DEPTHS) {
+            final ServerRequestQueue queue = createFilledQueue(depth);
+            final LinkedListQueue legacy = new LinkedListQueue();
+            for (int i = 0; i < depth; i++) {
+                legacy.add(queue.peekAt(i));
+            }
+
+            runner.measure("indexed.peekAt.mid." + depth, new BenchmarkRunner.Operation() {
+                @Override
+                public Object run() {
+                    return queue.peekAt(depth / 2);
+                }
+            });
+            runner.measure("legacy.peekAt.mid." + depth, new BenchmarkRunner.Operation() {
+                @Override
+                public Object run() {
+                    return legacy.peekAt(depth / 2);
+                }
+            });
+            runner.measure("indexed.insertBehindHeadAndRemove." + depth, new BenchmarkRunner.Operation() {
+                @Override
+                public Object run() {
+                    queue.insert(createRequest(), 1);
+                    return queue.removeAt(1);
+                }
+            });
+            runner.measure("legacy.insertBehindHeadAndRemove." + depth, new BenchmarkRunner.Operation() {
+                @Override
+                public Object run() {
+                    legacy.insert(createRequest(), 1);
+                    return legacy.removeAt(1);
+                }
+            });
+            runner.measure("indexed.enqueueAndRemoveHead." + depth, new BenchmarkRunner.Operation() {
+                @Override
+                public Object run() {
+                    queue.enqueue(createRequest());
+                    return queue.remove(queue.peek());
+                }
+            });
+            runner.measure("indexed.getSelfInitRequest." + depth, new BenchmarkRunner.Operation() {
+                @Override
+                public Object run() {
+                    return queue.getSelfInitRequest();
+                }
+            });
+            runner.measure("legacy.getSelfInitRequest." + depth, new BenchmarkRunner.Operation() {
+                @Override
+                public Object run() {
+                    return legacy.getSelfInitRequest();
+                }
+            });
+            runner.measure("indexed.unlockProcessWait." + depth, new BenchmarkRunner.Operation() {
+                @Override
+                public Object run() {
+                    queue.unlockProcessWait(ServerRequest.PROCESS_WAIT_LOCK.GAID_FETCH_WAIT_LOCK);
+                    return queue;
+                }
+            });
+            Assert.assertEquals(depth, queue.getSize());
+        }
+    }
+
+    @Test
+    public void stressContention() throws Exception {
+        for (int depth : DEPTHS) {
+            final ServerRequestQueue queue = createFilledQueue(depth);
+            final long[] timings = new long[PRODUCERS * OPERATIONS_PER_PRODUCER];
+            final CountDownLatch start = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(PRODUCERS);
+            final AtomicBoolean producing = new AtomicBoolean(true);
+            final AtomicLong consumed = new AtomicLong();
+
+            for (int p = 0; p < PRODUCERS; p++) {
+                final int offset = p * OPERATIONS_PER_PRODUCER;
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                            for (int i = 0; i < OPERATIONS_PER_PRODUCER; i++) {
+                                ServerRequest request = createRequest();
+                                long begin = System.nanoTime();
+                                queue.enqueue(request);
+                                timings[offset + i] = System.nanoTime() - begin;
+                            }
+                        } catch (InterruptedException ignored) {
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                }).start();
+            }
+            // Single consumer like the network worker, removing processed requests from the head
+            Thread consumer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (producing.get() || queue.getSize() > 0) {
+                        ServerRequest head = queue.peekNextToSend();
+                        if (head != null && queue.remove(head)) {
+                            consumed.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            consumer.start();
+
+            long begin = System.nanoTime();
+            start.countDown();
+            done.await();
+            producing.set(false);
+            consumer.join();
+            long elapsed = System.nanoTime() - begin;
+
+            runner.record("contended.enqueue." + depth, timings);
+            runner.recordValue("contended.throughput." + depth, "ops/s",
+                    (timings.length + consumed.get()) * 1e9 / elapsed);
+            Assert.assertEquals(0, queue.getSize());
+        }
+    }
+
+    private static ServerRequestQueue createFilledQueue(int depth) {
+        // Persisting is measured separately by HotPathBenchmark, this measures the in-memory structure
+        ServerRequestQueue queue = new ServerRequestQueue(new InMemorySharedPreferences(), null, Integer.MAX_VALUE) {
+            @Override
+            void persist() {
+            }
+        };
+        for (int i = 0; i < depth; i++) {
+            ServerRequest request = createRequest();
+            if (i % 10 == 0) {
+                request.addProcessWaitLock(ServerRequest.PROCESS_WAIT_LOCK.SDK_INIT_WAIT_LOCK);
+            }
+            queue.enqueue(request);
+        }
+        return queue;
+    }
+
+    private static ServerRequest createRequest() {
+        return new ServerRequestActionCompleted(Defines.RequestPath.CompletedAction, new JSONObject(), null);
+    }
+
+    /**
+     * The previous queue structure, a synchronized linked list behind a global lock.
+     */
+    private static class LinkedListQueue {
+        private static final Object lock = new Object();
+        private final List<ServerRequest> queue = Collections.synchronizedList(new LinkedList<ServerRequest>());
+
+        void add(ServerRequest request) {
+            synchronized (lock) {
+                queue.add(request);
+            }
+        }
+
+        ServerRequest peekAt(int index) {
+            synchronized (lock) {
+                return queue.get(index);
+            }
+        }
+
+        void insert(ServerRequest request, int index) {
+            synchronized (lock) {
+                queue.add(index, request);
+            }
+        }
+
+        ServerRequest removeAt(int index) {
+            synchronized (lock) {
+                return queue.remove(index);
+            }
+        }
+
+        ServerRequestInitSession getSelfInitRequest() {
+            synchronized (lock) {
+                for (ServerRequest req : queue) {
+                    if (req instanceof ServerRequestInitSession && ((ServerRequestInitSession) req).initiatedByClient) {
+                        return (ServerRequestInitSession) req;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,547 @@
+package io.branch.referral;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+@RunWith(JUnit4.class)
+public class ServerRequestQueueTest {
+    private static final String PREF_KEY = "BNCServerRequestQueue";
+
+    private ServerRequestQueue queue;
+
+    @Before
+    public void setUp() {
+        PrefHelper.initForTesting(new InMemorySharedPreferences());
+        queue = new ServerRequestQueue(new InMemorySharedPreferences(), null);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        PrefHelper.shutDown();
+    }
+
+    @Test
+    public void testUrgency() {
+        // Close is not persisted, deferring it could lose it
+        Assert.assertEquals(ServerRequest.URGENCY.IMMEDIATE, createClose().getUrgency());
+        Assert.assertEquals(ServerRequest.URGENCY.IMMEDIATE, createEvent().getUrgency());
+    }
+
+    @Test
+    public void testDeferredRequestsDoNotBlockQueue() {
+        ServerRequest close = createClose();
+        close.addProcessWaitLock(ServerRequest.PROCESS_WAIT_LOCK.DEFERRED_SEND_WAIT_LOCK);
+        ServerRequest event = createEvent();
+        queue.enqueue(close);
+        queue.enqueue(event);
+
+        Assert.assertTrue(close.isDeferred());
+        Assert.assertSame(event, queue.peekNextToSend());
+
+        queue.remove(event);
+        // Only deferred requests left, the head is returned and still waits for the flush
+        Assert.assertSame(close, queue.peekNextToSend());
+        Assert.assertTrue(close.isWaitingOnProcessToFinish());
+
+        queue.unlockProcessWait(ServerRequest.PROCESS_WAIT_LOCK.DEFERRED_SEND_WAIT_LOCK);
+        Assert.assertFalse(close.isWaitingOnProcessToFinish());
+        Assert.assertSame(close, queue.peekNextToSend());
+    }
+
+    @Test
+    public void testOtherLocksStillBlockQueue() {
+        ServerRequest close = createClose();
+        close.addProcessWaitLock(ServerRequest.PROCESS_WAIT_LOCK.DEFERRED_SEND_WAIT_LOCK);
+        close.addProcessWaitLock(ServerRequest.PROCESS_WAIT_LOCK.SDK_INIT_WAIT_LOCK);
+        queue.enqueue(close);
+        queue.enqueue(createEvent());
+
+        Assert.assertFalse(close.isDeferred());
+        Assert.assertSame(close, queue.peekNextToSend());
+    }
+
+    @Test
+    public void testSentByPriority() {
+        ServerRequest close = createClose();
+        ServerRequest event = createEvent();
+        ServerRequest link = createLink();
+        queue.enqueue(close);
+        queue.enqueue(event);
+        queue.enqueue(link);
+
+        Assert.assertEquals(ServerRequest.PRIORITY.USER_INTERACTIVE, link.getPriority());
+        Assert.assertSame(link, queue.peekNextToSend());
+        queue.remove(link);
+        // Oldest first within a class
+        Assert.assertSame(close, queue.peekNextToSend());
+    }
+
+    @Test
+    public void testSessionCriticalRequestsAreNotPassed() {
+        ServerRequest event = createEvent();
+        ServerRequestInitSession open = createOpen(false);
+        ServerRequest link = createLink();
+        queue.enqueue(event);
+        queue.enqueue(open);
+        queue.enqueue(link);
+
+        // Requests queued before the open are still sent first, the ones after it wait for it
+        Assert.assertSame(event, queue.peekNextToSend());
+        queue.remove(event);
+        Assert.assertSame(open, queue.peekNextToSend());
+
+        // Waiting on a lock it keeps blocking the requests needing its session
+        open.addProcessWaitLock(ServerRequest.PROCESS_WAIT_LOCK.SDK_INIT_WAIT_LOCK);
+        Assert.assertSame(open, queue.peekNextToSend());
+        queue.unlockProcessWait(ServerRequest.PROCESS_WAIT_LOCK.SDK_INIT_WAIT_LOCK);
+        queue.remove(open);
+        Assert.assertSame(link, queue.peekNextToSend());
+    }
+
+    @Test
+    public void testBlockedRequestsArePassedOver() {
+        ServerRequest event = createEvent();
+        final ServerRequest link = createLink();
+        queue.enqueue(event);
+        queue.enqueue(link);
+
+        // The link would go first, its endpoint is blocked so the event is sent instead
+        Assert.assertSame(event, queue.peekNextToSend(new ServerRequestQueue.SendFilter() {
+            @Override
+            public boolean isBlocked(ServerRequest request) {
+                return request == link;
+            }
+        }));
+        ServerRequestQueue.SendFilter blockAll = new ServerRequestQueue.SendFilter() {
+            @Override
+            public boolean isBlocked(ServerRequest request) {
+                return true;
+            }
+        };
+        Assert.assertNull(queue.peekNextToSend(blockAll));
+
+        // A blocked session critical request is not passed by the requests after it
+        final ServerRequestInitSession open = createOpen(false);
+        queue.insert(open, 0);
+        Assert.assertNull(queue.peekNextToSend(new ServerRequestQueue.SendFilter() {
+            @Override
+            public boolean isBlocked(ServerRequest request) {
+                return request == open;
+            }
+        }));
+        Assert.assertSame(open, queue.peekNextToSend());
+    }
+
+    @Test
+    public void testWaitingRequestsAge() throws InterruptedException {
+        ServerRequest event = createEvent();
+        event.onRequestQueued();
+        queue.enqueue(event);
+        Thread.sleep(20);
+        ServerRequest link = createLink();
+        link.onRequestQueued();
+        queue.enqueue(link);
+        Assert.assertSame(link, queue.peekNextToSend());
+
+        // Waited longer than two aging intervals, it is raised above the fresh interactive request
+        queue.setAgingMillis(5);
+        Assert.assertSame(event, queue.peekNextToSend());
+    }
+
+    @Test
+    public void testQueueWaitPercentiles() {
+        Assert.assertEquals(-1, queue.getQueueWaitPercentile(ServerRequest.PRIORITY.BACKGROUND, 50));
+        QueueWaitStats stats = new QueueWaitStats();
+        for (int i = 1; i <= 100; i++) {
+            stats.record(ServerRequest.PRIORITY.STANDARD, i);
+        }
+        Assert.assertEquals(50, stats.getPercentile(ServerRequest.PRIORITY.STANDARD, 50));
+        Assert.assertEquals(95, stats.getPercentile(ServerRequest.PRIORITY.STANDARD, 95));
+        Assert.assertEquals(100, stats.getPercentile(ServerRequest.PRIORITY.STANDARD, 100));
+        Assert.assertEquals(-1, stats.getPercentile(ServerRequest.PRIORITY.USER_INTERACTIVE, 50));
+
+        // Only the most recent waits are kept
+        for (int i = 0; i < QueueWaitStats.SAMPLES_PER_CLASS; i++) {
+            stats.record(ServerRequest.PRIORITY.STANDARD, 1000);
+        }
+        Assert.assertEquals(1000, stats.getPercentile(ServerRequest.PRIORITY.STANDARD, 0));
+        Assert.assertEquals(100 + QueueWaitStats.SAMPLES_PER_CLASS, stats.getCount(ServerRequest.PRIORITY.STANDARD));
+
+        ServerRequest event = createEvent();
+        queue.onRequestSent(event);
+        Assert.assertEquals(0, queue.getQueueWaitPercentile(ServerRequest.PRIORITY.BACKGROUND, 50));
+    }
+
+    @Test
+    public void testMatchesListModel() {
+        ServerRequestQueue deepQueue = new ServerRequestQueue(new InMemorySharedPreferences(), null, 200);
+        List<ServerRequest> model = new LinkedList<>();
+        Random random = new Random(7);
+        for (int op = 0; op < 5000; op++) {
+            int choice = random.nextInt(6);
+            if (choice <= 1) {
+                ServerRequest req = createEvent();
+                deepQueue.enqueue(req);
+                model.add(req);
+                if (model.size() >= 200) {
+                    model.remove(1);
+                }
+            } else if (choice == 2) {
+                ServerRequest req = createEvent();
+                int index = random.nextInt(3) == 0 ? random.nextInt(model.size() + 1) : random.nextInt(2);
+                deepQueue.insert(req, index);
+                model.add(Math.min(index, model.size()), req);
+            } else if (choice == 3 && !model.isEmpty()) {
+                Assert.assertTrue(deepQueue.remove(model.remove(0)));
+            } else if (choice == 4 && !model.isEmpty()) {
+                int index = random.nextInt(model.size());
+                Assert.assertSame(model.remove(index), deepQueue.removeAt(index));
+            } else if (!model.isEmpty()) {
+                ServerRequest req = model.remove(random.nextInt(model.size()));
+                Assert.assertTrue(deepQueue.remove(req));
+                Assert.assertFalse(deepQueue.remove(req));
+            }
+            Assert.assertEquals(model.size(), deepQueue.getSize());
+            Assert.assertSame(model.isEmpty() ? null : model.get(0), deepQueue.peek());
+        }
+        for (int i = 0; i < model.size(); i++) {
+            Assert.assertSame(model.get(i), deepQueue.peekAt(i));
+        }
+        Assert.assertNull(deepQueue.peekAt(model.size()));
+        Assert.assertNull(deepQueue.peekAt(-1));
+    }
+
+    @Test
+    public void testEvictsSecondOldestWhenFull() {
+        ServerRequest first = createEvent();
+        ServerRequest second = createEvent();
+        queue.enqueue(first);
+        queue.enqueue(second);
+        for (int i = 0; i < 22; i++) {
+            queue.enqueue(createEvent());
+        }
+        Assert.assertEquals(24, queue.getSize());
+        queue.enqueue(createEvent());
+        Assert.assertEquals(24, queue.getSize());
+        Assert.assertSame(first, queue.peek());
+        Assert.assertNotSame(second, queue.peekAt(1));
+    }
+
+    @Test
+    public void testInitRequestAndWaitLockIndexes() {
+        ServerRequestInitSession autoInit = createOpen(true);
+        ServerRequestInitSession clientInit = createOpen(false);
+        queue.enqueue(createEvent());
+        queue.insert(autoInit, 0);
+        Assert.assertNull(queue.getSelfInitRequest());
+        queue.insert(clientInit, 1);
+        Assert.assertSame(clientInit, queue.getSelfInitRequest());
+
+        queue.setStrongMatchWaitLock();
+        Assert.assertTrue(autoInit.isWaitingOnProcessToFinish());
+        Assert.assertTrue(clientInit.isWaitingOnProcessToFinish());
+
+        // Locks set before and after queueing are both released
+        ServerRequest event = createEvent();
+        event.addProcessWaitLock(ServerRequest.PROCESS_WAIT_LOCK.SDK_INIT_WAIT_LOCK);
+        queue.enqueue(event);
+        ServerRequest lockedLater = createEvent();
+        queue.enqueue(lockedLater);
+        lockedLater.addProcessWaitLock(ServerRequest.PROCESS_WAIT_LOCK.SDK_INIT_WAIT_LOCK);
+        queue.unlockProcessWait(ServerRequest.PROCESS_WAIT_LOCK.SDK_INIT_WAIT_LOCK);
+        Assert.assertFalse(event.isWaitingOnProcessToFinish());
+        Assert.assertFalse(lockedLater.isWaitingOnProcessToFinish());
+
+        queue.unlockProcessWait(ServerRequest.PROCESS_WAIT_LOCK.STRONG_MATCH_PENDING_WAIT_LOCK);
+        Assert.assertFalse(clientInit.isWaitingOnProcessToFinish());
+
+        queue.remove(clientInit);
+        Assert.assertNull(queue.getSelfInitRequest());
+        queue.clear();
+        Assert.assertEquals(0, queue.getSize());
+        Assert.assertNull(queue.peek());
+    }
+
+    @Test
+    public void testPersistedInOrder() throws Exception {
+        InMemorySharedPreferences prefs = new InMemorySharedPreferences();
+        ServerRequestQueue persisted = new ServerRequestQueue(prefs, null);
+        for (int i = 0; i < 5; i++) {
+            persisted.enqueue(createEvent("event_" + i));
+        }
+        persisted.insert(createEvent("front"), 0);
+        persisted.enqueue(createClose());
+
+        ServerRequestQueue restored = new ServerRequestQueue(prefs, null);
+        Assert.assertEquals(6, restored.getSize());
+        Assert.assertEquals("front", restored.peek().getPost().getString(Defines.Jsonkey.Event.getKey()));
+        Assert.assertEquals("event_4", restored.peekAt(5).getPost().getString(Defines.Jsonkey.Event.getKey()));
+    }
+
+    @Test
+    public void testRequestsBehindHeadAreCompacted() throws Exception {
+        ServerRequest head = createEvent("head");
+        ServerRequest queued = createEvent("queued");
+        String persistedForm = queued.toJSON().toString();
+        queue.enqueue(head);
+        queue.enqueue(queued);
+        queue.enqueue(createClose());
+
+        Assert.assertFalse(head.isCompact());
+        Assert.assertTrue(queued.isCompact());
+        Assert.assertEquals(persistedForm, queued.toPersistedString());
+        Assert.assertTrue(queued.isCompact());
+
+        queue.remove(head);
+        Assert.assertSame(queued, queue.peek());
+        Assert.assertEquals("queued", queued.getPost().getString(Defines.Jsonkey.Event.getKey()));
+        Assert.assertFalse(queued.isCompact());
+    }
+
+    @Test
+    public void testRestoredLazilyInOrder() throws Exception {
+        InMemorySharedPreferences prefs = new InMemorySharedPreferences();
+        ServerRequestQueue persisted = new ServerRequestQueue(prefs, null);
+        for (int i = 0; i < 5; i++) {
+            persisted.enqueue(createEvent("event_" + i));
+        }
+        String persistedQueue = prefs.getString(PREF_KEY, null);
+
+        ServerRequestQueue restored = new ServerRequestQueue(prefs, null);
+        Assert.assertEquals(5, restored.getSize());
+        for (int i = 0; i < 5; i++) {
+            Assert.assertFalse(restored.isDecoded(i));
+        }
+        // Entries that were never decoded are persisted as they were read
+        restored.persist();
+        Assert.assertEquals(persistedQueue, prefs.getString(PREF_KEY, null));
+
+        ServerRequest event = restored.peekAt(2);
+        Assert.assertTrue(restored.isDecoded(2));
+        Assert.assertFalse(restored.isDecoded(3));
+        Assert.assertTrue(event.isCompact());
+        Assert.assertEquals("event_2", event.getPost().getString(Defines.Jsonkey.Event.getKey()));
+        Assert.assertSame(event, restored.peekAt(2));
+        Assert.assertTrue(restored.remove(event));
+        Assert.assertEquals("event_4", restored.removeAt(3).getPost().getString(Defines.Jsonkey.Event.getKey()));
+        Assert.assertEquals("event_0", restored.peek().getPost().getString(Defines.Jsonkey.Event.getKey()));
+        Assert.assertEquals(3, restored.getSize());
+    }
+
+    @Test
+    public void testRestoredInitRequestsAreDecoded() {
+        InMemorySharedPreferences prefs = new InMemorySharedPreferences();
+        ServerRequestQueue persisted = new ServerRequestQueue(prefs, null);
+        persisted.enqueue(createEvent());
+        persisted.enqueue(createOpen(false));
+
+        // Decoded right away so the init request index is complete
+        ServerRequestQueue restored = new ServerRequestQueue(prefs, null);
+        Assert.assertFalse(restored.isDecoded(0));
+        Assert.assertTrue(restored.isDecoded(1));
+        Assert.assertTrue(restored.peekAt(1) instanceof ServerRequestRegisterOpen);
+    }
+
+    @Test
+    public void testRestoredEntriesScheduledWithoutDecoding() {
+        InMemorySharedPreferences prefs = new InMemorySharedPreferences();
+        prefs.edit().putString(PREF_KEY, "["
+                + "{\"REQ_POST_PATH\":\"v1\\/close\",\"REQ_POST\":{}},"
+                + "{\"REQ_POST_PATH\":\"v1\\/event\",\"REQ_POST\":{}},"
+                + "{\"REQ_POST_PATH\":\"v1\\/credithistory\",\"REQ_POST\":{}},"
+                + "{\"REQ_POST_PATH\":\"v1\\/event\",\"REQ_POST\":{}}"
+                + "]").apply();
+
+        ServerRequestQueue restored = new ServerRequestQueue(prefs, null);
+        Assert.assertTrue(restored.peekNextToSend() instanceof ServerRequestGetRewardHistory);
+        // Only the chosen request is decoded
+        Assert.assertFalse(restored.isDecoded(0));
+        Assert.assertFalse(restored.isDecoded(1));
+        Assert.assertTrue(restored.isDecoded(2));
+        Assert.assertFalse(restored.isDecoded(3));
+    }
+
+    @Test
+    public void testRestoredEntriesKeepAging() throws Exception {
+        InMemorySharedPreferences prefs = new InMemorySharedPreferences();
+        ServerRequestQueue persisted = new ServerRequestQueue(prefs, null);
+        ServerRequest event = createEvent("old");
+        event.onRequestQueued();
+        event.setQueuedTime(System.currentTimeMillis() - 60000);
+        persisted.enqueue(event);
+
+        ServerRequestQueue restored = new ServerRequestQueue(prefs, null);
+        ServerRequest link = createLink();
+        link.onRequestQueued();
+        restored.enqueue(link);
+        // Queued a minute before the restart, it has aged above the fresh interactive request
+        Assert.assertFalse(restored.isDecoded(0));
+        Assert.assertEquals("old", restored.peekNextToSend().getPost().getString(Defines.Jsonkey.Event.getKey()));
+        Assert.assertTrue(restored.peekAt(0).getQueueWaitTime() >= 60000);
+
+        // Entries persisted without a queued time age from the restore
+        prefs.edit().putString(PREF_KEY, "[{\"REQ_POST_PATH\":\"v1\\/event\",\"REQ_POST\":{}}]").apply();
+        restored = new ServerRequestQueue(prefs, null);
+        Thread.sleep(20);
+        Assert.assertTrue(restored.peekAt(0).getQueueWaitTime() > 0);
+    }
+
+    @Test
+    public void testEvictsLowestPriorityWhenFull() throws Exception {
+        InMemorySharedPreferences prefs = new InMemorySharedPreferences();
+        prefs.edit().putString(PREF_KEY, "["
+                + "{\"REQ_POST_PATH\":\"v1\\/event\",\"REQ_POST\":{\"event\":\"head\"}},"
+                + "{\"REQ_POST_PATH\":\"v1\\/credithistory\",\"REQ_POST\":{}},"
+                + "{\"REQ_POST_PATH\":\"v1\\/event\",\"REQ_POST\":{\"event\":\"restored\"}}"
+                + "]").apply();
+
+        ServerRequestQueue restored = new ServerRequestQueue(prefs, null);
+        for (int i = 0; i < 21; i++) {
+            restored.enqueue(createEvent());
+        }
+        Assert.assertEquals(24, restored.getSize());
+        restored.enqueue(createEvent());
+        // The restored reward history request is kept, the oldest background event goes
+        Assert.assertEquals(24, restored.getSize());
+        Assert.assertTrue(restored.peekAt(1) instanceof ServerRequestGetRewardHistory);
+        Assert.assertFalse(restored.peekAt(2).getPost().has(Defines.Jsonkey.Event.getKey()));
+    }
+
+    @Test
+    public void testRestoredRequestsSentWithCurrentIds() throws Exception {
+        InMemorySharedPreferences prefs = new InMemorySharedPreferences();
+        prefs.edit().putString(PREF_KEY, "["
+                + "{\"REQ_POST_PATH\":\"v1\\/event\",\"REQ_POST\":{\"session_id\":\"old\",\"identity_id\":\"old\"}}"
+                + "]").apply();
+        PrefHelper prefHelper = PrefHelper.getInstance(null);
+        prefHelper.setSessionID("new_session");
+        prefHelper.setIdentityID("new_identity");
+
+        // The ids are only brought up to date when the request is sent
+        ServerRequestQueue restored = new ServerRequestQueue(prefs, null);
+        ServerRequest event = restored.peekNextToSend();
+        Assert.assertEquals("old", event.getPost().getString(Defines.Jsonkey.SessionID.getKey()));
+        event.updateSessionIds();
+        Assert.assertEquals("new_session", event.getPost().getString(Defines.Jsonkey.SessionID.getKey()));
+        Assert.assertEquals("new_identity", event.getPost().getString(Defines.Jsonkey.IdentityID.getKey()));
+        Assert.assertFalse(event.getPost().has(Defines.Jsonkey.DeviceFingerprintID.getKey()));
+    }
+
+    @Test
+    public void testRestoredPriorityMatchesRequest() {
+        for (Defines.RequestPath path : Defines.RequestPath.values()) {
+            if (ServerRequest.isRestorable(path.getPath())) {
+                JSONObject json = new JSONObject();
+                try {
+                    json.put("REQ_POST", new JSONObject()).put(ServerRequest.POST_PATH_KEY, path.getPath());
+                } catch (JSONException e) {
+                    Assert.fail(e.getMessage());
+                }
+                ServerRequest request = ServerRequest.fromJSON(json, null);
+                Assert.assertEquals(path.getPath(), request.getPriority(), ServerRequest.getRestoredPriority(path.getPath()));
+            }
+        }
+    }
+
+    @Test
+    public void testV2EventsRestored() throws Exception {
+        InMemorySharedPreferences prefs = new InMemorySharedPreferences();
+        prefs.edit().putString(PREF_KEY, "["
+                + "{\"REQ_POST_PATH\":\"v2\\/event\\/custom\",\"REQ_POST\":{\"name\":\"signup\"}},"
+                + "{\"REQ_POST_PATH\":\"v2\\/event\\/standard\",\"REQ_POST\":{\"name\":\"PURCHASE\"}}"
+                + "]").apply();
+
+        // Deferred custom events must survive a restart
+        ServerRequestQueue restored = new ServerRequestQueue(prefs, null);
+        Assert.assertEquals(2, restored.getSize());
+        ServerRequest custom = restored.peekAt(0);
+        Assert.assertTrue(custom instanceof ServerRequestLogEvent);
+        Assert.assertEquals(Defines.RequestPath.TrackCustomEvent.getPath(), custom.getRequestPath());
+        Assert.assertEquals("signup", custom.getPost().getString(Defines.Jsonkey.Name.getKey()));
+        Assert.assertEquals(ServerRequest.BRANCH_API_VERSION.V2, custom.getBranchRemoteAPIVersion());
+        Assert.assertEquals(Defines.RequestPath.TrackStandardEvent.getPath(), restored.peekAt(1).getRequestPath());
+    }
+
+    @Test
+    public void testInsertAtFrontPassesWaitingRequests() {
+        ServerRequest event = createEvent();
+        ServerRequest link = createLink();
+        queue.enqueue(event);
+        queue.enqueue(link);
+
+        // The link is in flight behind the event, the init request goes ahead of both
+        queue.setInFlight(link);
+        ServerRequestInitSession open = createOpen(false);
+        queue.insertAtFront(open);
+        Assert.assertSame(open, queue.peek());
+        Assert.assertSame(open, queue.peekNextToSend());
+        queue.remove(open);
+
+        // The head is in flight, the init request is queued right behind it
+        queue.setInFlight(event);
+        ServerRequestInitSession reopen = createOpen(false);
+        queue.insertAtFront(reopen);
+        Assert.assertSame(event, queue.peek());
+        Assert.assertSame(reopen, queue.peekAt(1));
+
+        // Once the head completed the next init request goes first again
+        queue.onRequestCompleted(event);
+        ServerRequestInitSession third = createOpen(false);
+        queue.insertAtFront(third);
+        Assert.assertSame(third, queue.peek());
+    }
+
+    @Test
+    public void testRestoreSkipsUnreadableEntries() throws Exception {
+        InMemorySharedPreferences prefs = new InMemorySharedPreferences();
+        prefs.edit().putString(PREF_KEY, "["
+                + "{\"REQ_POST\":{\"name\":\"unknown\"},\"REQ_POST_PATH\":\"v1\\/unknown\"},"
+                + "{\"REQ_POST\":{\"name\":[\"}\"]},\"REQ_POST_PATH\":\"v1\\/event\"},"
+                + "{\"REQ_POST_PATH\":\"v1\\/event\",\"REQ_POST\":{\"name\":}},"
+                + "{\"REQ_POST_PATH\":\"v1\\/close\",\"REQ_POST\":{}}"
+                + "]").apply();
+
+        ServerRequestQueue restored = new ServerRequestQueue(prefs, null);
+        Assert.assertEquals(3, restored.getSize());
+        ServerRequest event = restored.peek();
+        Assert.assertTrue(event instanceof ServerRequestActionCompleted);
+        Assert.assertEquals("}", event.getPost().getJSONArray("name").getString(0));
+        // The corrupt entry is dropped when it is decoded
+        Assert.assertTrue(restored.peekAt(1) instanceof ServerRequestRegisterClose);
+        Assert.assertEquals(2, restored.getSize());
+
+        prefs.edit().putString(PREF_KEY, "[{\"REQ_POST_PATH\":\"v1\\/close\",\"REQ_POST\":{}},{\"REQ_POST").apply();
+        Assert.assertEquals(0, new ServerRequestQueue(prefs, null).getSize());
+    }
+
+    private static ServerRequest createClose() {
+        return new ServerRequestRegisterClose(Defines.RequestPath.RegisterClose, new JSONObject(), null);
+    }
+
+    private static ServerRequest createEvent() {
+        return new ServerRequestActionCompleted(Defines.RequestPath.CompletedAction, new JSONObject(), null);
+    }
+
+    private static ServerRequest createEvent(String name) throws JSONException {
+        JSONObject post = new JSONObject().put(Defines.Jsonkey.Event.getKey(), name);
+        return new ServerRequestActionCompleted(Defines.RequestPath.CompletedAction, post, null);
+    }
+
+    private static ServerRequest createLink() {
+        return new ServerRequestCreateUrl(Defines.RequestPath.GetURL, new JSONObject(), null);
+    }
+
+    private static ServerRequestInitSession createOpen(boolean isAutoInitialization) {
+        return new ServerRequestRegisterOpen(Defines.RequestPath.RegisterOpen, new JSONObject(), null, isAutoInitialization);
+    }
+}
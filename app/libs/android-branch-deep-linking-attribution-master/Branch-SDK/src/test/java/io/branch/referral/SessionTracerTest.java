@@ -0,0 +1,68 @@
+package io.branch.referral;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class SessionTracerTest {
+
+    @After
+    public void tearDown() {
+        SessionTracer.disable();
+    }
+
+    @Test
+    public void testDisabledByDefault() {
+        Assert.assertFalse(SessionTracer.isEnabled());
+        Assert.assertEquals(0, SessionTracer.begin());
+        SessionTracer.end("span", SessionTracer.begin());
+        Assert.assertNull(SessionTracer.toTraceJson());
+    }
+
+    @Test
+    public void testRecordsCompleteEvents() throws Exception {
+        SessionTracer.enable(16);
+        long start = SessionTracer.begin();
+        Assert.assertTrue(start > 0);
+        SessionTracer.end("network rtt", "v1/open", start);
+
+        JSONArray events = SessionTracer.toTraceJson().getJSONArray("traceEvents");
+        JSONObject span = events.getJSONObject(0);
+        Assert.assertEquals("network rtt", span.getString("name"));
+        Assert.assertEquals("X", span.getString("ph"));
+        Assert.assertEquals(Thread.currentThread().getId(), span.getLong("tid"));
+        Assert.assertEquals("v1/open", span.getJSONObject("args").getString("detail"));
+        Assert.assertTrue(span.getDouble("dur") >= 0);
+
+        JSONObject threadName = events.getJSONObject(1);
+        Assert.assertEquals("M", threadName.getString("ph"));
+        Assert.assertEquals(Thread.currentThread().getName(), threadName.getJSONObject("args").getString("name"));
+    }
+
+    @Test
+    public void testRingBufferKeepsMostRecentSpans() throws Exception {
+        SessionTracer.enable(3);
+        for (int i = 0; i < 5; i++) {
+            SessionTracer.end("span" + i, SessionTracer.begin());
+        }
+        JSONObject trace = SessionTracer.toTraceJson();
+        JSONArray events = trace.getJSONArray("traceEvents");
+        Assert.assertEquals("span2", events.getJSONObject(0).getString("name"));
+        Assert.assertEquals("span3", events.getJSONObject(1).getString("name"));
+        Assert.assertEquals("span4", events.getJSONObject(2).getString("name"));
+        Assert.assertEquals(2, trace.getLong("droppedEvents"));
+    }
+
+    @Test
+    public void testSpanStartedBeforeEnableIsIgnored() throws Exception {
+        long start = SessionTracer.begin();
+        SessionTracer.enable(4);
+        SessionTracer.end("span", start);
+        Assert.assertEquals(0, SessionTracer.toTraceJson().getJSONArray("traceEvents").length());
+    }
+}
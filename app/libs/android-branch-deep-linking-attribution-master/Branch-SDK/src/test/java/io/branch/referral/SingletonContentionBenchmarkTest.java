@@ -0,0 +1,137 @@
+package io.branch.referral;
+
+import org.json.JSONObject;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * JVM benchmark for the singleton lookups made while many threads log events at once: the event,
+ * its request and the round trip each look up {@link Branch}, {@link PrefHelper} or
+ * {@link DeviceInfo}. Compares the lock free lookups with the previous ones through a
+ * {@code synchronized static} method.
+ * <p>
+ * Run with {@code ./gradlew :Branch-SDK:testDebugUnitTest -Pbenchmark}; the report is written to
+ * {@code Branch-SDK/build/reports/benchmarks/SingletonContentionBenchmark.json}.
+ * </p>
+ */
+@RunWith(JUnit4.class)
+public class SingletonContentionBenchmarkTest {
+    private static final int[] THREADS = {1, 4, 16};
+    private static final int EVENTS_PER_THREAD = 20000;
+    // Branch lookups per event before the instance was passed down: logEvent, setPost and the round trip
+    private static final int BRANCH_LOOKUPS_PER_EVENT = 5;
+    private static BenchmarkRunner runner;
+
+    @BeforeClass
+    public static void setUpClass() {
+        runner = new BenchmarkRunner("SingletonContentionBenchmark");
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        runner.writeReport();
+        PrefHelper.shutDown();
+    }
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(BenchmarkRunner.isEnabled());
+        PrefHelper.initForTesting(new InMemorySharedPreferences());
+    }
+
+    @Test
+    public void benchmarkConcurrentLogEvent() throws Exception {
+        PrefHelper prefHelper = PrefHelper.getInstance(null);
+        // There is no Branch instance on the JVM, the lookups cost the same whether it is set or not
+        Lookups lockFree = new Lookups() {
+            @Override
+            public Object lookUp() {
+                Object branch = Branch.getInstance();
+                Object deviceInfo = DeviceInfo.getInstance();
+                return branch != null ? branch : deviceInfo;
+            }
+        };
+        Lookups synchronizedLookups = new Lookups() {
+            @Override
+            public Object lookUp() {
+                Object branch = null;
+                for (int i = 0; i < BRANCH_LOOKUPS_PER_EVENT; i++) {
+                    branch = SynchronizedSingleton.getInstance();
+                }
+                return branch;
+            }
+        };
+        // Warm up, not reported
+        run(null, THREADS[THREADS.length - 1], prefHelper, lockFree);
+        run(null, THREADS[THREADS.length - 1], prefHelper, synchronizedLookups);
+        for (int threads : THREADS) {
+            run("lockfree." + threads, threads, prefHelper, lockFree);
+            run("synchronized." + threads, threads, prefHelper, synchronizedLookups);
+        }
+    }
+
+    private static void run(String name, int threads, final PrefHelper prefHelper, final Lookups lookups) throws Exception {
+        final long[] timings = new long[threads * EVENTS_PER_THREAD];
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicInteger otherPrefHelpers = new AtomicInteger();
+
+        for (int t = 0; t < threads; t++) {
+            final int offset = t * EVENTS_PER_THREAD;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < EVENTS_PER_THREAD; i++) {
+                            long begin = System.nanoTime();
+                            lookups.lookUp();
+                            // Looks up the PrefHelper singleton like every request does
+                            ServerRequest request = new ServerRequestActionCompleted(Defines.RequestPath.TrackCustomEvent, new JSONObject(), null);
+                            timings[offset + i] = System.nanoTime() - begin;
+                            if (request.prefHelper_ != prefHelper) {
+                                otherPrefHelpers.incrementAndGet();
+                            }
+                        }
+                    } catch (InterruptedException ignored) {
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+
+        Assert.assertEquals(0, otherPrefHelpers.get());
+        if (name != null) {
+            runner.record(name + ".logEvent", timings);
+            runner.recordValue(name + ".throughput", "events/s", timings.length * 1e9 / elapsed);
+        }
+    }
+
+    private interface Lookups {
+        Object lookUp();
+    }
+
+    /**
+     * The previous lookup, through a method holding the class lock.
+     */
+    private static class SynchronizedSingleton {
+        synchronized static Branch getInstance() {
+            return Branch.getInstance();
+        }
+    }
+}
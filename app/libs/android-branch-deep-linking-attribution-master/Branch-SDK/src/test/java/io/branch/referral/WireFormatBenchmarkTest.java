@@ -0,0 +1,159 @@
+package io.branch.referral;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import io.branch.referral.network.CompactWireFormat;
+
+/**
+ * JVM benchmarks comparing the JSON and the compact wire format, see {@link CompactWireFormat},
+ * for install, open and event payloads: the bytes sent, and the CPU time to encode and decode.
+ * <p>
+ * Run with {@code ./gradlew :Branch-SDK:testDebugUnitTest -Pbenchmark}; the report is written to
+ * {@code Branch-SDK/build/reports/benchmarks/WireFormatBenchmark.json}.
+ * </p>
+ */
+@RunWith(JUnit4.class)
+public class WireFormatBenchmarkTest {
+    private static BenchmarkRunner runner;
+
+    @BeforeClass
+    public static void setUpClass() {
+        runner = new BenchmarkRunner("WireFormatBenchmark");
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        runner.writeReport();
+    }
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(BenchmarkRunner.isEnabled());
+    }
+
+    @Test
+    public void benchmarkInstall() throws Exception {
+        JSONObject install = createOpenPost();
+        install.put(Defines.Jsonkey.FirstInstallTime.getKey(), 1603276492000L);
+        install.put(Defines.Jsonkey.LastUpdateTime.getKey(), 1603276492000L);
+        install.put(Defines.Jsonkey.InstallBeginTimeStamp.getKey(), 1603276480);
+        install.put(Defines.Jsonkey.ClickedReferrerTimeStamp.getKey(), 1603276470);
+        install.put("install_referrer_extras", "utm_source=google-play&utm_medium=organic");
+        compare("install", install);
+    }
+
+    @Test
+    public void benchmarkOpen() throws Exception {
+        compare("open", createOpenPost());
+    }
+
+    @Test
+    public void benchmarkEvent() throws Exception {
+        JSONObject event = new JSONObject();
+        event.put(Defines.Jsonkey.Name.getKey(), "ADD_TO_CART");
+        event.put(Defines.Jsonkey.UserData.getKey(), createUserData());
+        JSONObject customData = new JSONObject();
+        customData.put("screen", "product_detail");
+        customData.put("experiment", "checkout_v2");
+        event.put(Defines.Jsonkey.CustomData.getKey(), customData);
+        JSONArray contentItems = new JSONArray();
+        for (int i = 0; i < 2; i++) {
+            JSONObject item = new JSONObject();
+            item.put(Defines.Jsonkey.CanonicalIdentifier.getKey(), "item/" + i);
+            item.put(Defines.Jsonkey.ContentSchema.getKey(), "COMMERCE_PRODUCT");
+            item.put(Defines.Jsonkey.Price.getKey(), 19.99);
+            item.put(Defines.Jsonkey.PriceCurrency.getKey(), "USD");
+            item.put(Defines.Jsonkey.Quantity.getKey(), 1);
+            item.put(Defines.Jsonkey.SKU.getKey(), "sku-" + i);
+            contentItems.put(item);
+        }
+        event.put(Defines.Jsonkey.ContentItems.getKey(), contentItems);
+        compare("event", event);
+    }
+
+    private void compare(String payloadName, final JSONObject payload) throws Exception {
+        final String json = payload.toString();
+        final byte[] compact = CompactWireFormat.encode(payload);
+        runner.recordValue(payloadName + ".json.bytes", "bytes", json.getBytes("UTF-8").length);
+        runner.recordValue(payloadName + ".compact.bytes", "bytes", compact.length);
+        runner.measure(payloadName + ".json.encode", new BenchmarkRunner.Operation() {
+            @Override
+            public Object run() throws Exception {
+                return payload.toString().getBytes("UTF-8");
+            }
+        });
+        runner.measure(payloadName + ".compact.encode", new BenchmarkRunner.Operation() {
+            @Override
+            public Object run() {
+                return CompactWireFormat.encode(payload);
+            }
+        });
+        runner.measure(payloadName + ".json.decode", new BenchmarkRunner.Operation() {
+            @Override
+            public Object run() throws Exception {
+                return new JSONObject(json);
+            }
+        });
+        runner.measure(payloadName + ".compact.decode", new BenchmarkRunner.Operation() {
+            @Override
+            public Object run() throws Exception {
+                return CompactWireFormat.decode(compact);
+            }
+        });
+        Assert.assertTrue(compact.length < json.getBytes("UTF-8").length);
+        Assert.assertEquals(payload.length(), CompactWireFormat.decode(compact).length());
+    }
+
+    private static JSONObject createOpenPost() throws JSONException {
+        JSONObject post = createUserData();
+        post.put(Defines.Jsonkey.BranchKey.getKey(), "key_live_hkDytPACtipny3N9XmnbZlapBDdj4WIL");
+        post.put(Defines.Jsonkey.DeviceFingerprintID.getKey(), "734567822098765431");
+        post.put(Defines.Jsonkey.Identity.getKey(), "user@example.com");
+        post.put(Defines.Jsonkey.IsHardwareIDReal.getKey(), true);
+        post.put(Defines.Jsonkey.Update.getKey(), 1);
+        post.put(Defines.Jsonkey.PreviousUpdateTime.getKey(), 1603276492000L);
+        post.put(Defines.Jsonkey.FaceBookAppLinkChecked.getKey(), false);
+        post.put(Defines.Jsonkey.Debug.getKey(), false);
+        JSONObject instrumentation = new JSONObject();
+        instrumentation.put("v1/open-qwt", "12");
+        instrumentation.put("v1/install-brtt", "250");
+        post.put(Defines.Jsonkey.Branch_Instrumentation.getKey(), instrumentation);
+        post.put(Defines.Jsonkey.Metadata.getKey(), new JSONObject());
+        return post;
+    }
+
+    private static JSONObject createUserData() throws JSONException {
+        JSONObject userData = new JSONObject();
+        userData.put(Defines.Jsonkey.HardwareID.getKey(), "f3a1b6c2d4e5f607");
+        userData.put(Defines.Jsonkey.AndroidID.getKey(), "f3a1b6c2d4e5f607");
+        userData.put(Defines.Jsonkey.Brand.getKey(), "Google");
+        userData.put(Defines.Jsonkey.Model.getKey(), "Pixel 4a");
+        userData.put(Defines.Jsonkey.ScreenDpi.getKey(), 440);
+        userData.put(Defines.Jsonkey.ScreenHeight.getKey(), 2201);
+        userData.put(Defines.Jsonkey.ScreenWidth.getKey(), 1080);
+        userData.put(Defines.Jsonkey.WiFi.getKey(), true);
+        userData.put(Defines.Jsonkey.UIMode.getKey(), "UI_MODE_TYPE_NORMAL");
+        userData.put(Defines.Jsonkey.OS.getKey(), "Android");
+        userData.put(Defines.Jsonkey.APILevel.getKey(), 30);
+        userData.put(Defines.Jsonkey.Country.getKey(), "US");
+        userData.put(Defines.Jsonkey.Language.getKey(), "en");
+        userData.put(Defines.Jsonkey.LocalIP.getKey(), "192.168.1.23");
+        userData.put(Defines.Jsonkey.AppVersion.getKey(), "5.0.3");
+        userData.put(Defines.Jsonkey.GoogleAdvertisingID.getKey(), "38400000-8cf0-11bd-b23e-10b96e40000d");
+        userData.put(Defines.Jsonkey.LATVal.getKey(), 0);
+        userData.put(Defines.Jsonkey.UserAgent.getKey(), "Mozilla/5.0 (Linux; Android 11; Pixel 4a) AppleWebKit/537.36");
+        userData.put(Defines.Jsonkey.SDK.getKey(), "android");
+        userData.put(Defines.Jsonkey.Environment.getKey(), "FULL_APP");
+        return userData;
+    }
+}
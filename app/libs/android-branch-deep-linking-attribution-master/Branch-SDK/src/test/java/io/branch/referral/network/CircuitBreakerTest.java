@@ -0,0 +1,134 @@
+package io.branch.referral.network;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+
+import io.branch.referral.BranchError;
+import io.branch.referral.ServerResponse;
+import io.branch.referral.network.BranchRemoteInterfaceRecorder.RecordedExchange;
+
+@RunWith(JUnit4.class)
+public class CircuitBreakerTest {
+    private static final String OPEN_URL = "https://api2.branch.io/v1/open";
+    private static final String CPID_URL = "https://api2.branch.io/v1/cpid";
+    private static final String BRANCH_KEY = "key_live_test";
+
+    private long now;
+    private CircuitBreaker breaker;
+    private ReplayRemoteInterface server;
+
+    @Before
+    public void setUp() {
+        breaker = new CircuitBreaker(3, 1000, 3000) {
+            @Override
+            long now() {
+                return now;
+            }
+        };
+        // Stand-in server answering every request with a 503
+        server = new ReplayRemoteInterface(Arrays.asList(
+                new RecordedExchange(RecordedExchange.METHOD_POST, OPEN_URL, null, 200, "{}", 0, 0),
+                new RecordedExchange(RecordedExchange.METHOD_GET, CPID_URL, null, 200, "{}", 0, 0)), 1)
+                .setTimeScale(0)
+                .setServerErrorRate(1);
+        server.setCircuitBreaker(breaker);
+    }
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() {
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(503, post().getStatusCode());
+        }
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState(OPEN_URL));
+        Assert.assertEquals(1000, breaker.getRetryDelay(OPEN_URL));
+
+        // Fails fast without reaching the server
+        Assert.assertEquals(BranchError.ERR_BRANCH_UNABLE_TO_REACH_SERVERS, post().getStatusCode());
+        Assert.assertEquals(3, server.getRequestCount());
+        Assert.assertEquals(1, breaker.getRejectedCount());
+
+        // Other endpoints are tracked on their own
+        Assert.assertEquals(503, server.make_restful_get(CPID_URL, null, "v1/cpid", BRANCH_KEY).getStatusCode());
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState(CPID_URL));
+    }
+
+    @Test
+    public void testTrialRequestProbesRecovery() {
+        for (int i = 0; i < 3; i++) {
+            post();
+        }
+        // The trial fails, so the endpoint opens for twice as long
+        now += 1000;
+        Assert.assertEquals(0, breaker.getRetryDelay(OPEN_URL));
+        Assert.assertEquals(503, post().getStatusCode());
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState(OPEN_URL));
+        Assert.assertEquals(2000, breaker.getRetryDelay(OPEN_URL));
+        now += 1999;
+        Assert.assertEquals(BranchError.ERR_BRANCH_UNABLE_TO_REACH_SERVERS, post().getStatusCode());
+
+        // Only a single trial is let through while half-open
+        now += 1;
+        Assert.assertTrue(breaker.allowRequest(OPEN_URL));
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState(OPEN_URL));
+        Assert.assertFalse(breaker.allowRequest(OPEN_URL));
+        breaker.onInconclusive(OPEN_URL);
+
+        server.setServerErrorRate(0);
+        Assert.assertEquals(200, post().getStatusCode());
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState(OPEN_URL));
+        Assert.assertEquals(0, breaker.getRetryDelay(OPEN_URL));
+
+        Assert.assertEquals(2, breaker.getTransitionCount(CircuitBreaker.State.OPEN));
+        Assert.assertEquals(2, breaker.getTransitionCount(CircuitBreaker.State.HALF_OPEN));
+        Assert.assertEquals(1, breaker.getTransitionCount(CircuitBreaker.State.CLOSED));
+        Assert.assertEquals(5, server.getRequestCount());
+    }
+
+    @Test
+    public void testTimeoutsCountAndConnectivityErrorsDoNot() {
+        server.setServerErrorRate(0).setTimeoutRate(1, 0);
+        post();
+        post();
+        BranchRemoteInterface offline = new BranchRemoteInterface() {
+            @Override
+            public BranchResponse doRestfulGet(String url) throws BranchRemoteException {
+                throw new BranchRemoteException(BranchError.ERR_BRANCH_NO_CONNECTIVITY);
+            }
+
+            @Override
+            public BranchResponse doRestfulPost(String url, JSONObject payload) throws BranchRemoteException {
+                throw new BranchRemoteException(BranchError.ERR_BRANCH_NO_CONNECTIVITY);
+            }
+        };
+        offline.setCircuitBreaker(breaker);
+        for (int i = 0; i < 5; i++) {
+            offline.make_restful_post(new JSONObject(), OPEN_URL, "v1/open", BRANCH_KEY);
+        }
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState(OPEN_URL));
+        Assert.assertEquals(BranchError.ERR_BRANCH_REQ_TIMED_OUT, post().getStatusCode());
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState(OPEN_URL));
+    }
+
+    @Test
+    public void testSuccessResetsFailureCount() {
+        post();
+        post();
+        server.setServerErrorRate(0);
+        post();
+        server.setServerErrorRate(1);
+        post();
+        post();
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState(OPEN_URL));
+        Assert.assertEquals("https://api2.branch.io/v1/cpid", CircuitBreaker.getEndpoint(CPID_URL + "?retryNumber=0"));
+    }
+
+    private ServerResponse post() {
+        return server.make_restful_post(new JSONObject(), OPEN_URL, "v1/open", BRANCH_KEY);
+    }
+}
@@ -0,0 +1,211 @@
+package io.branch.referral.network;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.skyscreamer.jsonassert.JSONAssert;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import io.branch.referral.Defines;
+import io.branch.referral.PrefHelper;
+import io.branch.referral.TestPrefHelper;
+
+@RunWith(JUnit4.class)
+public class CompactWireFormatTest {
+    private StandInServer server;
+    private BranchRemoteInterfaceUrlConnection remoteInterface;
+    private CompactWireFormat wireFormat;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StandInServer();
+        final PrefHelper prefHelper = TestPrefHelper.create();
+        prefHelper.setRetryInterval(0);
+        // There is no Branch instance on the JVM, the settings come from the test preferences
+        remoteInterface = new BranchRemoteInterfaceUrlConnection(null) {
+            @Override
+            PrefHelper getPrefHelper() {
+                return prefHelper;
+            }
+        };
+        wireFormat = new CompactWireFormat();
+        remoteInterface.setCompactWireFormat(wireFormat);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        TestPrefHelper.shutDown();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        JSONObject payload = new JSONObject()
+                .put(Defines.Jsonkey.IdentityID.getKey(), "849273059473629")
+                .put(Defines.Jsonkey.Name.getKey(), "PURCHASE")
+                .put("not_in_dictionary", "h\u00e9llo \u2713")
+                .put("small", 23)
+                .put("negative", -24)
+                .put("large", 1L << 40)
+                .put("min", Long.MIN_VALUE)
+                .put("single", 0.5)
+                .put("double", 0.1)
+                .put("flag", true)
+                .put("nothing", JSONObject.NULL)
+                .put(Defines.Jsonkey.ContentItems.getKey(), new JSONArray()
+                        .put(new JSONObject().put(Defines.Jsonkey.CanonicalIdentifier.getKey(), "item/1"))
+                        .put(new JSONArray().put(1).put("two")));
+
+        byte[] compact = CompactWireFormat.encode(payload);
+        JSONObject decoded = CompactWireFormat.decode(compact);
+        JSONAssert.assertEquals(payload, decoded, true);
+        Assert.assertTrue(compact.length < payload.toString().getBytes("UTF-8").length);
+    }
+
+    @Test
+    public void testMalformedDataRejected() throws Exception {
+        byte[] compact = CompactWireFormat.encode(new JSONObject().put("key", "value"));
+        assertMalformed(Arrays.copyOf(compact, compact.length - 1));
+        assertMalformed(Arrays.copyOf(compact, compact.length + 1));
+        // A map with a key outside the dictionary
+        assertMalformed(new byte[]{(byte) 0xa1, 0x19, (byte) 0xff, (byte) 0xff, (byte) 0xf6});
+        // Not an object
+        assertMalformed(new byte[]{0x01});
+    }
+
+    @Test
+    public void testNegotiatesCompactFormat() throws Exception {
+        server.supportsCompact = true;
+        BranchRemoteInterface.BranchResponse first = remoteInterface.doRestfulPost(server.url("v1/open"), new JSONObject().put(Defines.Jsonkey.Event.getKey(), "first"));
+        Assert.assertEquals("first", new JSONObject(first.getResponseData()).getString("echo"));
+        // The response in the format switches the following requests over
+        Assert.assertTrue(wireFormat.shouldEncodeRequests());
+        BranchRemoteInterface.BranchResponse second = remoteInterface.doRestfulPost(server.url("v1/open"), new JSONObject().put(Defines.Jsonkey.Event.getKey(), "second"));
+        Assert.assertEquals("second", new JSONObject(second.getResponseData()).getString("echo"));
+        Assert.assertEquals(Arrays.asList(false, true), server.compactRequests);
+
+        BranchRemoteInterface.BranchResponse get = remoteInterface.doRestfulGet(server.url("v1/cpid"));
+        Assert.assertEquals(200, get.getResponseCode());
+        Assert.assertEquals("GET", new JSONObject(get.getResponseData()).getString("echo"));
+    }
+
+    @Test
+    public void testFallsBackToJson() throws Exception {
+        server.supportsCompact = true;
+        remoteInterface.doRestfulPost(server.url("v1/open"), new JSONObject());
+        Assert.assertTrue(wireFormat.shouldEncodeRequests());
+
+        // The server stops supporting the format, e.g. after a rollback
+        server.supportsCompact = false;
+        BranchRemoteInterface.BranchResponse response = remoteInterface.doRestfulPost(server.url("v1/event"), new JSONObject().put(Defines.Jsonkey.Event.getKey(), "resent"));
+        Assert.assertEquals(200, response.getResponseCode());
+        Assert.assertEquals("resent", new JSONObject(response.getResponseData()).getString("echo"));
+        Assert.assertEquals(Arrays.asList(false, true, false), server.compactRequests);
+        // Sent again under the same retry number, the rejected request was not read
+        Assert.assertEquals(Arrays.asList(0, -1, 0), server.retryNumbers);
+        Assert.assertFalse(wireFormat.shouldEncodeRequests());
+        Assert.assertEquals(CompactWireFormat.JSON_CONTENT_TYPE, wireFormat.getAcceptHeader());
+    }
+
+    private static void assertMalformed(byte[] data) {
+        try {
+            CompactWireFormat.decode(data);
+            Assert.fail();
+        } catch (JSONException expected) {
+        }
+    }
+
+    /**
+     * Local stand-in for the Branch API that decodes requests in the compact format, and answers
+     * in it when it is offered, echoing the event of the request.
+     */
+    private static class StandInServer implements HttpHandler {
+        final HttpServer httpServer;
+        final List<Boolean> compactRequests = new ArrayList<>();
+        final List<Integer> retryNumbers = new ArrayList<>();
+        volatile boolean supportsCompact;
+
+        StandInServer() throws IOException {
+            httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+            httpServer.createContext("/", this);
+            httpServer.start();
+        }
+
+        String url(String path) {
+            return "http://127.0.0.1:" + httpServer.getAddress().getPort() + "/" + path;
+        }
+
+        void stop() {
+            httpServer.stop(0);
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                boolean compactRequest = CompactWireFormat.isCompact(exchange.getRequestHeaders().getFirst("Content-Type"));
+                boolean dictionaryMatches = CompactWireFormat.getDictionaryId().equals(exchange.getRequestHeaders().getFirst(CompactWireFormat.HEADER_KEY_DICTIONARY));
+                if (compactRequest && !(supportsCompact && dictionaryMatches)) {
+                    compactRequests.add(true);
+                    retryNumbers.add(-1);
+                    respond(exchange, CompactWireFormat.HTTP_UNSUPPORTED_MEDIA_TYPE, "text/plain", new byte[0]);
+                    return;
+                }
+                String echo = "GET";
+                if ("POST".equals(exchange.getRequestMethod())) {
+                    byte[] body = readFully(exchange.getRequestBody());
+                    JSONObject request = compactRequest ? CompactWireFormat.decode(body) : new JSONObject(new String(body, "UTF-8"));
+                    compactRequests.add(compactRequest);
+                    retryNumbers.add(request.getInt(BranchRemoteInterface.RETRY_NUMBER));
+                    echo = request.optString(Defines.Jsonkey.Event.getKey());
+                }
+                JSONObject response = new JSONObject().put("echo", echo).put(Defines.Jsonkey.SessionID.getKey(), "1234");
+                String accept = exchange.getRequestHeaders().getFirst("Accept");
+                if (supportsCompact && dictionaryMatches && accept != null && accept.contains(CompactWireFormat.CONTENT_TYPE)) {
+                    exchange.getResponseHeaders().set(CompactWireFormat.HEADER_KEY_DICTIONARY, CompactWireFormat.getDictionaryId());
+                    respond(exchange, 200, CompactWireFormat.CONTENT_TYPE, CompactWireFormat.encode(response));
+                } else {
+                    respond(exchange, 200, CompactWireFormat.JSON_CONTENT_TYPE, response.toString().getBytes("UTF-8"));
+                }
+            } catch (JSONException e) {
+                respond(exchange, 400, "text/plain", new byte[0]);
+            }
+        }
+
+        private static void respond(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        }
+
+        private static byte[] readFully(InputStream in) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+}
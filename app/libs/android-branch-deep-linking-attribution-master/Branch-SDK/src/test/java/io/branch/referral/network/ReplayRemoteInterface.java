@@ -0,0 +1,235 @@
+package io.branch.referral.network;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import io.branch.referral.BranchError;
+import io.branch.referral.network.BranchRemoteInterfaceRecorder.RecordedExchange;
+
+/**
+ * {@link BranchRemoteInterface} serving back exchanges captured by {@link BranchRemoteInterfaceRecorder}
+ * on the JVM.
+ * <p>
+ * Requests are matched to recorded exchanges by method and request path, cycling through the
+ * recordings for a path in order. Latency follows the configured {@link LatencyModel} and server
+ * errors, timeouts and truncated bodies can be injected at given rates. All randomness comes from
+ * a single seeded {@link Random}, so the same seed and request sequence always produce the same
+ * responses and delays.
+ * </p>
+ */
+public class ReplayRemoteInterface extends BranchRemoteInterface {
+
+    public enum LatencyModel {
+        /** Replays the latency captured in the recording. */
+        RECORDED,
+        /** Always waits the given number of milliseconds. */
+        FIXED,
+        /** Waits uniformly between a minimum and maximum number of milliseconds. */
+        UNIFORM,
+        /** Waits following a log-normal distribution with the given median and sigma, typical of mobile networks. */
+        LOG_NORMAL
+    }
+
+    private static final int OUTCOME_RECORDED = 0;
+    private static final int OUTCOME_SERVER_ERROR = 1;
+    private static final int OUTCOME_TIMEOUT = 2;
+    private static final int OUTCOME_TRUNCATED = 3;
+
+    private final Map<String, List<RecordedExchange>> exchangesByKey_ = new HashMap<>();
+    private final Map<String, Integer> nextIndexByKey_ = new HashMap<>();
+    private final Random random_;
+
+    private LatencyModel latencyModel_ = LatencyModel.RECORDED;
+    private double latencyA_;
+    private double latencyB_;
+    private double timeScale_ = 1.0;
+
+    private double serverErrorRate_;
+    private double timeoutRate_;
+    private long timeoutMillis_;
+    private double truncatedBodyRate_;
+
+    private int requestCount_;
+    private int injectedServerErrors_;
+    private int injectedTimeouts_;
+    private int injectedTruncations_;
+    private long totalLatencyMillis_;
+
+    public ReplayRemoteInterface(List<RecordedExchange> exchanges, long seed) {
+        random_ = new Random(seed);
+        for (RecordedExchange exchange : exchanges) {
+            String key = key(exchange.method, exchange.getPath());
+            List<RecordedExchange> forKey = exchangesByKey_.get(key);
+            if (forKey == null) {
+                forKey = new ArrayList<>();
+                exchangesByKey_.put(key, forKey);
+            }
+            forKey.add(exchange);
+        }
+    }
+
+    /**
+     * Sets the latency model. For {@link LatencyModel#FIXED} the first value is the delay, for
+     * {@link LatencyModel#UNIFORM} the values are the minimum and maximum, and for
+     * {@link LatencyModel#LOG_NORMAL} the median and sigma. All delays are in milliseconds.
+     */
+    public ReplayRemoteInterface setLatency(LatencyModel model, double a, double b) {
+        latencyModel_ = model;
+        latencyA_ = a;
+        latencyB_ = b;
+        return this;
+    }
+
+    /**
+     * Scales every delay, e.g. 0.1 to run ten times faster than real time or 0 to skip sleeping
+     * while still reporting the simulated latency.
+     */
+    public ReplayRemoteInterface setTimeScale(double timeScale) {
+        timeScale_ = timeScale;
+        return this;
+    }
+
+    /** Answers the given fraction of requests with a 503 instead of the recorded response. */
+    public ReplayRemoteInterface setServerErrorRate(double rate) {
+        serverErrorRate_ = rate;
+        return this;
+    }
+
+    /** Fails the given fraction of requests with a timeout after waiting the given time. */
+    public ReplayRemoteInterface setTimeoutRate(double rate, long timeoutMillis) {
+        timeoutRate_ = rate;
+        timeoutMillis_ = timeoutMillis;
+        return this;
+    }
+
+    /** Cuts the body of the given fraction of responses in half. */
+    public ReplayRemoteInterface setTruncatedBodyRate(double rate) {
+        truncatedBodyRate_ = rate;
+        return this;
+    }
+
+    @Override
+    public BranchResponse doRestfulGet(String url) throws BranchRemoteException {
+        return replay(RecordedExchange.METHOD_GET, url);
+    }
+
+    @Override
+    public BranchResponse doRestfulPost(String url, JSONObject payload) throws BranchRemoteException {
+        return replay(RecordedExchange.METHOD_POST, url);
+    }
+
+    private BranchResponse replay(String method, String url) throws BranchRemoteException {
+        RecordedExchange exchange;
+        long latency;
+        int outcome;
+        synchronized (this) {
+            requestCount_++;
+            exchange = next(method, RecordedExchange.getPath(url));
+            latency = nextLatency(exchange);
+            // Always draw every value so the sequence only depends on the seed and request order
+            double errorDraw = random_.nextDouble();
+            double timeoutDraw = random_.nextDouble();
+            double truncateDraw = random_.nextDouble();
+            if (timeoutDraw < timeoutRate_) {
+                outcome = OUTCOME_TIMEOUT;
+                latency = timeoutMillis_;
+                injectedTimeouts_++;
+            } else if (errorDraw < serverErrorRate_) {
+                outcome = OUTCOME_SERVER_ERROR;
+                injectedServerErrors_++;
+            } else if (truncateDraw < truncatedBodyRate_ && exchange != null && exchange.responseData != null) {
+                outcome = OUTCOME_TRUNCATED;
+                injectedTruncations_++;
+            } else {
+                outcome = OUTCOME_RECORDED;
+            }
+            totalLatencyMillis_ += latency;
+        }
+
+        sleep(latency);
+        switch (outcome) {
+            case OUTCOME_TIMEOUT:
+                throw new BranchRemoteException(BranchError.ERR_BRANCH_REQ_TIMED_OUT);
+            case OUTCOME_SERVER_ERROR:
+                return new BranchResponse(null, 503);
+            case OUTCOME_TRUNCATED:
+                return new BranchResponse(exchange.responseData.substring(0, exchange.responseData.length() / 2), exchange.statusCode);
+            default:
+                if (exchange == null) {
+                    return new BranchResponse("{\"error\":{\"message\":\"No recording for " + url + "\"}}", 404);
+                }
+                if (exchange.isError()) {
+                    throw new BranchRemoteException(exchange.errorCode);
+                }
+                return new BranchResponse(exchange.responseData, exchange.statusCode);
+        }
+    }
+
+    private RecordedExchange next(String method, String path) {
+        String key = key(method, path);
+        List<RecordedExchange> forKey = exchangesByKey_.get(key);
+        if (forKey == null || forKey.isEmpty()) {
+            return null;
+        }
+        Integer index = nextIndexByKey_.get(key);
+        int current = index == null ? 0 : index;
+        nextIndexByKey_.put(key, (current + 1) % forKey.size());
+        return forKey.get(current);
+    }
+
+    private long nextLatency(RecordedExchange exchange) {
+        switch (latencyModel_) {
+            case FIXED:
+                return (long) latencyA_;
+            case UNIFORM:
+                return (long) (latencyA_ + random_.nextDouble() * (latencyB_ - latencyA_));
+            case LOG_NORMAL:
+                return (long) (latencyA_ * Math.exp(latencyB_ * random_.nextGaussian()));
+            default:
+                return exchange != null ? exchange.latencyMillis : 0;
+        }
+    }
+
+    private void sleep(long latencyMillis) {
+        long scaled = (long) (latencyMillis * timeScale_);
+        if (scaled > 0) {
+            try {
+                Thread.sleep(scaled);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static String key(String method, String path) {
+        return method + " " + path;
+    }
+
+    public synchronized int getRequestCount() {
+        return requestCount_;
+    }
+
+    public synchronized int getInjectedServerErrors() {
+        return injectedServerErrors_;
+    }
+
+    public synchronized int getInjectedTimeouts() {
+        return injectedTimeouts_;
+    }
+
+    public synchronized int getInjectedTruncations() {
+        return injectedTruncations_;
+    }
+
+    /**
+     * @return Sum of the simulated latencies before time scaling, in milliseconds.
+     */
+    public synchronized long getTotalLatencyMillis() {
+        return totalLatencyMillis_;
+    }
+}
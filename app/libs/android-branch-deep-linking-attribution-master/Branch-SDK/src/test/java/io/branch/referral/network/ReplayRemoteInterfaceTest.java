@@ -0,0 +1,146 @@
+package io.branch.referral.network;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import io.branch.referral.BranchError;
+import io.branch.referral.ServerResponse;
+import io.branch.referral.network.BranchRemoteInterfaceRecorder.RecordedExchange;
+
+@RunWith(JUnit4.class)
+public class ReplayRemoteInterfaceTest {
+    private static final String OPEN_URL = "https://api2.branch.io/v1/open";
+    private static final String OPEN_RESPONSE = "{\"session_id\":\"880938553235373649\",\"identity_id\":\"880938553226608667\"}";
+    private static final String CPID_URL = "https://api2.branch.io/v1/cpid";
+
+    @Test
+    public void testRecordAndReplayRoundTrip() throws Exception {
+        BranchRemoteInterfaceRecorder recorder = new BranchRemoteInterfaceRecorder(new BranchRemoteInterface() {
+            @Override
+            public BranchResponse doRestfulGet(String url) throws BranchRemoteException {
+                throw new BranchRemoteException(BranchError.ERR_BRANCH_NO_CONNECTIVITY);
+            }
+
+            @Override
+            public BranchResponse doRestfulPost(String url, JSONObject payload) {
+                return new BranchResponse(OPEN_RESPONSE, 200);
+            }
+        });
+        ServerResponse response = recorder.make_restful_post(new JSONObject(), OPEN_URL, "v1/open", "key_live_test");
+        Assert.assertEquals(200, response.getStatusCode());
+        ServerResponse failed = recorder.make_restful_get(CPID_URL, null, "v1/cpid", "key_live_test");
+        Assert.assertEquals(BranchError.ERR_BRANCH_NO_CONNECTIVITY, failed.getStatusCode());
+
+        File file = File.createTempFile("branch_recording", ".json");
+        try {
+            Assert.assertTrue(recorder.writeTo(file));
+            List<RecordedExchange> exchanges = BranchRemoteInterfaceRecorder.readFrom(file);
+            Assert.assertEquals(2, exchanges.size());
+            Assert.assertEquals("v1/open", exchanges.get(0).getPath());
+            Assert.assertEquals("key_live_test", exchanges.get(0).payload.getString("branch_key"));
+            Assert.assertTrue(exchanges.get(1).isError());
+
+            ReplayRemoteInterface replay = new ReplayRemoteInterface(exchanges, 1).setTimeScale(0);
+            ServerResponse replayed = replay.make_restful_post(new JSONObject(), OPEN_URL, "v1/open", "key_live_test");
+            Assert.assertEquals(200, replayed.getStatusCode());
+            Assert.assertEquals("880938553235373649", replayed.getObject().getString("session_id"));
+            ServerResponse replayedFailure = replay.make_restful_get(CPID_URL, null, "v1/cpid", "key_live_test");
+            Assert.assertEquals(BranchError.ERR_BRANCH_NO_CONNECTIVITY, replayedFailure.getStatusCode());
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testUnknownPathReturnsNotFound() throws Exception {
+        ReplayRemoteInterface replay = new ReplayRemoteInterface(new ArrayList<RecordedExchange>(), 1).setTimeScale(0);
+        Assert.assertEquals(404, replay.doRestfulGet("https://api2.branch.io/v1/unknown").getResponseCode());
+    }
+
+    @Test
+    public void testSameSeedProducesSameSequence() throws Exception {
+        List<String> first = replaySequence(42);
+        List<String> second = replaySequence(42);
+        Assert.assertEquals(first, second);
+        Assert.assertNotEquals(first, replaySequence(7));
+    }
+
+    @Test
+    public void testErrorInjection() throws Exception {
+        ReplayRemoteInterface replay = createInjectingReplay(3);
+        int timeouts = 0;
+        int serverErrors = 0;
+        int truncated = 0;
+        for (int i = 0; i < 1000; i++) {
+            try {
+                BranchRemoteInterface.BranchResponse response = replay.doRestfulPost(OPEN_URL, new JSONObject());
+                if (response.getResponseCode() == 503) {
+                    serverErrors++;
+                } else if (!OPEN_RESPONSE.equals(response.getResponseData())) {
+                    truncated++;
+                }
+            } catch (BranchRemoteInterface.BranchRemoteException e) {
+                Assert.assertEquals(BranchError.ERR_BRANCH_REQ_TIMED_OUT, e.getBranchErrorCode());
+                timeouts++;
+            }
+        }
+        Assert.assertEquals(replay.getInjectedTimeouts(), timeouts);
+        Assert.assertEquals(replay.getInjectedServerErrors(), serverErrors);
+        Assert.assertEquals(replay.getInjectedTruncations(), truncated);
+        Assert.assertTrue(timeouts > 50 && timeouts < 150);
+        Assert.assertTrue(serverErrors > 100 && serverErrors < 250);
+        Assert.assertTrue(truncated > 20);
+    }
+
+    @Test
+    public void testLatencyModels() throws Exception {
+        List<RecordedExchange> exchanges = Arrays.asList(openExchange(120));
+        ReplayRemoteInterface recorded = new ReplayRemoteInterface(exchanges, 1).setTimeScale(0);
+        recorded.doRestfulPost(OPEN_URL, new JSONObject());
+        Assert.assertEquals(120, recorded.getTotalLatencyMillis());
+
+        ReplayRemoteInterface uniform = new ReplayRemoteInterface(exchanges, 1).setTimeScale(0)
+                .setLatency(ReplayRemoteInterface.LatencyModel.UNIFORM, 50, 60);
+        for (int i = 0; i < 100; i++) {
+            uniform.doRestfulPost(OPEN_URL, new JSONObject());
+        }
+        Assert.assertTrue(uniform.getTotalLatencyMillis() >= 5000 && uniform.getTotalLatencyMillis() <= 6000);
+    }
+
+    private static List<String> replaySequence(long seed) throws Exception {
+        ReplayRemoteInterface replay = createInjectingReplay(seed)
+                .setLatency(ReplayRemoteInterface.LatencyModel.LOG_NORMAL, 200, 0.5);
+        List<String> sequence = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            try {
+                BranchRemoteInterface.BranchResponse response = replay.doRestfulPost(OPEN_URL, new JSONObject());
+                sequence.add(response.getResponseCode() + ":" + response.getResponseData());
+            } catch (BranchRemoteInterface.BranchRemoteException e) {
+                sequence.add("error:" + e.getBranchErrorCode());
+            }
+        }
+        sequence.add("latency:" + replay.getTotalLatencyMillis());
+        return sequence;
+    }
+
+    private static ReplayRemoteInterface createInjectingReplay(long seed) {
+        return new ReplayRemoteInterface(Arrays.asList(openExchange(100)), seed)
+                .setTimeScale(0)
+                .setTimeoutRate(0.1, 5500)
+                .setServerErrorRate(0.2)
+                .setTruncatedBodyRate(0.1);
+    }
+
+    private static RecordedExchange openExchange(long latencyMillis) {
+        return new RecordedExchange(RecordedExchange.METHOD_POST, OPEN_URL, null, 200, OPEN_RESPONSE, 0, latencyMillis);
+    }
+}
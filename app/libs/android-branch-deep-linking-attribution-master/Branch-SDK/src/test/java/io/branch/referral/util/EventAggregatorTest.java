@@ -0,0 +1,114 @@
+package io.branch.referral.util;
+
+import android.content.Context;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.branch.indexing.BranchUniversalObject;
+
+@RunWith(JUnit4.class)
+public class EventAggregatorTest {
+    private final List<BranchEvent> sent = new ArrayList<>();
+    private int flushesScheduled;
+    private EventAggregator aggregator;
+
+    @Before
+    public void setUp() {
+        aggregator = new EventAggregator() {
+            @Override
+            void send(BranchEvent summary, Context context) {
+                sent.add(summary);
+            }
+
+            @Override
+            void scheduleFlush(long delay) {
+                flushesScheduled++;
+            }
+        };
+    }
+
+    @Test
+    public void testCountsPerBucket() throws Exception {
+        aggregator.setRule("impression", new String[]{"placement"}, null, null);
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(aggregator.aggregate(event("impression", "placement", "feed"), null));
+        }
+        Assert.assertTrue(aggregator.aggregate(event("impression", "placement", "banner"), null));
+        // Other events are sent as they are
+        Assert.assertFalse(aggregator.aggregate(event("purchase_started", "placement", "feed"), null));
+        Assert.assertEquals(2, aggregator.getGroupCount());
+        Assert.assertEquals(1, flushesScheduled);
+        Assert.assertTrue(sent.isEmpty());
+
+        aggregator.onFlushTimer();
+        Assert.assertEquals(2, sent.size());
+        JSONObject feed = sent.get(0).getCustomProperties();
+        Assert.assertEquals("feed", feed.getString("placement"));
+        Assert.assertEquals("5", feed.getString(EventAggregator.KEY_COUNT));
+        Assert.assertEquals("1", sent.get(1).getCustomProperties().getString(EventAggregator.KEY_COUNT));
+        Assert.assertEquals(0, aggregator.getGroupCount());
+
+        // The next event schedules the next flush
+        aggregator.aggregate(event("impression", "placement", "feed"), null);
+        Assert.assertEquals(2, flushesScheduled);
+    }
+
+    @Test
+    public void testHistogram() throws Exception {
+        aggregator.setRule("scroll", null, "depth", new double[]{75, 25, 50});
+        for (String depth : new String[]{"10", "30", "30", "60", "100", "not a number"}) {
+            aggregator.aggregate(event("scroll", "depth", depth), null);
+        }
+        aggregator.flush(null);
+        JSONObject summary = sent.get(0).getCustomProperties();
+        Assert.assertEquals("6", summary.getString(EventAggregator.KEY_COUNT));
+        Assert.assertEquals(230, Double.parseDouble(summary.getString(EventAggregator.KEY_VALUE_SUM)), 0);
+        Assert.assertEquals(10, Double.parseDouble(summary.getString(EventAggregator.KEY_VALUE_MIN)), 0);
+        Assert.assertEquals(100, Double.parseDouble(summary.getString(EventAggregator.KEY_VALUE_MAX)), 0);
+        JSONObject histogram = new JSONObject(summary.getString(EventAggregator.KEY_HISTOGRAM));
+        Assert.assertEquals("[25,50,75]", histogram.getJSONArray("bounds").toString().replace(".0", ""));
+        Assert.assertEquals("[1,2,1,1]", histogram.getJSONArray("counts").toString());
+    }
+
+    @Test
+    public void testMemoryBounded() {
+        aggregator.setRule("search", new String[]{"query"}, null, null);
+        for (int i = 0; i < EventAggregator.MAX_GROUPS - 1; i++) {
+            aggregator.aggregate(event("search", "query", "q" + i), null);
+        }
+        Assert.assertTrue(sent.isEmpty());
+        aggregator.aggregate(event("search", "query", "last"), null);
+        // Reaching the group limit flushes all groups
+        Assert.assertEquals(EventAggregator.MAX_GROUPS, sent.size());
+        Assert.assertEquals(0, aggregator.getGroupCount());
+
+        // Content items are kept once each, up to the limit
+        for (int i = 0; i < 3 * EventAggregator.MAX_CONTENT_ITEMS; i++) {
+            aggregator.aggregate(event("search", "query", "shoes")
+                    .addContentItems(new BranchUniversalObject().setCanonicalIdentifier("item/" + (i % 20))), null);
+        }
+        aggregator.flush(null);
+        Assert.assertEquals(EventAggregator.MAX_CONTENT_ITEMS, sent.get(sent.size() - 1).getContentItems().size());
+    }
+
+    @Test
+    public void testStopAggregatingFlushes() throws Exception {
+        aggregator.setRule("impression", null, null, null);
+        aggregator.aggregate(event("impression", "placement", "feed"), null);
+        aggregator.removeRule("impression");
+        Assert.assertEquals(1, sent.size());
+        Assert.assertFalse(aggregator.aggregate(event("impression", "placement", "feed"), null));
+    }
+
+    private static BranchEvent event(String name, String property, String value) {
+        return new BranchEvent(name).addCustomDataProperty(property, value);
+    }
+}
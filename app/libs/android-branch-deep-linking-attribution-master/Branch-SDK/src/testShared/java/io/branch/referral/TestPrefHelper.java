@@ -0,0 +1,17 @@
+package io.branch.referral;
+
+/**
+ * Gives tests outside of this package a {@link PrefHelper} backed by an in-memory store.
+ */
+public class TestPrefHelper {
+    private TestPrefHelper() {
+    }
+
+    public static PrefHelper create() {
+        return PrefHelper.initForTesting(new InMemorySharedPreferences());
+    }
+
+    public static void shutDown() {
+        PrefHelper.shutDown();
+    }
+}